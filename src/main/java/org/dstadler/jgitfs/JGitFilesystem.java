@@ -2,14 +2,12 @@ package org.dstadler.jgitfs;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.fusejna.DirectoryFiller;
 import net.fusejna.ErrorCodes;
@@ -17,11 +15,24 @@ import net.fusejna.FuseException;
 import net.fusejna.FuseFilesystem;
 import net.fusejna.StructFuseFileInfo.FileInfoWrapper;
 import net.fusejna.StructStat.StatWrapper;
+import net.fusejna.XattrListFiller;
 import net.fusejna.types.TypeMode.NodeType;
 import net.fusejna.util.FuseFilesystemAdapterFull;
-import org.apache.commons.lang3.StringUtils;
+import org.dstadler.jgitfs.util.BlobHandle;
+import org.dstadler.jgitfs.util.CommitIndex;
 import org.dstadler.jgitfs.util.GitUtils;
 import org.dstadler.jgitfs.util.JGitHelper;
+import org.dstadler.jgitfs.util.NodeTable;
+import org.dstadler.jgitfs.util.ParsedTree;
+import org.dstadler.jgitfs.util.RefSnapshot;
+import org.dstadler.jgitfs.util.Route;
+import org.dstadler.jgitfs.util.SearchResult;
+import org.dstadler.jgitfs.util.TreeComparison;
+import org.dstadler.jgitfs.util.TreeEntry;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 
@@ -29,9 +40,7 @@ import com.google.common.base.Charsets;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
-import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
-import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
@@ -42,24 +51,41 @@ import com.google.common.util.concurrent.UncheckedExecutionException;
  * @author dominik.stadler
  */
 public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeable {
-	private static final long CACHE_TIMEOUT = 60 * 1000;	// one minute
+	/**
+	 * The maximum number of paths which are kept in the node table.
+	 */
+	private static final int MAX_NODES = 200000;
+
+	/**
+	 * The depth of the nodes for /commit/&lt;id&gt; and /tree/&lt;id&gt;, i.e. the root of the tree.
+	 */
+	private static final int TREE_ROOT_DEPTH = 2;
+
+	/**
+	 * The number of first-parent ancestors which are listed in /log/&lt;branch&gt;, older ones are accessible by number.
+	 */
+	private static final int MAX_LISTED_LOG_ENTRIES = 100;
 
-	private long lastLinkCacheCleanup = System.currentTimeMillis();
+	/**
+	 * Extended attributes of files and directories inside commits and trees, so
+	 * that tools can compare content by its object id without reading it.
+	 */
+	public static final String XATTR_OID = "user.git.oid";
+	public static final String XATTR_MODE = "user.git.mode";
+	public static final String XATTR_TREE = "user.git.tree";
 
 	private final JGitHelper jgitHelper;
 
 	/**
-	 * static set of directories to handle them quickly in getattr().
+	 * One node for each path that was accessed, holding the parsed route and the resolved tree entry.
 	 */
-	private static Set<String> DIRS = new HashSet<String>();
-	static {
-		DIRS.add("/");
-		DIRS.add("/branch");
-		DIRS.add("/commit");
-		DIRS.add("/tree");
-		DIRS.add("/remote");
-		DIRS.add("/tag");
-	}
+	private final NodeTable nodes = new NodeTable(MAX_NODES);
+
+	/**
+	 * Files which are currently opened, keyed by the file handle that is passed back to FUSE in open().
+	 */
+	private final ConcurrentMap<Long, BlobHandle> fileHandles = new ConcurrentHashMap<Long, BlobHandle>();
+	private final AtomicLong nextFileHandle = new AtomicLong(1);
 
 	private static final String README_MD;
 	static {
@@ -88,62 +114,181 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 
 		jgitHelper = new JGitHelper(gitDir);
 
+		// links of branches/tags/remotes and of abbreviated ids become stale when refs change, links inside commits and trees never change
+		jgitHelper.addRefListener(new Runnable() {
+			@Override
+			public void run() {
+				for (String path : linkCache.asMap().keySet()) {
+					Route.Kind kind = Route.parse(path).getKind();
+					if (kind.isRef() || kind.isPerFileRef() || kind.isAtRef() || kind.isContainingRef() || kind == Route.Kind.DIFF || kind == Route.Kind.LOG || kind == Route.Kind.SEARCH ||
+							kind == Route.Kind.COMMIT_ABBREV || kind == Route.Kind.TREE_ABBREV) {
+						linkCache.invalidate(path);
+					}
+				}
+			}
+		});
+
 		readmeMdText = String.format(README_MD, jgitHelper.getGitDir()).getBytes(Charsets.US_ASCII);
 	}
 
 	@Override
 	public int getattr(final String path, final StatWrapper stat)
 	{
-		// known entries and directories beneath /commit are always directories
-		if(DIRS.contains(path)) {
-			//stat.uid(GitUtils.UID);
-			//stat.gid(GitUtils.GID);
-			stat.setMode(NodeType.DIRECTORY, true, false, true);
-			return 0;
-		} else if (GitUtils.isBranchDir(path)) {
-			return getattrRef("refs/heads/" + StringUtils.removeStart(path, GitUtils.BRANCH_SLASH), stat);
-		} else if (GitUtils.isTagDir(path)) {
-			return getattrRef("refs/tags/" + StringUtils.removeStart(path, GitUtils.TAG_SLASH), stat);
-		} else if (GitUtils.isRemoteDir(path)) {
-			return getattrRef("refs/remotes/" + StringUtils.removeStart(path, GitUtils.REMOTE_SLASH), stat);
-		} else if (GitUtils.isCommitDir(path)) {
-			String commit = jgitHelper.readCommit(path);
-			String file = jgitHelper.readCommitPath(path);
-			try {
-				RevCommit revCommit = jgitHelper.getCommit(commit);
-				if (revCommit != null) {
-					stat.ctime(revCommit.getCommitTime());
-					stat.mtime(revCommit.getCommitTime());
-					if (jgitHelper.readType(revCommit.getTree(), file, stat)) {
+		NodeTable.Node node = nodes.get(path);
+		Route route = node.getRoute(path);
+		stat.ino(node.getIno());
+		switch (route.getKind()) {
+			case ROOT:
+			case BRANCHES:
+			case TAGS:
+			case REMOTES:
+			case COMMITS:
+			case TREES:
+			case PERFILE_ROOT:
+			case PERFILE_BRANCHES:
+			case PERFILE_TAGS:
+			case PERFILE_REMOTES:
+			case PERFILE_COMMITS:
+			case DIFFS:
+			case LOGS:
+			case AT_ROOT:
+			case SEARCHES:
+				// known entries and directories beneath /commit are always directories
+				//stat.uid(GitUtils.UID);
+				//stat.gid(GitUtils.GID);
+				stat.setMode(NodeType.DIRECTORY, true, false, true);
+				return 0;
+			case COMMIT_DIR:
+				// the directories of the fan-out exist even if no commit is indexed there yet
+				stat.setMode(NodeType.DIRECTORY, true, false, true);
+				return 0;
+			case COMMIT_LINK:
+				try {
+					if (jgitHelper.getCommit(route.getObjectId()) != null) {
+						stat.setMode(NodeType.SYMBOLIC_LINK, true, true, true);
 						return 0;
 					}
+					return -ErrorCodes.ENOENT();
+				} catch (Exception e) {
+					throw new IllegalStateException("Error reading commit of path " + path, e);
+				}
+			case COMMIT_ABBREV:
+			case TREE_ABBREV:
+				// resolved via the cache of links, shells look at the same abbreviation many times while completing
+				try {
+					byte[] link = linkCache.get(path);
+					if (link != SENTINEL) {
+						stat.setMode(NodeType.SYMBOLIC_LINK, true, true, true);
+						return 0;
+					}
+					return -ErrorCodes.ENOENT();
+				} catch (Exception e) {
+					throw new IllegalStateException("Error resolving abbreviated id of path " + path, e);
+				}
+			case BRANCH:
+			case TAG:
+			case REMOTE:
+				return getattrRef(route.getRefName(), stat);
+			case COMMIT: {
+				try {
+					RevCommit revCommit = jgitHelper.getCommit(route.getObjectId());
+					if (revCommit != null) {
+						stat.ctime(revCommit.getCommitTime());
+						TreeEntry entry = resolve(node, route);
+						// the time of the last commit which changed the file, once the index reached it
+						stat.mtime(jgitHelper.getLastModified(revCommit, route.getSubPath(), entry));
+						if (jgitHelper.readType(entry, stat)) {
+							stat.ino(entry.getIno());
+							stat.nlink(entry.getLinkCount());
+							return 0;
+						}
+					}
+					return -ErrorCodes.ENOENT();
+				} catch (Exception e) {
+					throw new IllegalStateException("Error reading type of path " + path + ", commit " + route.getObjectId().getName() + " and file " + route.getSubPath(), e);
 				}
-				return -ErrorCodes.ENOENT();
-			} catch (Exception e) {
-				throw new IllegalStateException("Error reading type of path " + path + ", commit " + commit + " and file " + file, e);
 			}
-		} else if (GitUtils.isTreeDir(path)) {
-			String tree = jgitHelper.readTree(path);
-			String file = jgitHelper.readTreePath(path);
-			try {
-				RevTree revTree = jgitHelper.getTree(tree);
-				if (revTree != null) {
-					if (jgitHelper.readType(revTree, file, stat)) {
+			case TREE: {
+				try {
+					TreeEntry entry = resolve(node, route);
+					if (jgitHelper.readType(entry, stat)) {
+						stat.ino(entry.getIno());
+						stat.nlink(entry.getLinkCount());
 						return 0;
 					}
+					return -ErrorCodes.ENOENT();
+				} catch (Exception e) {
+					throw new IllegalStateException("Error reading type of path " + path + ", tree " + route.getObjectId().getName() + " and file " + route.getSubPath(), e);
 				}
-				return -ErrorCodes.ENOENT();
-			} catch (Exception e) {
-				throw new IllegalStateException("Error reading type of path " + path + ", tree " + tree + " and file " + file, e);
 			}
-		} else if ("/README.md".equals(path)) {
-			stat.size(readmeMdText.length);
-			stat.setMode(NodeType.FILE, true, false, false);
-			return 0;
+			case PERFILE_BRANCH:
+			case PERFILE_TAG:
+			case PERFILE_REMOTE:
+			case PERFILE_COMMIT:
+				try {
+					return getattrPerFile(route, stat);
+				} catch (Exception e) {
+					throw new IllegalStateException("Error reading history of path " + path, e);
+				}
+			case DIFF:
+				try {
+					return getattrDiff(route, stat);
+				} catch (Exception e) {
+					throw new IllegalStateException("Error comparing commits of path " + path, e);
+				}
+			case LOG:
+				try {
+					return getattrLog(route, stat);
+				} catch (Exception e) {
+					throw new IllegalStateException("Error reading first parents of path " + path, e);
+				}
+			case SEARCH:
+				try {
+					return getattrSearch(route, stat);
+				} catch (Exception e) {
+					throw new IllegalStateException("Error searching the commit of path " + path, e);
+				}
+			case CONTAINING:
+				try {
+					if (jgitHelper.getCommit(route.getObjectId()) != null) {
+						stat.setMode(NodeType.DIRECTORY, true, false, true);
+						return 0;
+					}
+					return -ErrorCodes.ENOENT();
+				} catch (Exception e) {
+					throw new IllegalStateException("Error reading commit of path " + path, e);
+				}
+			case CONTAINING_BRANCH:
+			case CONTAINING_TAG:
+				try {
+					return getattrContaining(route, stat);
+				} catch (Exception e) {
+					throw new IllegalStateException("Error finding refs containing the commit of path " + path, e);
+				}
+			case AT_TIME:
+			case AT_BRANCHES:
+			case AT_REMOTES:
+				// the timestamps are not listed, but all valid ones exist
+				if (GitUtils.parseTimestamp(route.getTimestamp()) < 0) {
+					return -ErrorCodes.ENOENT();
+				}
+				stat.setMode(NodeType.DIRECTORY, true, false, true);
+				return 0;
+			case AT_BRANCH:
+			case AT_REMOTE:
+				try {
+					return getattrAt(route, stat);
+				} catch (Exception e) {
+					throw new IllegalStateException("Error reading reflog of path " + path, e);
+				}
+			case README:
+				stat.size(readmeMdText.length);
+				stat.setMode(NodeType.FILE, true, false, false);
+				return 0;
+			default:
+				// all others are reported as "not found"
+				return -ErrorCodes.ENOENT();
 		}
-
-		// all others are reported as "not found"
-		return -ErrorCodes.ENOENT();
 	}
 
 	private int getattrRef(String ref, StatWrapper stat) {
@@ -165,6 +310,232 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 		}
 	}
 
+	/**
+	 * Paths below /perfile are directories if they exist in the commit, the commits in their
+	 * history are symlinks inside these directories.
+	 */
+	private int getattrPerFile(Route route, StatWrapper stat) throws IOException {
+		PerFilePath perFile = resolvePerFile(route);
+		if (perFile == null) {
+			if (route.getKind().isPerFileRef() && jgitHelper.hasRefs(route.getRefName())) {
+				// A directory containing branches.
+				stat.setMode(NodeType.DIRECTORY, true, false, true);
+				return 0;
+			}
+			return -ErrorCodes.ENOENT();
+		}
+
+		if (existsInCommit(perFile)) {
+			stat.setMode(NodeType.DIRECTORY, true, false, true);
+			return 0;
+		}
+		if (getHistoryLink(perFile) != null) {
+			stat.setMode(NodeType.SYMBOLIC_LINK, true, true, true);
+			return 0;
+		}
+		return -ErrorCodes.ENOENT();
+	}
+
+	/**
+	 * Paths below /diff are directories while the names of the commits are incomplete,
+	 * afterwards changed directories are directories and all other changes are symlinks.
+	 */
+	private int getattrDiff(Route route, StatWrapper stat) throws IOException {
+		DiffPath diff = resolveDiff(route);
+		if (diff.path == null) {
+			if (diff.partialName.isEmpty() || jgitHelper.hasRevisions(diff.partialName)) {
+				// A directory containing branches, tags or remotes.
+				stat.setMode(NodeType.DIRECTORY, true, false, true);
+				return 0;
+			}
+			return -ErrorCodes.ENOENT();
+		}
+
+		TreeComparison.Change change = diff.getComparison().get(diff.path);
+		if (change == null) {
+			return -ErrorCodes.ENOENT();
+		}
+		if (change == TreeComparison.Change.DIRECTORY) {
+			stat.setMode(NodeType.DIRECTORY, true, false, true);
+		} else {
+			stat.setMode(NodeType.SYMBOLIC_LINK, true, true, true);
+		}
+		return 0;
+	}
+
+	/**
+	 * Paths below /search are directories while the name of the commit is incomplete, all queries
+	 * are directories, inside them directories containing matches are directories and matching
+	 * files are symlinks. Until the files of the commit are indexed, paths inside the queries
+	 * report EAGAIN.
+	 */
+	private int getattrSearch(Route route, StatWrapper stat) throws IOException {
+		SearchPath search = resolveSearch(route);
+		if (search.commit == null) {
+			if (jgitHelper.hasRevisions(search.partialName)) {
+				// A directory containing branches, tags or remotes.
+				stat.setMode(NodeType.DIRECTORY, true, false, true);
+				return 0;
+			}
+			return -ErrorCodes.ENOENT();
+		}
+		if (search.path == null) {
+			// the queries are not listed, but all of them exist
+			stat.setMode(NodeType.DIRECTORY, true, false, true);
+			return 0;
+		}
+
+		SearchResult result = search.getResult();
+		if (result == null) {
+			return -ErrorCodes.ENOENT();
+		}
+		if (!result.isReady()) {
+			// the tree is indexed in the background, try again later
+			return -ErrorCodes.EAGAIN();
+		}
+		if (result.isMatch(search.path)) {
+			stat.setMode(NodeType.SYMBOLIC_LINK, true, true, true);
+			return 0;
+		}
+		if (result.getChildren(search.path) != null) {
+			stat.setMode(NodeType.DIRECTORY, true, false, true);
+			return 0;
+		}
+		return -ErrorCodes.ENOENT();
+	}
+
+	/**
+	 * Paths below /log are directories for branches and directories of branches, the numbers
+	 * inside the directory of a branch are symlinks to its first-parent ancestors.
+	 */
+	private int getattrLog(Route route, StatWrapper stat) throws IOException {
+		String refName = route.getRefName();
+		if (jgitHelper.getRefCommit(refName) != null || jgitHelper.hasRefs(refName)) {
+			stat.setMode(NodeType.DIRECTORY, true, false, true);
+			return 0;
+		}
+		if (getLogAncestor(route) != null) {
+			stat.setMode(NodeType.SYMBOLIC_LINK, true, true, true);
+			return 0;
+		}
+		return -ErrorCodes.ENOENT();
+	}
+
+	/**
+	 * @return The first-parent ancestor for paths like /log/&lt;branch&gt;/&lt;n&gt;, null if there is no such branch or ancestor
+	 */
+	private ObjectId getLogAncestor(Route route) throws IOException {
+		String refName = route.getRefName();
+		int slash = refName.lastIndexOf('/');
+		int n = parseNumber(refName.substring(slash + 1));
+		if (n < 0) {
+			return null;
+		}
+		String commit = jgitHelper.getRefCommit(refName.substring(0, slash));
+		if (commit == null) {
+			return null;
+		}
+		return jgitHelper.getFirstParentIndex().getAncestor(ObjectId.fromString(commit), n);
+	}
+
+	/**
+	 * Paths below .containing are symlinks for the branches and tags which contain the commit, like
+	 * in /branch and /tag, and directories for directories of them.
+	 */
+	private int getattrContaining(Route route, StatWrapper stat) throws IOException {
+		RefSnapshot containing = getContainingRefs(route);
+		if (containing == null) {
+			return -ErrorCodes.ENOENT();
+		}
+		String refName = route.getRefName();
+		if (containing.getRef(refName) != null) {
+			stat.setMode(NodeType.SYMBOLIC_LINK, true, true, true);
+			return 0;
+		}
+		if (route.getSubPathOffset() == route.getPath().length() || containing.hasRefs(refName)) {
+			// .containing/branch and .containing/tag exist even if no ref contains the commit
+			stat.setMode(NodeType.DIRECTORY, true, false, true);
+			return 0;
+		}
+		return -ErrorCodes.ENOENT();
+	}
+
+	/**
+	 * @return The branches and tags which contain the commit of the route, null if there is no such commit
+	 */
+	private RefSnapshot getContainingRefs(Route route) throws IOException {
+		if (jgitHelper.getCommit(route.getObjectId()) == null) {
+			return null;
+		}
+		return jgitHelper.getContainingRefs(route.getObjectId());
+	}
+
+	/**
+	 * Paths below /at/&lt;timestamp&gt; are symlinks for the branches which existed at that time,
+	 * like in /branch and /remote, the directories of branches are taken from the current refs.
+	 */
+	private int getattrAt(Route route, StatWrapper stat) throws IOException, ExecutionException {
+		// resolved via the cache of links, the reflog is read only once per path
+		if (linkCache.get(route.getPath()) != SENTINEL) {
+			stat.setMode(NodeType.SYMBOLIC_LINK, true, true, true);
+			return 0;
+		}
+		if (GitUtils.parseTimestamp(route.getTimestamp()) >= 0 && jgitHelper.hasRefs(route.getRefName())) {
+			stat.setMode(NodeType.DIRECTORY, true, false, true);
+			return 0;
+		}
+		return -ErrorCodes.ENOENT();
+	}
+
+	/**
+	 * @return The commit the branch pointed to for paths like /at/&lt;timestamp&gt;/branch/&lt;branch&gt;,
+	 * 		null if the timestamp is invalid or there is no such branch at that time
+	 */
+	private ObjectId getAtCommit(Route route) throws IOException {
+		long time = GitUtils.parseTimestamp(route.getTimestamp());
+		if (time < 0) {
+			return null;
+		}
+		return jgitHelper.getRefCommitAt(route.getRefName(), time);
+	}
+
+	/**
+	 * @return The value of a non-negative decimal number without leading zeros, -1 for other names
+	 */
+	private static int parseNumber(String name) {
+		// at most 9 digits always fit into an int
+		if (name.isEmpty() || name.length() > 9 || (name.length() > 1 && name.charAt(0) == '0')) {
+			return -1;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+				return -1;
+			}
+		}
+		return Integer.parseInt(name);
+	}
+
+	@Override
+	public int open(final String path, final FileInfoWrapper info) {
+		if ("/README.md".equals(path)) {
+			// served from memory, no handle needed
+			return 0;
+		}
+		try {
+			BlobHandle handle = openBlob(path);
+			if (handle == null) {
+				return -ErrorCodes.ENOENT();
+			}
+
+			long fh = nextFileHandle.getAndIncrement();
+			fileHandles.put(fh, handle);
+			info.fh(fh);
+			return 0;
+		} catch (Exception e) {
+			throw new IllegalStateException("Error opening path " + path, e);
+		}
+	}
+
 	@Override
 	public int read(final String path, final ByteBuffer buffer, final long size, final long offset, final FileInfoWrapper info) {
 		if ("/README.md".equals(path)) {
@@ -177,50 +548,20 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 			return len;
 		}
 		try {
-			final RevTree revTree;
-			final String file;
-			if (GitUtils.isCommitDir(path)) {
-				String commit = jgitHelper.readCommit(path);
-				file = jgitHelper.readCommitPath(path);
-				RevCommit revCommit = jgitHelper.getCommit(commit);
-				revTree = (revCommit != null) ? revCommit.getTree() : null;
-			} else if (GitUtils.isTreeDir(path)) {
-				String tree = jgitHelper.readTree(path);
-				file = jgitHelper.readTreePath(path);
-				revTree = jgitHelper.getTree(tree);
-			} else {
-				return -ErrorCodes.ENOENT();
-			}
-
-			if (revTree == null || file.isEmpty()) {
-				return -ErrorCodes.ENOENT();
+			BlobHandle handle = (info != null) ? fileHandles.get(info.fh()) : null;
+			if (handle != null) {
+				return handle.read(buffer, size, offset);
 			}
 
-			InputStream openFile = jgitHelper.openFile(revTree, file);
-			if (openFile == null) {
+			// no handle from open(), resolve the file just for this read
+			handle = openBlob(path);
+			if (handle == null) {
 				return -ErrorCodes.ENOENT();
 			}
 			try {
-				// skip until we are at the offset
-				ByteStreams.skipFully(openFile, offset);
-
-				byte[] arr = new byte[8096];
-				long remaining = size;
-				long total = 0;
-				while (remaining > 0) {
-					int attemptToRead = (int) Math.min(arr.length, remaining);
-					int read = ByteStreams.read(openFile, arr, 0, attemptToRead);
-					buffer.put(arr, 0, read);
-					total += read;
-					remaining -= read;
-					if (read < attemptToRead) {
-						// Reached EOF.
-						break;
-					}
-				}
-				return Ints.saturatedCast(total);
+				return handle.read(buffer, size, offset);
 			} finally {
-				openFile.close();
+				handle.close();
 			}
 		} catch (Exception e) {
 			throw new IllegalStateException("Error reading contents of path " + path, e);
@@ -228,189 +569,609 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 	}
 
 	@Override
-	public int readdir(final String path, final DirectoryFiller filler) {
-		if(path.equals("/")) {
-			// populate top-level directory with all supported sub-directories
-			filler.add("/branch");
-			filler.add("/commit");
-			filler.add("/remote");
-			filler.add("/tag");
-			filler.add("/tree");
-			filler.add("/README.md");
-
-			// TODO: implement later
-//			filler.add("/stash");
-//			filler.add("/index");	- use DirCache?
-//			filler.add("/workspace"); - use WorkingTreeIterator?
-//			filler.add("/git") => symbolic link to the source dir
-//			filler.add("/notes"); - notes	
-//			filler.add("/perfile/branch"); - history per file
-//			filler.add("/perfile/commit"); - history per file
-//			filler.add("/perfile/remote"); - history per file
-//			filler.add("/perfile/tag"); - history per file
-
-			return 0;
-		} else if (path.equals("/commit")) {
-			// Do not list commits.
-			// consider: LRU list of recently-accessed for completion?
-			return 0;
-		} else if (path.equals("/tree")) {
-			// Do not list trees.
-			// consider: LRU list of recently-accessed for completion?
-			return 0;
-		} else if (GitUtils.isCommitDir(path)) {
-			// handle listing the root dir of a commit or a file beneath that
-			String commit = jgitHelper.readCommit(path);
-			String dir = jgitHelper.readCommitPath(path);
-
+	public int release(final String path, final FileInfoWrapper info) {
+		BlobHandle handle = fileHandles.remove(info.fh());
+		if (handle != null) {
 			try {
-				RevCommit revCommit = jgitHelper.getCommit(commit);
-				if (revCommit == null) {
-					return -ErrorCodes.ENOENT();
-				}
-				return readdir(revCommit.getTree(), dir, filler);
-			} catch (Exception e) {
-				throw new IllegalStateException("Error reading elements of path " + path + ", commit " + commit + " and directory " + dir, e);
+				handle.close();
+			} catch (IOException e) {
+				throw new IllegalStateException("Error releasing path " + path, e);
 			}
-		} else if (GitUtils.isTreeDir(path)) {
-			// handle listing the root dir of a tree or a file beneath that
-			String tree = jgitHelper.readTree(path);
-			String dir = jgitHelper.readTreePath(path);
+		}
+		return 0;
+	}
 
-			try {
-				return readdir(jgitHelper.getTree(tree), dir, filler);
-			} catch (Exception e) {
-				throw new IllegalStateException("Error reading elements of path " + path + ", tree " + tree + " and directory " + dir, e);
+	private BlobHandle openBlob(final String path) throws IOException {
+		NodeTable.Node node = nodes.get(path);
+		Route route = node.getRoute(path);
+		if ((route.getKind() != Route.Kind.COMMIT && route.getKind() != Route.Kind.TREE) ||
+				node.getDepth() <= TREE_ROOT_DEPTH) {
+			return null;
+		}
+
+		return jgitHelper.openBlob(resolve(node, route));
+	}
+
+	/**
+	 * Resolve the tree entry of a node below /commit/&lt;id&gt; or /tree/&lt;id&gt;, starting
+	 * from the entry of the parent directory, which is usually resolved already.
+	 *
+	 * Results are stored in the nodes, unless the commit or tree does not exist (yet).
+	 */
+	private TreeEntry resolve(NodeTable.Node node, Route route) throws IOException {
+		TreeEntry entry = node.getEntry();
+		if (entry != null) {
+			return entry;
+		}
+
+		if (node.getDepth() <= TREE_ROOT_DEPTH) {
+			final RevTree revTree;
+			if (route.getKind() == Route.Kind.COMMIT) {
+				RevCommit revCommit = jgitHelper.getCommit(route.getObjectId());
+				revTree = (revCommit != null) ? revCommit.getTree() : null;
+			} else {
+				revTree = jgitHelper.getTree(route.getObjectId());
 			}
-		} else if (GitUtils.isBranchDir(path)) {
-			try {
-				String parent = StringUtils.removeStart(path, "/branch/");
-				HashSet<String> seen = new HashSet<String>();
-				List<String> items = jgitHelper.getBranches();
-				for(String item : items) {
-					if (!item.startsWith(parent)) {
-						continue;
-					}
-					item = StringUtils.removeStart(item, parent + '/');
-					item = StringUtils.substringBefore(item, "/");
-					if (!seen.contains(item)) {
-						filler.add(item);
-						seen.add(item);
-					}
-				}
-			} catch (Exception e) {
-				throw new IllegalStateException("Error reading branches", e);
+			if (revTree == null) {
+				return TreeEntry.MISSING;
 			}
+			entry = new TreeEntry(FileMode.TREE, revTree.copy());
+			node.setEntry(entry);
+			return entry;
+		}
 
-			return 0;
-		} else if (GitUtils.isTagDir(path)) {
-			try {
-				String parent = StringUtils.removeStart(path, "/tag/");
-				HashSet<String> seen = new HashSet<String>();
-				List<String> items = jgitHelper.getTags();
-				for(String item : items) {
-					if (!item.startsWith(parent)) {
-						continue;
+		NodeTable.Node parent = node.getParent();
+		entry = jgitHelper.resolveChild(resolve(parent, route), node.getName());
+		if (parent.getEntry() != null) {
+			node.setEntry(entry);
+		}
+		return entry;
+	}
+
+	@Override
+	public int readdir(final String path, final DirectoryFiller filler) {
+		NodeTable.Node node = nodes.get(path);
+		Route route = node.getRoute(path);
+		switch (route.getKind()) {
+			case ROOT:
+				// populate top-level directory with all supported sub-directories
+				filler.add("/branch");
+				filler.add("/commit");
+				filler.add("/remote");
+				filler.add("/tag");
+				filler.add("/tree");
+				filler.add("/perfile");
+				filler.add("/diff");
+				filler.add("/log");
+				filler.add("/at");
+				filler.add("/search");
+				filler.add("/README.md");
+
+				// TODO: implement later
+//				filler.add("/stash");
+//				filler.add("/index");	- use DirCache?
+//				filler.add("/workspace"); - use WorkingTreeIterator?
+//				filler.add("/git") => symbolic link to the source dir
+//				filler.add("/notes"); - notes
+
+				return 0;
+			case COMMITS: {
+				// the fan-out directories which contain indexed commits
+				CommitIndex commitIndex = jgitHelper.getCommitIndex();
+				for (int fanout = 0; fanout < CommitIndex.FANOUT; fanout++) {
+					if (commitIndex.size(fanout) > 0) {
+						filler.add(CommitIndex.getFanoutName(fanout));
 					}
-					item = StringUtils.removeStart(item, parent + '/');
-					item = StringUtils.substringBefore(item, "/");
-					if (!seen.contains(item)) {
-						filler.add(item);
-						seen.add(item);
+				}
+				return 0;
+			}
+			case COMMIT_DIR:
+				jgitHelper.getCommitIndex().accept(route.getFanout(), 0, Integer.MAX_VALUE, new CommitIndex.Visitor() {
+					@Override
+					public boolean visit(AnyObjectId id) {
+						// the name without the two digits of the directory, like in .git/objects
+						return filler.add(id.getName().substring(2));
 					}
+				});
+				return 0;
+			case COMMIT_LINK:
+			case COMMIT_ABBREV:
+			case TREE_ABBREV:
+				return -ErrorCodes.ENOTDIR();
+			case TREES:
+				// Do not list trees.
+				// consider: LRU list of recently-accessed for completion?
+				return 0;
+			case COMMIT: {
+				// handle listing the root dir of a commit or a file beneath that
+				try {
+					return readdir(node, resolve(node, route), filler);
+				} catch (Exception e) {
+					throw new IllegalStateException("Error reading elements of path " + path + ", commit " + route.getObjectId().getName() + " and directory " + route.getSubPath(), e);
 				}
-			} catch (Exception e) {
-				throw new IllegalStateException("Error reading tags", e);
 			}
-
-			return 0;
-		} else if (GitUtils.isRemoteDir(path)) {
-			try {
-				String parent = StringUtils.removeStart(path, "/remote/");
-				HashSet<String> seen = new HashSet<String>();
-				List<String> items = jgitHelper.getRemotes();
-				for(String item : items) {
-					if (!item.startsWith(parent)) {
-						continue;
+			case TREE: {
+				// handle listing the root dir of a tree or a file beneath that
+				try {
+					return readdir(node, resolve(node, route), filler);
+				} catch (Exception e) {
+					throw new IllegalStateException("Error reading elements of path " + path + ", tree " + route.getObjectId().getName() + " and directory " + route.getSubPath(), e);
+				}
+			}
+			case BRANCHES:
+			case TAGS:
+			case REMOTES:
+			case BRANCH:
+			case TAG:
+			case REMOTE:
+			case PERFILE_BRANCHES:
+			case PERFILE_TAGS:
+			case PERFILE_REMOTES:
+				return readdirRefs(route.getRefName(), filler);
+			case PERFILE_ROOT:
+				filler.add("branch");
+				filler.add("commit");
+				filler.add("remote");
+				filler.add("tag");
+				return 0;
+			case PERFILE_COMMITS:
+				// Do not list commits, they are available via /commit
+				return 0;
+			case PERFILE_BRANCH:
+			case PERFILE_TAG:
+			case PERFILE_REMOTE:
+			case PERFILE_COMMIT:
+				try {
+					return readdirPerFile(route, filler);
+				} catch (Exception e) {
+					throw new IllegalStateException("Error reading history of path " + path, e);
+				}
+			case DIFFS:
+			case SEARCHES:
+				return readdirRevisions("", filler);
+			case LOGS:
+				return readdirRefs(route.getRefName(), filler);
+			case LOG:
+				try {
+					return readdirLog(route, filler);
+				} catch (Exception e) {
+					throw new IllegalStateException("Error reading first parents of path " + path, e);
+				}
+			case CONTAINING:
+				filler.add("branch");
+				filler.add("tag");
+				return 0;
+			case CONTAINING_BRANCH:
+			case CONTAINING_TAG:
+				try {
+					RefSnapshot containing = getContainingRefs(route);
+					if (containing == null) {
+						return -ErrorCodes.ENOENT();
 					}
-					item = StringUtils.removeStart(item, parent + '/');
-					item = StringUtils.substringBefore(item, "/");
-					if (!seen.contains(item)) {
-						filler.add(item);
-						seen.add(item);
+					for (String item : containing.getChildren(route.getRefName())) {
+						if (!filler.add(item)) {
+							return 0;
+						}
 					}
+					return 0;
+				} catch (Exception e) {
+					throw new IllegalStateException("Error finding refs containing the commit of path " + path, e);
+				}
+			case AT_ROOT:
+				// Do not list timestamps, all of them are valid
+				return 0;
+			case AT_TIME:
+				if (GitUtils.parseTimestamp(route.getTimestamp()) < 0) {
+					return -ErrorCodes.ENOENT();
+				}
+				filler.add("branch");
+				filler.add("remote");
+				return 0;
+			case AT_BRANCHES:
+			case AT_REMOTES:
+			case AT_BRANCH:
+			case AT_REMOTE:
+				if (GitUtils.parseTimestamp(route.getTimestamp()) < 0) {
+					return -ErrorCodes.ENOENT();
+				}
+				return readdirRefs(route.getRefName(), filler);
+			case DIFF:
+				try {
+					return readdirDiff(route, filler);
+				} catch (Exception e) {
+					throw new IllegalStateException("Error comparing commits of path " + path, e);
 				}
-			} catch (Exception e) {
-				throw new IllegalStateException("Error reading tags", e);
+			case SEARCH:
+				try {
+					return readdirSearch(route, filler);
+				} catch (Exception e) {
+					throw new IllegalStateException("Error searching the commit of path " + path, e);
+				}
+			default:
+				throw new IllegalStateException("Error reading directories in path " + path);
+		}
+	}
+
+	/**
+	 * List one level of the hierarchy of refs, i.e. refs and directories of refs below the given prefix.
+	 */
+	private int readdirRefs(String prefix, DirectoryFiller filler) {
+		for (String item : jgitHelper.getRefChildren(prefix)) {
+			filler.add(item);
+		}
+		return 0;
+	}
+
+	/**
+	 * List the entries of the directory in the commit, each of them is a directory with its own history,
+	 * followed by the commits which changed the path. The history of the root directory contains every
+	 * commit, so it is not listed, the commits are available via /log and /commit instead.
+	 */
+	private int readdirPerFile(Route route, DirectoryFiller filler) throws IOException {
+		PerFilePath perFile = resolvePerFile(route);
+		if (perFile == null) {
+			if (route.getKind().isPerFileRef()) {
+				return readdirRefs(route.getRefName(), filler);
 			}
+			return -ErrorCodes.ENOENT();
+		}
+		if (!existsInCommit(perFile)) {
+			return getHistoryLink(perFile) != null ? -ErrorCodes.ENOTDIR() : -ErrorCodes.ENOENT();
+		}
 
+		List<String> names = perFile.path.isEmpty() ?
+				jgitHelper.readElementsAt(perFile.commit.getTree(), "") :
+				jgitHelper.readElementsAt(jgitHelper.resolve(perFile.commit.getTree(), perFile.path));
+		for (String name : names) {
+			if (!filler.add(name)) {
+				return 0;
+			}
+		}
+		if (perFile.path.isEmpty()) {
 			return 0;
-		} else if (path.equals("/tag")) {
-			try {
-				HashSet<String> seen = new HashSet<String>();
-				List<String> items = jgitHelper.getTags();
-				for(String item : items) {
-					item = StringUtils.substringBefore(item, "/");
-					if (!seen.contains(item)) {
-						filler.add(item);
-						seen.add(item);
-					}
-				}
-			} catch (Exception e) {
-				throw new IllegalStateException("Error reading tags", e);
+		}
+		for (ObjectId id : jgitHelper.getHistory(perFile.commit, perFile.path)) {
+			if (!filler.add(id.getName())) {
+				return 0;
 			}
+		}
+		return 0;
+	}
 
-			return 0;
-		} else if (path.equals("/branch")) {
-			try {
-				HashSet<String> seen = new HashSet<String>();
-				List<String> items = jgitHelper.getBranches();
-				for(String item : items) {
-					item = StringUtils.substringBefore(item, "/");
-					if (!seen.contains(item)) {
-						filler.add(item);
-						seen.add(item);
-					}
+	/**
+	 * List the most recent first-parent ancestors of a branch by number, or the branches in a directory of branches.
+	 */
+	private int readdirLog(Route route, DirectoryFiller filler) throws IOException {
+		String refName = route.getRefName();
+		String commit = jgitHelper.getRefCommit(refName);
+		if (commit != null) {
+			int depth = jgitHelper.getFirstParentIndex().getDepth(ObjectId.fromString(commit));
+			for (int n = 0; n <= depth && n < MAX_LISTED_LOG_ENTRIES; n++) {
+				if (!filler.add(Integer.toString(n))) {
+					return 0;
 				}
-			} catch (Exception e) {
-				throw new IllegalStateException("Error reading branches", e);
 			}
-
 			return 0;
-		} else if (path.equals("/remote")) {
-			try {
-				HashSet<String> seen = new HashSet<String>();
-				List<String> items = jgitHelper.getRemotes();
-				for(String item : items) {
-					item = StringUtils.substringBefore(item, "/");
-					if (!seen.contains(item)) {
-						filler.add(item);
-						seen.add(item);
-					}
-				}
-			} catch (Exception e) {
-				throw new IllegalStateException("Error reading remotes", e);
+		}
+		if (jgitHelper.hasRefs(refName)) {
+			return readdirRefs(refName, filler);
+		}
+		return getLogAncestor(route) != null ? -ErrorCodes.ENOTDIR() : -ErrorCodes.ENOENT();
+	}
+
+	/**
+	 * List the tags, branches and remote branches below the given beginning of a name.
+	 */
+	private int readdirRevisions(String name, DirectoryFiller filler) {
+		for (String item : jgitHelper.getRevisionChildren(name)) {
+			if (!filler.add(item)) {
+				return 0;
 			}
+		}
+		return 0;
+	}
+
+	/**
+	 * List the names of refs until both commits are known, afterwards the changed paths in the directory.
+	 */
+	private int readdirDiff(Route route, DirectoryFiller filler) throws IOException {
+		DiffPath diff = resolveDiff(route);
+		if (diff.path == null) {
+			return readdirRevisions(diff.partialName, filler);
+		}
 
+		TreeComparison comparison = diff.getComparison();
+		List<String> names = comparison.getChildren(diff.path);
+		if (names == null) {
+			return comparison.get(diff.path) != null ? -ErrorCodes.ENOTDIR() : -ErrorCodes.ENOENT();
+		}
+		for (String name : names) {
+			if (!filler.add(name)) {
+				return 0;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * List the names of refs until the commit is known, nothing for the commit as queries are
+	 * not listed, afterwards the matching files and the directories containing them.
+	 */
+	private int readdirSearch(Route route, DirectoryFiller filler) throws IOException {
+		SearchPath search = resolveSearch(route);
+		if (search.commit == null) {
+			return readdirRevisions(search.partialName, filler);
+		}
+		if (search.path == null) {
 			return 0;
-				 		}
-		throw new IllegalStateException("Error reading directories in path " + path);
+		}
+
+		SearchResult result = search.getResult();
+		if (result == null) {
+			return -ErrorCodes.ENOENT();
+		}
+		if (!result.isReady()) {
+			return -ErrorCodes.EAGAIN();
+		}
+		List<String> names = result.getChildren(search.path);
+		if (names == null) {
+			return result.isMatch(search.path) ? -ErrorCodes.ENOTDIR() : -ErrorCodes.ENOENT();
+		}
+		for (String name : names) {
+			if (!filler.add(name)) {
+				return 0;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Split a path below /diff into the two commits and the path inside their comparison. Like for
+	 * /perfile, each name is the shortest prefix which is a tag, branch, remote branch or commit id.
+	 */
+	private DiffPath resolveDiff(Route route) throws IOException {
+		String subPath = route.getSubPath();
+		RevCommit[] found = new RevCommit[1];
+		int end = resolveRevision(subPath, 0, found);
+		if (end == -1) {
+			return new DiffPath(null, null, null, subPath);
+		}
+		RevCommit oldCommit = found[0];
+		if (end == subPath.length()) {
+			return new DiffPath(oldCommit, null, null, "");
+		}
+
+		int start = end + 1;
+		end = resolveRevision(subPath, start, found);
+		if (end == -1) {
+			return new DiffPath(oldCommit, null, null, subPath.substring(start));
+		}
+		return new DiffPath(oldCommit, found[0], end == subPath.length() ? "" : subPath.substring(end + 1), null);
+	}
+
+	/**
+	 * Find the shortest name starting at the given position which denotes a commit.
+	 *
+	 * @return The position after the name, i.e. of the following slash or the end of the path,
+	 * 		-1 if no such name was found
+	 */
+	private int resolveRevision(String path, int start, RevCommit[] found) throws IOException {
+		int end = start;
+		do {
+			end = path.indexOf('/', end + 1);
+			int nameEnd = (end == -1) ? path.length() : end;
+			RevCommit commit = jgitHelper.resolveRevision(path.substring(start, nameEnd));
+			if (commit != null) {
+				found[0] = commit;
+				return nameEnd;
+			}
+		} while (end != -1);
+		return -1;
+	}
+
+	/**
+	 * A path below /diff split into the two commits and the path inside their comparison.
+	 */
+	private final class DiffPath {
+		private final RevCommit oldCommit;
+		private final RevCommit newCommit;
+
+		/**
+		 * The path inside the comparison, null while the names of the commits are incomplete.
+		 */
+		private final String path;
+
+		/**
+		 * The part of the name of a commit which is not resolved yet, null if both commits are known.
+		 */
+		private final String partialName;
+
+		public DiffPath(RevCommit oldCommit, RevCommit newCommit, String path, String partialName) {
+			this.oldCommit = oldCommit;
+			this.newCommit = newCommit;
+			this.path = path;
+			this.partialName = partialName;
+		}
+
+		public TreeComparison getComparison() throws IOException {
+			return jgitHelper.compare(oldCommit.getTree(), newCommit.getTree());
+		}
+	}
+
+	/**
+	 * Split a path below /search into the commit, the query and the path inside the result.
+	 * Like for /diff, the name of the commit is the shortest prefix which denotes a commit,
+	 * the query is the next component.
+	 */
+	private SearchPath resolveSearch(Route route) throws IOException {
+		String subPath = route.getSubPath();
+		RevCommit[] found = new RevCommit[1];
+		int end = resolveRevision(subPath, 0, found);
+		if (end == -1) {
+			return new SearchPath(null, null, null, subPath);
+		}
+		if (end == subPath.length()) {
+			return new SearchPath(found[0], null, null, null);
+		}
+
+		int start = end + 1;
+		int queryEnd = subPath.indexOf('/', start);
+		if (queryEnd == -1) {
+			return new SearchPath(found[0], subPath.substring(start), "", null);
+		}
+		return new SearchPath(found[0], subPath.substring(start, queryEnd), subPath.substring(queryEnd + 1), null);
+	}
+
+	/**
+	 * A path below /search split into the commit, the query and the path inside the result.
+	 */
+	private final class SearchPath {
+		private final RevCommit commit;
+
+		/**
+		 * The encoded query, null if the path ends with the name of the commit.
+		 */
+		private final String query;
+
+		/**
+		 * The path inside the result, null if the path ends before the query.
+		 */
+		private final String path;
+
+		/**
+		 * The part of the name of the commit which is not resolved yet, null if the commit is known.
+		 */
+		private final String partialName;
+
+		public SearchPath(RevCommit commit, String query, String path, String partialName) {
+			this.commit = commit;
+			this.query = query;
+			this.path = path;
+			this.partialName = partialName;
+		}
+
+		/**
+		 * @return The files matching the query, null if it is not validly encoded
+		 */
+		public SearchResult getResult() throws IOException {
+			String decoded = GitUtils.decodeQuery(query);
+			if (decoded == null) {
+				return null;
+			}
+			return jgitHelper.search(commit.getTree(), decoded);
+		}
 	}
 
-	private int readdir(RevTree revTree, String dir, DirectoryFiller filler) throws IOException {
-		if (revTree != null) {
-			List<String> items = jgitHelper.readElementsAt(revTree, dir);
-			if (items != null) {
-				if (items == Collections.<String> emptyList()) {
-					return -ErrorCodes.ENOTDIR();
+	/**
+	 * Split a path below /perfile into the commit and the path inside the commit. For branches,
+	 * tags and remotes the ref is the shortest prefix which is the name of a ref, as Git does not
+	 * allow a ref to be a prefix of another ref.
+	 *
+	 * @return The commit and the path or null if there is no such ref or commit
+	 */
+	private PerFilePath resolvePerFile(Route route) throws IOException {
+		if (route.getKind() == Route.Kind.PERFILE_COMMIT) {
+			RevCommit commit = jgitHelper.getCommit(route.getObjectId());
+			return (commit != null) ? new PerFilePath(commit, route.getSubPath()) : null;
+		}
+
+		String subPath = route.getSubPath();
+		String refName = route.getRefName();
+		String prefix = refName.substring(0, refName.length() - subPath.length());
+		int end = 0;
+		do {
+			end = subPath.indexOf('/', end + 1);
+			String commitId = jgitHelper.getRefCommit(prefix + (end == -1 ? subPath : subPath.substring(0, end)));
+			if (commitId != null) {
+				// tags can point to trees and blobs as well
+				RevCommit commit = jgitHelper.getCommit(ObjectId.fromString(commitId));
+				return (commit != null) ? new PerFilePath(commit, end == -1 ? "" : subPath.substring(end + 1)) : null;
+			}
+		} while (end != -1);
+		return null;
+	}
+
+	/**
+	 * @return true if the path exists in the commit, i.e. it is a directory listing its history
+	 */
+	private boolean existsInCommit(PerFilePath perFile) throws IOException {
+		if (perFile.path.isEmpty()) {
+			return true;
+		}
+		TreeEntry entry = jgitHelper.resolve(perFile.commit.getTree(), perFile.path);
+		return entry.exists() && !entry.isGitTree();
+	}
+
+	/**
+	 * @return The commit if the last component of the path is the id of a commit in the history of the
+	 * 		directory it is in, null otherwise
+	 */
+	private ObjectId getHistoryLink(PerFilePath perFile) throws IOException {
+		int slash = perFile.path.lastIndexOf('/');
+		String name = perFile.path.substring(slash + 1);
+		if (slash == -1 || !ObjectId.isId(name)) {
+			// the history of the root directory is not listed
+			return null;
+		}
+
+		PerFilePath parent = new PerFilePath(perFile.commit, slash == -1 ? "" : perFile.path.substring(0, slash));
+		if (!existsInCommit(parent)) {
+			return null;
+		}
+		ObjectId id = ObjectId.fromString(name);
+		return jgitHelper.isInHistory(parent.commit, parent.path, id) ? id : null;
+	}
+
+	/**
+	 * A path below /perfile split into the commit the history starts at and the path inside it.
+	 */
+	private static final class PerFilePath {
+		private final RevCommit commit;
+		private final String path;
+
+		public PerFilePath(RevCommit commit, String path) {
+			this.commit = commit;
+			this.path = path;
+		}
+	}
+
+	/**
+	 * List the entries of a tree and store the entries in the nodes of the children,
+	 * as a listing is usually followed by getattr() for each child, which then does
+	 * not need to look up anything in the tree.
+	 *
+	 * The names are passed from the parsed tree directly to the filler, without building
+	 * a list first. fuse-jna does not pass on the offsets of readdir(), so the whole
+	 * directory is listed at once, until the filler is full.
+	 */
+	private int readdir(final NodeTable.Node node, TreeEntry entry, final DirectoryFiller filler) throws IOException {
+		if (!entry.exists() || entry.isGitTree()) {
+			return -ErrorCodes.ENOENT();
+		}
+		ParsedTree tree = jgitHelper.getParsedTree(entry);
+		if (tree == null) {
+			return -ErrorCodes.ENOTDIR();
+		}
+
+		// only if the node itself was stored, i.e. the commit or tree exists
+		final boolean store = node.getEntry() == entry;
+		tree.accept(0, Integer.MAX_VALUE, new ParsedTree.Visitor() {
+			@Override
+			public boolean visit(ParsedTree parsed, int index) {
+				String name = parsed.getName(index);
+				if (!filler.add(name)) {
+					return false;
 				}
-				for (String item : items) {
-					filler.add(item);
+				if (store) {
+					NodeTable.Node child = nodes.getChild(node, name);
+					if (child.getEntry() == null) {
+						child.setEntry(new TreeEntry(parsed.getFileMode(index), parsed.getObjectId(index)));
+					}
 				}
-				return 0;
+				return true;
 			}
-		}
-		return -ErrorCodes.ENOENT();
+		});
+		return 0;
 	}
 
 	private static final byte[] SENTINEL = new byte[0];
@@ -422,10 +1183,12 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 	 *
 	 * This makes use of the Google Guava LoadingCache features to automatically populate
 	 * entries when they are missing which makes the usage of the cache very simple.
+	 *
+	 * Entries do not expire, links of branches, tags and remotes are invalidated as soon as
+	 * the refs of the repository change.
 	 */
-  private LoadingCache<String, byte[]> linkCache = CacheBuilder.newBuilder()
+  private final LoadingCache<String, byte[]> linkCache = CacheBuilder.newBuilder()
       .maximumSize(1000)
-      .expireAfterWrite(1, TimeUnit.MINUTES)
       .build(new CacheLoader<String, byte[]>() {
 				@Override
 				public byte[] load(String path) {
@@ -435,66 +1198,177 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 
 				private byte[] doLoad(String path) {
 					try {
-						final String commitLink;
-						final String partialPath;
-						if (GitUtils.isBranchDir(path)) {
-							partialPath = StringUtils.removeStart(path, GitUtils.BRANCH_SLASH);
-							commitLink = jgitHelper.getBranchHeadCommit(partialPath);
-						} else if (GitUtils.isTagDir(path)) {
-							partialPath = StringUtils.removeStart(path, GitUtils.TAG_SLASH);
-							commitLink = jgitHelper.getTagHeadCommit(partialPath);
-						} else if (GitUtils.isRemoteDir(path)) {
-							partialPath = StringUtils.removeStart(path, GitUtils.REMOTE_SLASH);
-							commitLink = jgitHelper.getRemoteHeadCommit(partialPath);
-						} else if (GitUtils.isCommitDir(path)) {
-							String commit = jgitHelper.readCommit(path);
-							String file = jgitHelper.readCommitPath(path);
-							RevCommit revCommit = jgitHelper.getCommit(commit);
-							if (revCommit == null || file.isEmpty()) {
-								return null;
+						Route route = nodes.get(path).getRoute(path);
+						switch (route.getKind()) {
+							case BRANCH:
+							case TAG:
+							case REMOTE:
+								return refLink(route);
+							case COMMIT_LINK:
+								if (jgitHelper.getCommit(route.getObjectId()) == null) {
+									return null;
+								}
+								return ("../" + route.getObjectId().getName()).getBytes();
+							case COMMIT_ABBREV:
+								return abbreviationLink(route.getAbbreviation(), Constants.OBJ_COMMIT);
+							case TREE_ABBREV:
+								return abbreviationLink(route.getAbbreviation(), Constants.OBJ_TREE);
+							case PERFILE_BRANCH:
+							case PERFILE_TAG:
+							case PERFILE_REMOTE:
+							case PERFILE_COMMIT:
+								return perFileLink(route);
+							case DIFF:
+								return diffLink(route);
+							case LOG:
+								return logLink(route);
+							case SEARCH:
+								return searchLink(route);
+							case AT_BRANCH:
+							case AT_REMOTE:
+								return atLink(route);
+							case CONTAINING_BRANCH:
+							case CONTAINING_TAG:
+								return containingLink(route);
+							case COMMIT:
+							case TREE: {
+								NodeTable.Node node = nodes.get(path);
+								if (node.getDepth() <= TREE_ROOT_DEPTH) {
+									return null;
+								}
+								return jgitHelper.readSymlink(resolve(node, route));
 							}
-							return jgitHelper.readSymlink(revCommit.getTree(), file);
-						} else if (GitUtils.isTreeDir(path)) {
-							String tree = jgitHelper.readTree(path);
-							String file = jgitHelper.readTreePath(path);
-							RevTree revTree = jgitHelper.getTree(tree);
-							if (revTree == null || file.isEmpty()) {
+							default:
 								return null;
-							}
-							return jgitHelper.readSymlink(revTree, file);
-						} else {
-							return null;
-						}
-
-						if (commitLink == null) {
-							return null;
 						}
-						StringBuilder target = new StringBuilder("..");
-						for (char c : partialPath.toCharArray()) {
-							if (c == '/') {
-								target.append("/..");
-							}
-						}
-						target.append(GitUtils.COMMIT_SLASH);
-						target.append(commitLink);
-
-						return target.toString().getBytes();
 					} catch (Exception e) {
 						throw new IllegalStateException("Error reading commit of tag/branch-path " + path, e);
 					}
 				}
+
+				private byte[] abbreviationLink(String abbreviation, int type) throws IOException {
+					ObjectId objectId = jgitHelper.resolveAbbreviation(abbreviation, type);
+					if (objectId == null) {
+						return null;
+					}
+					// the full id is in the same directory
+					return objectId.getName().getBytes();
+				}
+
+				private byte[] perFileLink(Route route) throws IOException {
+					PerFilePath perFile = resolvePerFile(route);
+					if (perFile == null || existsInCommit(perFile)) {
+						return null;
+					}
+					ObjectId commit = getHistoryLink(perFile);
+					if (commit == null) {
+						return null;
+					}
+					return commitLink(route, commit.getName());
+				}
+
+				/**
+				 * @param commitPath The id of the commit, optionally followed by a path inside the commit
+				 * @return A relative link from the path of the route to the commit
+				 */
+				private byte[] commitLink(Route route, String commitPath) {
+					// one level up for each directory the link is in
+					StringBuilder target = new StringBuilder();
+					String path = route.getPath();
+					for (int i = path.indexOf('/', 1); i != -1; i = path.indexOf('/', i + 1)) {
+						target.append("../");
+					}
+					target.append(GitUtils.COMMIT_SLASH.substring(1));
+					target.append(commitPath);
+
+					return target.toString().getBytes();
+				}
+
+				private byte[] diffLink(Route route) throws IOException {
+					DiffPath diff = resolveDiff(route);
+					if (diff.path == null) {
+						return null;
+					}
+					TreeComparison.Change change = diff.getComparison().get(diff.path);
+					if (change == null || change == TreeComparison.Change.DIRECTORY) {
+						return null;
+					}
+
+					// deleted paths only exist in the old commit
+					RevCommit commit = (change == TreeComparison.Change.DELETED) ? diff.oldCommit : diff.newCommit;
+					return commitLink(route, commit.getName() + '/' + diff.path);
+				}
+
+				private byte[] searchLink(Route route) throws IOException {
+					SearchPath search = resolveSearch(route);
+					if (search.path == null) {
+						return null;
+					}
+					SearchResult result = search.getResult();
+					if (result == null || !result.isMatch(search.path)) {
+						return null;
+					}
+					return commitLink(route, search.commit.getName() + '/' + search.path);
+				}
+
+				private byte[] logLink(Route route) throws IOException {
+					ObjectId commit = getLogAncestor(route);
+					if (commit == null) {
+						return null;
+					}
+					return commitLink(route, commit.getName());
+				}
+
+				private byte[] atLink(Route route) throws IOException {
+					ObjectId commit = getAtCommit(route);
+					if (commit == null) {
+						return null;
+					}
+					return commitLink(route, commit.getName());
+				}
+
+				private byte[] containingLink(Route route) throws IOException {
+					RefSnapshot containing = getContainingRefs(route);
+					if (containing == null || containing.getRef(route.getRefName()) == null) {
+						return null;
+					}
+
+					// one level up for each directory the link is in, then the same name below /branch or /tag
+					StringBuilder target = new StringBuilder();
+					String path = route.getPath();
+					for (int i = path.indexOf('/', 1); i != -1; i = path.indexOf('/', i + 1)) {
+						target.append("../");
+					}
+					target.append(route.getKind() == Route.Kind.CONTAINING_BRANCH ?
+							GitUtils.BRANCH_SLASH.substring(1) : GitUtils.TAG_SLASH.substring(1));
+					target.append(route.getSubPath());
+
+					return target.toString().getBytes();
+				}
+
+				private byte[] refLink(Route route) throws IOException {
+					String commitLink = jgitHelper.getRefCommit(route.getRefName());
+					if (commitLink == null) {
+						return null;
+					}
+
+					// one level up for /branch, /tag or /remote and one more for each slash in the name
+					StringBuilder target = new StringBuilder("..");
+					String path = route.getPath();
+					for (int i = route.getSubPathOffset(); i < path.length(); i++) {
+						if (path.charAt(i) == '/') {
+							target.append("/..");
+						}
+					}
+					target.append(GitUtils.COMMIT_SLASH);
+					target.append(commitLink);
+
+					return target.toString().getBytes();
+				}
 			});
 
 	@Override
 	public int readlink(String path, ByteBuffer buffer, long size) {
-		// ensure that we evict caches sometimes, Google Guava does not make guarantees that
-		// eviction happens automatically in a mostly read-only cache
-		if(System.currentTimeMillis() > (lastLinkCacheCleanup + CACHE_TIMEOUT)) {
-			System.out.println("Perform manual cache maintenance for " + jgitHelper.toString() + " after " + ((System.currentTimeMillis() - lastLinkCacheCleanup)/1000) + " seconds");
-			lastLinkCacheCleanup = System.currentTimeMillis();
-			linkCache.cleanUp();
-		}
-
 		// use the cache to speed up access, symlinks are always queried even for sub-path access, so we get lots of requests for these!
 		byte[] cachedCommit;
 		try {
@@ -516,6 +1390,90 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 		}
 	}
 
+	@Override
+	public int getxattr(String path, String xattr, ByteBuffer buf, long size, long position) {
+		try {
+			TreeEntry entry = resolveXattrEntry(path);
+			String value = (entry != null) ? xattrValue(entry, xattr) : null;
+			if (value == null) {
+				return -noAttribute();
+			}
+
+			byte[] bytes = value.getBytes(Charsets.US_ASCII);
+			if (size == 0) {
+				// only the size of the value is requested
+				return bytes.length;
+			}
+			if (size < bytes.length) {
+				return -ErrorCodes.ERANGE();
+			}
+			buf.put(bytes);
+			return bytes.length;
+		} catch (Exception e) {
+			throw new IllegalStateException("Error reading attribute " + xattr + " of path " + path, e);
+		}
+	}
+
+	@Override
+	public int listxattr(String path, XattrListFiller filler) {
+		try {
+			TreeEntry entry = resolveXattrEntry(path);
+			if (entry == null) {
+				return 0;
+			}
+			if (entry.isTree()) {
+				filler.add(XATTR_OID, XATTR_MODE, XATTR_TREE);
+			} else {
+				filler.add(XATTR_OID, XATTR_MODE);
+			}
+			return 0;
+		} catch (Exception e) {
+			throw new IllegalStateException("Error listing attributes of path " + path, e);
+		}
+	}
+
+	/**
+	 * @return The entry for paths inside commits and trees, from the same nodes as used by getattr(),
+	 * 		null for all other paths, for paths which do not exist and for the .gittree files which have no object of their own
+	 */
+	private TreeEntry resolveXattrEntry(String path) throws IOException {
+		NodeTable.Node node = nodes.get(path);
+		Route route = node.getRoute(path);
+		if ((route.getKind() != Route.Kind.COMMIT && route.getKind() != Route.Kind.TREE) ||
+				node.getDepth() < TREE_ROOT_DEPTH) {
+			return null;
+		}
+
+		TreeEntry entry = resolve(node, route);
+		if (!entry.exists() || entry.isGitTree()) {
+			return null;
+		}
+		return entry;
+	}
+
+	private static String xattrValue(TreeEntry entry, String xattr) {
+		if (XATTR_OID.equals(xattr)) {
+			return entry.getObjectId().getName();
+		} else if (XATTR_MODE.equals(xattr)) {
+			// the same format as used by "git ls-tree"
+			return String.format("%06o", Integer.valueOf(entry.getFileMode().getBits()));
+		} else if (XATTR_TREE.equals(xattr) && entry.isTree()) {
+			return entry.getObjectId().getName();
+		}
+		return null;
+	}
+
+	/**
+	 * @return The error code for a missing attribute, ENODATA on Linux and ENOATTR on BSD/Mac
+	 */
+	private static int noAttribute() {
+		Integer code = ErrorCodes.ENODATA();
+		if (code == null) {
+			code = ErrorCodes.ENOATTR();
+		}
+		return (code != null) ? code.intValue() : ErrorCodes.ENOENT();
+	}
+
 	/**
 	 * Free up resources held for the Git repository and unmount the FUSE-filesystem.
 	 *
@@ -523,6 +1481,11 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
 	 */
 	@Override
 	public void close() throws IOException {
+		for (BlobHandle handle : fileHandles.values()) {
+			handle.close();
+		}
+		fileHandles.clear();
+
 		jgitHelper.close();
 
 		try {
@@ -541,7 +1504,9 @@ public class JGitFilesystem extends FuseFilesystemAdapterFull implements Closeab
         + ",kernel_cache"
         + ",entry_timeout=10"
         + ",negative_timeout=10"
-        + ",attr_timeout=10";
+        + ",attr_timeout=10"
+        // report the inode numbers from getattr, they are derived from the Git objects
+        + ",use_ino";
     return new String[] {"-r", "-o", options};
   }
 }
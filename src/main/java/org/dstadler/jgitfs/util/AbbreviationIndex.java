@@ -0,0 +1,193 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Sorted index of the ids of all objects in the repository, i.e. the ids in the
+ * .idx files of all packs and of all loose objects, for resolving abbreviated
+ * ids with a binary search.
+ *
+ * Without this, each lookup of an abbreviation would search every pack and list
+ * the directory of loose objects, and shells resolve the same abbreviation many
+ * times while completing a path.
+ *
+ * The index is built on first use and built again on the next use after
+ * {@link #invalidate()}, which should be called when new objects may have been
+ * added, e.g. when refs changed. Objects from alternate repositories are not
+ * included.
+ *
+ * @author cwat-dstadler
+ */
+public class AbbreviationIndex {
+	private static final int WORDS = IdArrays.WORDS;
+
+	private final File objectsDir;
+
+	/**
+	 * The sorted ids of all objects, null until it is built.
+	 */
+	private volatile int[] ids;
+
+	/**
+	 * @param objectsDir The objects directory of the repository, i.e. .git/objects
+	 */
+	public AbbreviationIndex(File objectsDir) {
+		this.objectsDir = objectsDir;
+	}
+
+	/**
+	 * Find the objects whose id starts with the given abbreviation.
+	 *
+	 * @param abbreviation An abbreviated id
+	 * @param limit The maximum number of ids to return
+	 * @return The matching ids in sorted order, empty if there are none
+	 * @throws IOException If reading the pack indexes fails
+	 */
+	public List<ObjectId> resolve(AbbreviatedObjectId abbreviation, int limit) throws IOException {
+		int[] array = getIds();
+		int count = array.length / WORDS;
+		MutableObjectId id = new MutableObjectId();
+
+		// the first id which is not before the abbreviation
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			id.fromRaw(array, mid * WORDS);
+			if (abbreviation.prefixCompare(id) > 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		List<ObjectId> result = new ArrayList<ObjectId>();
+		for (int i = low; i < count && result.size() < limit; i++) {
+			id.fromRaw(array, i * WORDS);
+			if (abbreviation.prefixCompare(id) != 0) {
+				break;
+			}
+			result.add(id.toObjectId());
+		}
+		return result;
+	}
+
+	/**
+	 * @return The number of objects in the index, building it if necessary
+	 * @throws IOException If reading the pack indexes fails
+	 */
+	public int size() throws IOException {
+		return getIds().length / WORDS;
+	}
+
+	/**
+	 * Drop the index, it is built again on the next lookup.
+	 */
+	public void invalidate() {
+		ids = null;
+	}
+
+	private int[] getIds() throws IOException {
+		int[] result = ids;
+		if (result == null) {
+			synchronized (this) {
+				result = ids;
+				if (result == null) {
+					result = build();
+					ids = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Read the sorted ids of each pack and of the loose objects and merge them.
+	 */
+	private int[] build() throws IOException {
+		List<int[]> runs = new ArrayList<int[]>();
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+
+		File[] idxFiles = new File(objectsDir, "pack").listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.getName().endsWith(".idx");
+			}
+		});
+		if (idxFiles != null) {
+			for (File idxFile : idxFiles) {
+				final PackIndex index;
+				try {
+					index = PackIndex.open(idxFile);
+				} catch (IOException e) {
+					// e.g. removed by a concurrent gc
+					System.out.println("Could not read pack index " + idxFile + ": " + e);
+					continue;
+				}
+
+				int[] run = new int[(int) index.getObjectCount() * WORDS];
+				int pos = 0;
+				for (PackIndex.MutableEntry entry : index) {
+					IdArrays.toWords(entry.toObjectId(), raw, run, pos);
+					pos += WORDS;
+				}
+				runs.add(run);
+			}
+		}
+
+		List<ObjectId> loose = readLooseObjects();
+		int[] run = new int[loose.size() * WORDS];
+		for (int i = 0; i < loose.size(); i++) {
+			IdArrays.toWords(loose.get(i), raw, run, i * WORDS);
+		}
+		runs.add(run);
+
+		// merge pairs of runs until only one is left, so each id is copied log(runs) times
+		while (runs.size() > 1) {
+			List<int[]> merged = new ArrayList<int[]>();
+			for (int i = 0; i < runs.size(); i += 2) {
+				merged.add((i + 1 < runs.size()) ? IdArrays.merge(runs.get(i), runs.get(i + 1)) : runs.get(i));
+			}
+			runs = merged;
+		}
+		return runs.get(0);
+	}
+
+	/**
+	 * @return The sorted ids of all loose objects, i.e. files named by the remaining 38 digits in the fan-out directories
+	 */
+	private List<ObjectId> readLooseObjects() {
+		List<ObjectId> result = new ArrayList<ObjectId>();
+		for (int fanout = 0; fanout < CommitIndex.FANOUT; fanout++) {
+			String dirName = CommitIndex.getFanoutName(fanout);
+			String[] names = new File(objectsDir, dirName).list();
+			if (names == null) {
+				continue;
+			}
+			for (String name : names) {
+				if (name.length() == Constants.OBJECT_ID_STRING_LENGTH - 2 && ObjectId.isId(dirName + name)) {
+					result.add(ObjectId.fromString(dirName + name));
+				}
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		int[] current = ids;
+		return "AbbreviationIndex: " + (current == null ? "not built" : (current.length / WORDS) + " objects");
+	}
+}
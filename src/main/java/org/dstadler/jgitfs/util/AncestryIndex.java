@@ -0,0 +1,411 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Index of the generation numbers of the commits reachable from the refs, for
+ * finding the refs which contain a commit when there are no reachability
+ * bitmaps, see {@link ReachabilityBitmaps}.
+ *
+ * The generation of a root commit is 1, the one of any other commit is one
+ * more than the largest generation of its parents, so a commit can only reach
+ * commits with a smaller generation. Walks searching for a commit stop at
+ * commits whose generation is not larger than the one of the commit, like the
+ * walks of Git which use the generation numbers of the commit-graph file.
+ *
+ * Commits are indexed in the background for the refs and on demand for commits
+ * which are queried before the background thread reached them. The generations
+ * are kept in an array by the position of the commit in the {@link CommitTable}.
+ * Commits are appended to a file next to the repository, parents before children,
+ * each with its generation, see {@link IndexFile}.
+ *
+ * @author cwat-dstadler
+ */
+public class AncestryIndex implements Closeable {
+	/**
+	 * The name of the file in the .git directory which holds the index.
+	 */
+	public static final String FILE_NAME = "jgitfs-generations";
+
+	/**
+	 * The first four bytes of the file, "JGN" and a version.
+	 */
+	private static final int MAGIC = 0x4a474e01;
+
+	/**
+	 * The number of commits which are computed before they are added to the index,
+	 * so the commits of a long history are not all kept in memory at once.
+	 */
+	private static final int BATCH_SIZE = 10000;
+
+	private final File file;
+	private final CommitTable commits;
+	private final ObjectReaderPool readers;
+
+	/**
+	 * The generations by the position of the commit in the table, 0 for commits which are not indexed, guarded by this.
+	 */
+	private int[] generations = new int[0];
+
+	/**
+	 * The number of indexed commits, guarded by this.
+	 */
+	private int size;
+
+	/**
+	 * The file the commits are appended to, guarded by this.
+	 */
+	private final IndexFile indexFile;
+
+	/**
+	 * @param file The file for storing the index, usually {@link #FILE_NAME} in the .git directory
+	 * @param commits The table of commits which is shared with the other indexes of the repository
+	 * @param readers The readers for reading the commits
+	 */
+	public AncestryIndex(File file, CommitTable commits, ObjectReaderPool readers) {
+		this.file = file;
+		this.commits = commits;
+		this.readers = readers;
+
+		indexFile = new IndexFile(file, MAGIC);
+		synchronized (this) {
+			indexFile.open(new IndexFile.RecordReader() {
+				@Override
+				public void read(DataInputStream in) throws IOException {
+					byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+					in.readFully(raw);
+					int generation = in.readInt();
+					if (generation < 1) {
+						throw new IOException("Invalid generation " + generation + " at commit " + size);
+					}
+					put(ObjectId.fromRaw(raw), generation);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Return the generation of the commit, indexing its history first if necessary.
+	 *
+	 * @param commit The id of a commit
+	 * @return The generation, 1 for a root commit, 0 if there is no such commit
+	 * @throws IOException If reading commits fails
+	 */
+	public int getGeneration(AnyObjectId commit) throws IOException {
+		return index(commit);
+	}
+
+	/**
+	 * Find the tips which contain the given commit, i.e. from which the commit is reachable.
+	 *
+	 * The walks of all tips share which commits were visited already, so each commit is
+	 * read at most once, and only commits with a larger generation than the one of the
+	 * given commit are read at all.
+	 *
+	 * @param commit The id of a commit
+	 * @param tips The ids of the commits the refs point to, objects which are not commits are ignored
+	 * @return The tips which contain the commit, empty if there is no such commit
+	 * @throws IOException If reading commits fails
+	 */
+	public Set<ObjectId> getContaining(AnyObjectId commit, Collection<ObjectId> tips) throws IOException {
+		Set<ObjectId> result = new HashSet<ObjectId>();
+		int target = index(commit);
+		if (target == 0) {
+			return result;
+		}
+
+		// the walk does not own the pooled reader, so it is not released here
+		RevWalk walk = new RevWalk(readers.get());
+		walk.setRetainBody(false);
+		RevFlag reaches = walk.newFlag("reaches");
+		RevFlag done = walk.newFlag("done");
+		for (ObjectId tip : tips) {
+			int generation = index(tip);
+			if (generation == 0 || generation < target) {
+				continue;
+			}
+			RevCommit start = walk.lookupCommit(tip);
+			walk(walk, start, commit, target, reaches, done);
+			if (start.has(reaches)) {
+				result.add(tip.copy());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Mark each commit which is visited from the start with done, and the ones from which the target is
+	 * reachable also with reaches. Commits marked by previous walks are not visited again.
+	 */
+	private void walk(RevWalk walk, RevCommit start, AnyObjectId target, int targetGeneration,
+			RevFlag reaches, RevFlag done) throws IOException {
+		// depth-first, a commit stays on the stack until all its parents are done
+		Deque<RevCommit> stack = new ArrayDeque<RevCommit>();
+		stack.push(start);
+		while (!stack.isEmpty()) {
+			RevCommit commit = stack.peek();
+			if (commit.has(done)) {
+				stack.pop();
+				continue;
+			}
+			if (commit.equals(target)) {
+				commit.add(reaches);
+				commit.add(done);
+				stack.pop();
+				continue;
+			}
+			int generation = get(commit);
+			if (generation == 0 || generation <= targetGeneration) {
+				// cannot reach the target, or a parent missing in a shallow clone
+				commit.add(done);
+				stack.pop();
+				continue;
+			}
+
+			walk.parseHeaders(commit);
+			boolean found = false;
+			for (RevCommit parent : commit.getParents()) {
+				if (parent.has(reaches)) {
+					found = true;
+					break;
+				}
+			}
+			boolean pending = false;
+			if (!found) {
+				for (RevCommit parent : commit.getParents()) {
+					if (!parent.has(done)) {
+						stack.push(parent);
+						pending = true;
+					}
+				}
+			}
+			if (found) {
+				commit.add(reaches);
+			}
+			if (!pending) {
+				commit.add(done);
+				stack.pop();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of indexed commits
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return The generation of the commit, 0 if it is not indexed
+	 */
+	private synchronized int get(AnyObjectId commit) {
+		int position = commits.find(commit);
+		return (position == CommitTable.MISSING || position >= generations.length) ? 0 : generations[position];
+	}
+
+	private void put(AnyObjectId commit, int generation) {
+		int position = commits.add(commit);
+		generations = CommitTable.grow(generations, position + 1, 0);
+		if (generations[position] == 0) {
+			generations[position] = generation;
+			size++;
+		}
+	}
+
+	/**
+	 * Walk the history of the commit until indexed commits or root commits are found and add
+	 * the commits in between, each after all of its parents.
+	 *
+	 * @return The generation of the commit, 0 if there is no such commit or the walk was interrupted
+	 */
+	private int index(AnyObjectId commit) throws IOException {
+		int known = get(commit);
+		if (known != 0) {
+			return known;
+		}
+
+		// the walk does not own the pooled reader, so it is not released here
+		RevWalk walk = new RevWalk(readers.get());
+		walk.setRetainBody(false);
+		RevCommit start;
+		try {
+			start = walk.parseCommit(commit);
+		} catch (MissingObjectException e) {
+			return 0;
+		} catch (IncorrectObjectTypeException e) {
+			// e.g. a tag pointing to a tree
+			return 0;
+		}
+
+		RevFlag missing = walk.newFlag("missing");
+		Map<ObjectId, Integer> batch = new HashMap<ObjectId, Integer>();
+		List<RevCommit> order = new ArrayList<RevCommit>();
+		Deque<RevCommit> stack = new ArrayDeque<RevCommit>();
+		stack.push(start);
+		try {
+			while (!stack.isEmpty()) {
+				if (Thread.currentThread().isInterrupted()) {
+					// closed while indexing in the background
+					return 0;
+				}
+				RevCommit current = stack.peek();
+				if (batch.containsKey(current) || get(current) != 0) {
+					stack.pop();
+					continue;
+				}
+
+				// a commit stays on the stack until the generations of all its parents are known
+				int max = 0;
+				boolean pending = false;
+				for (RevCommit parent : current.getParents()) {
+					int generation = getGeneration(parent, batch, missing);
+					if (generation < 0) {
+						try {
+							walk.parseHeaders(parent);
+							stack.push(parent);
+							pending = true;
+							continue;
+						} catch (MissingObjectException e) {
+							// the end of a shallow clone, the commit is handled like a root commit
+							parent.add(missing);
+							generation = 0;
+						}
+					}
+					max = Math.max(max, generation);
+				}
+				if (pending) {
+					continue;
+				}
+
+				stack.pop();
+				batch.put(current.copy(), max + 1);
+				order.add(current);
+				if (order.size() >= BATCH_SIZE) {
+					// the generations are available from the index from now on
+					add(order, batch);
+					order.clear();
+					batch.clear();
+				}
+			}
+		} finally {
+			add(order, batch);
+		}
+		return get(commit);
+	}
+
+	/**
+	 * @return The generation of an indexed commit or one of the batch, 0 for commits missing in a shallow clone,
+	 * 		-1 if it is not known yet
+	 */
+	private int getGeneration(RevCommit commit, Map<ObjectId, Integer> batch, RevFlag missing) {
+		if (commit.has(missing)) {
+			return 0;
+		}
+		Integer generation = batch.get(commit);
+		if (generation != null) {
+			return generation;
+		}
+		int known = get(commit);
+		return known == 0 ? -1 : known;
+	}
+
+	/**
+	 * Add the commits and append them to the file, skipping the ones another thread added meanwhile.
+	 *
+	 * @param order The commits, each after all of its parents
+	 * @param generations The generations of the commits
+	 */
+	private synchronized void add(List<RevCommit> order, Map<ObjectId, Integer> generations) {
+		for (RevCommit commit : order) {
+			if (get(commit) != 0) {
+				continue;
+			}
+			int generation = generations.get(commit);
+			put(commit, generation);
+
+			DataOutputStream out = indexFile.getOutput();
+			if (out != null) {
+				try {
+					commit.copyRawTo(out);
+					out.writeInt(generation);
+				} catch (IOException e) {
+					indexFile.writeFailed(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Index the history of the given tips in the background.
+	 *
+	 * @param tips The objects the refs point to, objects which are not commits are ignored
+	 * @return A future which is done when the commits were indexed, e.g. for waiting in tests
+	 */
+	public Future<?> update(Collection<ObjectId> tips) {
+		final List<ObjectId> copy = new ArrayList<ObjectId>(tips);
+		return commits.getExecutor().submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (ObjectId tip : copy) {
+						if (Thread.currentThread().isInterrupted()) {
+							return;
+						}
+						index(tip);
+					}
+				} catch (IOException e) {
+					System.out.println("Could not index generations of " + file + ": " + e);
+				} finally {
+					flush();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Write commits which were indexed since the last call to the file.
+	 */
+	public synchronized void flush() {
+		indexFile.flush();
+	}
+
+	/**
+	 * Write the commits which were indexed so far to the file, commits which are indexed
+	 * afterwards are only kept in memory. The background thread is stopped by closing the
+	 * {@link CommitTable}.
+	 */
+	@Override
+	public synchronized void close() {
+		indexFile.flush();
+		indexFile.close();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "AncestryIndex: " + size + " commits in " + indexFile;
+	}
+}
@@ -0,0 +1,104 @@
+package org.dstadler.jgitfs.util;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Cache for the inflated contents of blobs, keyed by the id of the blob so
+ * that the same content is shared by all commits and trees which contain it.
+ *
+ * The contents are kept in direct buffers outside of the Java heap, so a large
+ * cache does not increase the heap and the time spent in garbage collection.
+ * Note that the JVM limits direct memory to the size of the heap unless
+ * -XX:MaxDirectMemorySize is set.
+ *
+ * As blob ids never change their content, entries are only evicted based on
+ * their size, never because of their age.
+ *
+ * @author cwat-dstadler
+ */
+public class BlobCache {
+	private final long maxEntrySize;
+
+	private final Cache<ObjectId, ByteBuffer> cache;
+
+	/**
+	 * Create a cache with the given limits.
+	 *
+	 * @param maxBytes The maximum number of bytes of all cached blobs together
+	 * @param maxEntrySize Blobs larger than this are not cached
+	 */
+	public BlobCache(long maxBytes, long maxEntrySize) {
+		this.maxEntrySize = maxEntrySize;
+
+		cache = CacheBuilder.newBuilder()
+			.maximumWeight(maxBytes)
+			.weigher(new Weigher<ObjectId, ByteBuffer>() {
+				@Override
+				public int weigh(ObjectId key, ByteBuffer value) {
+					return value.capacity();
+				}
+			})
+			.recordStats()
+			.build();
+	}
+
+	/**
+	 * @param size The size of a blob in bytes
+	 * @return true if blobs of this size are kept in the cache
+	 */
+	public boolean accepts(long size) {
+		return size <= maxEntrySize;
+	}
+
+	/**
+	 * Look up the contents of the given blob.
+	 *
+	 * @param objectId The id of the blob
+	 * @return A read-only view of the contents, positioned at the start, or null if the blob is not cached
+	 */
+	public ByteBuffer get(ObjectId objectId) {
+		ByteBuffer buffer = cache.getIfPresent(objectId);
+		return (buffer != null) ? buffer.asReadOnlyBuffer() : null;
+	}
+
+	/**
+	 * Copy the given contents of a blob into the cache.
+	 *
+	 * @param objectId The id of the blob
+	 * @param bytes The inflated contents of the blob
+	 * @return A read-only view of the cached contents, positioned at the start
+	 */
+	public ByteBuffer put(ObjectId objectId, byte[] bytes) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+		buffer.put(bytes);
+		buffer.flip();
+
+		cache.put(objectId.copy(), buffer);
+		return buffer.asReadOnlyBuffer();
+	}
+
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	@Override
+	public String toString() {
+		CacheStats stats = cache.stats();
+		return "BlobCache: " + cache.size() + " blobs, " + stats.hitCount() + " hits, " + stats.missCount() + " misses";
+	}
+}
@@ -0,0 +1,297 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Ints;
+
+/**
+ * State for one opened file, i.e. the resolved blob together with a stream
+ * which stays positioned where the previous read stopped.
+ *
+ * FUSE reads files in chunks, without this state each chunk would need to
+ * resolve the path again and inflate the blob from the start up to the
+ * requested offset.
+ *
+ * Small blobs are served straight from the {@link BlobCache} or from the bytes
+ * the loader holds anyway, only large blobs are streamed.
+ *
+ * Large blobs are switched over to a spill file of the {@link BlobStore} as soon
+ * as reads do not arrive in sequential order, afterwards all reads are positional
+ * reads on that file.
+ *
+ * @author cwat-dstadler
+ */
+public class BlobHandle implements Closeable {
+	/**
+	 * FUSE usually reads in chunks of up to 128KB.
+	 */
+	private static final int SCRATCH_SIZE = 128 * 1024;
+
+	private final ObjectId objectId;
+	private final ObjectLoader loader;
+	private final BlobStore store;
+
+	/**
+	 * The cached contents if the blob is served from the BlobCache, this view is only used by this handle.
+	 */
+	private final ByteBuffer content;
+
+	private InputStream stream;
+	private long position;
+	private byte[] scratch;
+
+	private volatile FileChannel channel;
+
+	/**
+	 * Create a handle for the given blob.
+	 *
+	 * @param objectId The id of the blob, null for synthetic files like .gittree
+	 * @param loader The loader which provides the contents of the blob
+	 */
+	public BlobHandle(ObjectId objectId, ObjectLoader loader) {
+		this(objectId, loader, null);
+	}
+
+	/**
+	 * Create a handle for the given blob which uses the given store for random access.
+	 *
+	 * @param objectId The id of the blob, null for synthetic files like .gittree
+	 * @param loader The loader which provides the contents of the blob
+	 * @param store The store for spilling large blobs, null to always read via streams
+	 */
+	public BlobHandle(ObjectId objectId, ObjectLoader loader, BlobStore store) {
+		this.objectId = objectId;
+		this.loader = loader;
+		this.store = (objectId != null && store != null && store.accepts(loader.getSize())) ? store : null;
+		this.content = null;
+	}
+
+	/**
+	 * Create a handle for a blob whose contents are available from the {@link BlobCache}.
+	 *
+	 * @param objectId The id of the blob
+	 * @param content A view of the contents which is used exclusively by this handle
+	 */
+	public BlobHandle(ObjectId objectId, ByteBuffer content) {
+		this.objectId = objectId;
+		this.loader = null;
+		this.store = null;
+		this.content = content;
+	}
+
+	public ObjectId getObjectId() {
+		return objectId;
+	}
+
+	public long getSize() {
+		return (content != null) ? content.capacity() : loader.getSize();
+	}
+
+	/**
+	 * Open a new stream on the contents of the blob, independent of the
+	 * position of this handle.
+	 *
+	 * @return An InputStream which starts at the beginning of the blob
+	 * @throws IOException If reading from the Git repository fails
+	 */
+	public InputStream openStream() throws IOException {
+		if (content != null) {
+			return new ByteBufferInputStream(content.duplicate());
+		}
+		return loader.openStream();
+	}
+
+	/**
+	 * Read up to size bytes starting at the given offset into the buffer.
+	 *
+	 * Reads which start where the previous one ended continue on the current stream,
+	 * only reads which go backwards cause the blob to be opened again, or, for large
+	 * blobs, cause the blob to be served from a spill file from then on.
+	 *
+	 * @param buffer The buffer to write the data to
+	 * @param size The maximum number of bytes to read
+	 * @param offset The position in the file to start reading at
+	 * @return The number of bytes that were put into the buffer
+	 * @throws IOException If reading from the Git repository fails
+	 */
+	public int read(ByteBuffer buffer, long size, long offset) throws IOException {
+		if (offset >= getSize()) {
+			return 0;
+		}
+
+		if (content != null) {
+			return readContent(buffer, size, offset);
+		}
+
+		// positional reads need no locking, concurrent reads from FUSE can proceed in parallel
+		FileChannel fileChannel = channel;
+		if (fileChannel != null) {
+			return readChannel(fileChannel, buffer, size, offset);
+		}
+
+		return readStream(buffer, size, offset);
+	}
+
+	private int readContent(ByteBuffer buffer, long size, long offset) {
+		synchronized (content) {
+			int len = (int) Math.min(size, content.capacity() - offset);
+			content.limit((int) offset + len);
+			content.position((int) offset);
+			buffer.put(content);
+			return len;
+		}
+	}
+
+	private synchronized int readStream(ByteBuffer buffer, long size, long offset) throws IOException {
+		if (channel != null) {
+			return readChannel(channel, buffer, size, offset);
+		}
+
+		if (!loader.isLarge()) {
+			// small blobs are fully inflated by the loader anyway, serve them with a single put
+			byte[] bytes = loader.getCachedBytes();
+			int len = (int) Math.min(size, bytes.length - offset);
+			buffer.put(bytes, (int) offset, len);
+			return len;
+		}
+
+		if (store != null && (offset != position || store.contains(objectId))) {
+			// out of order access on a large blob, switch over to the spill file
+			closeStream();
+			channel = store.open(objectId, loader);
+			return readChannel(channel, buffer, size, offset);
+		}
+
+		if (stream == null || offset < position) {
+			// cannot rewind the inflating stream, start over from the beginning
+			closeStream();
+			stream = loader.openStream();
+			position = 0;
+		}
+
+		// skip until we are at the offset
+		ByteStreams.skipFully(stream, offset - position);
+		position = offset;
+
+		int total = buffer.hasArray() ? readIntoArray(buffer, size) : readViaScratch(buffer, size);
+		position += total;
+
+		return total;
+	}
+
+	/**
+	 * Inflate directly into the array which backs the buffer.
+	 */
+	private int readIntoArray(ByteBuffer buffer, long size) throws IOException {
+		int len = (int) Math.min(size, buffer.remaining());
+		int read = ByteStreams.read(stream, buffer.array(), buffer.arrayOffset() + buffer.position(), len);
+		buffer.position(buffer.position() + read);
+		return read;
+	}
+
+	/**
+	 * Direct buffers from FUSE have no accessible array, the inflater can only
+	 * write to arrays, so we use one scratch array per handle for the copy.
+	 */
+	private int readViaScratch(ByteBuffer buffer, long size) throws IOException {
+		if (scratch == null) {
+			scratch = new byte[SCRATCH_SIZE];
+		}
+
+		long remaining = size;
+		int total = 0;
+		while (remaining > 0) {
+			int attemptToRead = (int) Math.min(scratch.length, remaining);
+			int read = ByteStreams.read(stream, scratch, 0, attemptToRead);
+			buffer.put(scratch, 0, read);
+			total += read;
+			remaining -= read;
+			if (read < attemptToRead) {
+				// Reached EOF.
+				break;
+			}
+		}
+		return total;
+	}
+
+	private static int readChannel(FileChannel fileChannel, ByteBuffer buffer, long size, long offset) throws IOException {
+		int limit = buffer.limit();
+		buffer.limit((int) Math.min(limit, buffer.position() + size));
+		try {
+			long total = 0;
+			while (buffer.hasRemaining()) {
+				int read = fileChannel.read(buffer, offset + total);
+				if (read < 0) {
+					// Reached EOF.
+					break;
+				}
+				total += read;
+			}
+			return Ints.saturatedCast(total);
+		} finally {
+			buffer.limit(limit);
+		}
+	}
+
+	private void closeStream() throws IOException {
+		if (stream != null) {
+			stream.close();
+			stream = null;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closeStream();
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		public ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int count = Math.min(len, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public long skip(long n) {
+			int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
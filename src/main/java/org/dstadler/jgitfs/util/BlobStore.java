@@ -0,0 +1,154 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Keeps inflated copies of large blobs as files in a temporary directory, so
+ * that reads at arbitrary offsets can be served with positional reads instead
+ * of inflating the blob again from the start.
+ *
+ * Files are keyed by the id of the blob, so all commits which contain the same
+ * content share one copy. The total size of the files is capped, the least
+ * recently used files are removed when the cap is reached.
+ *
+ * @author cwat-dstadler
+ */
+public class BlobStore implements Closeable {
+	private final File dir;
+	private final long threshold;
+	private final long maxBytes;
+
+	/**
+	 * Weights are in kilobytes as Guava only supports int-weights.
+	 */
+	private final Cache<ObjectId, File> files;
+
+	/**
+	 * Create a store which keeps its files in the given directory.
+	 *
+	 * @param dir The directory where spill files are written to, it is removed on close()
+	 * @param threshold Only blobs of at least this size in bytes are stored
+	 * @param maxBytes The maximum number of bytes that are kept in spill files
+	 */
+	public BlobStore(File dir, long threshold, long maxBytes) {
+		this.dir = dir;
+		this.threshold = threshold;
+		this.maxBytes = maxBytes;
+
+		files = CacheBuilder.newBuilder()
+			// one segment to have one LRU-order across all entries and allow single large entries
+			.concurrencyLevel(1)
+			.maximumWeight(maxBytes / 1024)
+			.weigher(new Weigher<ObjectId, File>() {
+				@Override
+				public int weigh(ObjectId key, File value) {
+					return (int) Math.min(Integer.MAX_VALUE, value.length() / 1024 + 1);
+				}
+			})
+			.removalListener(new RemovalListener<ObjectId, File>() {
+				@Override
+				public void onRemoval(RemovalNotification<ObjectId, File> notification) {
+					// handles which still have the file opened can continue to read from it
+					if (!notification.getValue().delete()) {
+						notification.getValue().deleteOnExit();
+					}
+				}
+			})
+			.build();
+	}
+
+	/**
+	 * Check if blobs of the given size should be served from this store.
+	 *
+	 * @param size The size of the blob in bytes
+	 * @return true if the blob is large enough to be spilled and still fits into the store
+	 */
+	public boolean accepts(long size) {
+		return size >= threshold && size / 1024 + 1 <= maxBytes / 1024;
+	}
+
+	/**
+	 * @param objectId The id of the blob
+	 * @return true if there is a spill file for the given blob already
+	 */
+	public boolean contains(ObjectId objectId) {
+		return files.getIfPresent(objectId) != null;
+	}
+
+	/**
+	 * Open the spill file for the given blob for reading, the blob is inflated
+	 * into a new spill file if there is none yet.
+	 *
+	 * @param objectId The id of the blob
+	 * @param loader The loader for the contents of the blob
+	 * @return A channel which supports positional reads, needs to be closed by the caller
+	 * @throws IOException If inflating the blob or writing the spill file fails
+	 */
+	public FileChannel open(final ObjectId objectId, final ObjectLoader loader) throws IOException {
+		try {
+			return new RandomAccessFile(get(objectId, loader), "r").getChannel();
+		} catch (FileNotFoundException e) {
+			// evicted between lookup and opening, write it again
+			files.invalidate(objectId);
+			return new RandomAccessFile(get(objectId, loader), "r").getChannel();
+		}
+	}
+
+	private File get(final ObjectId objectId, final ObjectLoader loader) throws IOException {
+		try {
+			return files.get(objectId, new Callable<File>() {
+				@Override
+				public File call() throws IOException {
+					return materialize(objectId, loader);
+				}
+			});
+		} catch (ExecutionException e) {
+			throw new IOException("Could not write spill file for blob " + objectId.getName(), e.getCause());
+		}
+	}
+
+	private File materialize(ObjectId objectId, ObjectLoader loader) throws IOException {
+		File tmp = File.createTempFile(objectId.getName(), ".tmp", dir);
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			loader.copyTo(out);
+		} finally {
+			out.close();
+		}
+
+		File file = new File(dir, objectId.getName());
+		if (!tmp.renameTo(file)) {
+			FileUtils.deleteQuietly(tmp);
+			throw new IOException("Could not move spill file " + tmp + " to " + file);
+		}
+		return file;
+	}
+
+	/**
+	 * Remove all spill files and the directory.
+	 */
+	@Override
+	public void close() throws IOException {
+		files.invalidateAll();
+		FileUtils.deleteDirectory(dir);
+	}
+}
@@ -0,0 +1,127 @@
+package org.dstadler.jgitfs.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * Bloom filter over the paths which a commit changed compared to its first
+ * parent, like the changed-path filters of Git's commit-graph.
+ *
+ * A filter answers "maybe changed" or "definitely not changed" for a path,
+ * so walking the history of a path only needs to compare trees for the few
+ * commits where the answer is "maybe". Commits which change more than
+ * {@link #MAX_PATHS} paths get {@link #ALL}, which always answers "maybe".
+ *
+ * @author cwat-dstadler
+ */
+public final class ChangedPathFilter {
+	/**
+	 * Commits changing more paths than this are not worth a filter, e.g. merges of large branches.
+	 */
+	public static final int MAX_PATHS = 512;
+
+	private static final int BITS_PER_PATH = 10;
+	private static final int HASHES = 7;
+	private static final int MIN_BYTES = 8;
+
+	/**
+	 * The filter for commits which changed too many paths, contains every path.
+	 */
+	public static final ChangedPathFilter ALL = new ChangedPathFilter(null);
+
+	/**
+	 * The bits of the filter, null for {@link #ALL}.
+	 */
+	private final byte[] bits;
+
+	private ChangedPathFilter(byte[] bits) {
+		this.bits = bits;
+	}
+
+	/**
+	 * @param paths The changed paths, including the directories containing them, without leading slash
+	 * @return A filter which contains all of the given paths
+	 */
+	public static ChangedPathFilter create(Collection<String> paths) {
+		if (paths.size() > MAX_PATHS) {
+			return ALL;
+		}
+
+		byte[] bits = new byte[Math.max(MIN_BYTES, (paths.size() * BITS_PER_PATH + 7) / 8)];
+		int bitCount = bits.length * 8;
+		for (String path : paths) {
+			long[] hash = hash(path);
+			for (int i = 0; i < HASHES; i++) {
+				int bit = index(hash, i, bitCount);
+				bits[bit >>> 3] |= 1 << (bit & 7);
+			}
+		}
+		return new ChangedPathFilter(bits);
+	}
+
+	/**
+	 * @param bits The bits as returned by {@link #getBits()}, null for {@link #ALL}
+	 * @return The filter with the given bits
+	 */
+	public static ChangedPathFilter fromBits(byte[] bits) {
+		return bits == null ? ALL : new ChangedPathFilter(bits);
+	}
+
+	/**
+	 * @param path A path without leading slash
+	 * @return false if the path was definitely not changed, true if it may have been changed
+	 */
+	public boolean mightContain(String path) {
+		return bits == null || mightContain(hash(path), bits, 0, bits.length);
+	}
+
+	/**
+	 * Check a path against the bits of a filter which are stored in a larger array, e.g. by an index.
+	 *
+	 * @param hash The hash of the path as returned by {@link #hash(String)}, so it is only computed once for many filters
+	 * @param bits The array holding the bits of the filter as returned by {@link #getBits()}
+	 * @param offset The start of the bits of the filter in the array
+	 * @param length The number of bytes of the filter
+	 * @return false if the path was definitely not changed, true if it may have been changed
+	 */
+	static boolean mightContain(long[] hash, byte[] bits, int offset, int length) {
+		int bitCount = length * 8;
+		for (int i = 0; i < HASHES; i++) {
+			int bit = index(hash, i, bitCount);
+			if ((bits[offset + (bit >>> 3)] & (1 << (bit & 7))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The bits of the filter for storing it, null for {@link #ALL}, the array must not be modified
+	 */
+	public byte[] getBits() {
+		return bits;
+	}
+
+	/**
+	 * The two halves of the 128 bit hash, combined via double hashing for the positions of the bits.
+	 */
+	static long[] hash(String path) {
+		ByteBuffer hash = ByteBuffer.wrap(Hashing.murmur3_128().hashString(path, Charsets.UTF_8).asBytes())
+				.order(ByteOrder.LITTLE_ENDIAN);
+		return new long[] { hash.getLong(0), hash.getLong(8) };
+	}
+
+	private static int index(long[] hash, int i, int bitCount) {
+		long combined = hash[0] + i * hash[1];
+		return (int) ((combined & Long.MAX_VALUE) % bitCount);
+	}
+
+	@Override
+	public String toString() {
+		return "ChangedPathFilter: " + (bits == null ? "all paths" : bits.length + " bytes");
+	}
+}
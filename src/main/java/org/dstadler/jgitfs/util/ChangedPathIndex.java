@@ -0,0 +1,610 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevFlag;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import com.google.common.primitives.Longs;
+
+/**
+ * Index of the paths which each commit changed compared to its first parent,
+ * stored as one {@link ChangedPathFilter} per commit, like the changed-path
+ * Bloom filters of Git's commit-graph.
+ *
+ * Each commit also stores its commit time and its parents, so the history of a
+ * path is walked in memory and only the commits whose filter might contain the
+ * path are read, see {@link #walk(AnyObjectId, String, Visitor)}. The same
+ * comparison with the first parent also yields the entries of the
+ * {@link LastModifiedIndex}, which are stored with the filter of each commit.
+ *
+ * Filters are computed in the background for all commits reachable from the
+ * refs, a commit is only added after all of its parents, so the history of an
+ * indexed commit is always indexed completely. The times, parents and filters
+ * are kept in arrays by the position of the commit in the {@link CommitTable},
+ * the bits of all filters in one array. Filters never change, so they are
+ * appended to a file next to the repository, parents before children, each with
+ * the positions of its parents in the file, and read again on the next start,
+ * only commits which are new since then need to be compared with their parent.
+ *
+ * The file is only written by the instance which holds the lock on it, other
+ * instances for the same repository keep the filters they compute in memory,
+ * see {@link IndexFile}.
+ *
+ * @author cwat-dstadler
+ */
+public class ChangedPathIndex implements Closeable {
+	/**
+	 * Callback for the commits of a history walk.
+	 */
+	public interface Visitor {
+		/**
+		 * @param commit The id of a commit which may have changed the path
+		 * @return true to continue, false to stop the walk
+		 * @throws IOException If the visitor fails to read from the repository
+		 */
+		boolean visit(AnyObjectId commit) throws IOException;
+	}
+
+	/**
+	 * The name of the file in the .git directory which holds the filters.
+	 */
+	public static final String FILE_NAME = "jgitfs-changed-paths";
+
+	/**
+	 * The first four bytes of the file, "JCP" and a version.
+	 */
+	private static final int MAGIC = 0x4a435003;
+
+	/**
+	 * The number of commits which are computed before they are added to the index,
+	 * so the commits of a long history are not all kept in memory at once.
+	 */
+	private static final int BATCH_SIZE = 10000;
+
+	private static final int NONE = -1;
+
+	private final File file;
+	private final CommitTable commits;
+	private final ObjectReaderPool readers;
+	private final TreeDiff treeDiff;
+
+	/**
+	 * The entries by the position of the commit in the table, all guarded by this. The parents are
+	 * stored as their number followed by their positions in {@link #parentList}, {@link #NONE} marks
+	 * commits which are not indexed. The filters are stored as two bytes of length followed by the
+	 * bits in {@link #filterBits}, {@link #NONE} stands for {@link ChangedPathFilter#ALL}.
+	 */
+	private int[] commitTimes = new int[0];
+	private int[] parentStarts = new int[0];
+	private int[] filterStarts = new int[0];
+
+	/**
+	 * The position of each commit in the file, for storing the parents of its children.
+	 */
+	private int[] filePositions = new int[0];
+
+	private int[] parentList = new int[1024];
+	private int parentListSize;
+	private byte[] filterBits = new byte[4096];
+	private int filterBitsSize;
+
+	/**
+	 * The number of indexed commits, i.e. the position of the next commit in the file, guarded by this.
+	 */
+	private int size;
+
+	/**
+	 * The times of the changes, filled along with the filters.
+	 */
+	private final LastModifiedIndex lastModified = new LastModifiedIndex();
+
+	/**
+	 * The file the commits are appended to, guarded by this.
+	 */
+	private final IndexFile indexFile;
+
+	/**
+	 * @param file The file for storing the filters, usually {@link #FILE_NAME} in the .git directory
+	 * @param commits The table of commits which is shared with the other indexes of the repository
+	 * @param readers The readers for reading commits and trees
+	 */
+	public ChangedPathIndex(File file, CommitTable commits, ObjectReaderPool readers) {
+		this.file = file;
+		this.commits = commits;
+		this.readers = readers;
+		// old trees are parsed without the TreeCache, they would only push out the ones which are in use
+		treeDiff = new TreeDiff(readers, null);
+
+		indexFile = new IndexFile(file, MAGIC);
+		synchronized (this) {
+			indexFile.open(new IndexFile.RecordReader() {
+				/**
+				 * The positions in the table by the position in the file.
+				 */
+				private int[] byFilePosition = new int[0];
+
+				@Override
+				public void read(DataInputStream in) throws IOException {
+					byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+					in.readFully(raw);
+					int commitTime = in.readInt();
+					int[] parents = new int[in.readUnsignedShort()];
+					for (int i = 0; i < parents.length; i++) {
+						int parent = in.readInt();
+						if (parent < 0 || parent >= size) {
+							throw new IOException("Invalid position " + parent + " of parent at commit " + size);
+						}
+						parents[i] = byFilePosition[parent];
+					}
+					short length = in.readShort();
+					byte[] bits = null;
+					if (length >= 0) {
+						bits = new byte[length];
+						in.readFully(bits);
+					}
+					long[] keys = new long[in.readInt()];
+					for (int i = 0; i < keys.length; i++) {
+						keys[i] = in.readLong();
+					}
+					int filePosition = size;
+					byFilePosition = CommitTable.grow(byFilePosition, filePosition + 1, NONE);
+					byFilePosition[filePosition] = put(ObjectId.fromRaw(raw), commitTime, parents, bits);
+					for (long key : keys) {
+						lastModified.put(key, commitTime);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Walk the history of the given commit newest first, like a RevWalk, and report the commits which
+	 * may have changed the path compared to their first parent.
+	 *
+	 * Indexed commits are only reported if their filter might contain the path, they are not read at
+	 * all. Commits which the background thread did not reach yet are read and always reported, so
+	 * the visitor needs to compare their trees.
+	 *
+	 * @param start The commit where the history starts
+	 * @param path A path inside the commit without leading slash, for the root tree all commits are reported
+	 * @param visitor Invoked for each commit which may have changed the path
+	 * @throws IOException If reading commits which are not indexed fails
+	 */
+	public void walk(AnyObjectId start, String path, Visitor visitor) throws IOException {
+		long[] hash = path.isEmpty() ? null : ChangedPathFilter.hash(path);
+		HistoryWalk walk = new HistoryWalk();
+		walk.push(start);
+
+		Pending next;
+		while ((next = walk.queue.poll()) != null) {
+			if (next.commit == null) {
+				if ((hash == null || mightContain(next.position, hash)) && !visitor.visit(commits.get(next.position))) {
+					return;
+				}
+				for (int parent : getParents(next.position)) {
+					walk.push(commits.get(parent));
+				}
+			} else {
+				if (!visitor.visit(next.commit)) {
+					return;
+				}
+				for (RevCommit parent : next.commit.getParents()) {
+					walk.push(parent);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param commit The id of a commit
+	 * @return The filter of the commit or null if it was not computed yet
+	 */
+	public synchronized ChangedPathFilter get(AnyObjectId commit) {
+		int position = find(commits.find(commit));
+		if (position == NONE) {
+			return null;
+		}
+		int offset = filterStarts[position];
+		if (offset == NONE) {
+			return ChangedPathFilter.ALL;
+		}
+		return ChangedPathFilter.fromBits(Arrays.copyOfRange(filterBits, offset + 2, offset + 2 + getFilterLength(offset)));
+	}
+
+	/**
+	 * @return The times of the last changes of paths, filled along with the filters
+	 */
+	public LastModifiedIndex getLastModifiedIndex() {
+		return lastModified;
+	}
+
+	/**
+	 * @return The number of commits which have a filter
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @param position The position of a commit in the table or {@link CommitTable#MISSING}
+	 * @return The position if the commit is indexed, {@link #NONE} otherwise
+	 */
+	private synchronized int find(int position) {
+		return (position == CommitTable.MISSING || position >= parentStarts.length || parentStarts[position] == NONE) ? NONE : position;
+	}
+
+	private int find(AnyObjectId commit) {
+		return find(commits.find(commit));
+	}
+
+	private synchronized int getCommitTime(int position) {
+		return commitTimes[position];
+	}
+
+	private synchronized int[] getParents(int position) {
+		int start = parentStarts[position];
+		return Arrays.copyOfRange(parentList, start + 1, start + 1 + parentList[start]);
+	}
+
+	private synchronized boolean mightContain(int position, long[] hash) {
+		int offset = filterStarts[position];
+		return offset == NONE || ChangedPathFilter.mightContain(hash, filterBits, offset + 2, getFilterLength(offset));
+	}
+
+	private int getFilterLength(int offset) {
+		return ((filterBits[offset] & 0xff) << 8) | (filterBits[offset + 1] & 0xff);
+	}
+
+	/**
+	 * Add a commit whose parents are added already.
+	 *
+	 * @param parents The positions of the parents in the table
+	 * @param bits The bits of the filter, null for {@link ChangedPathFilter#ALL}
+	 * @return The position of the commit in the table
+	 */
+	private int put(AnyObjectId commit, int commitTime, int[] parents, byte[] bits) {
+		int position = commits.add(commit);
+		commitTimes = CommitTable.grow(commitTimes, position + 1, 0);
+		parentStarts = CommitTable.grow(parentStarts, position + 1, NONE);
+		filterStarts = CommitTable.grow(filterStarts, position + 1, NONE);
+		filePositions = CommitTable.grow(filePositions, position + 1, NONE);
+
+		if (parentListSize + parents.length + 1 > parentList.length) {
+			parentList = Arrays.copyOf(parentList, Math.max(parentListSize + parents.length + 1, parentList.length * 2));
+		}
+		parentStarts[position] = parentListSize;
+		parentList[parentListSize++] = parents.length;
+		System.arraycopy(parents, 0, parentList, parentListSize, parents.length);
+		parentListSize += parents.length;
+
+		if (bits != null) {
+			if (filterBitsSize + bits.length + 2 > filterBits.length) {
+				filterBits = Arrays.copyOf(filterBits, Math.max(filterBitsSize + bits.length + 2, filterBits.length * 2));
+			}
+			filterStarts[position] = filterBitsSize;
+			filterBits[filterBitsSize++] = (byte) (bits.length >>> 8);
+			filterBits[filterBitsSize++] = (byte) bits.length;
+			System.arraycopy(bits, 0, filterBits, filterBitsSize, bits.length);
+			filterBitsSize += bits.length;
+		}
+
+		commitTimes[position] = commitTime;
+		filePositions[position] = size++;
+		return position;
+	}
+
+	/**
+	 * Walk the history of the commit until indexed commits or root commits are found and add
+	 * the commits in between, each after all of its parents.
+	 *
+	 * @return The position of the commit in the table, {@link #NONE} if there is no such commit or the walk was interrupted
+	 */
+	private int index(AnyObjectId commit) throws IOException {
+		int position = find(commit);
+		if (position != NONE) {
+			return position;
+		}
+
+		// the walk does not own the pooled reader, so it is not released here
+		RevWalk walk = new RevWalk(readers.get());
+		walk.setRetainBody(false);
+		RevCommit start;
+		try {
+			start = walk.parseCommit(commit);
+		} catch (MissingObjectException e) {
+			return NONE;
+		} catch (IncorrectObjectTypeException e) {
+			// e.g. a tag pointing to a tree
+			return NONE;
+		}
+
+		RevFlag missing = walk.newFlag("missing");
+		RevFlag computed = walk.newFlag("computed");
+		List<RevCommit> order = new ArrayList<RevCommit>();
+		List<Changes> changes = new ArrayList<Changes>();
+		Deque<RevCommit> stack = new ArrayDeque<RevCommit>();
+		stack.push(start);
+		try {
+			while (!stack.isEmpty()) {
+				if (Thread.currentThread().isInterrupted()) {
+					// closed while indexing
+					return NONE;
+				}
+				RevCommit current = stack.peek();
+				if (current.has(computed) || find(current) != NONE) {
+					stack.pop();
+					continue;
+				}
+
+				// a commit stays on the stack until all its parents are computed
+				boolean pending = false;
+				for (RevCommit parent : current.getParents()) {
+					if (parent.has(missing) || parent.has(computed) || find(parent) != NONE) {
+						continue;
+					}
+					try {
+						walk.parseHeaders(parent);
+						stack.push(parent);
+						pending = true;
+					} catch (MissingObjectException e) {
+						// the end of a shallow clone, the parent is left out
+						parent.add(missing);
+					}
+				}
+				if (pending) {
+					continue;
+				}
+
+				stack.pop();
+				current.add(computed);
+				order.add(current);
+				changes.add(compute(walk, current, missing));
+				if (order.size() >= BATCH_SIZE) {
+					// the commits are available from the index from now on
+					add(order, changes);
+					order.clear();
+					changes.clear();
+				}
+			}
+		} finally {
+			add(order, changes);
+		}
+		return find(commit);
+	}
+
+	/**
+	 * Add the commits and append them to the file, skipping the ones another thread added meanwhile.
+	 *
+	 * @param order The commits, each after all of its parents
+	 * @param changes The changes of the commits
+	 */
+	private synchronized void add(List<RevCommit> order, List<Changes> changes) {
+		for (int i = 0; i < order.size(); i++) {
+			RevCommit commit = order.get(i);
+			if (find(commit) != NONE) {
+				continue;
+			}
+
+			// parents missing in a shallow clone are left out
+			int[] parents = new int[commit.getParentCount()];
+			int count = 0;
+			for (RevCommit parent : commit.getParents()) {
+				int position = find(parent);
+				if (position != NONE) {
+					parents[count++] = position;
+				}
+			}
+			parents = Arrays.copyOf(parents, count);
+			Changes change = changes.get(i);
+			byte[] bits = change.filter.getBits();
+			put(commit, commit.getCommitTime(), parents, bits);
+			for (long key : change.keys) {
+				lastModified.put(key, commit.getCommitTime());
+			}
+
+			DataOutputStream out = indexFile.getOutput();
+			if (out != null) {
+				try {
+					commit.copyRawTo(out);
+					out.writeInt(commit.getCommitTime());
+					out.writeShort(parents.length);
+					for (int parent : parents) {
+						out.writeInt(filePositions[parent]);
+					}
+					if (bits == null) {
+						out.writeShort(-1);
+					} else {
+						out.writeShort(bits.length);
+						out.write(bits);
+					}
+					out.writeInt(change.keys.length);
+					for (long key : change.keys) {
+						out.writeLong(key);
+					}
+				} catch (IOException e) {
+					indexFile.writeFailed(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write filters which were computed since the last call to the file.
+	 */
+	public synchronized void flush() {
+		indexFile.flush();
+	}
+
+	/**
+	 * Compute the filters of all commits which are reachable from the given tips in the background.
+	 *
+	 * @param tips The objects the refs point to, objects which are not commits are ignored
+	 * @return A future which is done when the filters were computed, e.g. for waiting in tests
+	 */
+	public Future<?> update(Collection<ObjectId> tips) {
+		final List<ObjectId> copy = new ArrayList<ObjectId>(tips);
+		return commits.getExecutor().submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (ObjectId tip : copy) {
+						if (Thread.currentThread().isInterrupted()) {
+							return;
+						}
+						index(tip);
+					}
+				} catch (IOException e) {
+					System.out.println("Could not compute changed paths of " + file + ": " + e);
+				} finally {
+					flush();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Compare the tree of the commit with the tree of its first parent, once for both the filter and the last-modified entries.
+	 */
+	private Changes compute(RevWalk walk, RevCommit commit, RevFlag missing) throws IOException {
+		ObjectId parentTree = null;
+		if (commit.getParentCount() > 0 && !commit.getParent(0).has(missing)) {
+			RevCommit parent = commit.getParent(0);
+			if (parent.getTree() == null) {
+				walk.parseHeaders(parent);
+			}
+			parentTree = parent.getTree();
+		}
+
+		final List<String> paths = new ArrayList<String>();
+		final List<Long> keys = new ArrayList<Long>();
+		treeDiff.diff(commit.getTree(), parentTree, new TreeDiff.Visitor() {
+			@Override
+			public boolean visit(String path, ParsedTree newTree, int newIndex, ParsedTree oldTree, int oldIndex) {
+				// one path more than the filter takes is enough to know that there are too many, the times are needed for all
+				if (paths.size() <= ChangedPathFilter.MAX_PATHS) {
+					paths.add(path);
+				}
+				if (newIndex >= 0) {
+					keys.add(LastModifiedIndex.key(path, newTree.getObjectId(newIndex)));
+				}
+				return true;
+			}
+		});
+		return new Changes(ChangedPathFilter.create(paths), Longs.toArray(keys));
+	}
+
+	/**
+	 * Write the filters which were computed so far to the file, filters which are computed
+	 * afterwards are only kept in memory. The background thread is stopped by closing the
+	 * {@link CommitTable}.
+	 */
+	@Override
+	public synchronized void close() {
+		indexFile.flush();
+		indexFile.close();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ChangedPathIndex: " + size + " commits in " + indexFile;
+	}
+
+	/**
+	 * The result of comparing a commit with its first parent, until the commit is added to the index.
+	 */
+	private static final class Changes {
+		private final ChangedPathFilter filter;
+		private final long[] keys;
+
+		public Changes(ChangedPathFilter filter, long[] keys) {
+			this.filter = filter;
+			this.keys = keys;
+		}
+	}
+
+	/**
+	 * The state of one history walk, the commits are marked as seen by their position in the table.
+	 */
+	private final class HistoryWalk {
+		// the walk does not own the pooled reader, so it is not released here
+		private final RevWalk walk = new RevWalk(readers.get());
+		private final PriorityQueue<Pending> queue = new PriorityQueue<Pending>();
+		private final BitSet seen = new BitSet();
+		private int sequence;
+
+		public HistoryWalk() {
+			walk.setRetainBody(false);
+		}
+
+		/**
+		 * Queue the commit unless it was queued before, commits which are not indexed are parsed.
+		 */
+		public void push(AnyObjectId id) throws IOException {
+			int position = commits.add(id);
+			if (seen.get(position)) {
+				return;
+			}
+			seen.set(position);
+
+			if (find(position) != NONE) {
+				queue.add(new Pending(position, null, getCommitTime(position), sequence++));
+				return;
+			}
+
+			RevCommit commit = walk.lookupCommit(id);
+			try {
+				walk.parseHeaders(commit);
+			} catch (MissingObjectException e) {
+				// the end of a shallow clone
+				return;
+			}
+			queue.add(new Pending(NONE, commit, commit.getCommitTime(), sequence++));
+		}
+	}
+
+	/**
+	 * A commit in the queue of a history walk, either indexed or parsed, ordered newest first
+	 * and in the order they were queued for equal times, like the queue of a RevWalk.
+	 */
+	private static final class Pending implements Comparable<Pending> {
+		private final int position;
+		private final RevCommit commit;
+		private final int commitTime;
+		private final int sequence;
+
+		public Pending(int position, RevCommit commit, int commitTime, int sequence) {
+			this.position = position;
+			this.commit = commit;
+			this.commitTime = commitTime;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Pending other) {
+			if (commitTime != other.commitTime) {
+				return commitTime > other.commitTime ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Index of all commits which are reachable from the refs of the repository,
+ * split into 256 shards by the first byte of the id, like the directories in
+ * .git/objects.
+ *
+ * Each shard holds the ids of its commits as a sorted array of ints, five ints
+ * per commit, so millions of commits only need 20 bytes each and a shard can be
+ * listed or searched without creating any objects.
+ *
+ * The index is filled in the background. On each call to {@link #update(Collection)}
+ * only the commits which are not reachable from the tips of previous updates are
+ * walked, and the index becomes visible shard by shard in batches, so large
+ * histories can be listed partially while they are still being indexed. Commits
+ * are never removed, commits which become unreachable by rewriting a branch still
+ * exist in the repository until it is garbage collected.
+ *
+ * @author cwat-dstadler
+ */
+public class CommitIndex implements Closeable {
+	/**
+	 * Callback for visiting the ids of one shard.
+	 */
+	public interface Visitor {
+		/**
+		 * @param id The id of a commit, only valid during the call, use {@link AnyObjectId#copy()} to keep it
+		 * @return true to continue with the next commit, false to stop if the id could not be taken
+		 */
+		boolean visit(AnyObjectId id);
+	}
+
+	/**
+	 * The number of shards, one for each possible first byte of an id.
+	 */
+	public static final int FANOUT = 256;
+
+	private static final int WORDS = IdArrays.WORDS;
+
+	/**
+	 * Make newly found commits visible after this many commits while walking large histories.
+	 */
+	private static final int PUBLISH_BATCH = 100000;
+
+	private static final String[] FANOUT_NAMES = new String[FANOUT];
+	static {
+		for (int i = 0; i < FANOUT; i++) {
+			FANOUT_NAMES[i] = String.format("%02x", Integer.valueOf(i));
+		}
+	}
+
+	private final Repository repository;
+	private final ExecutorService executor;
+
+	/**
+	 * The sorted ids per shard, arrays are never modified but replaced when commits are added.
+	 */
+	private final AtomicReferenceArray<int[]> shards = new AtomicReferenceArray<int[]>(FANOUT);
+
+	/**
+	 * The tips of previous updates, everything reachable from these is indexed already.
+	 * Only accessed from the background thread.
+	 */
+	private final Set<ObjectId> indexedTips = new HashSet<ObjectId>();
+
+	private volatile int size;
+
+	public CommitIndex(Repository repository) {
+		this.repository = repository;
+		for (int i = 0; i < FANOUT; i++) {
+			shards.set(i, IdArrays.EMPTY);
+		}
+		executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+				.setDaemon(true)
+				.setNameFormat("CommitIndex for " + repository.getDirectory() + "-%d")
+				.build());
+	}
+
+	/**
+	 * Add all commits which are reachable from the given tips in the background.
+	 *
+	 * @param tips The objects the refs point to, objects which are not commits are ignored
+	 * @return A future which is done when the commits were added, e.g. for waiting in tests
+	 */
+	public Future<?> update(Collection<ObjectId> tips) {
+		final List<ObjectId> copy = new ArrayList<ObjectId>(tips);
+		return executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					index(copy);
+				} catch (IOException e) {
+					System.out.println("Could not index commits of " + repository.getDirectory() + ": " + e);
+				}
+			}
+		});
+	}
+
+	private void index(List<ObjectId> tips) throws IOException {
+		RevWalk walk = new RevWalk(repository);
+		try {
+			walk.setRetainBody(false);
+
+			List<ObjectId> newTips = new ArrayList<ObjectId>();
+			for (ObjectId tip : tips) {
+				if (indexedTips.contains(tip)) {
+					continue;
+				}
+				RevObject object = parseAny(walk, tip);
+				if (object instanceof RevCommit) {
+					walk.markStart((RevCommit) object);
+					newTips.add(tip.copy());
+				}
+			}
+			if (newTips.isEmpty()) {
+				return;
+			}
+
+			for (ObjectId tip : indexedTips) {
+				RevObject object = parseAny(walk, tip);
+				if (object instanceof RevCommit) {
+					walk.markUninteresting((RevCommit) object);
+				}
+			}
+
+			Batch batch = new Batch();
+			for (RevCommit commit : walk) {
+				if (Thread.currentThread().isInterrupted()) {
+					// closed, do not record the tips as the walk is incomplete
+					return;
+				}
+				batch.add(commit);
+				if (batch.size >= PUBLISH_BATCH) {
+					publish(batch);
+					batch = new Batch();
+				}
+			}
+			publish(batch);
+
+			indexedTips.addAll(newTips);
+		} finally {
+			walk.release();
+		}
+	}
+
+	private static RevObject parseAny(RevWalk walk, ObjectId id) throws IOException {
+		try {
+			return walk.parseAny(id);
+		} catch (MissingObjectException e) {
+			// e.g. a ref pointing to an object which was garbage collected
+			return null;
+		}
+	}
+
+	/**
+	 * Merge the commits of the batch into the shards.
+	 */
+	private void publish(Batch batch) {
+		int added = 0;
+		for (int i = 0; i < FANOUT; i++) {
+			List<RevCommit> commits = batch.commits.get(i);
+			if (commits == null) {
+				continue;
+			}
+			Collections.sort(commits);
+
+			int[] shard = shards.get(i);
+			int[] merged = merge(shard, commits);
+			added += (merged.length - shard.length) / WORDS;
+			shards.set(i, merged);
+		}
+		size += added;
+	}
+
+	/**
+	 * Merge the sorted commits into the sorted shard, skipping ids which are contained already.
+	 */
+	private static int[] merge(int[] shard, List<RevCommit> commits) {
+		int[] ids = new int[commits.size() * WORDS];
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		for (int i = 0; i < commits.size(); i++) {
+			IdArrays.toWords(commits.get(i), raw, ids, i * WORDS);
+		}
+		return IdArrays.merge(shard, ids);
+	}
+
+	/**
+	 * @param id The id of an object
+	 * @return true if the id is the id of an indexed commit
+	 */
+	public boolean contains(AnyObjectId id) {
+		int[] shard = shards.get(id.getFirstByte());
+		int[] words = new int[WORDS];
+		IdArrays.toWords(id, new byte[Constants.OBJECT_ID_LENGTH], words, 0);
+
+		int low = 0;
+		int high = shard.length / WORDS - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = IdArrays.compare(shard, mid * WORDS, words, 0);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return The number of indexed commits
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param fanout The first byte of the ids, 0-255
+	 * @return The number of indexed commits whose id starts with the given byte
+	 */
+	public int size(int fanout) {
+		return shards.get(fanout).length / WORDS;
+	}
+
+	/**
+	 * Pass the ids of one shard in sorted order to the given visitor.
+	 *
+	 * @param fanout The first byte of the ids, 0-255
+	 * @param offset The index of the first commit to visit
+	 * @param limit The maximum number of commits to visit
+	 * @param visitor Invoked for each commit until it returns false
+	 * @return The offset for visiting the next page, the size of the shard if all commits were visited
+	 */
+	public int accept(int fanout, int offset, int limit, Visitor visitor) {
+		int[] shard = shards.get(fanout);
+		int count = shard.length / WORDS;
+		int end = (int) Math.min((long) offset + limit, count);
+		MutableObjectId id = new MutableObjectId();
+		for (int i = offset; i < end; i++) {
+			id.fromRaw(shard, i * WORDS);
+			if (!visitor.visit(id)) {
+				return i;
+			}
+		}
+		return Math.max(end, offset);
+	}
+
+	/**
+	 * @param fanout The first byte of an id, 0-255
+	 * @return The two hex digits of the byte, i.e. the name of the directory of the shard
+	 */
+	public static String getFanoutName(int fanout) {
+		return FANOUT_NAMES[fanout];
+	}
+
+	/**
+	 * Stop indexing, the commits which were indexed so far can still be queried.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			// ignored, nothing we can do here
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CommitIndex: " + size + " commits";
+	}
+
+	/**
+	 * Commits which were found while walking, by shard.
+	 */
+	private static final class Batch {
+		private final List<List<RevCommit>> commits = new ArrayList<List<RevCommit>>(Collections.<List<RevCommit>>nCopies(FANOUT, null));
+		private int size;
+
+		public void add(RevCommit commit) {
+			int fanout = commit.getFirstByte();
+			if (commits.get(fanout) == null) {
+				commits.set(fanout, new ArrayList<RevCommit>());
+			}
+			commits.get(fanout).add(commit);
+			size++;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Table of the commits known to the indexes of the history of one repository,
+ * see {@link ChangedPathIndex}, {@link FirstParentIndex} and {@link AncestryIndex}.
+ *
+ * Each commit gets a number, its position in the order in which it was added,
+ * so the indexes keep their data per commit in primitive arrays indexed by this
+ * position instead of an object per commit, and the ids are only stored once
+ * for all of them. The ids are kept as five ints per commit in one array and
+ * found via an open addressing table of positions, so millions of commits need
+ * less than 30 bytes each and do not create any objects.
+ *
+ * The positions are only valid while the table exists, the indexes store their
+ * own order in their files. The indexes also share the single background thread
+ * of the table, so the history is only walked by one of them at a time.
+ *
+ * @author cwat-dstadler
+ */
+public class CommitTable implements Closeable {
+	/**
+	 * Returned by {@link #find(AnyObjectId)} for commits which are not in the table.
+	 */
+	public static final int MISSING = -1;
+
+	private static final int WORDS = IdArrays.WORDS;
+
+	private final ExecutorService executor;
+
+	/**
+	 * The ids by position, guarded by this.
+	 */
+	private int[] ids = new int[1024 * WORDS];
+
+	/**
+	 * The positions plus one by the hash of the id, 0 marks a free slot, guarded by this.
+	 */
+	private int[] table = new int[2048];
+
+	private int size;
+
+	/**
+	 * @param gitDir The .git directory of the repository, for naming the background thread
+	 */
+	public CommitTable(File gitDir) {
+		executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+				.setDaemon(true)
+				.setNameFormat("History indexer for " + gitDir + "-%d")
+				.build());
+	}
+
+	/**
+	 * @param id The id of a commit
+	 * @return The position of the commit, {@link #MISSING} if it is not in the table
+	 */
+	public int find(AnyObjectId id) {
+		int[] words = toWords(id);
+		synchronized (this) {
+			int mask = table.length - 1;
+			for (int i = slot(words, 0, mask); table[i] != 0; i = (i + 1) & mask) {
+				if (IdArrays.compare(ids, (table[i] - 1) * WORDS, words, 0) == 0) {
+					return table[i] - 1;
+				}
+			}
+			return MISSING;
+		}
+	}
+
+	/**
+	 * @param id The id of a commit
+	 * @return The position of the commit, which is added if it is not in the table yet
+	 */
+	public int add(AnyObjectId id) {
+		int[] words = toWords(id);
+		synchronized (this) {
+			int mask = table.length - 1;
+			int i = slot(words, 0, mask);
+			for (; table[i] != 0; i = (i + 1) & mask) {
+				if (IdArrays.compare(ids, (table[i] - 1) * WORDS, words, 0) == 0) {
+					return table[i] - 1;
+				}
+			}
+
+			if (size * WORDS == ids.length) {
+				ids = Arrays.copyOf(ids, ids.length * 2);
+			}
+			System.arraycopy(words, 0, ids, size * WORDS, WORDS);
+			table[i] = ++size;
+			if (size * 2 >= table.length) {
+				rehash();
+			}
+			return size - 1;
+		}
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+		for (int position = 0; position < size; position++) {
+			int i = slot(ids, position * WORDS, mask);
+			while (table[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			table[i] = position + 1;
+		}
+	}
+
+	/**
+	 * The ids are hashes already, the second int is used like in {@link AnyObjectId#hashCode()}.
+	 */
+	private static int slot(int[] words, int pos, int mask) {
+		return words[pos + 1] & mask;
+	}
+
+	private static int[] toWords(AnyObjectId id) {
+		int[] words = new int[WORDS];
+		IdArrays.toWords(id, new byte[Constants.OBJECT_ID_LENGTH], words, 0);
+		return words;
+	}
+
+	/**
+	 * @param position The position of a commit in the table
+	 * @return The id of the commit
+	 */
+	public synchronized ObjectId get(int position) {
+		if (position < 0 || position >= size) {
+			throw new IndexOutOfBoundsException("Invalid position " + position + " for " + size + " commits");
+		}
+		return ObjectId.fromRaw(ids, position * WORDS);
+	}
+
+	/**
+	 * @return The number of commits in the table, all positions are smaller than this
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return The thread on which the indexes of this table compute their entries in the background
+	 */
+	ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Grow an array which holds a value per position to hold at least the given number of values.
+	 *
+	 * @param array The array, it is returned if it is large enough already
+	 * @param length The required length
+	 * @param fill The value for the new elements
+	 * @return The array or a larger copy of it
+	 */
+	static int[] grow(int[] array, int length, int fill) {
+		if (array.length >= length) {
+			return array;
+		}
+		int[] grown = Arrays.copyOf(array, Math.max(length, array.length * 2));
+		Arrays.fill(grown, array.length, grown.length, fill);
+		return grown;
+	}
+
+	/**
+	 * Stop computing entries in the background, the entries which were computed so far can still be queried.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			// ignored, nothing we can do here
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "CommitTable: " + size + " commits";
+	}
+}
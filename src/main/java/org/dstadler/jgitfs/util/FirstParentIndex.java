@@ -0,0 +1,385 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Index of the first-parent chains of the commits reachable from the refs,
+ * for finding the n-th first-parent ancestor of a commit, i.e. "git rev-parse
+ * commit~n", or the state of a branch at a given time without walking the
+ * commits in between.
+ *
+ * Each commit stores its depth in the chain, i.e. the number of first-parent
+ * ancestors, its first parent and one additional skip pointer to an older
+ * commit of its chain. The depths of the skip pointers follow a fixed pattern,
+ * so any ancestor is reached in a logarithmic number of steps, like the skip
+ * pointers of the block index in Bitcoin. Each commit also stores the newest
+ * commit time of itself and its ancestors, which never decreases along the
+ * chain even if clocks were off, so searching by time uses the same pointers.
+ *
+ * Chains are indexed in the background for the refs and on demand for commits
+ * which are queried before the background thread reached them. The pointers
+ * and times are kept in arrays by the position of the commit in the
+ * {@link CommitTable}. Commits are appended to a file next to the repository,
+ * oldest first, each with the position of its first parent in the file and its
+ * commit time, see {@link IndexFile}. The pointers are computed again when the
+ * file is read.
+ *
+ * @author cwat-dstadler
+ */
+public class FirstParentIndex implements Closeable {
+	/**
+	 * The name of the file in the .git directory which holds the index.
+	 */
+	public static final String FILE_NAME = "jgitfs-first-parents";
+
+	/**
+	 * The first four bytes of the file, "JFP" and a version.
+	 */
+	private static final int MAGIC = 0x4a465002;
+
+	private static final int NONE = -1;
+
+	private final File file;
+	private final CommitTable commits;
+	private final ObjectReaderPool readers;
+
+	/**
+	 * The entries by the position of the commit in the table, all guarded by this. The depth is the number of
+	 * first-parent ancestors, {@link #NONE} for commits which are not indexed, the first parent and the skip
+	 * pointer are positions in the table, {@link #NONE} for root commits.
+	 */
+	private int[] depths = new int[0];
+	private int[] parents = new int[0];
+	private int[] skips = new int[0];
+
+	/**
+	 * The newest commit time of each commit and all of its first-parent ancestors.
+	 */
+	private int[] maxTimes = new int[0];
+
+	/**
+	 * The position of each commit in the file, for storing the first parent of its children.
+	 */
+	private int[] filePositions = new int[0];
+
+	/**
+	 * The number of indexed commits, i.e. the position of the next commit in the file, guarded by this.
+	 */
+	private int size;
+
+	/**
+	 * The file the commits are appended to, guarded by this.
+	 */
+	private final IndexFile indexFile;
+
+	/**
+	 * @param file The file for storing the index, usually {@link #FILE_NAME} in the .git directory
+	 * @param commits The table of commits which is shared with the other indexes of the repository
+	 * @param readers The readers for reading the commits
+	 */
+	public FirstParentIndex(File file, CommitTable commits, ObjectReaderPool readers) {
+		this.file = file;
+		this.commits = commits;
+		this.readers = readers;
+
+		indexFile = new IndexFile(file, MAGIC);
+		synchronized (this) {
+			indexFile.open(new IndexFile.RecordReader() {
+				/**
+				 * The positions in the table by the position in the file.
+				 */
+				private int[] byFilePosition = new int[0];
+
+				@Override
+				public void read(DataInputStream in) throws IOException {
+					byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+					in.readFully(raw);
+					int parent = in.readInt();
+					int commitTime = in.readInt();
+					if (parent < -1 || parent >= size) {
+						throw new IOException("Invalid position " + parent + " of first parent at commit " + size);
+					}
+					int filePosition = size;
+					byFilePosition = CommitTable.grow(byFilePosition, filePosition + 1, NONE);
+					byFilePosition[filePosition] = put(ObjectId.fromRaw(raw), parent == -1 ? NONE : byFilePosition[parent], commitTime);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Return the n-th first-parent ancestor, indexing the chain of the commit first if necessary.
+	 *
+	 * @param commit The id of a commit
+	 * @param n The number of first parents to go back, 0 for the commit itself
+	 * @return The id of the ancestor, null if the chain is shorter or if there is no such commit
+	 * @throws IOException If reading commits fails
+	 */
+	public ObjectId getAncestor(AnyObjectId commit, int n) throws IOException {
+		int position = index(commit);
+		synchronized (this) {
+			if (position == NONE || n < 0 || n > depths[position]) {
+				return null;
+			}
+			return commits.get(getAncestor(position, depths[position] - n));
+		}
+	}
+
+	/**
+	 * Return the newest commit on the first-parent chain of the given commit which was committed at or
+	 * before the given time, together with all of its first-parent ancestors. This is the state of a
+	 * branch at that time if its head only moved forward along the chain.
+	 *
+	 * @param commit The id of a commit
+	 * @param time The time in seconds since the epoch
+	 * @return The id of the commit or one of its ancestors, null if all of them are newer or if there is no such commit
+	 * @throws IOException If reading commits fails
+	 */
+	public ObjectId getLatestAt(AnyObjectId commit, long time) throws IOException {
+		int walk = index(commit);
+		synchronized (this) {
+			while (walk != NONE && maxTimes[walk] > time) {
+				// the times never increase towards the root, so the skip pointer is taken while it is still too new
+				int skip = skips[walk];
+				walk = (skip != NONE && maxTimes[skip] > time) ? skip : parents[walk];
+			}
+			return walk == NONE ? null : commits.get(walk);
+		}
+	}
+
+	/**
+	 * Return the number of first-parent ancestors, indexing the chain of the commit first if necessary.
+	 *
+	 * @param commit The id of a commit
+	 * @return The number of ancestors, 0 for a root commit, -1 if there is no such commit
+	 * @throws IOException If reading commits fails
+	 */
+	public int getDepth(AnyObjectId commit) throws IOException {
+		int position = index(commit);
+		synchronized (this) {
+			return position == NONE ? -1 : depths[position];
+		}
+	}
+
+	/**
+	 * @return The number of indexed commits
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return The position of the commit in the table, {@link #NONE} if it is not indexed
+	 */
+	private synchronized int get(AnyObjectId commit) {
+		int position = commits.find(commit);
+		return (position == CommitTable.MISSING || position >= depths.length) ? NONE : (depths[position] == NONE ? NONE : position);
+	}
+
+	/**
+	 * Add a commit whose parent is added already.
+	 *
+	 * @return The position of the commit in the table
+	 */
+	private int put(AnyObjectId commit, int parent, int commitTime) {
+		int position = commits.add(commit);
+		depths = CommitTable.grow(depths, position + 1, NONE);
+		parents = CommitTable.grow(parents, position + 1, NONE);
+		skips = CommitTable.grow(skips, position + 1, NONE);
+		maxTimes = CommitTable.grow(maxTimes, position + 1, 0);
+		filePositions = CommitTable.grow(filePositions, position + 1, NONE);
+
+		int depth = (parent == NONE) ? 0 : depths[parent] + 1;
+		depths[position] = depth;
+		parents[position] = parent;
+		skips[position] = (parent == NONE) ? NONE : getAncestor(parent, getSkipDepth(depth));
+		maxTimes[position] = (parent == NONE) ? commitTime : Math.max(maxTimes[parent], commitTime);
+		filePositions[position] = size++;
+		return position;
+	}
+
+	/**
+	 * @param position The position of an indexed commit
+	 * @param target The depth of the ancestor, at most the depth of this commit
+	 * @return The position of the ancestor
+	 */
+	private int getAncestor(int position, int target) {
+		int walk = position;
+		while (depths[walk] > target) {
+			int skipDepth = getSkipDepth(depths[walk]);
+			int previousSkipDepth = getSkipDepth(depths[walk] - 1);
+			// take the skip pointer unless the one of the parent gets closer to the target
+			if (skips[walk] != NONE && (skipDepth == target ||
+					(skipDepth > target && !(previousSkipDepth < skipDepth - 2 && previousSkipDepth >= target)))) {
+				walk = skips[walk];
+			} else {
+				walk = parents[walk];
+			}
+		}
+		return walk;
+	}
+
+	/**
+	 * Walk back along the first parents until an indexed commit or the root is found and add the chain.
+	 *
+	 * @return The position of the commit in the table, {@link #NONE} if there is no such commit or the walk was interrupted
+	 */
+	private int index(AnyObjectId commit) throws IOException {
+		int position = get(commit);
+		if (position != NONE) {
+			return position;
+		}
+
+		// the walk does not own the pooled reader, so it is not released here
+		RevWalk walk = new RevWalk(readers.get());
+		walk.setRetainBody(false);
+		RevCommit current;
+		try {
+			current = walk.parseCommit(commit);
+		} catch (MissingObjectException e) {
+			return NONE;
+		} catch (IncorrectObjectTypeException e) {
+			// e.g. a tag pointing to a tree
+			return NONE;
+		}
+
+		List<RevCommit> chain = new ArrayList<RevCommit>();
+		int base = NONE;
+		while (true) {
+			if (Thread.currentThread().isInterrupted()) {
+				// closed while indexing in the background
+				return NONE;
+			}
+			base = get(current);
+			if (base != NONE) {
+				break;
+			}
+			chain.add(current);
+			if (current.getParentCount() == 0) {
+				break;
+			}
+			RevCommit parent = current.getParent(0);
+			try {
+				walk.parseHeaders(parent);
+			} catch (MissingObjectException e) {
+				// the end of a shallow clone, the commit is handled like a root commit
+				break;
+			}
+			current = parent;
+		}
+
+		return add(chain, base);
+	}
+
+	/**
+	 * Add the commits oldest first and append them to the file, skipping the ones another thread added meanwhile.
+	 *
+	 * @param chain The commits, newest first, each one the first parent of the one before
+	 * @param base The position of the first parent of the last commit in the chain, {@link #NONE} if it is a root commit
+	 * @return The position of the first commit in the chain, the base if the chain is empty
+	 */
+	private synchronized int add(List<RevCommit> chain, int base) {
+		int parent = base;
+		for (int i = chain.size() - 1; i >= 0; i--) {
+			RevCommit commit = chain.get(i);
+			int position = get(commit);
+			if (position == NONE) {
+				position = put(commit, parent, commit.getCommitTime());
+
+				DataOutputStream out = indexFile.getOutput();
+				if (out != null) {
+					try {
+						commit.copyRawTo(out);
+						out.writeInt(parent == NONE ? -1 : filePositions[parent]);
+						out.writeInt(commit.getCommitTime());
+					} catch (IOException e) {
+						indexFile.writeFailed(e);
+					}
+				}
+			}
+			parent = position;
+		}
+		return parent;
+	}
+
+	/**
+	 * Index the chains of the given tips in the background.
+	 *
+	 * @param tips The objects the refs point to, objects which are not commits are ignored
+	 * @return A future which is done when the chains were indexed, e.g. for waiting in tests
+	 */
+	public Future<?> update(Collection<ObjectId> tips) {
+		final List<ObjectId> copy = new ArrayList<ObjectId>(tips);
+		return commits.getExecutor().submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (ObjectId tip : copy) {
+						if (Thread.currentThread().isInterrupted()) {
+							return;
+						}
+						index(tip);
+					}
+				} catch (IOException e) {
+					System.out.println("Could not index first parents of " + file + ": " + e);
+				} finally {
+					flush();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Write commits which were indexed since the last call to the file.
+	 */
+	public synchronized void flush() {
+		indexFile.flush();
+	}
+
+	/**
+	 * Write the commits which were indexed so far to the file, commits which are indexed
+	 * afterwards are only kept in memory. The background thread is stopped by closing the
+	 * {@link CommitTable}.
+	 */
+	@Override
+	public synchronized void close() {
+		indexFile.flush();
+		indexFile.close();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "FirstParentIndex: " + size + " commits in " + indexFile;
+	}
+
+	/**
+	 * @return The depth the skip pointer of a commit at the given depth points to, always less than the depth
+	 */
+	static int getSkipDepth(int depth) {
+		if (depth < 2) {
+			return 0;
+		}
+		// clear the lowest one bit once for even depths, twice for odd ones, so the distances vary
+		return (depth & 1) != 0 ? clearLowestOneBit(clearLowestOneBit(depth - 1)) + 1 : clearLowestOneBit(depth);
+	}
+
+	private static int clearLowestOneBit(int n) {
+		return n & (n - 1);
+	}
+}
@@ -2,14 +2,20 @@ package org.dstadler.jgitfs.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.IOUtils;
 
 /**
- * Utilities for checking if pathes match certain patterns to
- * decide at which level in the filesystem we are currently as
- * well as other utilities and constants.
+ * Utilities for parsing timestamps and queries in paths as well as
+ * other utilities and constants. The kind of a path is determined
+ * by {@link Route}.
  *
  * @author cwat-dstadler
  */
@@ -23,30 +29,62 @@ public class GitUtils {
 	public final static long UID = getUID();
 	public final static long GID = getGID();
 	
-	private final static Pattern TAG_PATTERN = Pattern.compile("/tag/.+");
-	private final static Pattern BRANCH_PATTERN = Pattern.compile("/branch/.+");
-	private final static Pattern REMOTE_PATTERN = Pattern.compile("/remote/.+");
-	private final static Pattern COMMIT_PATTERN = Pattern.compile("/commit/[a-z0-9]{40}(/.+)?");
-	private final static Pattern TREE_PATTERN = Pattern.compile("/tree/[a-z0-9]{40}(/.+)?");
+	private final static Pattern EPOCH_PATTERN = Pattern.compile("@[0-9]{1,12}");
 
-	public static boolean isTagDir(final String path) {
-		return TAG_PATTERN.matcher(path).matches();
-	}
-
-	public static boolean isBranchDir(final String path) {
-		return BRANCH_PATTERN.matcher(path).matches();
-	}
+	/**
+	 * The formats accepted for timestamps in paths, the most precise first.
+	 */
+	private final static String[] TIMESTAMP_FORMATS = { "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm", "yyyy-MM-dd" };
 
-	public static boolean isRemoteDir(final String path) {
-		return REMOTE_PATTERN.matcher(path).matches();
-	}
+	/**
+	 * Parse a timestamp as used in paths, either "@" and the seconds since the epoch like in Git
+	 * or a date like "2013-09-01", "2013-09-01T12:00" or "2013-09-01T12:00:30" in the local
+	 * time zone, or in UTC if followed by "Z".
+	 *
+	 * @param timestamp The timestamp
+	 * @return The seconds since the epoch, -1 if the timestamp is not valid
+	 */
+	public static long parseTimestamp(final String timestamp) {
+		if (EPOCH_PATTERN.matcher(timestamp).matches()) {
+			return Long.parseLong(timestamp.substring(1));
+		}
 
-	public static boolean isCommitDir(final String path) {
-		return COMMIT_PATTERN.matcher(path).matches();
+		String local = timestamp;
+		boolean utc = timestamp.endsWith("Z");
+		if (utc) {
+			local = timestamp.substring(0, timestamp.length() - 1);
+		}
+		for (String pattern : TIMESTAMP_FORMATS) {
+			// SimpleDateFormat is not thread-safe, so a new one is used for each call
+			SimpleDateFormat format = new SimpleDateFormat(pattern);
+			format.setLenient(false);
+			if (utc) {
+				format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			}
+			ParsePosition position = new ParsePosition(0);
+			Date date = format.parse(local, position);
+			if (date != null && position.getIndex() == local.length() && date.getTime() >= 0) {
+				return date.getTime() / 1000;
+			}
+		}
+		return -1;
 	}
 
-	public static boolean isTreeDir(final String path) {
-		return TREE_PATTERN.matcher(path).matches();
+	/**
+	 * Decode a query as used in paths, which is URL-encoded as it may contain slashes,
+	 * e.g. "new%20Foo%28%29", as in URLs "+" denotes a space.
+	 *
+	 * @param query The encoded query
+	 * @return The decoded query, null if it is not validly encoded
+	 */
+	public static String decodeQuery(final String query) {
+		try {
+			return URLDecoder.decode(query, "UTF-8");
+		} catch (IllegalArgumentException e) {
+			return null;
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 
 	public static long getUID() {
@@ -0,0 +1,89 @@
+package org.dstadler.jgitfs.util;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Helpers for storing object ids in sorted int arrays, five ints per id, which
+ * needs far less memory than ObjectId instances for large numbers of ids.
+ *
+ * @author cwat-dstadler
+ */
+final class IdArrays {
+	/**
+	 * The number of ints per id.
+	 */
+	static final int WORDS = Constants.OBJECT_ID_LENGTH / 4;
+
+	static final int[] EMPTY = new int[0];
+
+	private IdArrays() {
+		// no instances
+	}
+
+	/**
+	 * Store the given id at the given position of the array.
+	 *
+	 * @param raw A buffer of OBJECT_ID_LENGTH bytes, passed in so that it can be reused
+	 */
+	static void toWords(AnyObjectId id, byte[] raw, int[] words, int pos) {
+		id.copyRawTo(raw, 0);
+		for (int i = 0; i < WORDS; i++) {
+			words[pos + i] = NB.decodeInt32(raw, i * 4);
+		}
+	}
+
+	/**
+	 * Compare two ids stored in arrays, treating the ints as unsigned like ObjectId does.
+	 */
+	static int compare(int[] a, int posA, int[] b, int posB) {
+		for (int i = 0; i < WORDS; i++) {
+			int x = a[posA + i];
+			int y = b[posB + i];
+			if (x != y) {
+				return ((x ^ Integer.MIN_VALUE) < (y ^ Integer.MIN_VALUE)) ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Merge two sorted arrays of ids, ids contained in both are only kept once.
+	 */
+	static int[] merge(int[] a, int[] b) {
+		int[] result = new int[a.length + b.length];
+		int i = 0;
+		int j = 0;
+		int out = 0;
+		while (i < a.length && j < b.length) {
+			int cmp = compare(a, i, b, j);
+			if (cmp <= 0) {
+				System.arraycopy(a, i, result, out, WORDS);
+				i += WORDS;
+				if (cmp == 0) {
+					j += WORDS;
+				}
+			} else {
+				System.arraycopy(b, j, result, out, WORDS);
+				j += WORDS;
+			}
+			out += WORDS;
+		}
+		System.arraycopy(a, i, result, out, a.length - i);
+		out += a.length - i;
+		System.arraycopy(b, j, result, out, b.length - j);
+		out += b.length - j;
+
+		return trim(result, out);
+	}
+
+	private static int[] trim(int[] ids, int length) {
+		if (length == ids.length) {
+			return ids;
+		}
+		int[] trimmed = new int[length];
+		System.arraycopy(ids, 0, trimmed, 0, length);
+		return trimmed;
+	}
+}
@@ -0,0 +1,235 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * A file next to the repository to which the records of an index are appended.
+ *
+ * The file is only written by the instance which holds the lock on it, other
+ * instances for the same repository only read the records which exist when
+ * they are opened. Records which are incomplete at the end of the file, e.g.
+ * after a crash, are dropped when the file is opened.
+ *
+ * Instances are not thread-safe, the owning index synchronizes all calls.
+ *
+ * @author cwat-dstadler
+ */
+final class IndexFile {
+	/**
+	 * Callback for reading the records when the file is opened.
+	 */
+	interface RecordReader {
+		/**
+		 * Read one record.
+		 *
+		 * @param in The stream positioned at the start of the record
+		 * @throws EOFException If the record is incomplete, i.e. the end of the file was reached
+		 * @throws IOException If reading fails
+		 */
+		void read(DataInputStream in) throws IOException;
+	}
+
+	private final File file;
+	private final int magic;
+
+	private RandomAccessFile lockedFile;
+	private DataOutputStream out;
+
+	/**
+	 * Counts the bytes read while the file is opened, null afterwards.
+	 */
+	private CountingInputStream loading;
+
+	/**
+	 * Counts the bytes appended after the first {@link #written} bytes, null if the index is only kept in memory.
+	 */
+	private CountingOutputStream counting;
+	private long written;
+
+	/**
+	 * Opened on the first call to {@link #read(long, byte[])}.
+	 */
+	private RandomAccessFile readFile;
+
+	/**
+	 * @param file The file, usually in the .git directory
+	 * @param magic The first four bytes of the file, identifying the kind of index and its version
+	 */
+	IndexFile(File file, int magic) {
+		this.file = file;
+		this.magic = magic;
+	}
+
+	/**
+	 * Read the records which were stored before and lock the file for appending.
+	 * If it cannot be locked or written, the index is only kept in memory.
+	 *
+	 * @param reader Invoked for each record
+	 */
+	void open(RecordReader reader) {
+		try {
+			long valid = load(reader);
+
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			FileLock lock;
+			try {
+				lock = raf.getChannel().tryLock();
+			} catch (OverlappingFileLockException e) {
+				// locked by another instance in this JVM
+				lock = null;
+			}
+			if (lock == null) {
+				System.out.println("Index " + file + " is written by another process, keeping new entries in memory");
+				raf.close();
+				return;
+			}
+
+			// drop a partial record at the end, so new records are appended to complete ones,
+			// the stream writes to the descriptor directly as channels are closed when the writing thread is interrupted
+			raf.setLength(valid);
+			raf.seek(valid);
+			CountingOutputStream countingStream = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(raf.getFD())));
+			DataOutputStream stream = new DataOutputStream(countingStream);
+			if (valid == 0) {
+				stream.writeInt(magic);
+			}
+			lockedFile = raf;
+			out = stream;
+			counting = countingStream;
+			written = valid;
+		} catch (IOException e) {
+			System.out.println("Could not open index " + file + ", keeping entries in memory: " + e);
+		}
+	}
+
+	/**
+	 * @return The length of the complete records in the file, 0 if it does not exist or has an unknown format
+	 */
+	private long load(RecordReader reader) throws IOException {
+		if (!file.exists()) {
+			return 0;
+		}
+
+		loading = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+		DataInputStream in = new DataInputStream(loading);
+		long valid = 0;
+		try {
+			if (in.readInt() != magic) {
+				System.out.println("Ignoring index " + file + " with unknown format");
+				return 0;
+			}
+			while (true) {
+				valid = loading.getCount();
+				reader.read(in);
+			}
+		} catch (EOFException e) {
+			return valid;
+		} finally {
+			loading = null;
+			in.close();
+		}
+	}
+
+	/**
+	 * @return The position in the file of the next byte which is read while the file is opened
+	 * 		or which is written to the output afterwards, -1 if the index is only kept in memory
+	 */
+	long getPosition() {
+		if (loading != null) {
+			return loading.getCount();
+		}
+		return counting == null ? -1 : written + counting.getCount();
+	}
+
+	/**
+	 * Read bytes which were read while opening the file or which were written and flushed afterwards.
+	 *
+	 * @param position The position in the file as returned by {@link #getPosition()}
+	 * @param buffer Filled with the bytes
+	 * @throws IOException If reading fails, e.g. because the file was removed
+	 */
+	void read(long position, byte[] buffer) throws IOException {
+		if (readFile == null) {
+			// not a channel, these are closed when a reading thread is interrupted
+			readFile = new RandomAccessFile(file, "r");
+		}
+		readFile.seek(position);
+		readFile.readFully(buffer);
+	}
+
+	/**
+	 * @return The stream for appending records, null if the index is only kept in memory
+	 */
+	DataOutputStream getOutput() {
+		return out;
+	}
+
+	/**
+	 * Stop writing after an error, the index is only kept in memory afterwards.
+	 */
+	void writeFailed(IOException e) {
+		System.out.println("Could not write index " + file + ", keeping entries in memory: " + e);
+		closeOutput();
+	}
+
+	/**
+	 * Write the records which were appended since the last call.
+	 */
+	void flush() {
+		if (out != null) {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				writeFailed(e);
+			}
+		}
+	}
+
+	/**
+	 * Close the file and release the lock, buffered records are not written, see {@link #flush()}.
+	 */
+	void close() {
+		closeOutput();
+		try {
+			if (readFile != null) {
+				readFile.close();
+			}
+		} catch (IOException e) {
+			System.out.println("Could not close index " + file + ": " + e);
+		}
+		readFile = null;
+	}
+
+	private void closeOutput() {
+		try {
+			if (lockedFile != null) {
+				// releases the lock as well
+				lockedFile.close();
+			}
+		} catch (IOException e) {
+			System.out.println("Could not close index " + file + ": " + e);
+		}
+		lockedFile = null;
+		out = null;
+		counting = null;
+	}
+
+	@Override
+	public String toString() {
+		return file + (out == null ? ", in memory only" : "");
+	}
+}
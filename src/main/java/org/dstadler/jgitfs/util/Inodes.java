@@ -0,0 +1,113 @@
+package org.dstadler.jgitfs.util;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.util.NB;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * Computation of inode numbers.
+ *
+ * Files and directories inside commits and trees get inode numbers which are
+ * derived from their object id, so the same content has the same inode number
+ * in every commit and branch and tools which look at inode numbers, e.g. for
+ * detecting hardlinks, can skip identical files and directories.
+ *
+ * The lowest bits hold the kind of entry, so a blob which is checked in once as
+ * regular file and once as executable, or a tree and its .gittree file, get
+ * different inode numbers.
+ *
+ * As the same inode number shows up at many paths, files report a link count of
+ * two like a file with hardlinks. Tools like tar, du or rsync -H only compare the
+ * inode numbers of files with more than one link, with a link count of one they
+ * would treat each path as a separate file.
+ *
+ * All other paths, e.g. the directories of branches and tags, get inode numbers
+ * derived from their path. The two kinds of inode numbers never overlap.
+ *
+ * @author cwat-dstadler
+ */
+public final class Inodes {
+	/**
+	 * The inode number of the root directory.
+	 */
+	public static final long ROOT = 1;
+
+	private static final int KIND_BITS = 3;
+
+	private static final int KIND_TREE = 0;
+	private static final int KIND_FILE = 1;
+	private static final int KIND_EXECUTABLE = 2;
+	private static final int KIND_SYMLINK = 3;
+	private static final int KIND_GITLINK = 4;
+	private static final int KIND_GITTREE = 5;
+	private static final int KIND_OTHER = 6;
+
+	/**
+	 * Set for inode numbers which are derived from paths, object based ones are always below.
+	 */
+	private static final long PATH_BIT = 1L << 62;
+
+	private Inodes() {
+		// no instances
+	}
+
+	/**
+	 * @param objectId The id of the blob or tree
+	 * @param fileMode The mode of the entry in the tree
+	 * @param gitTree true for the special .gittree file, where the id is the one of the tree
+	 * @return An inode number which is the same for all entries with the same id and mode
+	 */
+	public static long forObject(AnyObjectId objectId, FileMode fileMode, boolean gitTree) {
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		objectId.copyRawTo(raw, 0);
+
+		// ids are uniformly distributed, so the first bytes are as good as any hash of them
+		long hash = NB.decodeInt64(raw, 0) >>> (KIND_BITS + 2);
+		return (hash << KIND_BITS) | kind(fileMode, gitTree);
+	}
+
+	/**
+	 * @param fileMode The mode of the entry in the tree
+	 * @param gitTree true for the special .gittree file
+	 * @return The link count of an entry with an inode number from {@link #forObject(AnyObjectId, FileMode, boolean)},
+	 * 		2 for files and symlinks as they share it with the other entries of the same object, 1 for directories
+	 * 		where the number of subdirectories is not known
+	 */
+	public static long linkCount(FileMode fileMode, boolean gitTree) {
+		return (!gitTree && fileMode.equals(FileMode.TREE)) ? 1 : 2;
+	}
+
+	private static int kind(FileMode fileMode, boolean gitTree) {
+		if (gitTree) {
+			return KIND_GITTREE;
+		}
+		if (fileMode.equals(FileMode.TREE)) {
+			return KIND_TREE;
+		} else if (fileMode.equals(FileMode.REGULAR_FILE)) {
+			return KIND_FILE;
+		} else if (fileMode.equals(FileMode.EXECUTABLE_FILE)) {
+			return KIND_EXECUTABLE;
+		} else if (fileMode.equals(FileMode.SYMLINK)) {
+			return KIND_SYMLINK;
+		} else if (fileMode.equals(FileMode.GITLINK)) {
+			return KIND_GITLINK;
+		}
+		return KIND_OTHER;
+	}
+
+	/**
+	 * @param path An absolute path in the filesystem
+	 * @return An inode number which only depends on the path
+	 */
+	public static long forPath(String path) {
+		if (path.equals("/")) {
+			return ROOT;
+		}
+		long hash = Hashing.murmur3_128().hashString(path, Charsets.UTF_8).asLong();
+		return PATH_BIT | (hash & (PATH_BIT - 1));
+	}
+}
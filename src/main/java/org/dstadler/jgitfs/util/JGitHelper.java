@@ -1,14 +1,21 @@
 package org.dstadler.jgitfs.util;
 
-import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 
 import net.fusejna.StructStat.StatWrapper;
 import net.fusejna.types.TypeMode.NodeType;
@@ -16,23 +23,34 @@ import net.fusejna.types.TypeMode.NodeType;
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import org.eclipse.jgit.treewalk.TreeWalk;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * Helper class which encapsulates access to the actual Git repository by
@@ -42,9 +60,177 @@ import com.google.common.io.InputSupplier;
  * @author cwat-dstadler
  */
 public class JGitHelper implements Closeable {
+	/**
+	 * The maximum size of all blobs kept in the off-heap BlobCache.
+	 */
+	public static final long BLOB_CACHE_MAX_BYTES = 256 * 1024 * 1024;	// 256MB
+
+	/**
+	 * Blobs up to this size are kept in the BlobCache.
+	 */
+	public static final long BLOB_CACHE_MAX_ENTRY = 4 * 1024 * 1024;	// 4MB
+
+	/**
+	 * The number of resolved paths which are cached.
+	 */
+	public static final int PATH_CACHE_SIZE = 200000;
+
+	/**
+	 * The number of parsed commit and tree objects which are cached.
+	 */
+	public static final int OBJECT_CACHE_SIZE = 100000;
+
+	/**
+	 * The number of objects matching an abbreviated id which are checked for their type.
+	 */
+	private static final int MAX_ABBREV_CANDIDATES = 16;
+
+	/**
+	 * The maximum number of commits of all cached histories of paths together.
+	 */
+	public static final int HISTORY_CACHE_MAX_COMMITS = 1000000;
+
+	/**
+	 * The maximum number of changed paths of all cached comparisons of trees together.
+	 */
+	public static final int COMPARISON_CACHE_MAX_PATHS = 1000000;
+
+	/**
+	 * The number of reflogs which are cached.
+	 */
+	public static final int REFLOG_CACHE_SIZE = 1000;
+
+	/**
+	 * The number of commits whose containing refs are cached.
+	 */
+	public static final int CONTAINING_CACHE_SIZE = 1000;
+
+	/**
+	 * The prefixes of the refs which are checked for containing a commit.
+	 */
+	private static final String[] CONTAINING_PREFIXES = { "refs/heads", "refs/tags" };
+
+	/**
+	 * The number of results of content searches which are cached.
+	 */
+	public static final int SEARCH_CACHE_SIZE = 100;
+
+	/**
+	 * The prefixes which are tried for resolving the name of a ref, in the same order as Git does.
+	 */
+	private static final String[] REF_SEARCH_PREFIXES = { Constants.R_TAGS, Constants.R_HEADS, Constants.R_REMOTES };
+
+	/**
+	 * The approximate maximum size of all parsed trees kept in the TreeCache.
+	 */
+	public static final long TREE_CACHE_MAX_BYTES = 64 * 1024 * 1024;	// 64MB
+
+	/**
+	 * Blobs of at least this size are inflated into spill files when they are read out of order.
+	 */
+	public static final long SPILL_THRESHOLD = 8 * 1024 * 1024;	// 8MB
+
+	/**
+	 * The maximum size of all spill files together.
+	 */
+	public static final long SPILL_MAX_BYTES = 2L * 1024 * 1024 * 1024;	// 2GB
+
 	private final Repository repository;
 	private final Git git;
 	private final File gitDir;
+	private final BlobStore blobStore;
+	private final BlobCache blobCache;
+	private final TreeCache treeCache;
+	private final ObjectReaderPool readers;
+	private final RefWatcher refWatcher;
+	private final CommitIndex commitIndex;
+	private final AbbreviationIndex abbreviationIndex;
+	private final CommitTable commitTable;
+	private final ReachabilityBitmaps bitmaps;
+	private final List<Runnable> refListeners = new CopyOnWriteArrayList<Runnable>();
+
+	/**
+	 * All refs of the repository, replaced by the RefWatcher whenever refs change.
+	 */
+	private volatile RefSnapshot refs;
+
+	/**
+	 * The index for content searches, only created on the first search as indexing reads every blob, guarded by this.
+	 */
+	private TrigramIndex trigrams;
+
+	/**
+	 * The indexes of the history, each only created on first use as they walk all commits, guarded by this.
+	 */
+	private ChangedPathIndex changedPaths;
+	private FirstParentIndex firstParents;
+	private AncestryIndex ancestry;
+
+	/**
+	 * Parsed commits and trees by id, only the headers of commits are kept, i.e. tree, parents and commit time.
+	 */
+	private final Cache<ObjectId, RevObject> objectCache = CacheBuilder.newBuilder()
+		.maximumSize(OBJECT_CACHE_SIZE)
+		.build();
+
+	/**
+	 * Cache for resolving paths in trees, trees never change, so entries never become invalid.
+	 */
+	private final LoadingCache<PathKey, TreeEntry> pathCache = CacheBuilder.newBuilder()
+		.maximumSize(PATH_CACHE_SIZE)
+		.build(new CacheLoader<PathKey, TreeEntry>() {
+			@Override
+			public TreeEntry load(PathKey key) throws IOException {
+				return walk(key.tree, key.path);
+			}
+		});
+
+	/**
+	 * The commits which changed a path, keyed by the commit the history starts at, the history never changes for a commit.
+	 */
+	private final Cache<PathKey, History> historyCache = CacheBuilder.newBuilder()
+		.maximumWeight(HISTORY_CACHE_MAX_COMMITS)
+		.weigher(new Weigher<PathKey, History>() {
+			@Override
+			public int weigh(PathKey key, History value) {
+				return value.commits.size() + 1;
+			}
+		})
+		.build();
+
+	/**
+	 * The comparisons of two trees, keyed by the old and the new tree, these never change.
+	 */
+	private final Cache<TreePair, TreeComparison> comparisonCache = CacheBuilder.newBuilder()
+		.maximumWeight(COMPARISON_CACHE_MAX_PATHS)
+		.weigher(new Weigher<TreePair, TreeComparison>() {
+			@Override
+			public int weigh(TreePair key, TreeComparison value) {
+				return value.size() + 1;
+			}
+		})
+		.build();
+
+	/**
+	 * The reflogs by the name of the ref, cleared whenever refs change as the reflogs change with them.
+	 */
+	private final Cache<String, ReflogIndex> reflogCache = CacheBuilder.newBuilder()
+		.maximumSize(REFLOG_CACHE_SIZE)
+		.build();
+
+	/**
+	 * The branches and tags which contain a commit, keyed by the commit, cleared whenever refs change.
+	 */
+	private final Cache<ObjectId, RefSnapshot> containingCache = CacheBuilder.newBuilder()
+		.maximumSize(CONTAINING_CACHE_SIZE)
+		.build();
+
+	/**
+	 * The files matching a search, keyed by the tree and the query, these never change.
+	 */
+	private final Cache<SearchKey, SearchResult> searchCache = CacheBuilder.newBuilder()
+		.maximumSize(SEARCH_CACHE_SIZE)
+		.build();
 
 	/**
 	 * Construct the helper with the given directory as Git repository.
@@ -54,6 +240,22 @@ public class JGitHelper implements Closeable {
 	 * @throws IOException If opening the Git repository fails
 	 */
 	public JGitHelper(String pGitDir) throws IOException {
+		this(pGitDir, BLOB_CACHE_MAX_BYTES, SPILL_THRESHOLD, SPILL_MAX_BYTES);
+	}
+
+	/**
+	 * Construct the helper with the given directory as Git repository and the
+	 * given limits for caching blob contents and for spilling large blobs to
+	 * temporary files.
+	 *
+	 * @param pGitDir A Git repository, either the root-dir or the .git directory directly.
+	 * @param blobCacheMaxBytes The maximum number of bytes kept off-heap in the cache of blob contents
+	 * @param spillThreshold Blobs of at least this size are served from spill files for random access
+	 * @param spillMaxBytes The maximum number of bytes that are kept in spill files
+	 * @throws IllegalStateException If the .git directory is not found
+	 * @throws IOException If opening the Git repository fails
+	 */
+	public JGitHelper(String pGitDir, long blobCacheMaxBytes, long spillThreshold, long spillMaxBytes) throws IOException {
 		if(!pGitDir.endsWith(".git")) {
 			pGitDir = pGitDir + "/.git";
 		}
@@ -69,12 +271,123 @@ public class JGitHelper implements Closeable {
 		  .findGitDir() // scan up the file system tree
 		  .build();
 		git = new Git(repository);
+
+		blobCache = new BlobCache(blobCacheMaxBytes, BLOB_CACHE_MAX_ENTRY);
+		readers = new ObjectReaderPool(repository);
+		treeCache = new TreeCache(readers, TREE_CACHE_MAX_BYTES);
+
+		File objects = ((FileRepository) repository).getObjectDatabase().getDirectory();
+		refs = readRefs(null);
+		commitIndex = new CommitIndex(repository);
+		commitIndex.update(refs.getPeeledObjectIds());
+		commitTable = new CommitTable(gitDir);
+		bitmaps = new ReachabilityBitmaps(new File(objects, "pack"), readers);
+		abbreviationIndex = new AbbreviationIndex(objects);
+		refWatcher = new RefWatcher(gitDir, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refreshRefs();
+				} catch (IOException e) {
+					System.out.println("Could not read refs of " + gitDir + ": " + e);
+				}
+			}
+		});
+		refWatcher.start();
+		blobStore = new BlobStore(Files.createTempDir(), spillThreshold, spillMaxBytes);
 	}
 
 	public File getGitDir() {
 		return gitDir;
 	}
 
+	/**
+	 * @return The cache which holds the contents of recently read blobs, e.g. for looking at hit/miss counts
+	 */
+	public BlobCache getBlobCache() {
+		return blobCache;
+	}
+
+	/**
+	 * @return The index of all commits reachable from the refs, which is filled in the background
+	 */
+	public CommitIndex getCommitIndex() {
+		return commitIndex;
+	}
+
+	/**
+	 * @return The index of the paths changed by each commit, created and filled in the background on first use
+	 */
+	public synchronized ChangedPathIndex getChangedPathIndex() {
+		if (changedPaths == null) {
+			changedPaths = new ChangedPathIndex(new File(gitDir, ChangedPathIndex.FILE_NAME), commitTable, readers);
+			changedPaths.update(refs.getPeeledObjectIds());
+		}
+		return changedPaths;
+	}
+
+	/**
+	 * @return The index of the times at which paths got their content, filled in the same pass over
+	 * 		the history as the changed paths
+	 */
+	public LastModifiedIndex getLastModifiedIndex() {
+		return getChangedPathIndex().getLastModifiedIndex();
+	}
+
+	/**
+	 * @return The index of the first-parent chains, created and filled in the background on first use and on demand
+	 */
+	public synchronized FirstParentIndex getFirstParentIndex() {
+		if (firstParents == null) {
+			firstParents = new FirstParentIndex(new File(gitDir, FirstParentIndex.FILE_NAME), commitTable, readers);
+			firstParents.update(refs.getPeeledObjectIds());
+		}
+		return firstParents;
+	}
+
+	/**
+	 * @return The index of the generations of commits, created and filled in the background on first use and on demand
+	 */
+	public synchronized AncestryIndex getAncestryIndex() {
+		if (ancestry == null) {
+			ancestry = new AncestryIndex(new File(gitDir, AncestryIndex.FILE_NAME), commitTable, readers);
+			ancestry.update(refs.getPeeledObjectIds());
+		}
+		return ancestry;
+	}
+
+	/**
+	 * @return The table of the commits which is shared by the indexes of the history
+	 */
+	public CommitTable getCommitTable() {
+		return commitTable;
+	}
+
+	/**
+	 * @return The index of the trigrams of blobs, created and filled in the background on first use
+	 */
+	public synchronized TrigramIndex getTrigramIndex() {
+		if (trigrams == null) {
+			trigrams = new TrigramIndex(new File(gitDir, TrigramIndex.FILE_NAME), readers, treeCache);
+			trigrams.update(refs.getPeeledObjectIds());
+		}
+		return trigrams;
+	}
+
+	/**
+	 * @return The pool of ObjectReaders which are used for all access to the repository
+	 */
+	public ObjectReaderPool getReaders() {
+		return readers;
+	}
+
+	/**
+	 * @return The cache which holds parsed tree objects, e.g. for looking at hit/miss counts
+	 */
+	public TreeCache getTreeCache() {
+		return treeCache;
+	}
+
 	/**
 	 * For a path to a commit, i.e. something like "/commit/0123456..." return the
 	 * actual commit-id, i.e. 0123456...
@@ -124,29 +437,88 @@ public class JGitHelper implements Closeable {
 	}
 
 	public RevCommit getCommit(String commit) throws IOException {
-		try {
-			RevWalk revWalk = new RevWalk(repository);
-			RevObject revObject = revWalk.parseAny(ObjectId.fromString(commit));
-			if (revObject instanceof RevCommit) {
-				return (RevCommit) revObject;
+		return getCommit(ObjectId.fromString(commit));
+	}
+
+	/**
+	 * @param commit The id of a commit
+	 * @return The parsed commit or null if there is no commit with this id
+	 * @throws IOException If access to the Git repository fails
+	 */
+	public RevCommit getCommit(AnyObjectId commit) throws IOException {
+		RevObject revObject = getObject(commit.copy());
+		if (revObject instanceof RevCommit) {
+			return (RevCommit) revObject;
+		}
+		return null;
+	}
+
+	/**
+	 * Resolve an abbreviated id, e.g. as shown by "git log --oneline".
+	 *
+	 * If the abbreviation matches more than one object, only objects of the given type are
+	 * considered, like Git does when an abbreviation is used as a commit.
+	 *
+	 * @param abbreviation At least the first four hex digits of an id
+	 * @param type The expected type of object, either Constants.OBJ_COMMIT or Constants.OBJ_TREE
+	 * @return The full id or null if there is no such object of the given type or if the abbreviation is ambiguous
+	 * @throws IOException If access to the Git repository fails
+	 */
+	public ObjectId resolveAbbreviation(String abbreviation, int type) throws IOException {
+		ObjectId found = null;
+		for (ObjectId candidate : abbreviationIndex.resolve(AbbreviatedObjectId.fromString(abbreviation), MAX_ABBREV_CANDIDATES)) {
+			RevObject revObject = getObject(candidate);
+			if (revObject != null && revObject.getType() == type) {
+				if (found != null) {
+					return null;
+				}
+				found = candidate;
 			}
-			return null;
-		} catch (MissingObjectException e) {
-			return null;
 		}
+		return found;
 	}
 
 	public RevTree getTree(String tree) throws IOException {
+		return getTree(ObjectId.fromString(tree));
+	}
+
+	/**
+	 * @param tree The id of a tree
+	 * @return The parsed tree or null if there is no tree with this id
+	 * @throws IOException If access to the Git repository fails
+	 */
+	public RevTree getTree(AnyObjectId tree) throws IOException {
+		RevObject revObject = getObject(tree.copy());
+		if (revObject instanceof RevTree) {
+			return (RevTree) revObject;
+		}
+		return null;
+	}
+
+	/**
+	 * Parse the given object or return it from the cache if it was parsed before.
+	 *
+	 * Objects which do not exist are not cached as they may still be fetched into the repository later.
+	 *
+	 * @return The parsed object or null if it does not exist
+	 */
+	private RevObject getObject(ObjectId id) throws IOException {
+		RevObject revObject = objectCache.getIfPresent(id);
+		if (revObject != null) {
+			return revObject;
+		}
+
+		// the walk does not own the pooled reader, so it is not released here
+		RevWalk revWalk = new RevWalk(readers.get());
+		revWalk.setRetainBody(false);
 		try {
-			RevWalk revWalk = new RevWalk(repository);
-			RevObject revObject = revWalk.parseAny(ObjectId.fromString(tree));
-			if (revObject instanceof RevTree) {
-				return (RevTree) revObject;
-			}
-			return null;
+			revObject = revWalk.parseAny(id);
 		} catch (MissingObjectException e) {
 			return null;
 		}
+
+		objectCache.put(id, revObject);
+		return revObject;
 	}
 
 	/**
@@ -168,35 +540,37 @@ public class JGitHelper implements Closeable {
 		}
 
 		// now read the file/directory attributes
-		TreeWalk treeWalk = TreeWalk.forPath(repository, path, tree);
-		if (treeWalk == null) {
-			if (path.equals(".gittree")) {
-				// Special hidden file.
-				stat.size(41);
-				stat.setMode(NodeType.FILE, true, false, true);
-				return true;
-			}
-			if (path.endsWith("/.gittree")) {
-				// Special hidden file only if within a valid tree.
-				treeWalk = TreeWalk.forPath(repository, StringUtils.removeEnd(path, "/.gittree"), tree);
-				if (treeWalk != null && treeWalk.isSubtree()) {
-					stat.size(41);
-					stat.setMode(NodeType.FILE, true, false, true);
-					return true;
-				}
-			}
+		return readType(resolve(tree, path), stat);
+	}
+
+	/**
+	 * Populate the StatWrapper with the necessary values like mode, uid, gid and type of file/directory/symlink.
+	 *
+	 * @param entry An entry which was resolved before, e.g. via {@link #resolveChild(TreeEntry, String)}
+	 * @param stat The StatWrapper instance to populate
+	 *
+	 * @throws IllegalStateException If an unknown type is encountered
+	 * @throws IOException If access to the Git repository fails
+	 * @return true if the object could be found
+	 */
+	public boolean readType(TreeEntry entry, StatWrapper stat) throws IOException {
+		if (!entry.exists()) {
 			return false;
 		}
-		FileMode fileMode = treeWalk.getFileMode(0);
+		if (entry.isGitTree()) {
+			// Special hidden file.
+			stat.size(entry.getSize());
+			stat.setMode(NodeType.FILE, true, false, true);
+			return true;
+		}
+		FileMode fileMode = entry.getFileMode();
 		if(fileMode.equals(FileMode.EXECUTABLE_FILE) ||
 				fileMode.equals(FileMode.REGULAR_FILE)) {
-			stat.size(
-					treeWalk.getObjectReader().getObjectSize(treeWalk.getObjectId(0), Constants.OBJ_BLOB));
+			stat.size(getSize(entry, Constants.OBJ_BLOB));
 			stat.setMode(NodeType.FILE, true, false, fileMode.equals(FileMode.EXECUTABLE_FILE));
 			return true;
 		} else if(fileMode.equals(FileMode.TREE)) {
-			stat.size(
-					treeWalk.getObjectReader().getObjectSize(treeWalk.getObjectId(0), Constants.OBJ_TREE));
+			stat.size(getSize(entry, Constants.OBJ_TREE));
 			stat.setMode(NodeType.DIRECTORY, true, false, true);
 			return true;
 		} if(fileMode.equals(FileMode.SYMLINK)) {
@@ -204,7 +578,7 @@ public class JGitHelper implements Closeable {
 			return true;
 		}
 
-		throw new IllegalStateException("Found unknown FileMode in Git for tree '" + tree + "' and path '" + path + "': " + fileMode.getBits());
+		throw new IllegalStateException("Found unknown FileMode in Git for entry '" + entry + "': " + fileMode.getBits());
 	}
 
 	/**
@@ -223,19 +597,34 @@ public class JGitHelper implements Closeable {
 			return null;
 		}
 
-		// read the file/directory attributes
-		TreeWalk treeWalk = TreeWalk.forPath(repository, path, tree);
-		if (treeWalk == null) {
+		TreeEntry entry = resolve(tree, path);
+		if(entry.exists() && !entry.isGitTree() && !entry.getFileMode().equals(FileMode.SYMLINK)) {
+			throw new IllegalArgumentException("Had request for symlink-target which is not a symlink, tree '" + tree + "' and path '" + path + "': " + entry.getFileMode().getBits());
+		}
+
+		return readSymlink(entry);
+	}
+
+	/**
+	 * Read the target file for the given symlink.
+	 *
+	 * @param entry An entry which was resolved before
+	 * @return the target of the symlink, relative to the directory of the symlink itself, null if the entry does not exist
+	 * @throws IOException If an error occurs while reading from the Git repository
+	 * @throws IllegalArgumentException If the given entry is not a symlink
+	 */
+	public byte[] readSymlink(final TreeEntry entry) throws IOException {
+		if (!entry.exists() || entry.isGitTree()) {
 			return null;
 		}
-		FileMode fileMode = treeWalk.getFileMode(0);
+		FileMode fileMode = entry.getFileMode();
 		if(!fileMode.equals(FileMode.SYMLINK)) {
-			throw new IllegalArgumentException("Had request for symlink-target which is not a symlink, tree '" + tree + "' and path '" + path + "': " + fileMode.getBits());
+			throw new IllegalArgumentException("Had request for symlink-target which is not a symlink, entry '" + entry + "': " + fileMode.getBits());
 		}
 
 		return ByteStreams.toByteArray(new InputSupplier<InputStream>() {
 			@Override public InputStream getInput() throws IOException {
-				return openFile(tree, path);
+				return openBlob(entry).openStream();
 			}
 		});
 	}
@@ -252,34 +641,268 @@ public class JGitHelper implements Closeable {
 	 * @throws IOException If access to the Git repository fails
 	 */
 	public InputStream openFile(RevTree tree, String path) throws IOException {
-		TreeWalk treeWalk = TreeWalk.forPath(repository, path, tree);
-		if (treeWalk == null) {
-			if (path.equals(".gittree")) {
-				// Special hidden symlink.
-				return new ByteArrayInputStream(
-						(tree.getId().getName() + '\n').getBytes(Charsets.US_ASCII));
-			}
-			if (path.endsWith("/.gittree")) {
-				// Special hidden symlink only if within a valid tree.
-				treeWalk = TreeWalk.forPath(repository, StringUtils.removeEnd(path, "/.gittree"), tree);
-				if (treeWalk != null && treeWalk.isSubtree()) {
-					return new ByteArrayInputStream(
-							(treeWalk.getObjectId(0).getName() + '\n').getBytes(Charsets.US_ASCII));
-				}
-			}
+		BlobHandle handle = openBlob(tree, path);
+		if (handle == null) {
 			return null;
 		}
 
-		if((treeWalk.getFileMode(0).getBits() & FileMode.TYPE_FILE) == 0) {
+		// finally open an InputStream for the file contents
+		return handle.openStream();
+	}
+
+	/**
+	 * Resolve the given file as-of the given commit and return a handle which
+	 * can be used for repeated reads at different offsets.
+	 *
+	 * @param tree The tree from which we read the data
+	 * @param path The path to the file
+	 *
+	 * @return A handle for reading the contents of the file or null if the file could not be opened.
+	 *
+	 * @throws IOException If access to the Git repository fails
+	 */
+	public BlobHandle openBlob(RevTree tree, String path) throws IOException {
+		return openBlob(resolve(tree, path));
+	}
+
+	/**
+	 * Return a handle for the given file which can be used for repeated reads at different offsets.
+	 *
+	 * @param entry An entry which was resolved before
+	 *
+	 * @return A handle for reading the contents of the file or null if the entry does not denote a file.
+	 *
+	 * @throws IOException If access to the Git repository fails
+	 */
+	public BlobHandle openBlob(TreeEntry entry) throws IOException {
+		if (entry.isGitTree()) {
+			// Special hidden file.
+			return syntheticBlob(entry.getObjectId());
+		}
+		if(!entry.exists() || !entry.isFile()) {
 			return null;
 		}
 
+		// the same content is usually reachable via many commits, so look in the cache first
+		ObjectId objectId = entry.getObjectId();
+		ByteBuffer content = blobCache.get(objectId);
+		if (content != null) {
+			return new BlobHandle(objectId, content);
+		}
+
 		// then open the file for reading.
-		ObjectId objectId = treeWalk.getObjectId(0);
-		ObjectLoader loader = repository.open(objectId);
+		ObjectLoader loader = readers.get().open(objectId, Constants.OBJ_BLOB);
+		if (!loader.isLarge() && blobCache.accepts(loader.getSize())) {
+			return new BlobHandle(objectId, blobCache.put(objectId, loader.getCachedBytes()));
+		}
+		return new BlobHandle(objectId, loader, blobStore);
+	}
 
-		// finally open an InputStream for the file contents
-		return loader.openStream();
+	/**
+	 * Look up the given path in the given tree, results are cached including paths which do not exist.
+	 *
+	 * @param tree The id of the root tree
+	 * @param path The path inside the tree, without leading slash, not empty
+	 * @return The entry, {@link TreeEntry#MISSING} if there is no such path
+	 * @throws IOException If access to the Git repository fails
+	 */
+	public TreeEntry resolve(AnyObjectId tree, String path) throws IOException {
+		try {
+			return pathCache.get(new PathKey(tree.copy(), path));
+		} catch (ExecutionException e) {
+			Throwables.propagateIfPossible(e.getCause(), IOException.class);
+			throw new IllegalStateException("Error resolving path " + path + " in tree " + tree.getName(), e.getCause());
+		} catch (UncheckedExecutionException e) {
+			Throwables.propagateIfPossible(e.getCause(), IOException.class);
+			throw new IllegalStateException("Error resolving path " + path + " in tree " + tree.getName(), e.getCause());
+		}
+	}
+
+	/**
+	 * Walk from tree to tree along the components of the path, using the parsed trees from the TreeCache.
+	 */
+	private TreeEntry walk(ObjectId tree, String path) throws IOException {
+		TreeEntry entry = new TreeEntry(FileMode.TREE, tree);
+		int start = 0;
+		while (entry.exists()) {
+			int end = path.indexOf('/', start);
+			if (end == -1) {
+				return resolveChild(entry, path.substring(start));
+			}
+
+			entry = resolveChild(entry, path.substring(start, end));
+			start = end + 1;
+		}
+		return entry;
+	}
+
+	/**
+	 * Look up one entry in a tree.
+	 *
+	 * @param parent The entry of the tree, usually resolved before
+	 * @param name The name of the entry in the tree, without slashes
+	 * @return The entry, {@link TreeEntry#MISSING} if there is no such entry or the parent is not a tree
+	 * @throws IOException If access to the Git repository fails
+	 */
+	public TreeEntry resolveChild(TreeEntry parent, String name) throws IOException {
+		if (!parent.exists() || !parent.isTree()) {
+			return TreeEntry.MISSING;
+		}
+
+		ParsedTree parsed = treeCache.get(parent.getObjectId());
+		int index = parsed.find(name);
+		if (index >= 0) {
+			return new TreeEntry(parsed.getFileMode(index), parsed.getObjectId(index));
+		}
+		if (name.equals(".gittree")) {
+			// Special hidden file in every tree.
+			return TreeEntry.gitTree(parent.getObjectId());
+		}
+		return TreeEntry.MISSING;
+	}
+
+	/**
+	 * Return the time of the last commit which changed the given path to its content in the
+	 * given commit, as found in the {@link LastModifiedIndex}.
+	 *
+	 * Of the times at which the content was recorded, the newest one which is not later than
+	 * the commit is used, so the time does not change while other paths are changed, also when
+	 * the content was recorded again later, e.g. by a merge into another branch.
+	 *
+	 * The commit time is returned as long as the index did not reach the content, and for
+	 * the root directory and the special .gittree files, which change with every commit.
+	 *
+	 * @param commit The commit the path is viewed in, with parsed headers
+	 * @param path A path inside the commit without leading slash, empty for the root tree
+	 * @param entry The entry at the path, as returned by {@link #resolve(AnyObjectId, String)}
+	 * @return The time in seconds, never later than the commit time
+	 */
+	public int getLastModified(RevCommit commit, String path, TreeEntry entry) {
+		int commitTime = commit.getCommitTime();
+		if (path.isEmpty() || !entry.exists() || entry.isGitTree()) {
+			return commitTime;
+		}
+
+		int time = getLastModifiedIndex().get(path, entry.getObjectId(), commitTime);
+		return time == LastModifiedIndex.UNKNOWN ? commitTime : time;
+	}
+
+	/**
+	 * Return the paths which differ between the two trees, directories which were added or
+	 * deleted as a whole are not expanded. Identical subtrees are skipped without reading them.
+	 *
+	 * @param oldTree The id of the old tree
+	 * @param newTree The id of the new tree
+	 * @return The comparison, cached for the pair of trees
+	 * @throws IOException If access to the Git repository fails
+	 */
+	public TreeComparison compare(AnyObjectId oldTree, AnyObjectId newTree) throws IOException {
+		TreePair key = new TreePair(oldTree.copy(), newTree.copy());
+		TreeComparison comparison = comparisonCache.getIfPresent(key);
+		if (comparison == null) {
+			comparison = TreeComparison.compare(readers, treeCache, key.oldTree, key.newTree);
+			comparisonCache.put(key, comparison);
+		}
+		return comparison;
+	}
+
+	/**
+	 * Return the commits which changed the given path, i.e. where the entry at the path differs from
+	 * the entry in each of the parents, like "git log --full-history" but without merges which took
+	 * the path unchanged from one of their parents.
+	 *
+	 * The history is walked along the parents stored in the {@link ChangedPathIndex}, the trees are
+	 * only compared for commits whose filter says that the path may have been changed, and for the
+	 * commits which are not indexed yet.
+	 *
+	 * @param start The commit where the history starts
+	 * @param path A path inside the commit without leading slash, empty for the root tree
+	 * @return The ids of the commits in the order of the walk, i.e. newest first, the list must not be modified
+	 * @throws IOException If access to the Git repository fails
+	 */
+	public List<ObjectId> getHistory(AnyObjectId start, String path) throws IOException {
+		return history(start, path).commits;
+	}
+
+	/**
+	 * @param start The commit where the history starts
+	 * @param path A path inside the commit without leading slash, empty for the root tree
+	 * @param commit The commit to look for
+	 * @return true if the commit is contained in {@link #getHistory(AnyObjectId, String)}, without searching the list
+	 * @throws IOException If access to the Git repository fails
+	 */
+	public boolean isInHistory(AnyObjectId start, String path, AnyObjectId commit) throws IOException {
+		return history(start, path).ids.contains(commit);
+	}
+
+	private History history(AnyObjectId start, final String path) throws IOException {
+		PathKey key = new PathKey(start.copy(), path);
+		History history = historyCache.getIfPresent(key);
+		if (history != null) {
+			return history;
+		}
+
+		// the walk does not own the pooled reader, so it is not released here
+		final RevWalk walk = new RevWalk(readers.get());
+		walk.setRetainBody(false);
+		final List<ObjectId> result = new ArrayList<ObjectId>();
+		getChangedPathIndex().walk(start, path, new ChangedPathIndex.Visitor() {
+			@Override
+			public boolean visit(AnyObjectId commit) throws IOException {
+				if (isChanged(walk, commit, path)) {
+					result.add(commit.copy());
+				}
+				return true;
+			}
+		});
+
+		history = new History(result);
+		historyCache.put(key, history);
+		return history;
+	}
+
+	/**
+	 * @return true if the entry at the path differs from the ones in all parents, for root commits if the path exists
+	 */
+	private boolean isChanged(RevWalk walk, AnyObjectId id, String path) throws IOException {
+		RevCommit commit = walk.parseCommit(id);
+		TreeEntry entry = resolvePath(commit.getTree(), path);
+		if (commit.getParentCount() == 0) {
+			return entry.exists();
+		}
+		for (RevCommit parent : commit.getParents()) {
+			TreeEntry parentEntry;
+			try {
+				parentEntry = resolvePath(walk.parseCommit(parent).getTree(), path);
+			} catch (MissingObjectException e) {
+				// the end of a shallow clone
+				parentEntry = TreeEntry.MISSING;
+			}
+			if (entry.exists() == parentEntry.exists() &&
+					(!entry.exists() || (entry.getObjectId().equals(parentEntry.getObjectId()) &&
+							entry.getFileMode().equals(parentEntry.getFileMode())))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private TreeEntry resolvePath(RevTree tree, String path) throws IOException {
+		return path.isEmpty() ? new TreeEntry(FileMode.TREE, tree.copy()) : resolve(tree, path);
+	}
+
+	private long getSize(TreeEntry entry, int type) throws IOException {
+		long size = entry.getSize();
+		if (size < 0) {
+			size = readers.get().getObjectSize(entry.getObjectId(), type);
+			entry.setSize(size);
+		}
+		return size;
+	}
+
+	private static BlobHandle syntheticBlob(AnyObjectId treeId) {
+		byte[] bytes = (treeId.getName() + '\n').getBytes(Charsets.US_ASCII);
+		return new BlobHandle(null, new ObjectLoader.SmallObject(Constants.OBJ_BLOB, bytes));
 	}
 
 	/**
@@ -321,11 +944,7 @@ public class JGitHelper implements Closeable {
 	 * @throws IOException If accessing the Git repository fails
 	 */
 	public String getRemoteHeadCommit(String branch) throws IOException {
-		Ref ref = git.getRepository().getRefDatabase().getRef("refs/remotes/" + branch);
-		if (ref == null) {
-			return null;
-		}
-		return ref.getObjectId().getName();
+		return getRefCommit("refs/remotes/" + branch);
 	}
 
 	/**
@@ -346,11 +965,7 @@ public class JGitHelper implements Closeable {
 	 * @throws IOException If accessing the Git repository fails
 	 */
 	public String getTagHeadCommit(String tag) throws IOException {
-		Ref ref = git.getRepository().getRef("refs/tags/" + tag);
-		if (ref == null) {
-			return null;
-		}
-		return ref.getObjectId().getName();
+		return getRefCommit("refs/tags/" + tag);
 	}
 
 	/**
@@ -361,11 +976,171 @@ public class JGitHelper implements Closeable {
 	 * @throws IOException If accessing the Git repository fails
 	 */
 	public String getRefCommit(String refName) throws IOException {
-		Ref ref = git.getRepository().getRef(refName);
-		if (ref == null) {
+		ObjectId id = refs.getPeeledObjectId(refName);
+		if (id == null) {
 			return null;
 		}
-		return ref.getObjectId().getName();
+		return id.getName();
+	}
+
+	/**
+	 * Return the commit the given ref pointed to at the given time.
+	 *
+	 * This is taken from the reflog if it goes back far enough. Before the first entry of the reflog,
+	 * or if there is none, e.g. in a fresh clone, the newest commit on the first-parent chain which was
+	 * committed at or before the time is used, see {@link FirstParentIndex#getLatestAt(AnyObjectId, long)}.
+	 *
+	 * @param refName The full name of the ref, e.g. "refs/heads/master"
+	 * @param time The time in seconds since the epoch
+	 * @return The commit-id or null if the ref did not exist at that time
+	 * @throws IOException If accessing the Git repository fails
+	 */
+	public ObjectId getRefCommitAt(String refName, long time) throws IOException {
+		ReflogIndex reflog = getReflog(refName);
+		ObjectId start;
+		if (reflog.isEmpty()) {
+			start = refs.getPeeledObjectId(refName);
+			if (start == null) {
+				return null;
+			}
+		} else {
+			ObjectId id = reflog.get(time);
+			if (id != null) {
+				// the zero id if the ref was deleted at that time
+				return ObjectId.zeroId().equals(id) ? null : id;
+			}
+			// before the reflog, continue from the commit the ref pointed to when it started
+			start = ObjectId.zeroId().equals(reflog.getFirstOldId()) ? reflog.getFirstNewId() : reflog.getFirstOldId();
+		}
+		return getFirstParentIndex().getLatestAt(start, time);
+	}
+
+	private ReflogIndex getReflog(String refName) throws IOException {
+		ReflogIndex reflog = reflogCache.getIfPresent(refName);
+		if (reflog == null) {
+			reflog = ReflogIndex.read(repository, refName);
+			reflogCache.put(refName, reflog);
+		}
+		return reflog;
+	}
+
+	/**
+	 * Return the branches and tags whose history contains the given commit.
+	 *
+	 * The reachability bitmaps of the packs are used if the repository has them, otherwise the
+	 * generations of the commits limit the walk to commits which are newer than the given one.
+	 *
+	 * @param commit The id of a commit
+	 * @return The branches and tags which contain the commit, empty if there is no such commit
+	 * @throws IOException If accessing the Git repository fails
+	 */
+	public RefSnapshot getContainingRefs(AnyObjectId commit) throws IOException {
+		ObjectId id = commit.copy();
+		RefSnapshot containing = containingCache.getIfPresent(id);
+		if (containing != null) {
+			return containing;
+		}
+
+		RefSnapshot snapshot = refs;
+		Map<String, ObjectId> tips = new HashMap<String, ObjectId>();
+		for (String prefix : CONTAINING_PREFIXES) {
+			for (String name : snapshot.getRefs(prefix)) {
+				ObjectId tip = snapshot.getPeeledObjectId(prefix + '/' + name);
+				if (tip != null) {
+					tips.put(prefix + '/' + name, tip);
+				}
+			}
+		}
+		Set<ObjectId> distinctTips = new HashSet<ObjectId>(tips.values());
+		Set<ObjectId> reaching = bitmaps.getContaining(id, distinctTips);
+		if (reaching == null) {
+			reaching = getAncestryIndex().getContaining(id, distinctTips);
+		}
+
+		Map<String, Ref> result = new HashMap<String, Ref>();
+		for (Map.Entry<String, ObjectId> entry : tips.entrySet()) {
+			if (reaching.contains(entry.getValue())) {
+				result.put(entry.getKey(), snapshot.getRef(entry.getKey()));
+			}
+		}
+		containing = new RefSnapshot(result);
+		if (snapshot == refs) {
+			// not cached if the refs changed meanwhile, the cache was cleared already
+			containingCache.put(id, containing);
+		}
+		return containing;
+	}
+
+	/**
+	 * Find the files in the tree whose content contains the query, see {@link TrigramIndex}.
+	 *
+	 * @param tree The id of the root tree
+	 * @param query The string to search for
+	 * @return The matching files, cached for the tree and the query, or {@link SearchResult#NOT_READY}
+	 * 		while the tree is indexed, which is not cached
+	 * @throws IOException If accessing the Git repository fails
+	 */
+	public SearchResult search(AnyObjectId tree, String query) throws IOException {
+		SearchKey key = new SearchKey(tree.copy(), query);
+		SearchResult result = searchCache.getIfPresent(key);
+		if (result == null) {
+			result = getTrigramIndex().search(key.tree, query);
+			if (result.isReady()) {
+				searchCache.put(key, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Resolve a name like Git does for a revision on the command line, i.e. a full commit id
+	 * or the short name of a tag, branch or remote branch, in this order.
+	 *
+	 * @param name A commit id or the name of a ref without refs/tags/, refs/heads/ or refs/remotes/
+	 * @return The commit or null if the name does not denote a commit
+	 * @throws IOException If accessing the Git repository fails
+	 */
+	public RevCommit resolveRevision(String name) throws IOException {
+		if (ObjectId.isId(name)) {
+			return getCommit(ObjectId.fromString(name));
+		}
+		RefSnapshot snapshot = refs;
+		for (String prefix : REF_SEARCH_PREFIXES) {
+			ObjectId id = snapshot.getPeeledObjectId(prefix + name);
+			if (id != null) {
+				// tags can point to trees and blobs as well
+				return getCommit(id);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param name The beginning of the name of a ref without refs/tags/, refs/heads/ or refs/remotes/
+	 * @return true if there is a tag, branch or remote branch below the name, i.e. it is a directory of refs
+	 */
+	public boolean hasRevisions(String name) {
+		RefSnapshot snapshot = refs;
+		for (String prefix : REF_SEARCH_PREFIXES) {
+			if (snapshot.hasRefs(prefix + name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param name The beginning of the name of a ref without refs/tags/, refs/heads/ or refs/remotes/,
+	 * 		empty for the top level
+	 * @return The sorted names of tags, branches, remote branches and directories of them directly below the name
+	 */
+	public List<String> getRevisionChildren(String name) {
+		RefSnapshot snapshot = refs;
+		SortedSet<String> names = new TreeSet<String>();
+		for (String prefix : REF_SEARCH_PREFIXES) {
+			names.addAll(snapshot.getChildren(name.isEmpty() ? prefix.substring(0, prefix.length() - 1) : prefix + name));
+		}
+		return new ArrayList<String>(names);
 	}
 
 	/**
@@ -375,17 +1150,102 @@ public class JGitHelper implements Closeable {
 	 * @throws IOException If accessing the Git repository fails
 	 */
 	public List<String> getRefs(String prefix) throws IOException {
-		Map<String, Ref> refMap = git.getRepository().getRefDatabase().getRefs(prefix + '/');
-		ArrayList<String> result = new ArrayList<String>(refMap.keySet());
-		Collections.sort(result);
-		return result;
+		return refs.getRefs(prefix);
 	}
 
 
+	/**
+	 * Return one level of the hierarchy of refs, i.e. the names of refs and of
+	 * directories of refs directly below the given prefix.
+	 *
+	 * @param prefix A prefix without trailing slash, e.g. refs/heads/feature
+	 * @return The sorted names of the direct children
+	 */
+	public List<String> getRefChildren(String prefix) {
+		return refs.getChildren(prefix);
+	}
+
 	public boolean hasRefs(String prefix) throws IOException {
-		// NOT faster: git.getRepository().getRefDatabase().isNameConflicting(prefix);
-		Map<String, Ref> refMap = git.getRepository().getRefDatabase().getRefs(prefix + '/');
-		return refMap.size() > 0;
+		return refs.hasRefs(prefix);
+	}
+
+	/**
+	 * @return The current snapshot of all refs of the repository
+	 */
+	public RefSnapshot getRefSnapshot() {
+		return refs;
+	}
+
+	/**
+	 * Register a callback which is invoked after the refs of the repository changed.
+	 *
+	 * @param listener Invoked from a background thread after a new snapshot of the refs was taken
+	 */
+	public void addRefListener(Runnable listener) {
+		refListeners.add(listener);
+	}
+
+	/**
+	 * Read all refs of the repository again and replace the current snapshot if any of them changed.
+	 *
+	 * This is done automatically whenever the files of the refs change, but can be called
+	 * to make sure that changes are visible immediately.
+	 *
+	 * @return true if the refs changed
+	 * @throws IOException If accessing the Git repository fails
+	 */
+	public synchronized boolean refreshRefs() throws IOException {
+		RefSnapshot snapshot = readRefs(refs);
+		if (snapshot.sameRefs(refs)) {
+			return false;
+		}
+
+		refs = snapshot;
+		commitIndex.update(snapshot.getPeeledObjectIds());
+		if (changedPaths != null) {
+			changedPaths.update(snapshot.getPeeledObjectIds());
+		}
+		if (firstParents != null) {
+			firstParents.update(snapshot.getPeeledObjectIds());
+		}
+		if (ancestry != null) {
+			ancestry.update(snapshot.getPeeledObjectIds());
+		}
+		if (trigrams != null) {
+			trigrams.update(snapshot.getPeeledObjectIds());
+		}
+		bitmaps.refresh();
+		reflogCache.invalidateAll();
+		containingCache.invalidateAll();
+		// new refs usually come with new objects
+		abbreviationIndex.invalidate();
+		for (Runnable listener : refListeners) {
+			listener.run();
+		}
+		return true;
+	}
+
+	/**
+	 * Read all refs and peel the ones of tags, i.e. resolve annotated tags to the commit they point to.
+	 *
+	 * Packed refs usually come peeled already, for loose tags the peeled id is taken from the
+	 * previous snapshot if the tag did not change, so only new or changed loose tags read objects.
+	 */
+	private RefSnapshot readRefs(RefSnapshot previous) throws IOException {
+		Map<String, Ref> all = repository.getRefDatabase().getRefs(RefDatabase.ALL);
+		Map<String, Ref> result = new HashMap<String, Ref>(all.size() * 2);
+		for (Ref ref : all.values()) {
+			if (!ref.isPeeled() && !ref.isSymbolic() && ref.getObjectId() != null && ref.getName().startsWith(Constants.R_TAGS)) {
+				Ref known = (previous != null) ? previous.getRef(ref.getName()) : null;
+				if (known != null && known.isPeeled() && ref.getObjectId().equals(known.getObjectId())) {
+					ref = known;
+				} else {
+					ref = repository.getRefDatabase().peel(ref);
+				}
+			}
+			result.put(ref.getName(), ref);
+		}
+		return new RefSnapshot(result);
 	}
 
 	/**
@@ -395,7 +1255,27 @@ public class JGitHelper implements Closeable {
 	 */
 	@Override
 	public void close() throws IOException {
+		refWatcher.close();
+		commitIndex.close();
+		// stops the background thread of the indexes of the history
+		commitTable.close();
+		synchronized (this) {
+			if (changedPaths != null) {
+				changedPaths.close();
+			}
+			if (firstParents != null) {
+				firstParents.close();
+			}
+			if (ancestry != null) {
+				ancestry.close();
+			}
+			if (trigrams != null) {
+				trigrams.close();
+			}
+		}
+		readers.close();
 		repository.close();
+		blobStore.close();
 	}
 
 	/**
@@ -403,35 +1283,55 @@ public class JGitHelper implements Closeable {
 	 *
 	 * @param tree The tree to show the path as-of
 	 * @param path The path underneath the commit-id to list
-	 * @return A list of file, directory and symlink elements underneath the given path, or null if the path cannot be found
+	 * @return An unmodifiable list of file, directory and symlink elements underneath the given path, or null if the path cannot be found,
+	 * 		the list is backed by the cached tree and not copied
 	 * @throws IllegalStateException If the path or the commit cannot be found or does not denote a directory
 	 * @throws IOException If access to the Git repository fails
 	 */
 	public List<String> readElementsAt(RevTree tree, String path) throws IOException {
-		AnyObjectId toWalk;
 		if (path.isEmpty()) {
 			// shortcut for root-path
-			toWalk = tree;
-		} else {
-			// try to find a specific subtree
-			TreeWalk treeWalk = TreeWalk.forPath(repository, path, tree);
-			if(treeWalk == null) {
-				return null;
-			}
-			if((treeWalk.getFileMode(0).getBits() & FileMode.TYPE_TREE) == 0) {
-				return Collections.emptyList();
-			}
-			toWalk = treeWalk.getObjectId(0);
+			return treeCache.get(tree).getNames();
+		}
+
+		// try to find a specific subtree
+		return readElementsAt(resolve(tree, path));
+	}
+
+	/**
+	 * Retrieve directory-entries of the given entry.
+	 *
+	 * @param entry An entry which was resolved before
+	 * @return An unmodifiable list of file, directory and symlink elements of the tree, null if the entry does not exist
+	 * 		or {@link Collections#emptyList()} if it is not a directory, see {@link ParsedTree#accept} for visiting
+	 * 		the entries without a list
+	 * @throws IOException If access to the Git repository fails
+	 */
+	public List<String> readElementsAt(TreeEntry entry) throws IOException {
+		if(!entry.exists() || entry.isGitTree()) {
+			return null;
 		}
+		if(!entry.isTree()) {
+			return Collections.emptyList();
+		}
+
+		return treeCache.get(entry.getObjectId()).getNames();
+	}
 
-		TreeWalk dirWalk = new TreeWalk(repository);
-		dirWalk.addTree(toWalk);
-		dirWalk.setRecursive(false);
-		List<String> items = new ArrayList<String>();
-		while(dirWalk.next()) {
-			items.add(dirWalk.getPathString());
+	/**
+	 * Retrieve the parsed tree of the given entry, e.g. for looking at the modes and
+	 * ids of all entries of a directory at once.
+	 *
+	 * @param entry An entry which was resolved before
+	 * @return The parsed tree or null if the entry does not exist or is not a tree
+	 * @throws IOException If access to the Git repository fails
+	 */
+	public ParsedTree getParsedTree(TreeEntry entry) throws IOException {
+		if(!entry.exists() || !entry.isTree()) {
+			return null;
 		}
-		return items;
+
+		return treeCache.get(entry.getObjectId());
 	}
 
 	@Override
@@ -439,4 +1339,109 @@ public class JGitHelper implements Closeable {
 			// just return toString() from Repository as it prints out the git-directory
 			return repository.toString();
 	}
+
+	/**
+	 * The commits of a history in the order of the walk, and as set for looking up single commits.
+	 */
+	private static final class History {
+		private final List<ObjectId> commits;
+		private final ObjectIdSubclassMap<ObjectId> ids = new ObjectIdSubclassMap<ObjectId>();
+
+		public History(List<ObjectId> commits) {
+			this.commits = commits;
+			for (ObjectId commit : commits) {
+				ids.addIfAbsent(commit);
+			}
+		}
+	}
+
+	/**
+	 * Key for the comparison-cache, i.e. the ids of the two root trees which are compared.
+	 */
+	private static final class TreePair {
+		private final ObjectId oldTree;
+		private final ObjectId newTree;
+
+		public TreePair(ObjectId oldTree, ObjectId newTree) {
+			this.oldTree = oldTree;
+			this.newTree = newTree;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * oldTree.hashCode() + newTree.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof TreePair)) {
+				return false;
+			}
+			TreePair other = (TreePair) obj;
+			return oldTree.equals(other.oldTree) && newTree.equals(other.newTree);
+		}
+	}
+
+	/**
+	 * Key for the path-cache and the history-cache, i.e. the id of the root tree or commit and the path underneath it.
+	 */
+	private static final class PathKey {
+		private final ObjectId tree;
+		private final String path;
+
+		public PathKey(ObjectId tree, String path) {
+			this.tree = tree;
+			this.path = path;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * tree.hashCode() + path.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof PathKey)) {
+				return false;
+			}
+			PathKey other = (PathKey) obj;
+			return tree.equals(other.tree) && path.equals(other.path);
+		}
+	}
+
+	/**
+	 * Key for the search-cache, i.e. the id of the root tree and the string which is searched for.
+	 */
+	private static final class SearchKey {
+		private final ObjectId tree;
+		private final String query;
+
+		public SearchKey(ObjectId tree, String query) {
+			this.tree = tree;
+			this.query = query;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * tree.hashCode() + query.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof SearchKey)) {
+				return false;
+			}
+			SearchKey other = (SearchKey) obj;
+			return tree.equals(other.tree) && query.equals(other.query);
+		}
+	}
 }
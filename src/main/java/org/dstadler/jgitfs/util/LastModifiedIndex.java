@@ -0,0 +1,196 @@
+package org.dstadler.jgitfs.util;
+
+import java.util.Arrays;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * Index of the time at which a path got its content, keyed by the path and
+ * the id of the blob or tree at that path, so files can report the time of
+ * the last commit which changed them as modification time instead of the time
+ * of the commit they are viewed in.
+ *
+ * For each commit reachable from the refs, the paths which differ from the
+ * first parent are recorded with the commit time. The same content can be
+ * recorded at a path more than once, e.g. after a revert, or when a merge brings
+ * the changes of another branch, as the merge is compared with its first parent
+ * only. Therefore all times are kept and the newest one which is not later than
+ * the commit the path is viewed in is returned, so the time stays the same for
+ * all commits which have the same content at the path.
+ *
+ * The entries are filled by the {@link ChangedPathIndex} in the same pass which
+ * compares each commit with its first parent for the changed-path filters, and
+ * stored in its file along with the filters, so both always cover the same commits.
+ *
+ * Keys are 64 bit hashes of path and id, kept in an open addressing table of
+ * primitive arrays, so millions of entries do not create any objects.
+ *
+ * @author cwat-dstadler
+ */
+public class LastModifiedIndex {
+	/**
+	 * Returned by {@link #get(String, AnyObjectId)} for content which is not indexed.
+	 */
+	public static final int UNKNOWN = 0;
+
+	/**
+	 * The hashes of path and id and their times, 0 marks a free slot, guarded by this.
+	 * Most keys have a single time, which is stored directly, a negative value
+	 * refers to the sorted times in {@link #moreTimes} instead.
+	 */
+	private long[] keys = new long[1024];
+	private int[] times = new int[1024];
+	private int size;
+	private int[][] moreTimes = new int[16][];
+	private int moreSize;
+
+	/**
+	 * @param path A path inside a commit without leading slash
+	 * @param id The id of the blob or tree at this path
+	 * @return The commit time of the newest commit which changed the path to this content, in seconds,
+	 * 		{@link #UNKNOWN} if the content was not indexed (yet)
+	 */
+	public int get(String path, AnyObjectId id) {
+		return get(path, id, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param path A path inside a commit without leading slash
+	 * @param id The id of the blob or tree at this path
+	 * @param before The commit time of the commit the path is viewed in, in seconds
+	 * @return The commit time of the newest commit which changed the path to this content and is
+	 * 		not later than before, in seconds, {@link #UNKNOWN} if there is no such commit (yet)
+	 */
+	public int get(String path, AnyObjectId id, int before) {
+		long key = key(path, id);
+		synchronized (this) {
+			int mask = keys.length - 1;
+			for (int i = slot(key, mask); keys[i] != 0; i = (i + 1) & mask) {
+				if (keys[i] == key) {
+					if (times[i] > 0) {
+						return times[i] <= before ? times[i] : UNKNOWN;
+					}
+
+					int[] sorted = moreTimes[-times[i] - 1];
+					int pos = Arrays.binarySearch(sorted, before);
+					if (pos < 0) {
+						// the index of the first later time
+						pos = -pos - 2;
+					}
+					return pos >= 0 ? sorted[pos] : UNKNOWN;
+				}
+			}
+			return UNKNOWN;
+		}
+	}
+
+	/**
+	 * @return The number of indexed combinations of path and content
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @param path A path inside a commit without leading slash
+	 * @param id The id of the blob or tree at this path
+	 * @return The key under which the time of the content at the path is stored, never 0
+	 */
+	static long key(String path, AnyObjectId id) {
+		byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		id.copyRawTo(raw, 0);
+		long hash = Hashing.murmur3_128().newHasher()
+				.putString(path, Charsets.UTF_8)
+				.putBytes(raw)
+				.hash().asLong();
+		// 0 marks free slots
+		return hash == 0 ? 1 : hash;
+	}
+
+	private static int slot(long key, int mask) {
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+
+	/**
+	 * Add the time to the times of the key.
+	 *
+	 * @param key The key as returned by {@link #key(String, AnyObjectId)}
+	 * @param time The commit time in seconds, larger than 0
+	 * @return true if the time was stored, false if the key had this time already
+	 */
+	synchronized boolean put(long key, int time) {
+		if (size * 2 >= keys.length) {
+			grow();
+		}
+
+		int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while (keys[i] != 0) {
+			if (keys[i] == key) {
+				return add(i, time);
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		times[i] = time;
+		size++;
+		return true;
+	}
+
+	private boolean add(int i, int time) {
+		if (times[i] == time) {
+			return false;
+		}
+
+		if (times[i] > 0) {
+			// the second time for this key
+			if (moreSize == moreTimes.length) {
+				moreTimes = Arrays.copyOf(moreTimes, moreSize * 2);
+			}
+			moreTimes[moreSize] = times[i] < time ? new int[] { times[i], time } : new int[] { time, times[i] };
+			times[i] = -++moreSize;
+			return true;
+		}
+
+		int[] sorted = moreTimes[-times[i] - 1];
+		int pos = Arrays.binarySearch(sorted, time);
+		if (pos >= 0) {
+			return false;
+		}
+		pos = -pos - 1;
+		int[] added = new int[sorted.length + 1];
+		System.arraycopy(sorted, 0, added, 0, pos);
+		added[pos] = time;
+		System.arraycopy(sorted, pos, added, pos + 1, sorted.length - pos);
+		moreTimes[-times[i] - 1] = added;
+		return true;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldTimes = times;
+		keys = new long[oldKeys.length * 2];
+		times = new int[oldKeys.length * 2];
+
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != 0) {
+				int i = slot(oldKeys[j], mask);
+				while (keys[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				times[i] = oldTimes[j];
+			}
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "LastModifiedIndex: " + size + " entries, " + moreSize + " with more than one time";
+	}
+}
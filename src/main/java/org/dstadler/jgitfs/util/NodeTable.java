@@ -0,0 +1,205 @@
+package org.dstadler.jgitfs.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Table of the nodes of the filesystem, i.e. one node per path that was
+ * accessed, arranged as a trie of path components with parent pointers.
+ *
+ * FUSE passes full paths for every call, so without this, deep paths below
+ * a commit would be resolved from the root tree on each call. A node keeps
+ * the parsed route and the resolved tree entry, so a path is resolved from
+ * the node of its parent directory and usually only once.
+ *
+ * The names of the path components are interned, as the same names appear
+ * below many commits. The table is cleared when it grows beyond the given
+ * number of nodes, this does not change the inode numbers, as they only
+ * depend on the path or on the resolved entry, see {@link Inodes}.
+ *
+ * @author cwat-dstadler
+ */
+public class NodeTable {
+	private final Interner<String> names = Interners.newWeakInterner();
+	private final int maxNodes;
+	private final AtomicInteger count = new AtomicInteger();
+
+	private volatile Node root = new Node(null, "");
+
+	/**
+	 * @param maxNodes The number of nodes after which the table is cleared
+	 */
+	public NodeTable(int maxNodes) {
+		this.maxNodes = maxNodes;
+	}
+
+	/**
+	 * Return the node for the given path, creating it and the nodes of its
+	 * parent directories if necessary.
+	 *
+	 * @param path An absolute path as passed in by FUSE
+	 * @return The node for the path
+	 */
+	public Node get(String path) {
+		if (count.get() > maxNodes) {
+			clear();
+		}
+
+		Node node = root;
+		int start = 1;
+		int length = path.length();
+		while (start < length) {
+			int end = path.indexOf('/', start);
+			if (end == -1) {
+				end = length;
+			}
+			if (end > start) {
+				node = getChild(node, path.substring(start, end));
+			}
+			start = end + 1;
+		}
+		return node;
+	}
+
+	/**
+	 * Return the node for one entry of the given directory, creating it if necessary,
+	 * e.g. for storing entries which were read while listing the directory.
+	 *
+	 * @param parent The node of the directory
+	 * @param name The name of the entry, without slashes
+	 * @return The node for the entry
+	 */
+	public Node getChild(Node parent, String name) {
+		Node child = parent.children.get(name);
+		if (child != null) {
+			return child;
+		}
+
+		child = new Node(parent, names.intern(name));
+		Node existing = parent.children.putIfAbsent(child.name, child);
+		if (existing != null) {
+			return existing;
+		}
+		count.incrementAndGet();
+		return child;
+	}
+
+	/**
+	 * Remove all nodes, e.g. when too many nodes were created.
+	 */
+	public void clear() {
+		System.out.println("Clearing node table with " + count.get() + " nodes");
+		root = new Node(null, "");
+		count.set(0);
+	}
+
+	/**
+	 * @return The number of nodes in the table, excluding the root
+	 */
+	public int size() {
+		return count.get();
+	}
+
+	@Override
+	public String toString() {
+		return "NodeTable: " + count.get() + " nodes";
+	}
+
+	/**
+	 * One path of the filesystem.
+	 */
+	public static final class Node {
+		private final Node parent;
+		private final String name;
+		private final int depth;
+
+		private final ConcurrentMap<String, Node> children = new ConcurrentHashMap<String, Node>(4, 0.75f, 1);
+
+		private volatile Route route;
+		private volatile TreeEntry entry;
+
+		/**
+		 * The inode number derived from the path, computed lazily as it is only needed
+		 * for nodes without an entry, 0 until then.
+		 */
+		private volatile long pathIno;
+
+		private Node(Node parent, String name) {
+			this.parent = parent;
+			this.name = name;
+			this.depth = (parent == null) ? 0 : parent.depth + 1;
+		}
+
+		/**
+		 * @return The node of the directory containing this node, null for the root
+		 */
+		public Node getParent() {
+			return parent;
+		}
+
+		/**
+		 * @return The last component of the path
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return The number of path components, 0 for the root
+		 */
+		public int getDepth() {
+			return depth;
+		}
+
+		/**
+		 * @return The inode number of the resolved entry if there is one, otherwise one derived from the path
+		 */
+		public long getIno() {
+			TreeEntry resolved = entry;
+			if (resolved != null) {
+				return resolved.getIno();
+			}
+			long ino = pathIno;
+			if (ino == 0) {
+				ino = Inodes.forPath(toString());
+				pathIno = ino;
+			}
+			return ino;
+		}
+
+		/**
+		 * Return the parsed route, parsing the given path on the first call.
+		 *
+		 * @param path The path of this node as passed in by FUSE
+		 * @return The route of this node
+		 */
+		public Route getRoute(String path) {
+			Route result = route;
+			if (result == null) {
+				result = Route.parse(path);
+				route = result;
+			}
+			return result;
+		}
+
+		/**
+		 * @return The resolved entry for nodes inside a commit or tree, null if it was not resolved yet
+		 */
+		public TreeEntry getEntry() {
+			return entry;
+		}
+
+		public void setEntry(TreeEntry entry) {
+			this.entry = entry;
+		}
+
+		@Override
+		public String toString() {
+			return (parent == null) ? "/" : (parent.parent == null ? "/" + name : parent.toString() + "/" + name);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Hands out one ObjectReader per thread, so the readers and the pack windows
+ * and inflaters they hold are reused across calls instead of being created
+ * for each request from FUSE.
+ *
+ * ObjectReaders are not thread-safe, so a reader must only be used by the
+ * thread which obtained it and must not be released by the caller.
+ *
+ * @author cwat-dstadler
+ */
+public class ObjectReaderPool implements Closeable {
+	private final Repository repository;
+
+	/**
+	 * All readers which were handed out, so they can be released when the pool is closed.
+	 */
+	private final Queue<ObjectReader> readers = new ConcurrentLinkedQueue<ObjectReader>();
+
+	private final ThreadLocal<ObjectReader> reader = new ThreadLocal<ObjectReader>() {
+		@Override
+		protected ObjectReader initialValue() {
+			ObjectReader newReader = repository.newObjectReader();
+			readers.add(newReader);
+			return newReader;
+		}
+	};
+
+	public ObjectReaderPool(Repository repository) {
+		this.repository = repository;
+	}
+
+	/**
+	 * @return The reader of the current thread
+	 */
+	public ObjectReader get() {
+		return reader.get();
+	}
+
+	/**
+	 * @return The number of readers which were created so far
+	 */
+	public int size() {
+		return readers.size();
+	}
+
+	/**
+	 * Release all readers, the pool is not usable after this call any more.
+	 */
+	@Override
+	public void close() {
+		ObjectReader next;
+		while ((next = readers.poll()) != null) {
+			next.release();
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package org.dstadler.jgitfs.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+/**
+ * The entries of one Git tree object in compact arrays which are sorted by
+ * name, so a single entry is found via binary search instead of scanning the
+ * raw tree object again.
+ *
+ * Instances are immutable and can be shared by all commits which contain the
+ * same tree.
+ *
+ * @author cwat-dstadler
+ */
+public final class ParsedTree {
+	/**
+	 * Callback for visiting the entries of a tree without building a list of them.
+	 */
+	public interface Visitor {
+		/**
+		 * @param tree The tree which is visited
+		 * @param index The index of the current entry, e.g. for {@link ParsedTree#getName(int)}
+		 * @return true to continue with the next entry, false to stop if the entry could not be taken, e.g. because the receiver is full
+		 */
+		boolean visit(ParsedTree tree, int index);
+	}
+
+	private final String[] names;
+	private final int[] modes;
+
+	/**
+	 * The raw ids of all entries, OBJECT_ID_LENGTH bytes per entry.
+	 */
+	private final byte[] ids;
+
+	private ParsedTree(String[] names, int[] modes, byte[] ids) {
+		this.names = names;
+		this.modes = modes;
+		this.ids = ids;
+	}
+
+	/**
+	 * Parse the given raw tree object.
+	 *
+	 * @param raw The contents of a tree object as stored in the repository
+	 * @return The parsed tree
+	 */
+	public static ParsedTree parse(byte[] raw) {
+		List<Entry> entries = new ArrayList<Entry>();
+		CanonicalTreeParser parser = new CanonicalTreeParser();
+		for (parser.reset(raw); !parser.eof(); parser.next()) {
+			byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+			System.arraycopy(parser.idBuffer(), parser.idOffset(), id, 0, Constants.OBJECT_ID_LENGTH);
+			entries.add(new Entry(parser.getEntryPathString(), parser.getEntryRawMode(), id));
+		}
+
+		// Git sorts subtrees as if their name ended with a slash, the binary search needs plain name order
+		Collections.sort(entries);
+
+		int count = entries.size();
+		String[] names = new String[count];
+		int[] modes = new int[count];
+		byte[] ids = new byte[count * Constants.OBJECT_ID_LENGTH];
+		for (int i = 0; i < count; i++) {
+			Entry entry = entries.get(i);
+			names[i] = entry.name;
+			modes[i] = entry.mode;
+			System.arraycopy(entry.id, 0, ids, i * Constants.OBJECT_ID_LENGTH, Constants.OBJECT_ID_LENGTH);
+		}
+
+		return new ParsedTree(names, modes, ids);
+	}
+
+	/**
+	 * @return The number of entries in this tree
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Look up the entry with the given name.
+	 *
+	 * @param name The name of a direct child of this tree, i.e. without any slashes
+	 * @return The index of the entry or a negative value if there is no such entry
+	 */
+	public int find(String name) {
+		return Arrays.binarySearch(names, name);
+	}
+
+	public String getName(int index) {
+		return names[index];
+	}
+
+	public FileMode getFileMode(int index) {
+		return FileMode.fromBits(modes[index]);
+	}
+
+	public boolean isTree(int index) {
+		return (modes[index] & FileMode.TYPE_MASK) == FileMode.TYPE_TREE;
+	}
+
+	public ObjectId getObjectId(int index) {
+		return ObjectId.fromRaw(ids, index * Constants.OBJECT_ID_LENGTH);
+	}
+
+	/**
+	 * Pass the entries in name order to the given visitor, starting at the given offset,
+	 * so that large trees can be listed in pages.
+	 *
+	 * @param offset The index of the first entry to visit
+	 * @param limit The maximum number of entries to visit
+	 * @param visitor Invoked for each entry until it returns false
+	 * @return The offset for visiting the next page, {@link #size()} if all entries were visited
+	 */
+	public int accept(int offset, int limit, Visitor visitor) {
+		int end = (int) Math.min((long) offset + limit, names.length);
+		for (int i = offset; i < end; i++) {
+			if (!visitor.visit(this, i)) {
+				return i;
+			}
+		}
+		return Math.max(end, offset);
+	}
+
+	/**
+	 * @return The names of all entries, sorted by name
+	 */
+	public List<String> getNames() {
+		return Collections.unmodifiableList(Arrays.asList(names));
+	}
+
+	/**
+	 * Rough number of bytes held by this instance, used for limiting the size of the cache.
+	 */
+	int weight() {
+		int weight = 64 + ids.length + modes.length * 4;
+		for (String name : names) {
+			weight += 48 + name.length() * 2;
+		}
+		return weight;
+	}
+
+	private static final class Entry implements Comparable<Entry> {
+		private final String name;
+		private final int mode;
+		private final byte[] id;
+
+		public Entry(String name, int mode, byte[] id) {
+			this.name = name;
+			this.mode = mode;
+			this.id = id;
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			return name.compareTo(o.name);
+		}
+	}
+}
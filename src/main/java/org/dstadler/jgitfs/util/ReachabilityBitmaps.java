@@ -0,0 +1,273 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.BitmapIndex;
+import org.eclipse.jgit.lib.BitmapIndex.Bitmap;
+import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * The objects reachable from each ref as a bitmap, for finding the refs which
+ * contain a commit with one lookup per ref instead of one walk per ref.
+ *
+ * The bitmaps are built from the reachability bitmaps which Git and JGit write
+ * next to a pack during gc for selected commits. The bitmap of a tip is the
+ * union of the pack bitmaps of the nearest selected commits, kept compressed.
+ * The commits which are walked before reaching them, usually the ones added
+ * since the last gc, are numbered once in a table shared by all tips, each tip
+ * only keeps a bit per numbered commit. The result is cached by the id of the
+ * tip, so after refs changed only the new tips are walked, and these walks stop
+ * at the tips which were computed before.
+ *
+ * Without a pack bitmap, e.g. before the first gc, no bitmaps are available,
+ * see {@link AncestryIndex} for that case.
+ *
+ * @author cwat-dstadler
+ */
+public class ReachabilityBitmaps {
+	/**
+	 * The maximum size of the cached bitmaps of all tips together, in 64 bit words.
+	 */
+	public static final int CACHE_MAX_WORDS = 16 * 1024 * 1024;
+
+	private final File packDir;
+	private final ObjectReaderPool readers;
+
+	/**
+	 * The names of the bitmap files when the bitmap index was read, null if it was not read yet, guarded by this.
+	 */
+	private String[] bitmapFiles;
+
+	/**
+	 * The bitmap index of the repository, null if there is none, guarded by this.
+	 */
+	private BitmapIndex bitmapIndex;
+
+	/**
+	 * The commits which are not covered by a pack bitmap, numbered in the order they are
+	 * found, only valid for the current bitmap index, guarded by this.
+	 */
+	private ObjectIdOwnerMap<Unpacked> unpacked = new ObjectIdOwnerMap<Unpacked>();
+
+	/**
+	 * The bitmaps of the tips, they are only valid for the current bitmap index.
+	 */
+	private final Cache<ObjectId, Reach> reaches = CacheBuilder.newBuilder()
+		.maximumWeight(CACHE_MAX_WORDS)
+		.weigher(new Weigher<ObjectId, Reach>() {
+			@Override
+			public int weigh(ObjectId key, Reach value) {
+				return value.words;
+			}
+		})
+		.build();
+
+	/**
+	 * @param packDir The directory of the packs of the repository, i.e. .git/objects/pack
+	 * @param readers The readers for reading the bitmap index and the commits
+	 */
+	public ReachabilityBitmaps(File packDir, ObjectReaderPool readers) {
+		this.packDir = packDir;
+		this.readers = readers;
+	}
+
+	/**
+	 * Find the tips which contain the given commit, i.e. from which the commit is reachable.
+	 *
+	 * @param commit The id of a commit
+	 * @param tips The ids of the commits the refs point to, objects which are not commits are ignored
+	 * @return The tips which contain the commit, null if the repository has no bitmap index
+	 * @throws IOException If reading the bitmap index or commits fails
+	 */
+	public synchronized Set<ObjectId> getContaining(AnyObjectId commit, Collection<ObjectId> tips) throws IOException {
+		BitmapIndex index = getBitmapIndex();
+		if (index == null) {
+			return null;
+		}
+
+		// the commit as bitmap, for checking it against the compressed bitmaps of the tips
+		BitmapBuilder single = index.newBitmapBuilder();
+		single.add(commit, Constants.OBJ_COMMIT);
+		Bitmap probe = single.build();
+		Unpacked other = unpacked.get(commit);
+
+		Set<ObjectId> result = new HashSet<ObjectId>();
+		for (ObjectId tip : tips) {
+			Reach reach = getReach(index, tip);
+			if (reach != null && reach.contains(other, probe)) {
+				result.add(tip);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Read the bitmap index again on the next lookup if the bitmap files changed, e.g. after a gc.
+	 */
+	public synchronized void refresh() {
+		if (bitmapFiles != null && !Arrays.equals(bitmapFiles, listBitmapFiles())) {
+			bitmapFiles = null;
+			bitmapIndex = null;
+			reaches.invalidateAll();
+			unpacked = new ObjectIdOwnerMap<Unpacked>();
+		}
+	}
+
+	private BitmapIndex getBitmapIndex() throws IOException {
+		if (bitmapFiles == null) {
+			bitmapFiles = listBitmapFiles();
+			bitmapIndex = readers.get().getBitmapIndex();
+		}
+		return bitmapIndex;
+	}
+
+	private String[] listBitmapFiles() {
+		String[] names = packDir.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".bitmap");
+			}
+		});
+		if (names == null) {
+			return new String[0];
+		}
+		Arrays.sort(names);
+		return names;
+	}
+
+	/**
+	 * @return The objects reachable from the tip, null if it is not a commit
+	 */
+	private Reach getReach(BitmapIndex index, ObjectId tip) throws IOException {
+		Reach reach = reaches.getIfPresent(tip);
+		if (reach != null) {
+			return reach;
+		}
+
+		// the walk does not own the pooled reader, so it is not released here
+		RevWalk walk = new RevWalk(readers.get());
+		walk.setRetainBody(false);
+		RevCommit start;
+		try {
+			start = walk.parseCommit(tip);
+		} catch (MissingObjectException e) {
+			return null;
+		} catch (IncorrectObjectTypeException e) {
+			// e.g. a tag pointing to a tree
+			return null;
+		}
+
+		BitmapBuilder packed = index.newBitmapBuilder();
+		BitSet others = new BitSet();
+		Deque<RevCommit> pending = new ArrayDeque<RevCommit>();
+		pending.push(start);
+		while (!pending.isEmpty()) {
+			RevCommit commit = pending.pop();
+			Unpacked other = unpacked.get(commit);
+			if ((other != null && others.get(other.position)) || packed.contains(commit)) {
+				continue;
+			}
+
+			// the bitmap of another tip, e.g. the previous commit of a branch
+			Reach known = (commit == start) ? null : reaches.getIfPresent(commit);
+			if (known != null) {
+				packed.or(known.packed);
+				others.or(known.others);
+				continue;
+			}
+			Bitmap bitmap = index.getBitmap(commit);
+			if (bitmap != null) {
+				packed.or(bitmap);
+				continue;
+			}
+
+			if (other == null) {
+				other = new Unpacked(commit, unpacked.size());
+				unpacked.add(other);
+			}
+			others.set(other.position);
+			try {
+				walk.parseHeaders(commit);
+			} catch (MissingObjectException e) {
+				// the end of a shallow clone
+				continue;
+			}
+			for (RevCommit parent : commit.getParents()) {
+				pending.push(parent);
+			}
+		}
+
+		// the words of the uncompressed bitmap are an upper bound for the compressed one
+		reach = new Reach(packed.build(), others, packed.cardinality() / 64 + others.size() / 64 + 1);
+		reaches.put(tip.copy(), reach);
+		return reach;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ReachabilityBitmaps: " + (bitmapFiles == null ? "not read" : (bitmapIndex == null ? "no bitmap index" :
+				reaches.size() + " tips, " + unpacked.size() + " commits after the bitmaps"));
+	}
+
+	/**
+	 * A commit which is not covered by a pack bitmap with its number in the table of these commits.
+	 */
+	private static final class Unpacked extends ObjectIdOwnerMap.Entry {
+		private static final long serialVersionUID = 1L;
+
+		private final int position;
+
+		public Unpacked(AnyObjectId id, int position) {
+			super(id);
+			this.position = position;
+		}
+	}
+
+	/**
+	 * The objects reachable from one tip, not changed after construction.
+	 */
+	private static final class Reach {
+		private final Bitmap packed;
+		private final BitSet others;
+		private final int words;
+
+		public Reach(Bitmap packed, BitSet others, int words) {
+			this.packed = packed;
+			this.others = others;
+			this.words = words;
+		}
+
+		/**
+		 * @param other The commit in the table of unpacked commits, null if it is not in there
+		 * @param probe A bitmap which only contains the commit
+		 */
+		public boolean contains(Unpacked other, Bitmap probe) {
+			if (other != null && others.get(other.position)) {
+				return true;
+			}
+			// nothing is left of the commit if the tip reaches it
+			return !probe.andNot(packed).iterator().hasNext();
+		}
+	}
+}
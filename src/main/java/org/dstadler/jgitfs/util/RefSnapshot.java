@@ -0,0 +1,244 @@
+package org.dstadler.jgitfs.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * An immutable view of all refs of the repository at one point in time.
+ *
+ * All lookups of branches, tags and remotes are answered from the current
+ * snapshot, a new snapshot is only built when the refs in the repository
+ * actually change, see {@link RefWatcher}.
+ *
+ * The names of the refs are split at the slashes and stored in a trie, so
+ * listing one level of the hierarchy only touches the entries on that level
+ * and checking if a name is a directory of refs only touches the nodes along
+ * the name.
+ *
+ * Refs of annotated tags are expected to be peeled already, so that
+ * {@link #getPeeledObjectId(String)} never needs to read the tag objects.
+ *
+ * @author cwat-dstadler
+ */
+public final class RefSnapshot {
+	private static final String[] NO_NAMES = new String[0];
+	private static final Node[] NO_NODES = new Node[0];
+
+	private final ImmutableMap<String, Ref> refs;
+	private final Node root;
+
+	public RefSnapshot(Map<String, Ref> refs) {
+		this.refs = ImmutableMap.copyOf(refs);
+
+		Builder rootBuilder = new Builder();
+		for (Ref ref : refs.values()) {
+			Builder builder = rootBuilder;
+			for (String component : ref.getName().split("/")) {
+				builder = builder.child(component);
+			}
+			builder.ref = ref;
+		}
+		root = rootBuilder.build();
+	}
+
+	/**
+	 * @param name The full name of the ref, e.g. refs/heads/master
+	 * @return The ref or null if there is no ref with this name
+	 */
+	public Ref getRef(String name) {
+		return refs.get(name);
+	}
+
+	/**
+	 * @param name The full name of the ref, e.g. refs/heads/master
+	 * @return The object the ref points to or null if there is no ref with this name
+	 */
+	public ObjectId getObjectId(String name) {
+		Ref ref = refs.get(name);
+		return (ref != null) ? ref.getObjectId() : null;
+	}
+
+	/**
+	 * Return the object the ref points to after following annotated tags, i.e. usually a commit.
+	 *
+	 * Tags are peeled when the snapshot is built, so this does not read any objects.
+	 *
+	 * @param name The full name of the ref, e.g. refs/tags/v1.0
+	 * @return The peeled object or null if there is no ref with this name
+	 */
+	public ObjectId getPeeledObjectId(String name) {
+		Ref ref = refs.get(name);
+		if (ref == null) {
+			return null;
+		}
+		return (ref.getPeeledObjectId() != null) ? ref.getPeeledObjectId() : ref.getObjectId();
+	}
+
+	/**
+	 * @return The peeled objects of all refs, i.e. the tips of the history, without duplicates
+	 */
+	public Set<ObjectId> getPeeledObjectIds() {
+		Set<ObjectId> result = new HashSet<ObjectId>();
+		for (String name : refs.keySet()) {
+			ObjectId objectId = getPeeledObjectId(name);
+			if (objectId != null) {
+				result.add(objectId);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the names of all refs below the given prefix.
+	 *
+	 * @param prefix A prefix without trailing slash, e.g. refs/heads
+	 * @return The sorted names of the refs without the prefix and the slash
+	 */
+	public List<String> getRefs(String prefix) {
+		Node node = find(prefix);
+		if (node == null) {
+			return Collections.emptyList();
+		}
+
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < node.names.length; i++) {
+			node.children[i].collect(node.names[i], result);
+		}
+		return result;
+	}
+
+	/**
+	 * Return the names of the next level of the hierarchy below the given prefix,
+	 * i.e. the names of refs and of directories which contain refs.
+	 *
+	 * @param prefix A prefix without trailing slash, e.g. refs/heads/feature
+	 * @return The sorted names of the direct children
+	 */
+	public List<String> getChildren(String prefix) {
+		Node node = find(prefix);
+		if (node == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(Arrays.asList(node.names));
+	}
+
+	/**
+	 * @param prefix A prefix without trailing slash, e.g. refs/heads/feature
+	 * @return true if there is at least one ref below the given prefix
+	 */
+	public boolean hasRefs(String prefix) {
+		Node node = find(prefix);
+		return node != null && node.names.length > 0;
+	}
+
+	public int size() {
+		return refs.size();
+	}
+
+	/**
+	 * @param other Another snapshot
+	 * @return true if both snapshots contain the same refs pointing to the same objects
+	 */
+	public boolean sameRefs(RefSnapshot other) {
+		if (refs.size() != other.refs.size()) {
+			return false;
+		}
+		for (Map.Entry<String, Ref> entry : refs.entrySet()) {
+			Ref ref = other.refs.get(entry.getKey());
+			if (ref == null || !Objects.equal(entry.getValue().getObjectId(), ref.getObjectId())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Walk down the trie along the components of the given name.
+	 */
+	private Node find(String name) {
+		Node node = root;
+		int start = 0;
+		while (node != null) {
+			int end = name.indexOf('/', start);
+			if (end == -1) {
+				return node.child(name.substring(start));
+			}
+			node = node.child(name.substring(start, end));
+			start = end + 1;
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return "RefSnapshot: " + refs.size() + " refs";
+	}
+
+	private static final class Node {
+		private final String[] names;
+		private final Node[] children;
+		private final Ref ref;
+
+		public Node(String[] names, Node[] children, Ref ref) {
+			this.names = names;
+			this.children = children;
+			this.ref = ref;
+		}
+
+		public Node child(String name) {
+			int index = Arrays.binarySearch(names, name);
+			return (index >= 0) ? children[index] : null;
+		}
+
+		public void collect(String path, List<String> result) {
+			if (ref != null) {
+				result.add(path);
+			}
+			for (int i = 0; i < names.length; i++) {
+				children[i].collect(path + '/' + names[i], result);
+			}
+		}
+	}
+
+	/**
+	 * Mutable node which is only used while building the trie.
+	 */
+	private static final class Builder {
+		private final TreeMap<String, Builder> children = new TreeMap<String, Builder>();
+		private Ref ref;
+
+		public Builder child(String name) {
+			Builder child = children.get(name);
+			if (child == null) {
+				child = new Builder();
+				children.put(name, child);
+			}
+			return child;
+		}
+
+		public Node build() {
+			if (children.isEmpty()) {
+				return new Node(NO_NAMES, NO_NODES, ref);
+			}
+
+			String[] names = children.keySet().toArray(new String[children.size()]);
+			Node[] nodes = new Node[names.length];
+			for (int i = 0; i < names.length; i++) {
+				nodes[i] = children.get(names[i]).build();
+			}
+			return new Node(names, nodes, ref);
+		}
+	}
+}
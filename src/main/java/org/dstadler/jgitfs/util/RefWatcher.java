@@ -0,0 +1,234 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the files which make up the refs of a Git repository, i.e. HEAD,
+ * packed-refs and everything below refs/, and invokes a callback whenever one
+ * of them changes.
+ *
+ * Changes are reported by the operating system via a {@link WatchService}, so
+ * there is no cost while the repository is not changed. If no WatchService is
+ * available for the file system of the repository, the callback is invoked
+ * periodically instead and is expected to detect itself if anything changed.
+ *
+ * @author cwat-dstadler
+ */
+public class RefWatcher implements Closeable {
+	/**
+	 * Git updates refs via lock-files and often updates many refs at once, so wait
+	 * this long for more events before reporting a change.
+	 */
+	private static final long SETTLE_TIME = 50;	// ms
+
+	/**
+	 * The interval for checking the refs if changes cannot be watched.
+	 */
+	public static final long POLL_INTERVAL = 2000;	// ms
+
+	private final Path gitDir;
+	private final Path refsDir;
+	private final Runnable onChange;
+	private final Thread thread;
+
+	private WatchService watchService;
+	private volatile boolean closed;
+
+	/**
+	 * Create the watcher, call {@link #start()} to begin watching.
+	 *
+	 * @param gitDir The .git directory of the repository
+	 * @param onChange Invoked from a background thread whenever the refs may have changed
+	 */
+	public RefWatcher(File gitDir, Runnable onChange) {
+		this.gitDir = gitDir.toPath();
+		this.refsDir = this.gitDir.resolve("refs");
+		this.onChange = onChange;
+
+		thread = new Thread("RefWatcher for " + gitDir) {
+			@Override
+			public void run() {
+				if (watchService != null) {
+					watch();
+				} else {
+					poll();
+				}
+			}
+		};
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Register for changes and start the background thread.
+	 */
+	public void start() {
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			register(gitDir);
+			registerAll(refsDir);
+		} catch (IOException e) {
+			System.out.println("Could not watch refs of " + gitDir + ", polling for changes instead: " + e);
+			closeWatchService();
+		} catch (UnsupportedOperationException e) {
+			System.out.println("Could not watch refs of " + gitDir + ", polling for changes instead: " + e);
+			closeWatchService();
+		}
+
+		thread.start();
+	}
+
+	/**
+	 * @return true if changes are reported by the file system, false if the refs are polled
+	 */
+	public boolean isWatching() {
+		return watchService != null;
+	}
+
+	private void watch() {
+		try {
+			while (!closed) {
+				WatchKey key = watchService.take();
+				boolean changed = false;
+				while (key != null) {
+					changed |= processEvents(key);
+					key = watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS);
+				}
+
+				if (changed) {
+					notifyChange();
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// closed, stop watching
+		} catch (InterruptedException e) {
+			// closed, stop watching
+		}
+	}
+
+	private boolean processEvents(WatchKey key) {
+		Path dir = (Path) key.watchable();
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// events were lost, we cannot tell what changed
+				changed = true;
+				continue;
+			}
+
+			Path name = (Path) event.context();
+			Path child = dir.resolve(name);
+			if (dir.equals(gitDir)) {
+				// only a few of the files directly in .git are relevant
+				String fileName = name.toString();
+				if (fileName.equals("HEAD") || fileName.equals("packed-refs")) {
+					changed = true;
+				} else if (fileName.equals("refs") && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+					changed |= registerNew(child);
+				}
+			} else if (!name.toString().endsWith(".lock")) {
+				// a loose ref or a directory of refs
+				changed = true;
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+					registerNew(child);
+				}
+			}
+		}
+		key.reset();
+		return changed;
+	}
+
+	private boolean registerNew(Path child) {
+		if (Files.isDirectory(child)) {
+			try {
+				registerAll(child);
+			} catch (IOException e) {
+				System.out.println("Could not watch new directory " + child + ": " + e);
+			}
+		}
+		return true;
+	}
+
+	private void poll() {
+		try {
+			while (!closed) {
+				Thread.sleep(POLL_INTERVAL);
+				notifyChange();
+			}
+		} catch (InterruptedException e) {
+			// closed, stop polling
+		}
+	}
+
+	private void notifyChange() {
+		if (closed) {
+			return;
+		}
+		try {
+			onChange.run();
+		} catch (RuntimeException e) {
+			System.out.println("Error while handling changed refs of " + gitDir + ": " + e);
+		}
+	}
+
+	private void register(Path dir) throws IOException {
+		dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	/**
+	 * Watch the given directory and all directories below it, each directory needs to be registered separately.
+	 */
+	private void registerAll(Path start) throws IOException {
+		if (!Files.isDirectory(start)) {
+			return;
+		}
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				register(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void closeWatchService() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				// ignored, nothing we can do here
+			}
+			watchService = null;
+		}
+	}
+
+	/**
+	 * Stop watching, no more callbacks are invoked after this call.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		thread.interrupt();
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				// ignored, nothing we can do here
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ReflogEntry;
+import org.eclipse.jgit.lib.ReflogReader;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * The entries of the reflog of one ref sorted by time, for looking up which
+ * commit the ref pointed to at a given time with a binary search.
+ *
+ * Instances are immutable, they are read again when the ref changes.
+ *
+ * @author cwat-dstadler
+ */
+public final class ReflogIndex {
+	private static final ReflogIndex EMPTY = new ReflogIndex(new long[0], new ObjectId[0], null);
+
+	/**
+	 * The times of the entries in seconds since the epoch, ascending.
+	 */
+	private final long[] times;
+
+	/**
+	 * The ids the ref pointed to after each entry, the zero id if the ref was deleted.
+	 */
+	private final ObjectId[] ids;
+
+	/**
+	 * The id the ref pointed to before the first entry, the zero id if it was created.
+	 */
+	private final ObjectId firstOldId;
+
+	private ReflogIndex(long[] times, ObjectId[] ids, ObjectId firstOldId) {
+		this.times = times;
+		this.ids = ids;
+		this.firstOldId = firstOldId;
+	}
+
+	/**
+	 * Read the reflog of the given ref.
+	 *
+	 * @param repository The repository
+	 * @param refName The full name of the ref, e.g. "refs/heads/master"
+	 * @return The entries, empty if the ref has no reflog
+	 * @throws IOException If reading the reflog fails
+	 */
+	public static ReflogIndex read(Repository repository, String refName) throws IOException {
+		ReflogReader reader = repository.getReflogReader(refName);
+		if (reader == null) {
+			return EMPTY;
+		}
+		List<ReflogEntry> entries = new ArrayList<ReflogEntry>(reader.getReverseEntries());
+		if (entries.isEmpty()) {
+			return EMPTY;
+		}
+		Collections.reverse(entries);
+
+		// the clock may have been changed between updates, the stable sort keeps the order of entries with equal times
+		Collections.sort(entries, new Comparator<ReflogEntry>() {
+			@Override
+			public int compare(ReflogEntry o1, ReflogEntry o2) {
+				long time1 = o1.getWho().getWhen().getTime();
+				long time2 = o2.getWho().getWhen().getTime();
+				return time1 < time2 ? -1 : (time1 == time2 ? 0 : 1);
+			}
+		});
+
+		long[] times = new long[entries.size()];
+		ObjectId[] ids = new ObjectId[entries.size()];
+		for (int i = 0; i < times.length; i++) {
+			ReflogEntry entry = entries.get(i);
+			times[i] = entry.getWho().getWhen().getTime() / 1000;
+			ids[i] = entry.getNewId();
+		}
+		return new ReflogIndex(times, ids, entries.get(0).getOldId());
+	}
+
+	/**
+	 * @return True if there are no entries
+	 */
+	public boolean isEmpty() {
+		return times.length == 0;
+	}
+
+	/**
+	 * @return The number of entries
+	 */
+	public int size() {
+		return times.length;
+	}
+
+	/**
+	 * @return The id the ref pointed to before the first entry, the zero id if it was created then, null if there are no entries
+	 */
+	public ObjectId getFirstOldId() {
+		return firstOldId;
+	}
+
+	/**
+	 * @return The id the ref pointed to after the first entry, null if there are no entries
+	 */
+	public ObjectId getFirstNewId() {
+		return ids.length == 0 ? null : ids[0];
+	}
+
+	/**
+	 * Look up the id the ref pointed to at the given time.
+	 *
+	 * @param time The time in seconds since the epoch
+	 * @return The id of the last entry at or before the time, the zero id if the ref was deleted then,
+	 * 		null if the time is before the first entry
+	 */
+	public ObjectId get(long time) {
+		// the first entry after the time
+		int low = 0;
+		int high = times.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (times[middle] <= time) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low == 0 ? null : ids[low - 1];
+	}
+
+	@Override
+	public String toString() {
+		return "ReflogIndex: " + times.length + " entries";
+	}
+}
@@ -0,0 +1,538 @@
+package org.dstadler.jgitfs.util;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * The result of parsing a path of the filesystem, i.e. which part of the
+ * filesystem the path belongs to, the commit or tree id if the path is inside
+ * a commit or tree and where the remaining path starts.
+ *
+ * Paths are scanned only once, without regular expressions and without
+ * creating substrings, the hex id is parsed directly into an ObjectId.
+ * This replaces the checks in {@link GitUtils} for the callbacks from FUSE.
+ *
+ * @author cwat-dstadler
+ */
+public final class Route {
+	public enum Kind {
+		/** "/" */
+		ROOT(null),
+		/** "/README.md" */
+		README(null),
+		/** "/branch" */
+		BRANCHES("refs/heads"),
+		/** "/tag" */
+		TAGS("refs/tags"),
+		/** "/remote" */
+		REMOTES("refs/remotes"),
+		/** "/commit" */
+		COMMITS(null),
+		/** "/tree" */
+		TREES(null),
+		/** "/branch/..." */
+		BRANCH("refs/heads"),
+		/** "/tag/..." */
+		TAG("refs/tags"),
+		/** "/remote/..." */
+		REMOTE("refs/remotes"),
+		/** "/commit/&lt;id&gt;" and everything below */
+		COMMIT(null),
+		/** "/commit/&lt;id&gt;/.containing", the refs which contain the commit */
+		CONTAINING(null),
+		/** "/commit/&lt;id&gt;/.containing/branch" and the branches below */
+		CONTAINING_BRANCH("refs/heads"),
+		/** "/commit/&lt;id&gt;/.containing/tag" and the tags below */
+		CONTAINING_TAG("refs/tags"),
+		/** "/commit/&lt;2 hex digits&gt;", the directory of all commits starting with these digits */
+		COMMIT_DIR(null),
+		/** "/commit/&lt;2 hex digits&gt;/&lt;38 hex digits&gt;", a link to the commit */
+		COMMIT_LINK(null),
+		/** "/commit/&lt;abbreviated id&gt;", a link to the commit */
+		COMMIT_ABBREV(null),
+		/** "/tree/&lt;id&gt;" and everything below */
+		TREE(null),
+		/** "/tree/&lt;abbreviated id&gt;", a link to the tree */
+		TREE_ABBREV(null),
+		/** "/perfile" */
+		PERFILE_ROOT(null),
+		/** "/perfile/branch" */
+		PERFILE_BRANCHES("refs/heads"),
+		/** "/perfile/tag" */
+		PERFILE_TAGS("refs/tags"),
+		/** "/perfile/remote" */
+		PERFILE_REMOTES("refs/remotes"),
+		/** "/perfile/commit" */
+		PERFILE_COMMITS(null),
+		/** "/perfile/branch/...", the name of the branch followed by a path inside its commit */
+		PERFILE_BRANCH("refs/heads"),
+		/** "/perfile/tag/...", the name of the tag followed by a path inside its commit */
+		PERFILE_TAG("refs/tags"),
+		/** "/perfile/remote/...", the name of the remote branch followed by a path inside its commit */
+		PERFILE_REMOTE("refs/remotes"),
+		/** "/perfile/commit/&lt;id&gt;" and everything below */
+		PERFILE_COMMIT(null),
+		/** "/diff" */
+		DIFFS(null),
+		/** "/diff/...", the names of two commits followed by a path inside their comparison */
+		DIFF(null),
+		/** "/log" */
+		LOGS("refs/heads"),
+		/** "/log/...", the name of the branch followed by the number of first parents to go back */
+		LOG("refs/heads"),
+		/** "/at" */
+		AT_ROOT(null),
+		/** "/at/&lt;timestamp&gt;" */
+		AT_TIME(null),
+		/** "/at/&lt;timestamp&gt;/branch" */
+		AT_BRANCHES("refs/heads"),
+		/** "/at/&lt;timestamp&gt;/remote" */
+		AT_REMOTES("refs/remotes"),
+		/** "/at/&lt;timestamp&gt;/branch/...", the branch as it was at that time */
+		AT_BRANCH("refs/heads"),
+		/** "/at/&lt;timestamp&gt;/remote/...", the remote branch as it was at that time */
+		AT_REMOTE("refs/remotes"),
+		/** "/search" */
+		SEARCHES(null),
+		/** "/search/...", the name of a commit followed by the encoded query and a path inside the matching files */
+		SEARCH(null),
+		/** Anything else */
+		UNKNOWN(null);
+
+		private final String refPrefix;
+
+		private Kind(String refPrefix) {
+			this.refPrefix = refPrefix;
+		}
+
+		/**
+		 * @return true for paths which denote a ref or a directory of refs
+		 */
+		public boolean isRef() {
+			return this == BRANCH || this == TAG || this == REMOTE;
+		}
+
+		/**
+		 * @return true for paths below /perfile which start with the name of a ref and thus change when refs change
+		 */
+		public boolean isPerFileRef() {
+			return this == PERFILE_BRANCH || this == PERFILE_TAG || this == PERFILE_REMOTE;
+		}
+
+		/**
+		 * @return true for paths below .containing which denote a ref or a directory of refs
+		 */
+		public boolean isContainingRef() {
+			return this == CONTAINING_BRANCH || this == CONTAINING_TAG;
+		}
+
+		/**
+		 * @return true for paths below /at which denote a ref or a directory of refs at some time
+		 */
+		public boolean isAtRef() {
+			return this == AT_BRANCH || this == AT_REMOTE;
+		}
+	}
+
+	private static final int ID_LENGTH = 40;
+
+	/**
+	 * The name of the hidden directory in the root of each commit which lists the refs containing the commit.
+	 */
+	public static final String CONTAINING_DIR = ".containing";
+
+	/**
+	 * The minimum length of abbreviated ids, the same as for Git itself.
+	 */
+	public static final int MIN_ABBREV_LENGTH = 4;
+
+	private final Kind kind;
+	private final String path;
+	private final ObjectId objectId;
+	private final int subPathOffset;
+
+	private Route(Kind kind, String path, ObjectId objectId, int subPathOffset) {
+		this.kind = kind;
+		this.path = path;
+		this.objectId = objectId;
+		this.subPathOffset = subPathOffset;
+	}
+
+	/**
+	 * Parse the given path.
+	 *
+	 * @param path An absolute path in the filesystem as passed in by FUSE
+	 * @return The route, with kind UNKNOWN if the path does not denote anything in the filesystem
+	 */
+	public static Route parse(String path) {
+		int length = path.length();
+		if (length == 0 || path.charAt(0) != '/') {
+			return unknown(path);
+		}
+		if (length == 1) {
+			return new Route(Kind.ROOT, path, null, length);
+		}
+
+		int slash = path.indexOf('/', 1);
+		int nameEnd = (slash == -1) ? length : slash;
+		if (matches(path, nameEnd, "branch")) {
+			return ref(path, slash, Kind.BRANCHES, Kind.BRANCH);
+		} else if (matches(path, nameEnd, "tag")) {
+			return ref(path, slash, Kind.TAGS, Kind.TAG);
+		} else if (matches(path, nameEnd, "remote")) {
+			return ref(path, slash, Kind.REMOTES, Kind.REMOTE);
+		} else if (matches(path, nameEnd, "commit")) {
+			return commit(path, slash);
+		} else if (matches(path, nameEnd, "tree")) {
+			return object(path, slash, Kind.TREES, Kind.TREE, Kind.TREE_ABBREV);
+		} else if (matches(path, nameEnd, "perfile")) {
+			return perfile(path, slash);
+		} else if (matches(path, nameEnd, "diff")) {
+			// the names may contain slashes, they are split when the refs are resolved
+			return ref(path, slash, Kind.DIFFS, Kind.DIFF);
+		} else if (matches(path, nameEnd, "log")) {
+			// the name of the branch and the number are only split when the refs are looked up
+			return ref(path, slash, Kind.LOGS, Kind.LOG);
+		} else if (matches(path, nameEnd, "at")) {
+			return at(path, slash);
+		} else if (matches(path, nameEnd, "search")) {
+			// the name of the commit may contain slashes, it is split from the query when the refs are resolved
+			return ref(path, slash, Kind.SEARCHES, Kind.SEARCH);
+		} else if (slash == -1 && matches(path, nameEnd, "README.md")) {
+			return new Route(Kind.README, path, null, length);
+		}
+
+		return unknown(path);
+	}
+
+	/**
+	 * @return true if the first path component, starting after the leading slash and ending at end, is the given name
+	 */
+	private static boolean matches(String path, int end, String name) {
+		return matches(path, 1, end, name);
+	}
+
+	/**
+	 * @return true if the path component between start and end is the given name
+	 */
+	private static boolean matches(String path, int start, int end, String name) {
+		return end - start == name.length() && path.startsWith(name, start);
+	}
+
+	private static Route ref(String path, int slash, Kind dirKind, Kind kind) {
+		if (slash == -1) {
+			return new Route(dirKind, path, null, path.length());
+		}
+		if (slash + 1 == path.length()) {
+			// an empty ref-name
+			return unknown(path);
+		}
+		return new Route(kind, path, null, slash + 1);
+	}
+
+	/**
+	 * Parse the paths below /commit, either the directories of the fan-out by the first
+	 * two digits of the ids, as in .git/objects, or the full id.
+	 */
+	private static Route commit(String path, int slash) {
+		int length = path.length();
+		if (slash != -1 && slash + 3 <= length && isHex(path.charAt(slash + 1)) && isHex(path.charAt(slash + 2))) {
+			int dirEnd = slash + 3;
+			if (dirEnd == length) {
+				return new Route(Kind.COMMIT_DIR, path, null, length);
+			}
+			if (path.charAt(dirEnd) == '/') {
+				if (dirEnd + 1 + ID_LENGTH - 2 != length) {
+					return unknown(path);
+				}
+				ObjectId objectId = parseId(path.substring(slash + 1, dirEnd) + path.substring(dirEnd + 1), 0);
+				if (objectId == null) {
+					return unknown(path);
+				}
+				return new Route(Kind.COMMIT_LINK, path, objectId, length);
+			}
+		}
+		Route route = object(path, slash, Kind.COMMITS, Kind.COMMIT, Kind.COMMIT_ABBREV);
+		if (route.kind == Kind.COMMIT && route.subPathOffset < length) {
+			return containing(route);
+		}
+		return route;
+	}
+
+	/**
+	 * Parse the paths below .containing in the root of a commit, which mirror /branch and /tag.
+	 * A directory with this name in the commit itself is hidden.
+	 */
+	private static Route containing(Route route) {
+		String path = route.path;
+		int length = path.length();
+		int start = route.subPathOffset;
+		int next = path.indexOf('/', start);
+		if (!matches(path, start, next == -1 ? length : next, CONTAINING_DIR)) {
+			return route;
+		}
+		if (next == -1) {
+			return new Route(Kind.CONTAINING, path, route.objectId, length);
+		}
+
+		int refStart = next + 1;
+		int refNext = path.indexOf('/', refStart);
+		int nameEnd = (refNext == -1) ? length : refNext;
+		final Kind kind;
+		if (matches(path, refStart, nameEnd, "branch")) {
+			kind = Kind.CONTAINING_BRANCH;
+		} else if (matches(path, refStart, nameEnd, "tag")) {
+			kind = Kind.CONTAINING_TAG;
+		} else {
+			return unknown(path);
+		}
+		if (refNext == -1) {
+			return new Route(kind, path, route.objectId, length);
+		}
+		if (refNext + 1 == length) {
+			// an empty ref-name
+			return unknown(path);
+		}
+		return new Route(kind, path, route.objectId, refNext + 1);
+	}
+
+	/**
+	 * Parse the paths below /perfile, which mirror /branch, /tag, /remote and /commit.
+	 */
+	private static Route perfile(String path, int slash) {
+		int length = path.length();
+		if (slash == -1) {
+			return new Route(Kind.PERFILE_ROOT, path, null, length);
+		}
+
+		int start = slash + 1;
+		int next = path.indexOf('/', start);
+		int nameEnd = (next == -1) ? length : next;
+		if (matches(path, start, nameEnd, "branch")) {
+			return ref(path, next, Kind.PERFILE_BRANCHES, Kind.PERFILE_BRANCH);
+		} else if (matches(path, start, nameEnd, "tag")) {
+			return ref(path, next, Kind.PERFILE_TAGS, Kind.PERFILE_TAG);
+		} else if (matches(path, start, nameEnd, "remote")) {
+			return ref(path, next, Kind.PERFILE_REMOTES, Kind.PERFILE_REMOTE);
+		} else if (matches(path, start, nameEnd, "commit")) {
+			// abbreviated ids are not supported here
+			return object(path, next, Kind.PERFILE_COMMITS, Kind.PERFILE_COMMIT, Kind.UNKNOWN);
+		}
+		return unknown(path);
+	}
+
+	/**
+	 * Parse the paths below /at, a timestamp followed by the same hierarchy of refs as /branch and /remote.
+	 * The timestamp is only parsed when it is looked up.
+	 */
+	private static Route at(String path, int slash) {
+		int length = path.length();
+		if (slash == -1) {
+			return new Route(Kind.AT_ROOT, path, null, length);
+		}
+
+		int start = slash + 1;
+		int next = path.indexOf('/', start);
+		if (next == -1) {
+			if (start == length) {
+				// an empty timestamp
+				return unknown(path);
+			}
+			return new Route(Kind.AT_TIME, path, null, start);
+		}
+		if (next == start) {
+			return unknown(path);
+		}
+
+		int refStart = next + 1;
+		int refNext = path.indexOf('/', refStart);
+		int nameEnd = (refNext == -1) ? length : refNext;
+		if (matches(path, refStart, nameEnd, "branch")) {
+			return ref(path, refNext, Kind.AT_BRANCHES, Kind.AT_BRANCH);
+		} else if (matches(path, refStart, nameEnd, "remote")) {
+			return ref(path, refNext, Kind.AT_REMOTES, Kind.AT_REMOTE);
+		}
+		return unknown(path);
+	}
+
+	private static Route object(String path, int slash, Kind dirKind, Kind kind, Kind abbrevKind) {
+		int length = path.length();
+		if (slash == -1) {
+			return new Route(dirKind, path, null, length);
+		}
+
+		int start = slash + 1;
+		int segmentEnd = path.indexOf('/', start);
+		if (segmentEnd == -1) {
+			segmentEnd = length;
+		}
+		if (segmentEnd - start < ID_LENGTH) {
+			// shorter than a full id, only an abbreviated id without a path below is accepted
+			if (segmentEnd == length && length - start >= MIN_ABBREV_LENGTH && isHex(path, start, length)) {
+				return new Route(abbrevKind, path, null, start);
+			}
+			return unknown(path);
+		}
+
+		int end = start + ID_LENGTH;
+		ObjectId objectId = parseId(path, start);
+		if (objectId == null) {
+			return unknown(path);
+		}
+
+		if (end == length) {
+			return new Route(kind, path, objectId, length);
+		}
+		if (path.charAt(end) != '/' || end + 1 == length) {
+			// either too long for an id or an empty path after the slash
+			return unknown(path);
+		}
+		return new Route(kind, path, objectId, end + 1);
+	}
+
+	/**
+	 * Parse 40 lowercase hex characters starting at the given position.
+	 *
+	 * @return The id or null if there are other characters
+	 */
+	private static ObjectId parseId(String path, int start) {
+		long w1 = parseWord(path, start);
+		long w2 = parseWord(path, start + 8);
+		long w3 = parseWord(path, start + 16);
+		long w4 = parseWord(path, start + 24);
+		long w5 = parseWord(path, start + 32);
+		if (w1 < 0 || w2 < 0 || w3 < 0 || w4 < 0 || w5 < 0) {
+			return null;
+		}
+		return ObjectId.fromRaw(new int[] { (int) w1, (int) w2, (int) w3, (int) w4, (int) w5 });
+	}
+
+	/**
+	 * Parse 8 lowercase hex characters into the lower 32 bits of the result.
+	 *
+	 * @return The value or -1 if there are other characters
+	 */
+	private static long parseWord(String path, int start) {
+		long word = 0;
+		for (int i = start; i < start + 8; i++) {
+			int value = hexValue(path.charAt(i));
+			if (value < 0) {
+				return -1;
+			}
+			word = (word << 4) | value;
+		}
+		return word;
+	}
+
+	/**
+	 * @return The value of a lowercase hex digit or -1 for other characters
+	 */
+	private static int hexValue(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		} else if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		return -1;
+	}
+
+	private static boolean isHex(char c) {
+		return hexValue(c) >= 0;
+	}
+
+	private static boolean isHex(String path, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (!isHex(path.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Route unknown(String path) {
+		return new Route(Kind.UNKNOWN, path, null, path.length());
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The commit or tree id for routes of kind COMMIT, COMMIT_LINK, TREE, PERFILE_COMMIT and the kinds
+	 * 		below .containing, null otherwise
+	 */
+	public ObjectId getObjectId() {
+		return objectId;
+	}
+
+	/**
+	 * @return The abbreviated id for routes of kind COMMIT_ABBREV and TREE_ABBREV, null otherwise
+	 */
+	public String getAbbreviation() {
+		if (kind != Kind.COMMIT_ABBREV && kind != Kind.TREE_ABBREV) {
+			return null;
+		}
+		return path.substring(subPathOffset);
+	}
+
+	/**
+	 * @return The timestamp for the kinds below /at except AT_ROOT, null otherwise
+	 */
+	public String getTimestamp() {
+		if (kind != Kind.AT_TIME && kind != Kind.AT_BRANCHES && kind != Kind.AT_REMOTES && !kind.isAtRef()) {
+			return null;
+		}
+		int start = "/at/".length();
+		int end = path.indexOf('/', start);
+		return path.substring(start, end == -1 ? path.length() : end);
+	}
+
+	/**
+	 * @return The first byte of the ids for routes of kind COMMIT_DIR and COMMIT_LINK, -1 otherwise
+	 */
+	public int getFanout() {
+		if (kind != Kind.COMMIT_DIR && kind != Kind.COMMIT_LINK) {
+			return -1;
+		}
+		int start = GitUtils.COMMIT_SLASH.length();
+		return (hexValue(path.charAt(start)) << 4) | hexValue(path.charAt(start + 1));
+	}
+
+	/**
+	 * @return The position in the path where the path inside the commit/tree or the ref-name starts
+	 */
+	public int getSubPathOffset() {
+		return subPathOffset;
+	}
+
+	/**
+	 * @return The path inside the commit or tree, or the name of the branch/tag/remote, empty if there is none,
+	 * 		for kind DIFF the names of the two commits followed by the path inside their comparison,
+	 * 		for kind SEARCH the name of the commit followed by the query and the path inside the result
+	 */
+	public String getSubPath() {
+		return path.substring(subPathOffset);
+	}
+
+	/**
+	 * @return The full name of the ref or directory of refs, e.g. refs/heads/feature/a, or null if the path does not denote a ref,
+	 * 		for the kinds below /perfile the name of the ref is followed by the path inside the commit
+	 */
+	public String getRefName() {
+		if (kind.refPrefix == null) {
+			return null;
+		}
+		if (subPathOffset == path.length()) {
+			return kind.refPrefix;
+		}
+		return kind.refPrefix + '/' + getSubPath();
+	}
+
+	@Override
+	public String toString() {
+		return kind + ": " + path;
+	}
+}
@@ -0,0 +1,106 @@
+package org.dstadler.jgitfs.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The files of a tree whose content contains a string, arranged as a hierarchy
+ * of directories, so it can be listed like a tree but only contains the
+ * matching files and the directories leading to them.
+ *
+ * Instances are immutable, they never change for a tree and a string, except
+ * for {@link #NOT_READY}.
+ *
+ * @author cwat-dstadler
+ */
+public final class SearchResult {
+	/**
+	 * Returned while the blobs of the tree are not indexed yet, it contains no files.
+	 */
+	public static final SearchResult NOT_READY = new SearchResult(Collections.<String>emptySet(),
+			Collections.<String, List<String>>emptyMap());
+
+	private final Set<String> files;
+	private final Map<String, List<String>> children;
+
+	private SearchResult(Set<String> files, Map<String, List<String>> children) {
+		this.files = files;
+		this.children = children;
+	}
+
+	/**
+	 * @param paths The paths of the matching files without leading slash
+	 * @return The result containing the files and the directories leading to them
+	 */
+	static SearchResult create(List<String> paths) {
+		Set<String> files = new HashSet<String>(paths);
+		Map<String, List<String>> children = new HashMap<String, List<String>>();
+		children.put("", new ArrayList<String>());
+		for (String path : paths) {
+			// add the directories leading to the file, stop at the first one which is known already
+			String child = path;
+			int slash = child.lastIndexOf('/');
+			while (true) {
+				String dir = (slash == -1) ? "" : child.substring(0, slash);
+				List<String> names = children.get(dir);
+				boolean known = (names != null);
+				if (!known) {
+					names = new ArrayList<String>();
+					children.put(dir, names);
+				}
+				names.add(child.substring(slash + 1));
+				if (known) {
+					break;
+				}
+				child = dir;
+				slash = child.lastIndexOf('/');
+			}
+		}
+		for (List<String> names : children.values()) {
+			Collections.sort(names);
+		}
+		return new SearchResult(files, children);
+	}
+
+	/**
+	 * @return false for {@link #NOT_READY}, searching again later returns the actual result
+	 */
+	public boolean isReady() {
+		return this != NOT_READY;
+	}
+
+	/**
+	 * @param path A path without leading slash
+	 * @return true if the path is a file whose content matches
+	 */
+	public boolean isMatch(String path) {
+		return files.contains(path);
+	}
+
+	/**
+	 * @param path The path of a directory without leading slash, empty for the root directory
+	 * @return The sorted names of the matching files and directories directly inside the directory,
+	 * 		null if it is no directory containing matches
+	 */
+	public List<String> getChildren(String path) {
+		List<String> names = children.get(path);
+		return names == null ? null : Collections.unmodifiableList(names);
+	}
+
+	/**
+	 * @return The number of matching files
+	 */
+	public int size() {
+		return files.size();
+	}
+
+	@Override
+	public String toString() {
+		return "SearchResult: " + (isReady() ? files.size() + " matching files" : "index not ready");
+	}
+}
@@ -0,0 +1,81 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Cache of parsed tree objects, keyed by the id of the tree.
+ *
+ * Tree objects never change, so a subtree which is unchanged between commits
+ * or branches is parsed only once and shared by all of them.
+ *
+ * @author cwat-dstadler
+ */
+public class TreeCache {
+	private final LoadingCache<ObjectId, ParsedTree> cache;
+
+	/**
+	 * Create a cache for the trees of the given repository.
+	 *
+	 * @param readers The readers to use for reading trees from the repository
+	 * @param maxBytes The approximate maximum number of bytes of all cached trees together
+	 */
+	public TreeCache(final ObjectReaderPool readers, long maxBytes) {
+		cache = CacheBuilder.newBuilder()
+			.maximumWeight(maxBytes)
+			.weigher(new Weigher<ObjectId, ParsedTree>() {
+				@Override
+				public int weigh(ObjectId key, ParsedTree value) {
+					return value.weight();
+				}
+			})
+			.recordStats()
+			.build(new CacheLoader<ObjectId, ParsedTree>() {
+				@Override
+				public ParsedTree load(ObjectId key) throws IOException {
+					return ParsedTree.parse(readers.get().open(key, Constants.OBJ_TREE).getCachedBytes());
+				}
+			});
+	}
+
+	/**
+	 * Return the parsed tree with the given id, reading it from the repository if necessary.
+	 *
+	 * @param treeId The id of a tree object
+	 * @return The parsed tree
+	 * @throws IOException If the tree cannot be read from the repository
+	 */
+	public ParsedTree get(AnyObjectId treeId) throws IOException {
+		try {
+			return cache.get(treeId.copy());
+		} catch (ExecutionException e) {
+			Throwables.propagateIfPossible(e.getCause(), IOException.class);
+			throw new IllegalStateException("Error reading tree " + treeId.getName(), e.getCause());
+		} catch (UncheckedExecutionException e) {
+			Throwables.propagateIfPossible(e.getCause(), IOException.class);
+			throw new IllegalStateException("Error reading tree " + treeId.getName(), e.getCause());
+		}
+	}
+
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	@Override
+	public String toString() {
+		CacheStats stats = cache.stats();
+		return "TreeCache: " + cache.size() + " trees, " + stats.hitCount() + " hits, " + stats.missCount() + " misses";
+	}
+}
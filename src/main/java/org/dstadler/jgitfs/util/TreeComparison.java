@@ -0,0 +1,116 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * The paths which differ between two trees, arranged as a hierarchy of
+ * directories, so it can be listed like a tree but only contains the
+ * changed, added and deleted paths and the directories leading to them.
+ *
+ * Directories which exist only in one of the trees are reported as a whole,
+ * without reading the paths inside them, see {@link TreeDiff}.
+ *
+ * Instances are immutable, they never change for a pair of trees.
+ *
+ * @author cwat-dstadler
+ */
+public final class TreeComparison {
+	public enum Change {
+		/** The path exists only in the new tree */
+		ADDED,
+		/** The path exists only in the old tree */
+		DELETED,
+		/** The path exists in both trees, but with different content, mode or type */
+		MODIFIED,
+		/** A directory in both trees which contains changes */
+		DIRECTORY
+	}
+
+	private final Map<String, Change> changes;
+	private final Map<String, List<String>> children;
+
+	private TreeComparison(Map<String, Change> changes, Map<String, List<String>> children) {
+		this.changes = changes;
+		this.children = children;
+	}
+
+	/**
+	 * Compare the trees.
+	 *
+	 * @param readers The readers for reading the trees
+	 * @param treeCache The cache to take the trees from
+	 * @param oldTree The id of the old tree
+	 * @param newTree The id of the new tree
+	 * @return The paths which differ
+	 * @throws IOException If reading the trees fails
+	 */
+	static TreeComparison compare(ObjectReaderPool readers, TreeCache treeCache, ObjectId oldTree, ObjectId newTree) throws IOException {
+		final Map<String, Change> changes = new HashMap<String, Change>();
+		final Map<String, List<String>> children = new HashMap<String, List<String>>();
+		children.put("", new ArrayList<String>());
+
+		new TreeDiff(readers, treeCache, false).diff(newTree, oldTree, new TreeDiff.Visitor() {
+			@Override
+			public boolean visit(String path, ParsedTree newTree, int newIndex, ParsedTree oldTree, int oldIndex) {
+				final Change change;
+				if (newIndex < 0) {
+					change = Change.DELETED;
+				} else if (oldIndex < 0) {
+					change = Change.ADDED;
+				} else if (newTree.isTree(newIndex) && oldTree.isTree(oldIndex)) {
+					change = Change.DIRECTORY;
+					children.put(path, new ArrayList<String>());
+				} else {
+					change = Change.MODIFIED;
+				}
+				changes.put(path, change);
+
+				// the visitor is called for directories before their content, sorted by name
+				int slash = path.lastIndexOf('/');
+				children.get(slash == -1 ? "" : path.substring(0, slash)).add(path.substring(slash + 1));
+				return true;
+			}
+		});
+
+		return new TreeComparison(changes, children);
+	}
+
+	/**
+	 * @param path A path without leading slash, empty for the root directory
+	 * @return How the path differs, {@link Change#DIRECTORY} for the root directory, null if the path did not change
+	 */
+	public Change get(String path) {
+		if (path.isEmpty()) {
+			return Change.DIRECTORY;
+		}
+		return changes.get(path);
+	}
+
+	/**
+	 * @param path The path of a directory without leading slash, empty for the root directory
+	 * @return The sorted names of the changed paths directly inside the directory, null if it is no changed directory
+	 */
+	public List<String> getChildren(String path) {
+		List<String> names = children.get(path);
+		return names == null ? null : Collections.unmodifiableList(names);
+	}
+
+	/**
+	 * @return The number of paths which differ, including the directories which contain changes
+	 */
+	public int size() {
+		return changes.size();
+	}
+
+	@Override
+	public String toString() {
+		return "TreeComparison: " + changes.size() + " changed paths";
+	}
+}
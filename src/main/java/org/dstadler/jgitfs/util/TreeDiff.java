@@ -0,0 +1,136 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Comparison of two trees by merging their entries, which are sorted by name.
+ *
+ * Subtrees with the same id on both sides are skipped without reading them,
+ * so the cost depends on the number of changes and not on the size of the
+ * trees.
+ *
+ * @author cwat-dstadler
+ */
+final class TreeDiff {
+	/**
+	 * Callback for the paths which differ between the two trees.
+	 */
+	interface Visitor {
+		/**
+		 * Invoked for each path whose id or mode differs, directories before the paths inside them.
+		 *
+		 * @param path The path without leading slash
+		 * @param newTree The tree containing the entry on the new side
+		 * @param newIndex The index of the entry in newTree, -1 if the path does not exist on the new side
+		 * @param oldTree The tree containing the entry on the old side
+		 * @param oldIndex The index of the entry in oldTree, -1 if the path does not exist on the old side
+		 * @return true to continue, false to stop the comparison
+		 * @throws IOException If the visitor fails to read from the repository
+		 */
+		boolean visit(String path, ParsedTree newTree, int newIndex, ParsedTree oldTree, int oldIndex) throws IOException;
+	}
+
+	private static final ParsedTree EMPTY_TREE = ParsedTree.parse(new byte[0]);
+
+	private final ObjectReaderPool readers;
+	private final TreeCache treeCache;
+	private final boolean expandOneSided;
+
+	/**
+	 * Construct a comparison which reports all paths inside added and deleted directories.
+	 *
+	 * @param readers The readers for reading the trees
+	 * @param treeCache The cache to take the trees from, null to parse them without caching,
+	 * 		e.g. for comparing the trees of old commits in the background
+	 */
+	TreeDiff(ObjectReaderPool readers, TreeCache treeCache) {
+		this(readers, treeCache, true);
+	}
+
+	/**
+	 * @param readers The readers for reading the trees
+	 * @param treeCache The cache to take the trees from, null to parse them without caching
+	 * @param expandOneSided If the paths inside directories which exist only on one side are reported,
+	 * 		if false only the directory itself is reported and its tree is not read
+	 */
+	TreeDiff(ObjectReaderPool readers, TreeCache treeCache, boolean expandOneSided) {
+		this.readers = readers;
+		this.treeCache = treeCache;
+		this.expandOneSided = expandOneSided;
+	}
+
+	/**
+	 * @param newTree The id of the new tree, null for an empty tree
+	 * @param oldTree The id of the old tree, null for an empty tree
+	 * @param visitor Invoked for each path which differs
+	 * @return false if the visitor stopped the comparison
+	 * @throws IOException If reading the trees fails
+	 */
+	boolean diff(ObjectId newTree, ObjectId oldTree, Visitor visitor) throws IOException {
+		return diff(newTree, oldTree, "", visitor);
+	}
+
+	private boolean diff(ObjectId newTree, ObjectId oldTree, String prefix, Visitor visitor) throws IOException {
+		ParsedTree a = parse(newTree);
+		ParsedTree b = parse(oldTree);
+		int i = 0;
+		int j = 0;
+		while (i < a.size() || j < b.size()) {
+			int cmp;
+			if (i == a.size()) {
+				cmp = 1;
+			} else if (j == b.size()) {
+				cmp = -1;
+			} else {
+				cmp = a.getName(i).compareTo(b.getName(j));
+			}
+
+			boolean ok = true;
+			if (cmp < 0) {
+				ok = changed(prefix + a.getName(i), a, i, b, -1, visitor);
+				i++;
+			} else if (cmp > 0) {
+				ok = changed(prefix + b.getName(j), a, -1, b, j, visitor);
+				j++;
+			} else {
+				if (!a.getObjectId(i).equals(b.getObjectId(j)) || !a.getFileMode(i).equals(b.getFileMode(j))) {
+					ok = changed(prefix + a.getName(i), a, i, b, j, visitor);
+				}
+				i++;
+				j++;
+			}
+			if (!ok) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean changed(String path, ParsedTree a, int i, ParsedTree b, int j, Visitor visitor) throws IOException {
+		if (!visitor.visit(path, a, i, b, j)) {
+			return false;
+		}
+		ObjectId newTree = (i >= 0 && a.isTree(i)) ? a.getObjectId(i) : null;
+		ObjectId oldTree = (j >= 0 && b.isTree(j)) ? b.getObjectId(j) : null;
+		if (newTree == null && oldTree == null) {
+			return true;
+		}
+		if (!expandOneSided && (newTree == null || oldTree == null)) {
+			return true;
+		}
+		return diff(newTree, oldTree, path + '/', visitor);
+	}
+
+	private ParsedTree parse(ObjectId tree) throws IOException {
+		if (tree == null) {
+			return EMPTY_TREE;
+		}
+		if (treeCache != null) {
+			return treeCache.get(tree);
+		}
+		return ParsedTree.parse(readers.get().open(tree, Constants.OBJ_TREE).getCachedBytes());
+	}
+}
@@ -0,0 +1,122 @@
+package org.dstadler.jgitfs.util;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * The result of resolving a path in a Git tree, i.e. the mode and object id of
+ * the entry and its size once it was needed.
+ *
+ * Trees never change, so these can be cached for as long as needed. {@link #MISSING}
+ * is used for paths which do not exist so that these are cached as well.
+ *
+ * @author cwat-dstadler
+ */
+public class TreeEntry {
+	/**
+	 * Sentinel for paths which do not exist in the tree.
+	 */
+	public static final TreeEntry MISSING = new TreeEntry(FileMode.MISSING, ObjectId.zeroId());
+
+	/**
+	 * The size of the special .gittree file, i.e. the id of the tree and a newline.
+	 */
+	private static final int GITTREE_SIZE = Constants.OBJECT_ID_STRING_LENGTH + 1;
+
+	private final FileMode fileMode;
+	private final ObjectId objectId;
+	private final boolean gitTree;
+
+	/**
+	 * Computed lazily as it requires reading the object header, -1 until then.
+	 */
+	private volatile long size = -1;
+
+	public TreeEntry(FileMode fileMode, ObjectId objectId) {
+		this(fileMode, objectId, false);
+	}
+
+	private TreeEntry(FileMode fileMode, ObjectId objectId, boolean gitTree) {
+		this.fileMode = fileMode;
+		this.objectId = objectId;
+		this.gitTree = gitTree;
+		if (gitTree) {
+			size = GITTREE_SIZE;
+		}
+	}
+
+	/**
+	 * Create the entry for the special hidden file .gittree which contains the id of the tree it is located in.
+	 *
+	 * @param treeId The id of the tree which contains the .gittree file
+	 * @return A file entry whose object id is the id of the tree
+	 */
+	public static TreeEntry gitTree(ObjectId treeId) {
+		return new TreeEntry(FileMode.REGULAR_FILE, treeId, true);
+	}
+
+	public FileMode getFileMode() {
+		return fileMode;
+	}
+
+	public ObjectId getObjectId() {
+		return objectId;
+	}
+
+	public boolean exists() {
+		return this != MISSING;
+	}
+
+	public boolean isTree() {
+		return (fileMode.getBits() & FileMode.TYPE_MASK) == FileMode.TYPE_TREE;
+	}
+
+	public boolean isFile() {
+		return (fileMode.getBits() & FileMode.TYPE_FILE) != 0;
+	}
+
+	public boolean isSymlink() {
+		return (fileMode.getBits() & FileMode.TYPE_MASK) == FileMode.TYPE_SYMLINK;
+	}
+
+	/**
+	 * @return true for the special .gittree file, its object id is the id of the tree and not of a blob
+	 */
+	public boolean isGitTree() {
+		return gitTree;
+	}
+
+	/**
+	 * @return The inode number, the same for all entries with the same object id and mode, see {@link Inodes}
+	 */
+	public long getIno() {
+		return Inodes.forObject(objectId, fileMode, gitTree);
+	}
+
+	/**
+	 * @return The link count which goes with the inode number, see {@link Inodes#linkCount(FileMode, boolean)}
+	 */
+	public long getLinkCount() {
+		return Inodes.linkCount(fileMode, gitTree);
+	}
+
+	/**
+	 * @return The size of the object or -1 if it was not computed yet
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	public void setSize(long size) {
+		this.size = size;
+	}
+
+	@Override
+	public String toString() {
+		if (!exists()) {
+			return "MISSING";
+		}
+		return (gitTree ? ".gittree of " : (fileMode + " ")) + objectId.getName();
+	}
+}
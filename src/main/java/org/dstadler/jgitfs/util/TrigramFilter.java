@@ -0,0 +1,163 @@
+package org.dstadler.jgitfs.util;
+
+import java.util.Arrays;
+
+import org.eclipse.jgit.diff.RawText;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Bloom filter over the trigrams, i.e. the sequences of three bytes, which
+ * occur in the content of a blob.
+ *
+ * A filter answers "maybe contains" or "definitely does not contain" for a
+ * string, so searching the content of a commit only needs to read the few
+ * blobs where the answer is "maybe". Binary blobs and blobs larger than
+ * {@link #MAX_SIZE} are not searched at all, they get {@link #NONE}. Blobs
+ * with more than {@link #MAX_TRIGRAMS} different trigrams get {@link #ALL},
+ * which always answers "maybe".
+ *
+ * @author cwat-dstadler
+ */
+public final class TrigramFilter {
+	/**
+	 * Blobs larger than this are not searched, like most code search tools do.
+	 */
+	public static final int MAX_SIZE = 1024 * 1024;	// 1MB
+
+	/**
+	 * Blobs with more different trigrams than this are not worth a filter.
+	 */
+	public static final int MAX_TRIGRAMS = 65536;
+
+	private static final int BITS_PER_TRIGRAM = 8;
+	private static final int HASHES = 3;
+	private static final int MIN_BYTES = 8;
+
+	private static final HashFunction HASH1 = Hashing.murmur3_32(1);
+	private static final HashFunction HASH2 = Hashing.murmur3_32(2);
+
+	/**
+	 * The filter for blobs with too many trigrams, contains every string.
+	 */
+	public static final TrigramFilter ALL = new TrigramFilter(null);
+
+	/**
+	 * The filter for binary and large blobs, contains no string.
+	 */
+	public static final TrigramFilter NONE = new TrigramFilter(null);
+
+	/**
+	 * The bits of the filter, null for {@link #ALL} and {@link #NONE}.
+	 */
+	private final byte[] bits;
+
+	private TrigramFilter(byte[] bits) {
+		this.bits = bits;
+	}
+
+	/**
+	 * @param content The content of a blob
+	 * @return A filter which contains all trigrams of the content
+	 */
+	public static TrigramFilter create(byte[] content) {
+		if (content.length > MAX_SIZE || RawText.isBinary(content)) {
+			return NONE;
+		}
+
+		int[] trigrams = trigrams(content);
+		if (trigrams.length > MAX_TRIGRAMS) {
+			return ALL;
+		}
+
+		byte[] bits = new byte[Math.max(MIN_BYTES, (trigrams.length * BITS_PER_TRIGRAM + 7) / 8)];
+		int bitCount = bits.length * 8;
+		for (int trigram : trigrams) {
+			int hash1 = HASH1.hashInt(trigram).asInt();
+			int hash2 = HASH2.hashInt(trigram).asInt();
+			for (int i = 0; i < HASHES; i++) {
+				int bit = index(hash1, hash2, i, bitCount);
+				bits[bit >>> 3] |= 1 << (bit & 7);
+			}
+		}
+		return new TrigramFilter(bits);
+	}
+
+	/**
+	 * @param bits The bits as returned by {@link #getBits()}, not null
+	 * @return The filter with the given bits
+	 */
+	public static TrigramFilter fromBits(byte[] bits) {
+		return new TrigramFilter(bits);
+	}
+
+	/**
+	 * @param query The bytes to search for
+	 * @return false if the blob definitely does not contain the bytes, true if it may contain them
+	 */
+	public boolean mightContain(byte[] query) {
+		if (this == NONE) {
+			return false;
+		}
+		if (bits == null) {
+			return true;
+		}
+
+		// strings shorter than a trigram can be anywhere
+		int bitCount = bits.length * 8;
+		for (int trigram : trigrams(query)) {
+			int hash1 = HASH1.hashInt(trigram).asInt();
+			int hash2 = HASH2.hashInt(trigram).asInt();
+			for (int i = 0; i < HASHES; i++) {
+				int bit = index(hash1, hash2, i, bitCount);
+				if ((bits[bit >>> 3] & (1 << (bit & 7))) == 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The bits of the filter for storing it, null for {@link #ALL} and {@link #NONE}, the array must not be modified
+	 */
+	public byte[] getBits() {
+		return bits;
+	}
+
+	/**
+	 * @return The sorted distinct trigrams of the bytes, each as the three bytes in the lower 24 bits of an int
+	 */
+	private static int[] trigrams(byte[] bytes) {
+		if (bytes.length < 3) {
+			return new int[0];
+		}
+
+		int[] trigrams = new int[bytes.length - 2];
+		int trigram = ((bytes[0] & 0xff) << 8) | (bytes[1] & 0xff);
+		for (int i = 2; i < bytes.length; i++) {
+			trigram = ((trigram << 8) | (bytes[i] & 0xff)) & 0xffffff;
+			trigrams[i - 2] = trigram;
+		}
+		Arrays.sort(trigrams);
+
+		int count = 1;
+		for (int i = 1; i < trigrams.length; i++) {
+			if (trigrams[i] != trigrams[count - 1]) {
+				trigrams[count++] = trigrams[i];
+			}
+		}
+		return Arrays.copyOf(trigrams, count);
+	}
+
+	private static int index(int hash1, int hash2, int i, int bitCount) {
+		int combined = hash1 + i * hash2;
+		return (combined & Integer.MAX_VALUE) % bitCount;
+	}
+
+	@Override
+	public String toString() {
+		return "TrigramFilter: " + (this == NONE ? "not searched" : (bits == null ? "all strings" : bits.length + " bytes"));
+	}
+}
@@ -0,0 +1,461 @@
+package org.dstadler.jgitfs.util;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Bytes;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Index of the trigrams in the content of blobs, stored as one {@link TrigramFilter}
+ * per blob, for searching the files of a commit without reading all of them.
+ *
+ * Filters are keyed by the id of the blob, so they are shared by all commits which
+ * contain the same content, and a new commit only needs filters for the blobs it
+ * introduced. They are computed in the background for the blobs in the trees of the
+ * refs, and for the trees of other commits when these are searched. Searches never
+ * compute filters themselves, until all blobs of a tree have one they return
+ * {@link SearchResult#NOT_READY}.
+ *
+ * Filters never change, so they are appended to a file next to the repository, see
+ * {@link IndexFile}. Only their position in the file is kept in memory, the bits are
+ * read from the file when a search needs them.
+ *
+ * @author cwat-dstadler
+ */
+public class TrigramIndex implements Closeable {
+	/**
+	 * The name of the file in the .git directory which holds the filters.
+	 */
+	public static final String FILE_NAME = "jgitfs-trigrams";
+
+	/**
+	 * The first four bytes of the file, "JTR" and a version.
+	 */
+	private static final int MAGIC = 0x4a545201;
+
+	/**
+	 * The lengths stored instead of the bits for {@link TrigramFilter#ALL} and {@link TrigramFilter#NONE}.
+	 */
+	private static final int LENGTH_ALL = -1;
+	private static final int LENGTH_NONE = -2;
+
+	/**
+	 * Write buffered filters to the file after this many new filters while indexing large trees.
+	 */
+	private static final int FLUSH_BATCH = 10000;
+
+	private final File file;
+	private final ObjectReaderPool readers;
+	private final TreeCache treeCache;
+	private final ExecutorService executor;
+
+	/**
+	 * The filters by blob, guarded by this.
+	 */
+	private final ObjectIdOwnerMap<Filter> filters = new ObjectIdOwnerMap<Filter>();
+
+	/**
+	 * The filters which keep their bits until they are flushed to the file, guarded by this.
+	 */
+	private final List<Filter> unflushed = new ArrayList<Filter>();
+
+	/**
+	 * The searched trees which wait for being indexed in the background, guarded by this.
+	 */
+	private final Set<ObjectId> queuedTrees = new HashSet<ObjectId>();
+
+	/**
+	 * The trees whose blobs were indexed by previous updates. Only accessed from the background thread.
+	 */
+	private final ObjectIdSubclassMap<ObjectId> indexedTrees = new ObjectIdSubclassMap<ObjectId>();
+
+	/**
+	 * The file the filters are appended to, guarded by this.
+	 */
+	private final IndexFile indexFile;
+
+	/**
+	 * @param file The file for storing the filters, usually {@link #FILE_NAME} in the .git directory
+	 * @param readers The readers for reading trees and blobs
+	 * @param treeCache The cache to take the trees of searched commits from
+	 */
+	public TrigramIndex(File file, ObjectReaderPool readers, TreeCache treeCache) {
+		this.file = file;
+		this.readers = readers;
+		this.treeCache = treeCache;
+		executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+				.setDaemon(true)
+				.setNameFormat("TrigramIndex for " + file + "-%d")
+				.build());
+
+		indexFile = new IndexFile(file, MAGIC);
+		synchronized (this) {
+			indexFile.open(new IndexFile.RecordReader() {
+				@Override
+				public void read(DataInputStream in) throws IOException {
+					byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+					in.readFully(raw);
+					int length = in.readInt();
+					long position = indexFile.getPosition();
+					if (length >= 0) {
+						// the bits stay in the file
+						ByteStreams.skipFully(in, length);
+					} else if (length != LENGTH_ALL && length != LENGTH_NONE) {
+						throw new IOException("Invalid length " + length + " at blob " + filters.size());
+					}
+					ObjectId blob = ObjectId.fromRaw(raw);
+					if (filters.get(blob) == null) {
+						filters.add(new Filter(blob, length, position, null));
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Find the files in the tree whose content contains the query, like "grep -rlF" but
+	 * without binary files and files larger than {@link TrigramFilter#MAX_SIZE}. Only the
+	 * blobs whose filter might contain the query are read.
+	 *
+	 * @param tree The id of the root tree
+	 * @param query The string to search for, it is matched against the UTF-8 encoded content
+	 * @return The matching files, {@link SearchResult#NOT_READY} if some blobs have no filter yet,
+	 * 		the tree is indexed in the background then
+	 * @throws IOException If reading trees, blobs or filters fails
+	 */
+	public SearchResult search(AnyObjectId tree, String query) throws IOException {
+		ObjectId root = tree.copy();
+		List<String> paths = new ArrayList<String>();
+		if (!search(root, "", query.getBytes(Charsets.UTF_8), paths)) {
+			queue(root);
+			return SearchResult.NOT_READY;
+		}
+		return SearchResult.create(paths);
+	}
+
+	/**
+	 * @return false if a blob has no filter, the search is stopped then
+	 */
+	private boolean search(ObjectId tree, String prefix, byte[] query, List<String> paths) throws IOException {
+		ParsedTree parsed = treeCache.get(tree);
+		for (int i = 0; i < parsed.size(); i++) {
+			if (parsed.isTree(i)) {
+				if (!search(parsed.getObjectId(i), prefix + parsed.getName(i) + '/', query, paths)) {
+					return false;
+				}
+			} else if (isFile(parsed, i)) {
+				ObjectId blob = parsed.getObjectId(i);
+				TrigramFilter filter = get(blob);
+				if (filter == null) {
+					return false;
+				}
+				if (filter.mightContain(query) && contains(blob, query)) {
+					paths.add(prefix + parsed.getName(i));
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read the blob to check if it really contains the query.
+	 */
+	private boolean contains(ObjectId blob, byte[] query) throws IOException {
+		byte[] content = read(blob);
+		return content != null && Bytes.indexOf(content, query) >= 0;
+	}
+
+	/**
+	 * Index the tree in the background unless it is waiting for this already.
+	 */
+	private void queue(final ObjectId tree) {
+		synchronized (this) {
+			if (!queuedTrees.add(tree)) {
+				return;
+			}
+		}
+		try {
+			executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						index(tree);
+					} catch (IOException e) {
+						System.out.println("Could not index trigrams of tree " + tree.getName() + " in " + file + ": " + e);
+					} finally {
+						flush();
+						synchronized (TrigramIndex.this) {
+							queuedTrees.remove(tree);
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// closed meanwhile
+		}
+	}
+
+	/**
+	 * @return The content of the blob, null if it is too large to be searched
+	 */
+	private byte[] read(ObjectId blob) throws IOException {
+		ObjectLoader loader = readers.get().open(blob, Constants.OBJ_BLOB);
+		if (loader.getSize() > TrigramFilter.MAX_SIZE) {
+			return null;
+		}
+		return loader.getCachedBytes(TrigramFilter.MAX_SIZE);
+	}
+
+	/**
+	 * @return true for regular and executable files, symlinks and submodules are not searched
+	 */
+	private static boolean isFile(ParsedTree tree, int index) {
+		return (tree.getFileMode(index).getBits() & FileMode.TYPE_MASK) == FileMode.TYPE_FILE;
+	}
+
+	/**
+	 * @param blob The id of a blob
+	 * @return The filter of the blob or null if it was not computed yet
+	 * @throws IOException If reading the bits of the filter from the file fails
+	 */
+	public synchronized TrigramFilter get(AnyObjectId blob) throws IOException {
+		Filter filter = filters.get(blob);
+		if (filter == null) {
+			return null;
+		}
+		if (filter.length == LENGTH_ALL) {
+			return TrigramFilter.ALL;
+		}
+		if (filter.length == LENGTH_NONE) {
+			return TrigramFilter.NONE;
+		}
+		if (filter.bits != null) {
+			return TrigramFilter.fromBits(filter.bits);
+		}
+		byte[] bits = new byte[filter.length];
+		indexFile.read(filter.position, bits);
+		return TrigramFilter.fromBits(bits);
+	}
+
+	private synchronized boolean isIndexed(AnyObjectId blob) {
+		return filters.get(blob) != null;
+	}
+
+	/**
+	 * @return The number of blobs which have a filter
+	 */
+	public synchronized int size() {
+		return filters.size();
+	}
+
+	/**
+	 * Append the filter to the file and keep its position, the bits are kept until they are flushed
+	 * or for good if the index is only kept in memory.
+	 */
+	private synchronized void add(AnyObjectId blob, TrigramFilter filter) {
+		if (filters.get(blob) != null) {
+			return;
+		}
+		byte[] bits = filter.getBits();
+		int length = (filter == TrigramFilter.ALL) ? LENGTH_ALL : (filter == TrigramFilter.NONE ? LENGTH_NONE : bits.length);
+		Filter entry = new Filter(blob, length, -1, bits);
+		filters.add(entry);
+
+		DataOutputStream out = indexFile.getOutput();
+		if (out != null) {
+			try {
+				blob.copyRawTo(out);
+				out.writeInt(length);
+				if (bits != null) {
+					entry.position = indexFile.getPosition();
+					out.write(bits);
+					unflushed.add(entry);
+				}
+			} catch (IOException e) {
+				indexFile.writeFailed(e);
+			}
+		}
+	}
+
+	/**
+	 * Write filters which were computed since the last call to the file.
+	 */
+	public synchronized void flush() {
+		indexFile.flush();
+		if (indexFile.getOutput() != null) {
+			// the bits can be read from the file now
+			for (Filter filter : unflushed) {
+				filter.bits = null;
+			}
+		}
+		unflushed.clear();
+	}
+
+	/**
+	 * Compute the filters of all blobs in the trees of the given tips in the background.
+	 *
+	 * @param tips The objects the refs point to, objects which are not commits are ignored
+	 * @return A future which is done when the filters were computed, e.g. for waiting in tests
+	 */
+	public Future<?> update(Collection<ObjectId> tips) {
+		final List<ObjectId> copy = new ArrayList<ObjectId>(tips);
+		return executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					index(copy);
+				} catch (IOException e) {
+					System.out.println("Could not index trigrams of " + file + ": " + e);
+				} finally {
+					flush();
+				}
+			}
+		});
+	}
+
+	private void index(List<ObjectId> tips) throws IOException {
+		// the walk does not own the pooled reader, so it is not released here
+		RevWalk walk = new RevWalk(readers.get());
+		walk.setRetainBody(false);
+
+		for (ObjectId tip : tips) {
+			RevObject object = parseAny(walk, tip);
+			if (object instanceof RevCommit) {
+				index(((RevCommit) object).getTree());
+			}
+			if (Thread.currentThread().isInterrupted()) {
+				// closed while indexing
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Compute the filters of the blobs in the tree, only called from the background thread.
+	 */
+	private void index(ObjectId root) throws IOException {
+		int computed = 0;
+		Deque<ObjectId> pending = new ArrayDeque<ObjectId>();
+		pending.push(root);
+
+		// trees which were indexed before contain no new blobs, so new commits only cost their new trees
+		while (!pending.isEmpty()) {
+			if (Thread.currentThread().isInterrupted()) {
+				// closed while indexing
+				return;
+			}
+			ObjectId tree = pending.pop();
+			if (indexedTrees.contains(tree)) {
+				continue;
+			}
+			indexedTrees.add(tree.copy());
+
+			// trees of the refs are parsed without the TreeCache, they would push out the ones which are in use
+			ParsedTree parsed = ParsedTree.parse(readers.get().open(tree, Constants.OBJ_TREE).getCachedBytes());
+			for (int i = 0; i < parsed.size(); i++) {
+				if (parsed.isTree(i)) {
+					pending.push(parsed.getObjectId(i));
+				} else if (isFile(parsed, i)) {
+					ObjectId blob = parsed.getObjectId(i);
+					if (!isIndexed(blob)) {
+						byte[] content = read(blob);
+						add(blob, content == null ? TrigramFilter.NONE : TrigramFilter.create(content));
+						if (++computed % FLUSH_BATCH == 0) {
+							flush();
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static RevObject parseAny(RevWalk walk, ObjectId id) throws IOException {
+		try {
+			return walk.parseAny(id);
+		} catch (MissingObjectException e) {
+			// e.g. a ref pointing to an object which was garbage collected
+			return null;
+		}
+	}
+
+	/**
+	 * Stop computing filters and write the ones which were computed so far to the file.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			// ignored, nothing we can do here
+		}
+		synchronized (this) {
+			indexFile.flush();
+			indexFile.close();
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "TrigramIndex: " + filters.size() + " blobs in " + indexFile;
+	}
+
+	/**
+	 * Where to find the filter of a blob.
+	 */
+	private static final class Filter extends ObjectIdOwnerMap.Entry {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The length of the bits, {@link #LENGTH_ALL} or {@link #LENGTH_NONE}.
+		 */
+		private final int length;
+
+		/**
+		 * The position of the bits in the file, guarded by the index.
+		 */
+		private long position;
+
+		/**
+		 * The bits until they are in the file, null afterwards, guarded by the index.
+		 */
+		private byte[] bits;
+
+		public Filter(AnyObjectId id, int length, long position, byte[] bits) {
+			super(id);
+			this.length = length;
+			this.position = position;
+			this.bits = bits;
+		}
+	}
+}
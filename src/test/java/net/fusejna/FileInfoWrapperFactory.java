@@ -0,0 +1,10 @@
+package net.fusejna;
+
+import net.fusejna.StructFuseFileInfo.FileInfoWrapper;
+
+
+public class FileInfoWrapperFactory {
+	public static FileInfoWrapper create() {
+		return new FileInfoWrapper(new StructFuseFileInfo());
+	}
+}
@@ -5,20 +5,26 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.nio.BufferOverflowException;
+import java.net.URLEncoder;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import net.fusejna.DirectoryFiller;
 import net.fusejna.ErrorCodes;
+import net.fusejna.FileInfoWrapperFactory;
 import net.fusejna.FuseException;
 import net.fusejna.StatWrapperFactory;
+import net.fusejna.StructFuseFileInfo.FileInfoWrapper;
 import net.fusejna.StructStat.StatWrapper;
 import net.fusejna.types.TypeMode.NodeType;
 
 import org.dstadler.jgitfs.util.FuseUtils;
+import org.dstadler.jgitfs.util.JGitHelper;
 import org.dstadler.jgitfs.util.JGitHelperTest;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Assume;
@@ -144,13 +150,88 @@ public class JGitFilesystemTest {
 		assertEquals(-ErrorCodes.ENOENT(), fs.read("/somepath", null, 0, 0, null));
 	}
 
+	@Test
+	public void testGetXattr() {
+		ByteBuffer buffer = ByteBuffer.allocate(100);
+		assertEquals(40, fs.getxattr(DEFAULT_TREE_PATH, JGitFilesystem.XATTR_TREE, buffer, 100, 0));
+		assertEquals(JGitHelperTest.DEFAULT_TREE, new String(buffer.array(), 0, 40));
+
+		buffer = ByteBuffer.allocate(100);
+		assertEquals(6, fs.getxattr(DEFAULT_COMMIT_PATH + "/README.md", JGitFilesystem.XATTR_MODE, buffer, 100, 0));
+		assertEquals("100644", new String(buffer.array(), 0, 6));
+
+		// the oid of the same file is available for any commit, without reading the file
+		buffer = ByteBuffer.allocate(100);
+		assertEquals(40, fs.getxattr(DEFAULT_COMMIT_PATH + "/README.md", JGitFilesystem.XATTR_OID, buffer, 100, 0));
+		String oid = new String(buffer.array(), 0, 40);
+		assertTrue(oid, oid.matches("[0-9a-f]{40}"));
+
+		// only the size is requested
+		assertEquals(40, fs.getxattr(DEFAULT_COMMIT_PATH + "/README.md", JGitFilesystem.XATTR_OID, null, 0, 0));
+
+		// buffer too small
+		assertEquals(-ErrorCodes.ERANGE(), fs.getxattr(DEFAULT_COMMIT_PATH + "/README.md", JGitFilesystem.XATTR_OID, ByteBuffer.allocate(10), 10, 0));
+	}
+
+	@Test
+	public void testGetXattrFails() {
+		ByteBuffer buffer = ByteBuffer.allocate(100);
+		int noAttribute = fs.getxattr(DEFAULT_COMMIT_PATH + "/README.md", JGitFilesystem.XATTR_TREE, buffer, 100, 0);
+		assertTrue("Had: " + noAttribute, noAttribute < 0);
+		assertEquals(noAttribute, fs.getxattr(DEFAULT_COMMIT_PATH + "/README.md", "user.other", buffer, 100, 0));
+		assertEquals(noAttribute, fs.getxattr(DEFAULT_COMMIT_PATH + "/notexisting", JGitFilesystem.XATTR_OID, buffer, 100, 0));
+		assertEquals(noAttribute, fs.getxattr(DEFAULT_COMMIT_PATH + "/.gittree", JGitFilesystem.XATTR_OID, buffer, 100, 0));
+		assertEquals(noAttribute, fs.getxattr("/branch/__testbranch", JGitFilesystem.XATTR_OID, buffer, 100, 0));
+		assertEquals(noAttribute, fs.getxattr("/", JGitFilesystem.XATTR_OID, buffer, 100, 0));
+	}
+
+	@Test
+	public void testOpenReadRelease() {
+		FileInfoWrapper info = getFileInfoWrapper();
+		String path = DEFAULT_COMMIT_PATH + "/README.md";
+		assertEquals(0, fs.open(path, info));
+		assertTrue(info.fh() != 0);
+
+		ByteBuffer expected = ByteBuffer.allocate(100000);
+		assertEquals(4816, fs.read(path, expected, 100000, 0, null));
+
+		// sequential reads in small chunks continue on the same handle
+		ByteBuffer buffer = ByteBuffer.allocate(100000);
+		long offset = 0;
+		int read;
+		while ((read = fs.read(path, buffer, 1000, offset, info)) > 0) {
+			offset += read;
+		}
+		assertEquals(4816, offset);
+		assertArrayEquals(Arrays.copyOf(expected.array(), 4816), Arrays.copyOf(buffer.array(), 4816));
+
+		// going backwards works as well
+		buffer = ByteBuffer.allocate(100);
+		assertEquals(100, fs.read(path, buffer, 100, 200, info));
+		assertArrayEquals(Arrays.copyOfRange(expected.array(), 200, 300), buffer.array());
+
+		// reading past the end returns nothing
+		buffer = ByteBuffer.allocate(100);
+		assertEquals(0, fs.read(path, buffer, 100, 5000, info));
+
+		assertEquals(0, fs.release(path, info));
+	}
+
+	@Test
+	public void testOpenFails() {
+		FileInfoWrapper info = getFileInfoWrapper();
+		assertEquals(-ErrorCodes.ENOENT(), fs.open(DEFAULT_COMMIT_PATH + "/notexisting", info));
+		assertEquals(-ErrorCodes.ENOENT(), fs.open(DEFAULT_COMMIT_PATH + "/src", info));
+		assertEquals(-ErrorCodes.ENOENT(), fs.open("/somepath", info));
+	}
+
 	@Test
 	public void testReadDir() {
 		final List<String> filledFiles = new ArrayList<String>();
 		DirectoryFiller filler = new DirectoryFillerImplementation(filledFiles);
 
 		fs.readdir("/", filler);
-		assertEquals("[/branch, /commit, /remote, /tag, /tree, /README.md]", filledFiles.toString());
+		assertEquals("[/branch, /commit, /remote, /tag, /tree, /perfile, /diff, /log, /at, /search, /README.md]", filledFiles.toString());
 
 		filledFiles.clear();
 		fs.readdir("/tag", filler);
@@ -185,7 +266,10 @@ public class JGitFilesystemTest {
 
 		filledFiles.clear();
 		fs.readdir("/commit", filler);
-		assertTrue(filledFiles.isEmpty());
+		for (String dir : filledFiles) {
+			// only the fan-out directories, commits are indexed in the background
+			assertTrue("Had: " + filledFiles.toString(), dir.matches("[0-9a-f]{2}"));
+		}
 
 		filledFiles.clear();
 		fs.readdir(DEFAULT_COMMIT_PATH, filler);
@@ -204,6 +288,25 @@ public class JGitFilesystemTest {
 		assertEquals("Had: " + filledFiles.toString(), "[main, test]", filledFiles.toString());
 	}
 
+	@Test
+	public void testReadDirThenGetAttr() {
+		final List<String> filledFiles = new ArrayList<String>();
+		DirectoryFiller filler = new DirectoryFillerImplementation(filledFiles);
+		assertEquals(0, fs.readdir(DEFAULT_COMMIT_PATH, filler));
+
+		// the entries are stored while listing, getattr() uses them
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.getattr(DEFAULT_COMMIT_PATH + "/src", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr(DEFAULT_COMMIT_PATH + "/README.md", stat));
+		assertEquals(NodeType.FILE, stat.type());
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr(DEFAULT_COMMIT_PATH + "/notexisting", stat));
+
+		// listing a file or a missing directory still fails
+		assertEquals(-ErrorCodes.ENOTDIR(), fs.readdir(DEFAULT_COMMIT_PATH + "/README.md", filler));
+		assertEquals(-ErrorCodes.ENOENT(), fs.readdir(DEFAULT_COMMIT_PATH + "/notexisting", filler));
+	}
+
 	@Test
 	public void testReadDirPathFails() {
 		final List<String> filledFiles = new ArrayList<String>();
@@ -297,6 +400,376 @@ public class JGitFilesystemTest {
 		assertTrue("Had: " + target, target.startsWith("../../commit"));
 	}
 
+	@Test
+	public void testReadLinkCommit() {
+		String path = "/commit/" + JGitHelperTest.DEFAULT_COMMIT.substring(0, 2) + "/" + JGitHelperTest.DEFAULT_COMMIT.substring(2);
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.getattr(path, stat));
+		assertEquals(NodeType.SYMBOLIC_LINK, stat.type());
+		assertEquals(0, fs.getattr("/commit/" + JGitHelperTest.DEFAULT_COMMIT.substring(0, 2), stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+
+		ByteBuffer buffer = ByteBuffer.allocate(100);
+		int readlink = fs.readlink(path, buffer, 100);
+		assertEquals("Had: " + readlink + ": " + new String(buffer.array()), 0, readlink);
+		assertEquals("../" + JGitHelperTest.DEFAULT_COMMIT, new String(buffer.array(), 0, buffer.position()));
+
+		// a tree is not a commit
+		path = "/commit/" + JGitHelperTest.DEFAULT_TREE.substring(0, 2) + "/" + JGitHelperTest.DEFAULT_TREE.substring(2);
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr(path, stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.readlink(path, buffer, 100));
+	}
+
+	@Test
+	public void testReadLinkAbbreviation() {
+		String path = "/commit/" + JGitHelperTest.DEFAULT_COMMIT.substring(0, 7);
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.getattr(path, stat));
+		assertEquals(NodeType.SYMBOLIC_LINK, stat.type());
+
+		ByteBuffer buffer = ByteBuffer.allocate(100);
+		int readlink = fs.readlink(path, buffer, 100);
+		assertEquals("Had: " + readlink + ": " + new String(buffer.array()), 0, readlink);
+		assertEquals(JGitHelperTest.DEFAULT_COMMIT, new String(buffer.array(), 0, buffer.position()));
+
+		path = "/tree/" + JGitHelperTest.DEFAULT_TREE.substring(0, 7);
+		assertEquals(0, fs.getattr(path, stat));
+		assertEquals(NodeType.SYMBOLIC_LINK, stat.type());
+
+		buffer = ByteBuffer.allocate(100);
+		readlink = fs.readlink(path, buffer, 100);
+		assertEquals("Had: " + readlink + ": " + new String(buffer.array()), 0, readlink);
+		assertEquals(JGitHelperTest.DEFAULT_TREE, new String(buffer.array(), 0, buffer.position()));
+
+		// a tree is not a commit and vice versa
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/commit/" + JGitHelperTest.DEFAULT_TREE.substring(0, 7), stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/tree/" + JGitHelperTest.DEFAULT_COMMIT.substring(0, 7), stat));
+	}
+
+	@Test
+	public void testPerFile() {
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.getattr("/perfile", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/perfile/branch", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/perfile/branch/__testbranch", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/perfile/branch/__test", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/perfile/branch/__testbranch/README.md", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/perfile/branch/__testbranch/notexisting", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/perfile/branch/notexisting", stat));
+
+		final List<String> filledFiles = new ArrayList<String>();
+		DirectoryFiller filler = new DirectoryFillerImplementation(filledFiles);
+		assertEquals(0, fs.readdir("/perfile", filler));
+		assertEquals("[branch, commit, remote, tag]", filledFiles.toString());
+
+		filledFiles.clear();
+		assertEquals(0, fs.readdir("/perfile/branch/__test", filler));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.contains("branch"));
+
+		// the history of the root directory is not listed
+		filledFiles.clear();
+		assertEquals(0, fs.readdir("/perfile/commit/" + JGitHelperTest.DEFAULT_COMMIT, filler));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.contains("README.md"));
+		for (String file : filledFiles) {
+			assertFalse("Had: " + file, ObjectId.isId(file));
+		}
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/perfile/commit/" + JGitHelperTest.DEFAULT_COMMIT + "/" + JGitHelperTest.DEFAULT_COMMIT, stat));
+
+		// the entries of the directory followed by the commits which changed it
+		filledFiles.clear();
+		assertEquals(0, fs.readdir("/perfile/branch/__testbranch/src", filler));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.contains("main"));
+		assertTrue("Had: " + filledFiles.toString(), ObjectId.isId(filledFiles.get(filledFiles.size() - 1)));
+
+		// a file only contains the commits which changed it
+		filledFiles.clear();
+		assertEquals(0, fs.readdir("/perfile/commit/" + JGitHelperTest.DEFAULT_COMMIT + "/README.md", filler));
+		assertFalse(filledFiles.isEmpty());
+		for (String file : filledFiles) {
+			assertTrue("Had: " + file, ObjectId.isId(file));
+		}
+
+		String path = "/perfile/commit/" + JGitHelperTest.DEFAULT_COMMIT + "/README.md/" + filledFiles.get(0);
+		assertEquals(0, fs.getattr(path, stat));
+		assertEquals(NodeType.SYMBOLIC_LINK, stat.type());
+		assertEquals(-ErrorCodes.ENOTDIR(), fs.readdir(path, filler));
+
+		ByteBuffer buffer = ByteBuffer.allocate(100);
+		assertEquals(0, fs.readlink(path, buffer, 100));
+		assertEquals("../../../../commit/" + filledFiles.get(0), new String(buffer.array(), 0, buffer.position()));
+
+		// a commit which did not change the file
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/perfile/commit/" + JGitHelperTest.DEFAULT_COMMIT + "/README.md/" + JGitHelperTest.DEFAULT_TREE, stat));
+	}
+
+	@Test
+	public void testDiff() throws IOException {
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.getattr("/diff", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/diff/__testbranch", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/diff/__test", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/diff/__testbranch/__test/branch", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/diff/notexisting", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/diff/__testbranch/notexisting", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/diff/__testbranch/__testtag/README.md", stat));
+
+		final List<String> filledFiles = new ArrayList<String>();
+		DirectoryFiller filler = new DirectoryFillerImplementation(filledFiles);
+		assertEquals(0, fs.readdir("/diff", filler));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.contains("__testbranch"));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.contains("__testtag"));
+
+		filledFiles.clear();
+		assertEquals(0, fs.readdir("/diff/__testbranch/__test", filler));
+		assertEquals("[branch, tag]", filledFiles.toString());
+
+		// the same commit on both sides
+		filledFiles.clear();
+		assertEquals(0, fs.readdir("/diff/__testbranch/__testtag", filler));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.isEmpty());
+
+		// compared with the parent, the changed paths are listed and link to the commit
+		String parent;
+		JGitHelper helper = new JGitHelper(".");
+		try {
+			parent = helper.getCommit(JGitHelperTest.DEFAULT_COMMIT).getParent(0).getName();
+		} finally {
+			helper.close();
+		}
+		String path = "/diff/" + parent + "/__testbranch";
+		filledFiles.clear();
+		assertEquals(0, fs.readdir(path, filler));
+		assertFalse(filledFiles.isEmpty());
+
+		path = path + "/" + filledFiles.get(0);
+		assertEquals(0, fs.getattr(path, stat));
+		while (stat.type() == NodeType.DIRECTORY) {
+			filledFiles.clear();
+			assertEquals(0, fs.readdir(path, filler));
+			path = path + "/" + filledFiles.get(0);
+			assertEquals(0, fs.getattr(path, stat));
+		}
+		assertEquals(NodeType.SYMBOLIC_LINK, stat.type());
+		assertEquals(-ErrorCodes.ENOTDIR(), fs.readdir(path, filler));
+
+		ByteBuffer buffer = ByteBuffer.allocate(1000);
+		assertEquals(0, fs.readlink(path, buffer, 1000));
+		String target = new String(buffer.array(), 0, buffer.position());
+		assertTrue("Had: " + target, target.startsWith("../../../"));
+		assertTrue("Had: " + target, target.contains("/commit/"));
+		assertTrue("Had: " + target, target.endsWith(path.substring(("/diff/" + parent + "/__testbranch").length())));
+	}
+
+	@Test
+	public void testLog() throws IOException {
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.getattr("/log", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/log/__testbranch", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/log/__test", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/log/__testbranch/0", stat));
+		assertEquals(NodeType.SYMBOLIC_LINK, stat.type());
+		assertEquals(0, fs.getattr("/log/__test/branch/1", stat));
+		assertEquals(NodeType.SYMBOLIC_LINK, stat.type());
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/log/__testbranch/01", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/log/__testbranch/-1", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/log/__testbranch/999999999", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/log/notexisting", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/log/notexisting/0", stat));
+
+		final List<String> filledFiles = new ArrayList<String>();
+		DirectoryFiller filler = new DirectoryFillerImplementation(filledFiles);
+		assertEquals(0, fs.readdir("/log", filler));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.contains("__testbranch"));
+
+		filledFiles.clear();
+		assertEquals(0, fs.readdir("/log/__testbranch", filler));
+		assertEquals("0", filledFiles.get(0));
+		assertEquals("1", filledFiles.get(1));
+		assertEquals(-ErrorCodes.ENOTDIR(), fs.readdir("/log/__testbranch/0", filler));
+
+		ByteBuffer buffer = ByteBuffer.allocate(100);
+		assertEquals(0, fs.readlink("/log/__testbranch/0", buffer, 100));
+		assertEquals("../../commit/" + JGitHelperTest.DEFAULT_COMMIT, new String(buffer.array(), 0, buffer.position()));
+
+		// the first parent
+		String parent;
+		JGitHelper helper = new JGitHelper(".");
+		try {
+			parent = helper.getCommit(JGitHelperTest.DEFAULT_COMMIT).getParent(0).getName();
+		} finally {
+			helper.close();
+		}
+		buffer.clear();
+		assertEquals(0, fs.readlink("/log/__test/branch/1", buffer, 100));
+		assertEquals("../../../commit/" + parent, new String(buffer.array(), 0, buffer.position()));
+	}
+
+	@Test
+	public void testAt() {
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.getattr("/at", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/at/2013-09-01T12:00", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/at/@9999999999/branch", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/at/@9999999999/remote", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/at/@9999999999/branch/__testbranch", stat));
+		assertEquals(NodeType.SYMBOLIC_LINK, stat.type());
+		assertEquals(0, fs.getattr("/at/@9999999999/branch/__test", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/at/@9999999999/remote/__origin/testbranch", stat));
+		assertEquals(NodeType.SYMBOLIC_LINK, stat.type());
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/at/yesterday", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/at/yesterday/branch", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/at/yesterday/branch/__testbranch", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/at/yesterday/branch/__test", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/at/@9999999999/branch/notexisting", stat));
+		// before the first commit
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/at/@0/branch/__testbranch", stat));
+
+		final List<String> filledFiles = new ArrayList<String>();
+		DirectoryFiller filler = new DirectoryFillerImplementation(filledFiles);
+		assertEquals(0, fs.readdir("/at", filler));
+		assertTrue(filledFiles.isEmpty());
+		assertEquals(0, fs.readdir("/at/@9999999999", filler));
+		assertEquals("[branch, remote]", filledFiles.toString());
+
+		filledFiles.clear();
+		assertEquals(0, fs.readdir("/at/@9999999999/branch", filler));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.contains("__testbranch"));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.contains("__test"));
+		assertEquals(-ErrorCodes.ENOENT(), fs.readdir("/at/yesterday", filler));
+
+		// the branches are created by the test, so the time in the future is the current commit
+		ByteBuffer buffer = ByteBuffer.allocate(100);
+		assertEquals(0, fs.readlink("/at/@9999999999/branch/__testbranch", buffer, 100));
+		assertEquals("../../../commit/" + JGitHelperTest.DEFAULT_COMMIT, new String(buffer.array(), 0, buffer.position()));
+
+		buffer.clear();
+		assertEquals(0, fs.readlink("/at/@9999999999/branch/__test/branch", buffer, 100));
+		assertEquals("../../../../commit/" + JGitHelperTest.DEFAULT_COMMIT, new String(buffer.array(), 0, buffer.position()));
+
+		buffer.clear();
+		assertEquals(-ErrorCodes.ENOENT(), fs.readlink("/at/@0/branch/__testbranch", buffer, 100));
+	}
+
+	@Test
+	public void testContaining() {
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.getattr(DEFAULT_COMMIT_PATH + "/.containing", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr(DEFAULT_COMMIT_PATH + "/.containing/branch", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr(DEFAULT_COMMIT_PATH + "/.containing/tag", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr(DEFAULT_COMMIT_PATH + "/.containing/branch/__testbranch", stat));
+		assertEquals(NodeType.SYMBOLIC_LINK, stat.type());
+		assertEquals(0, fs.getattr(DEFAULT_COMMIT_PATH + "/.containing/branch/__test", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr(DEFAULT_COMMIT_PATH + "/.containing/tag/__testtag", stat));
+		assertEquals(NodeType.SYMBOLIC_LINK, stat.type());
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr(DEFAULT_COMMIT_PATH + "/.containing/remote", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr(DEFAULT_COMMIT_PATH + "/.containing/branch/notexisting", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/commit/" + ObjectId.zeroId().getName() + "/.containing", stat));
+
+		final List<String> filledFiles = new ArrayList<String>();
+		DirectoryFiller filler = new DirectoryFillerImplementation(filledFiles);
+		assertEquals(0, fs.readdir(DEFAULT_COMMIT_PATH + "/.containing", filler));
+		assertEquals("[branch, tag]", filledFiles.toString());
+
+		filledFiles.clear();
+		assertEquals(0, fs.readdir(DEFAULT_COMMIT_PATH + "/.containing/branch", filler));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.contains("__testbranch"));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.contains("__test"));
+
+		// not listed in the commit itself, like .gittree
+		filledFiles.clear();
+		assertEquals(0, fs.readdir(DEFAULT_COMMIT_PATH, filler));
+		assertFalse("Had: " + filledFiles.toString(), filledFiles.contains(".containing"));
+
+		ByteBuffer buffer = ByteBuffer.allocate(100);
+		assertEquals(0, fs.readlink(DEFAULT_COMMIT_PATH + "/.containing/branch/__testbranch", buffer, 100));
+		assertEquals("../../../../branch/__testbranch", new String(buffer.array(), 0, buffer.position()));
+
+		buffer.clear();
+		assertEquals(0, fs.readlink(DEFAULT_COMMIT_PATH + "/.containing/tag/__test/tag", buffer, 100));
+		assertEquals("../../../../../tag/__test/tag", new String(buffer.array(), 0, buffer.position()));
+	}
+
+	@Test
+	public void testSearch() throws Exception {
+		// the beginning of the first line of the README as query
+		ByteBuffer buffer = ByteBuffer.allocate(20);
+		assertEquals(20, fs.read(DEFAULT_COMMIT_PATH + "/README.md", buffer, 20, 0, null));
+		String line = new String(buffer.array(), 0, 20, "UTF-8");
+		String query = URLEncoder.encode(line.split("\n")[0], "UTF-8");
+
+		StatWrapper stat = getStatsWrapper();
+		assertEquals(0, fs.getattr("/search", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/search/__testbranch", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/search/__test", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(0, fs.getattr("/search/__testbranch/" + query, stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+
+		// the commit is indexed in the background on the first search
+		int ret = fs.getattr("/search/__testbranch/" + query + "/README.md", stat);
+		for (int i = 0; i < 600 && ret == -ErrorCodes.EAGAIN(); i++) {
+			Thread.sleep(50);
+			ret = fs.getattr("/search/__testbranch/" + query + "/README.md", stat);
+		}
+		assertEquals(0, ret);
+		assertEquals(NodeType.SYMBOLIC_LINK, stat.type());
+		assertEquals(0, fs.getattr("/search/" + JGitHelperTest.DEFAULT_COMMIT + "/package+/src", stat));
+		assertEquals(NodeType.DIRECTORY, stat.type());
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/search/notexisting", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/search/__testbranch/%zz", stat));
+		assertEquals(-ErrorCodes.ENOENT(), fs.getattr("/search/__testbranch/" + query + "/notexisting", stat));
+
+		final List<String> filledFiles = new ArrayList<String>();
+		DirectoryFiller filler = new DirectoryFillerImplementation(filledFiles);
+		assertEquals(0, fs.readdir("/search", filler));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.contains("__testbranch"));
+
+		// queries are not listed
+		filledFiles.clear();
+		assertEquals(0, fs.readdir("/search/__testbranch", filler));
+		assertTrue(filledFiles.isEmpty());
+
+		assertEquals(0, fs.readdir("/search/__testbranch/" + query, filler));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.contains("README.md"));
+
+		filledFiles.clear();
+		assertEquals(0, fs.readdir("/search/__testbranch/package+", filler));
+		assertTrue("Had: " + filledFiles.toString(), filledFiles.contains("src"));
+		assertEquals(-ErrorCodes.ENOTDIR(), fs.readdir("/search/__testbranch/" + query + "/README.md", filler));
+		assertEquals(-ErrorCodes.ENOENT(), fs.readdir("/search/__testbranch/%zz", filler));
+
+		buffer = ByteBuffer.allocate(100);
+		assertEquals(0, fs.readlink("/search/__testbranch/" + query + "/README.md", buffer, 100));
+		assertEquals("../../../commit/" + JGitHelperTest.DEFAULT_COMMIT + "/README.md", new String(buffer.array(), 0, buffer.position()));
+
+		buffer.clear();
+		assertEquals(0, fs.readlink("/search/__test/branch/" + query + "/README.md", buffer, 100));
+		assertEquals("../../../../commit/" + JGitHelperTest.DEFAULT_COMMIT + "/README.md", new String(buffer.array(), 0, buffer.position()));
+	}
+
 	@Test
 	public void testReadLinkBranch() {
 		ByteBuffer buffer = ByteBuffer.allocate(100);
@@ -403,6 +876,24 @@ public class JGitFilesystemTest {
 		return wrapper;
 	}
 
+	private FileInfoWrapper getFileInfoWrapper() {
+		final FileInfoWrapper wrapper;
+		try {
+			wrapper = FileInfoWrapperFactory.create();
+		} catch (UnsatisfiedLinkError e) {
+			System.out.println("This might fail on machines without fuse-binaries.");
+			e.printStackTrace();
+			Assume.assumeNoException(e);	// stop test silently
+			return null;
+		} catch(NoClassDefFoundError e) {
+			System.out.println("This might fail on machines without fuse-binaries.");
+			e.printStackTrace();
+			Assume.assumeNoException(e);	// stop test silently
+			return null;
+		}
+		return wrapper;
+	}
+
 	private static final int NUMBER_OF_THREADS = 7;
 	private static final int NUMBER_OF_TESTS = 500;
 
@@ -459,9 +950,9 @@ public class JGitFilesystemTest {
 		DirectoryFiller filler = new DirectoryFillerImplementation(filledFiles);
 
 		assertEquals(0, fs.readdir("/", filler));
-		assertEquals("[/branch, /commit, /remote, /tag, /tree, /README.md]", filledFiles.toString());
+		assertEquals("[/branch, /commit, /remote, /tag, /tree, /perfile, /diff, /log, /at, /search, /README.md]", filledFiles.toString());
 
-		for(String file : new ArrayList<String>(filledFiles.subList(0, 5))) {
+		for(String file : new ArrayList<String>(filledFiles.subList(0, 10))) {
 			assertEquals(0, fs.getattr(file, stat));
 			assertEquals(0, fs.readdir(file, filler));
 		}
@@ -0,0 +1,65 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class AbbreviationIndexTest {
+	private static final File OBJECTS = new File(".git/objects");
+
+	@Test
+	public void testResolve() throws Exception {
+		AbbreviationIndex index = new AbbreviationIndex(OBJECTS);
+		assertTrue(index.size() > 0);
+
+		List<ObjectId> ids = index.resolve(AbbreviatedObjectId.fromString(JGitHelperTest.DEFAULT_COMMIT.substring(0, 10)), 10);
+		assertEquals(1, ids.size());
+		assertEquals(JGitHelperTest.DEFAULT_COMMIT, ids.get(0).getName());
+
+		ids = index.resolve(AbbreviatedObjectId.fromString(JGitHelperTest.DEFAULT_TREE), 10);
+		assertEquals(1, ids.size());
+		assertEquals(JGitHelperTest.DEFAULT_TREE, ids.get(0).getName());
+	}
+
+	@Test
+	public void testResolveShortPrefix() throws Exception {
+		AbbreviationIndex index = new AbbreviationIndex(OBJECTS);
+
+		// a single digit usually matches many objects, all of them start with the digit and are sorted
+		List<ObjectId> ids = index.resolve(AbbreviatedObjectId.fromString("e"), 1000);
+		assertTrue(ids.size() > 0);
+		for (int i = 0; i < ids.size(); i++) {
+			assertTrue(ids.get(i).getName().startsWith("e"));
+			if (i > 0) {
+				assertTrue(ids.get(i - 1).compareTo(ids.get(i)) < 0);
+			}
+		}
+
+		// the limit is applied
+		assertEquals(1, index.resolve(AbbreviatedObjectId.fromString("e"), 1).size());
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		AbbreviationIndex index = new AbbreviationIndex(OBJECTS);
+		assertEquals("AbbreviationIndex: not built", index.toString());
+		int size = index.size();
+		assertTrue(index.toString().contains(size + " objects"));
+
+		index.invalidate();
+		assertEquals("AbbreviationIndex: not built", index.toString());
+		assertEquals(size, index.size());
+	}
+
+	@Test
+	public void testNotExisting() throws Exception {
+		AbbreviationIndex index = new AbbreviationIndex(new File("notexisting"));
+		assertEquals(0, index.size());
+		assertTrue(index.resolve(AbbreviatedObjectId.fromString("abcd"), 10).isEmpty());
+	}
+}
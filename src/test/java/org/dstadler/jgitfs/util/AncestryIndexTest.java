@@ -0,0 +1,170 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AncestryIndexTest {
+	private Repository repository;
+	private ObjectReaderPool readers;
+	private CommitTable commits;
+	private File file;
+	private ObjectId head;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = new FileRepositoryBuilder().setGitDir(new File(".git")).readEnvironment().findGitDir().build();
+		readers = new ObjectReaderPool(repository);
+		commits = new CommitTable(repository.getDirectory());
+		file = File.createTempFile("AncestryIndexTest", ".idx");
+		assertTrue(file.delete());
+		head = repository.resolve(Constants.HEAD);
+	}
+
+	@After
+	public void tearDown() {
+		commits.close();
+		readers.close();
+		repository.close();
+		assertTrue(!file.exists() || file.delete());
+	}
+
+	@Test
+	public void testGetGeneration() throws Exception {
+		AncestryIndex index = new AncestryIndex(file, commits, readers);
+		RevWalk walk = new RevWalk(repository);
+		try {
+			assertEquals(0, index.size());
+			assertTrue(index.getGeneration(head) > 0);
+			assertTrue(index.size() > 0);
+
+			// parents before children
+			walk.sort(RevSort.TOPO);
+			walk.sort(RevSort.REVERSE, true);
+			walk.markStart(walk.parseCommit(head));
+			Map<ObjectId, Integer> expected = new HashMap<ObjectId, Integer>();
+			for (RevCommit commit : walk) {
+				int generation = 1;
+				for (RevCommit parent : commit.getParents()) {
+					generation = Math.max(generation, expected.get(parent) + 1);
+				}
+				expected.put(commit.copy(), generation);
+				assertEquals(commit.getName(), generation, index.getGeneration(commit));
+			}
+			assertEquals(expected.size(), index.size());
+
+			assertEquals(0, index.getGeneration(ObjectId.zeroId()));
+			// not a commit
+			assertEquals(0, index.getGeneration(repository.resolve(Constants.HEAD + "^{tree}")));
+		} finally {
+			walk.release();
+			index.close();
+		}
+	}
+
+	@Test
+	public void testGetContaining() throws Exception {
+		AncestryIndex index = new AncestryIndex(file, commits, readers);
+		RevWalk walk = new RevWalk(repository);
+		try {
+			List<RevCommit> commits = new ArrayList<RevCommit>();
+			walk.markStart(walk.parseCommit(head));
+			for (RevCommit commit : walk) {
+				commits.add(commit);
+			}
+			walk.reset();
+
+			// every third commit is a tip, and a tree which is ignored
+			List<ObjectId> tips = new ArrayList<ObjectId>();
+			for (int i = 0; i < commits.size(); i += 3) {
+				tips.add(commits.get(i).copy());
+			}
+			tips.add(repository.resolve(Constants.HEAD + "^{tree}"));
+
+			for (RevCommit commit : commits) {
+				Set<ObjectId> expected = new HashSet<ObjectId>();
+				for (ObjectId tip : tips.subList(0, tips.size() - 1)) {
+					if (walk.isMergedInto(walk.parseCommit(commit), walk.parseCommit(tip))) {
+						expected.add(tip);
+					}
+					walk.reset();
+				}
+				assertEquals(commit.getName(), expected, index.getContaining(commit, tips));
+			}
+
+			assertEquals(Collections.<ObjectId>emptySet(), index.getContaining(ObjectId.zeroId(), tips));
+		} finally {
+			walk.release();
+			index.close();
+		}
+	}
+
+	@Test
+	public void testPersisted() throws Exception {
+		AncestryIndex index = new AncestryIndex(file, commits, readers);
+		int size;
+		int generation;
+		try {
+			index.update(Collections.singleton(head)).get();
+			size = index.size();
+			generation = index.getGeneration(head);
+			assertTrue(size > 0);
+		} finally {
+			index.close();
+		}
+		assertTrue(file.length() > 4);
+		long length = file.length();
+
+		index = new AncestryIndex(file, commits, readers);
+		try {
+			assertEquals(size, index.size());
+			assertEquals(generation, index.getGeneration(head));
+
+			// nothing is indexed again
+			index.update(Collections.singleton(head)).get();
+			assertEquals(size, index.size());
+			assertEquals(length, file.length());
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testLocked() throws Exception {
+		AncestryIndex index = new AncestryIndex(file, commits, readers);
+		try {
+			assertFalse(index.toString(), index.toString().contains("in memory only"));
+
+			// a second instance for the same file only keeps the commits in memory
+			AncestryIndex second = new AncestryIndex(file, commits, readers);
+			try {
+				assertTrue(second.toString(), second.toString().contains("in memory only"));
+				assertTrue(second.getGeneration(head) > 0);
+				assertTrue(second.size() > 0);
+			} finally {
+				second.close();
+			}
+		} finally {
+			index.close();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.Test;
+
+public class BlobCacheTest {
+	@Test
+	public void testGetPut() {
+		BlobCache cache = new BlobCache(1024 * 1024, 1024);
+		byte[] data = "some content".getBytes();
+		ObjectId id = new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, data);
+
+		assertNull(cache.get(id));
+		assertEquals(0, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		ByteBuffer buffer = cache.put(id, data);
+		assertTrue(buffer.isDirect());
+		assertTrue(buffer.isReadOnly());
+		assertEquals(data.length, buffer.remaining());
+
+		buffer = cache.get(id);
+		assertNotNull(buffer);
+		assertEquals(1, cache.getHitCount());
+
+		byte[] read = new byte[buffer.remaining()];
+		buffer.get(read);
+		assertArrayEquals(data, read);
+
+		// views are independent of each other
+		assertEquals(data.length, cache.get(id).remaining());
+
+		assertTrue(cache.toString().contains("2 hits"));
+	}
+
+	@Test
+	public void testAccepts() {
+		BlobCache cache = new BlobCache(1024 * 1024, 1024);
+		assertTrue(cache.accepts(0));
+		assertTrue(cache.accepts(1024));
+		assertFalse(cache.accepts(1025));
+	}
+
+	@Test
+	public void testEvictionByWeight() {
+		BlobCache cache = new BlobCache(10 * 1024, 1024);
+		ObjectId first = null;
+		for (int i = 0; i < 100; i++) {
+			byte[] data = new byte[1000];
+			data[0] = (byte) i;
+			ObjectId id = new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, data);
+			if (first == null) {
+				first = id;
+			}
+			cache.put(id, data);
+		}
+
+		assertNull(cache.get(first));
+	}
+}
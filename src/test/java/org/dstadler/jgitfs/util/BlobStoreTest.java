@@ -0,0 +1,205 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class BlobStoreTest {
+	private File dir;
+	private BlobStore store;
+
+	@Before
+	public void setUp() {
+		dir = Files.createTempDir();
+		store = new BlobStore(dir, 1000, 10 * 1024);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		store.close();
+		assertFalse(dir.exists());
+	}
+
+	@Test
+	public void testAccepts() {
+		assertFalse(store.accepts(0));
+		assertFalse(store.accepts(999));
+		assertTrue(store.accepts(1000));
+		assertTrue(store.accepts(5000));
+		assertFalse(store.accepts(20 * 1024));
+	}
+
+	@Test
+	public void testOpen() throws IOException {
+		byte[] data = createData(3000);
+		ObjectId id = blobId(data);
+		assertFalse(store.contains(id));
+
+		FileChannel channel = store.open(id, new ObjectLoader.SmallObject(Constants.OBJ_BLOB, data));
+		try {
+			assertTrue(store.contains(id));
+			assertEquals(3000, channel.size());
+
+			ByteBuffer buffer = ByteBuffer.allocate(100);
+			assertEquals(100, channel.read(buffer, 2000));
+			assertArrayEquals(Arrays.copyOfRange(data, 2000, 2100), buffer.array());
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		ObjectId first = null;
+		for (int i = 0; i < 10; i++) {
+			byte[] data = createData(3000 + i);
+			ObjectId id = blobId(data);
+			if (first == null) {
+				first = id;
+			}
+			store.open(id, new ObjectLoader.SmallObject(Constants.OBJ_BLOB, data)).close();
+		}
+
+		// only 10KB are allowed, so the first ones are gone already
+		assertFalse(store.contains(first));
+		assertTrue(dir.list().length < 10);
+	}
+
+	@Test
+	public void testHandleUsesStore() throws IOException {
+		byte[] data = createData(5000);
+		ObjectId id = blobId(data);
+		BlobHandle handle = new BlobHandle(id, new LargeObject(data), store);
+		try {
+			// sequential reads are streamed
+			ByteBuffer buffer = ByteBuffer.allocate(1000);
+			assertEquals(1000, handle.read(buffer, 1000, 0));
+			assertFalse(store.contains(id));
+
+			// going backwards switches to the spill file
+			buffer = ByteBuffer.allocate(1000);
+			assertEquals(1000, handle.read(buffer, 1000, 500));
+			assertTrue(store.contains(id));
+			assertArrayEquals(Arrays.copyOfRange(data, 500, 1500), buffer.array());
+
+			buffer = ByteBuffer.allocate(1000);
+			assertEquals(500, handle.read(buffer, 1000, 4500));
+			assertArrayEquals(Arrays.copyOfRange(data, 4500, 5000), Arrays.copyOf(buffer.array(), 500));
+		} finally {
+			handle.close();
+		}
+	}
+
+	@Test
+	public void testHandleSmallObjectDoesNotUseStore() throws IOException {
+		byte[] data = createData(5000);
+		ObjectId id = blobId(data);
+		BlobHandle handle = new BlobHandle(id, new ObjectLoader.SmallObject(Constants.OBJ_BLOB, data), store);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1000);
+			assertEquals(1000, handle.read(buffer, 1000, 2000));
+			assertEquals(1000, handle.read(ByteBuffer.allocate(1000), 1000, 500));
+
+			// served from the bytes of the loader
+			assertFalse(store.contains(id));
+
+			byte[] read = new byte[1000];
+			buffer.flip();
+			buffer.get(read);
+			assertArrayEquals(Arrays.copyOfRange(data, 2000, 3000), read);
+		} finally {
+			handle.close();
+		}
+	}
+
+	@Test
+	public void testHandleLargeObjectStreams() throws IOException {
+		byte[] data = createData(500000);
+		BlobHandle handle = new BlobHandle(blobId(data), new LargeObject(data));
+		try {
+			// direct buffers like the ones from FUSE
+			ByteBuffer buffer = ByteBuffer.allocateDirect(500000);
+			for (int offset = 0; offset < 500000; offset += 100000) {
+				assertEquals(100000, handle.read(buffer, 100000, offset));
+			}
+			assertEquals(0, handle.read(buffer, 100000, 500000));
+
+			byte[] read = new byte[500000];
+			buffer.flip();
+			buffer.get(read);
+			assertArrayEquals(data, read);
+
+			// heap buffers
+			ByteBuffer heap = ByteBuffer.allocate(1000);
+			assertEquals(1000, handle.read(heap, 1000, 100));
+			assertArrayEquals(Arrays.copyOfRange(data, 100, 1100), heap.array());
+		} finally {
+			handle.close();
+		}
+	}
+
+	/**
+	 * A loader which reports itself as large, i.e. can only be streamed, like the ones
+	 * JGit returns for blobs above the streaming threshold.
+	 */
+	private static class LargeObject extends ObjectLoader {
+		private final byte[] data;
+
+		public LargeObject(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public int getType() {
+			return Constants.OBJ_BLOB;
+		}
+
+		@Override
+		public long getSize() {
+			return data.length;
+		}
+
+		@Override
+		public boolean isLarge() {
+			return true;
+		}
+
+		@Override
+		public byte[] getCachedBytes() throws LargeObjectException {
+			throw new LargeObjectException();
+		}
+
+		@Override
+		public ObjectStream openStream() {
+			return new ObjectStream.SmallStream(Constants.OBJ_BLOB, data);
+		}
+	}
+
+	private static byte[] createData(int size) {
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) (i * 31 + size);
+		}
+		return data;
+	}
+
+	private static ObjectId blobId(byte[] data) {
+		return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, data);
+	}
+}
@@ -0,0 +1,70 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ChangedPathFilterTest {
+	@Test
+	public void testMightContain() {
+		List<String> paths = new ArrayList<String>();
+		for (int i = 0; i < 100; i++) {
+			paths.add("src/main/File" + i + ".java");
+		}
+		paths.add("src/main");
+		paths.add("src");
+
+		ChangedPathFilter filter = ChangedPathFilter.create(paths);
+		for (String path : paths) {
+			assertTrue(path, filter.mightContain(path));
+		}
+
+		// about 1% false positives are expected with 10 bits per path
+		int falsePositives = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (filter.mightContain("src/test/File" + i + ".java")) {
+				falsePositives++;
+			}
+		}
+		assertTrue("Had: " + falsePositives, falsePositives < 50);
+	}
+
+	@Test
+	public void testEmpty() {
+		ChangedPathFilter filter = ChangedPathFilter.create(Collections.<String>emptyList());
+		assertFalse(filter.mightContain(""));
+		assertFalse(filter.mightContain("README.md"));
+		assertNotNull(filter.getBits());
+	}
+
+	@Test
+	public void testTooManyPaths() {
+		List<String> paths = new ArrayList<String>();
+		for (int i = 0; i <= ChangedPathFilter.MAX_PATHS; i++) {
+			paths.add("file" + i);
+		}
+		assertSame(ChangedPathFilter.ALL, ChangedPathFilter.create(paths));
+		assertTrue(ChangedPathFilter.ALL.mightContain("something"));
+		assertNull(ChangedPathFilter.ALL.getBits());
+
+		paths.remove(0);
+		assertNotSame(ChangedPathFilter.ALL, ChangedPathFilter.create(paths));
+	}
+
+	@Test
+	public void testFromBits() {
+		ChangedPathFilter filter = ChangedPathFilter.create(Arrays.asList("a", "a/b"));
+		ChangedPathFilter copy = ChangedPathFilter.fromBits(filter.getBits().clone());
+		assertTrue(copy.mightContain("a"));
+		assertTrue(copy.mightContain("a/b"));
+		assertEquals(filter.mightContain("c"), copy.mightContain("c"));
+
+		assertSame(ChangedPathFilter.ALL, ChangedPathFilter.fromBits(null));
+		assertTrue(filter.toString().contains("bytes"));
+	}
+}
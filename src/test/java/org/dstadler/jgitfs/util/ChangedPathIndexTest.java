@@ -0,0 +1,208 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChangedPathIndexTest {
+	private Repository repository;
+	private ObjectReaderPool readers;
+	private CommitTable commits;
+	private File file;
+	private ObjectId head;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = new FileRepositoryBuilder().setGitDir(new File(".git")).readEnvironment().findGitDir().build();
+		readers = new ObjectReaderPool(repository);
+		commits = new CommitTable(repository.getDirectory());
+		file = File.createTempFile("ChangedPathIndexTest", ".idx");
+		assertTrue(file.delete());
+		head = repository.resolve(Constants.HEAD);
+	}
+
+	@After
+	public void tearDown() {
+		commits.close();
+		readers.close();
+		repository.close();
+		assertTrue(!file.exists() || file.delete());
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		ChangedPathIndex index = new ChangedPathIndex(file, commits, readers);
+		try {
+			assertEquals(0, index.size());
+			assertNull(index.get(head));
+
+			index.update(Collections.singleton(head)).get();
+			assertTrue(index.size() > 0);
+			assertNotNull(index.get(head));
+
+			// all paths which changed compared to the first parent are contained, including their directories
+			RevWalk walk = new RevWalk(repository);
+			try {
+				walk.markStart(walk.parseCommit(head));
+				for (RevCommit commit : walk) {
+					ChangedPathFilter filter = index.get(commit);
+					assertNotNull(filter);
+
+					TreeWalk treeWalk = new TreeWalk(repository);
+					try {
+						if (commit.getParentCount() > 0) {
+							treeWalk.addTree(walk.parseCommit(commit.getParent(0)).getTree());
+						} else {
+							treeWalk.addTree(new EmptyTreeIterator());
+						}
+						treeWalk.addTree(commit.getTree());
+						treeWalk.setFilter(TreeFilter.ANY_DIFF);
+						treeWalk.setRecursive(true);
+						while (treeWalk.next()) {
+							String path = treeWalk.getPathString();
+							assertTrue(commit.getName() + ": " + path, filter.mightContain(path));
+							int slash = path.lastIndexOf('/');
+							if (slash != -1) {
+								assertTrue(commit.getName() + ": " + path, filter.mightContain(path.substring(0, slash)));
+							}
+						}
+					} finally {
+						treeWalk.release();
+					}
+				}
+			} finally {
+				walk.release();
+			}
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testWalk() throws Exception {
+		List<ObjectId> all = new ArrayList<ObjectId>();
+		List<ObjectId> changed = new ArrayList<ObjectId>();
+		RevWalk walk = new RevWalk(repository);
+		try {
+			walk.markStart(walk.parseCommit(head));
+			for (RevCommit commit : walk) {
+				all.add(commit.copy());
+				TreeWalk treeWalk = TreeWalk.forPath(repository, "README.md", commit.getTree());
+				ObjectId blob = treeWalk == null ? null : treeWalk.getObjectId(0);
+				ObjectId parentBlob = null;
+				if (commit.getParentCount() > 0) {
+					TreeWalk parentWalk = TreeWalk.forPath(repository, "README.md", walk.parseCommit(commit.getParent(0)).getTree());
+					parentBlob = parentWalk == null ? null : parentWalk.getObjectId(0);
+				}
+				if (blob != null && !blob.equals(parentBlob)) {
+					changed.add(commit.copy());
+				}
+			}
+		} finally {
+			walk.release();
+		}
+		assertFalse(changed.isEmpty());
+
+		ChangedPathIndex index = new ChangedPathIndex(file, commits, readers);
+		try {
+			// commits which are not indexed are all reported, in the order of a RevWalk
+			assertEquals(all, walk(index, "README.md"));
+
+			index.update(Collections.singleton(head)).get();
+
+			// afterwards only the ones whose filter matches, still including all which changed the path
+			List<ObjectId> visited = walk(index, "README.md");
+			assertTrue(visited.containsAll(changed));
+			assertTrue(visited.size() < all.size());
+			List<ObjectId> ordered = new ArrayList<ObjectId>(all);
+			ordered.retainAll(visited);
+			assertEquals(ordered, visited);
+
+			assertEquals(all, walk(index, ""));
+		} finally {
+			index.close();
+		}
+	}
+
+	private List<ObjectId> walk(ChangedPathIndex index, String path) throws IOException {
+		final List<ObjectId> visited = new ArrayList<ObjectId>();
+		index.walk(head, path, new ChangedPathIndex.Visitor() {
+			@Override
+			public boolean visit(AnyObjectId commit) {
+				visited.add(commit.copy());
+				return true;
+			}
+		});
+		return visited;
+	}
+
+	@Test
+	public void testPersisted() throws Exception {
+		ChangedPathIndex index = new ChangedPathIndex(file, commits, readers);
+		int size;
+		try {
+			index.update(Collections.singleton(head)).get();
+			size = index.size();
+		} finally {
+			index.close();
+		}
+		assertTrue(file.length() > 4);
+
+		// a partial record at the end, e.g. after a crash, is ignored
+		long length = file.length();
+		FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(new byte[] { 1, 2, 3 });
+		} finally {
+			out.close();
+		}
+
+		index = new ChangedPathIndex(file, commits, readers);
+		try {
+			assertEquals(size, index.size());
+			assertNotNull(index.get(head));
+			assertEquals(length, file.length());
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testLocked() throws Exception {
+		ChangedPathIndex index = new ChangedPathIndex(file, commits, readers);
+		try {
+			assertFalse(index.toString(), index.toString().contains("in memory only"));
+
+			// a second instance for the same file only keeps the filters in memory
+			ChangedPathIndex second = new ChangedPathIndex(file, commits, readers);
+			try {
+				assertTrue(second.toString(), second.toString().contains("in memory only"));
+				second.update(Collections.singleton(head)).get();
+				assertTrue(second.size() > 0);
+			} finally {
+				second.close();
+			}
+		} finally {
+			index.close();
+		}
+	}
+}
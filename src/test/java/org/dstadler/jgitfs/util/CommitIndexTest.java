@@ -0,0 +1,94 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommitIndexTest {
+	private static final ObjectId COMMIT = ObjectId.fromString(JGitHelperTest.DEFAULT_COMMIT);
+	private static final ObjectId TREE = ObjectId.fromString(JGitHelperTest.DEFAULT_TREE);
+
+	private Repository repository;
+	private CommitIndex index;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = new FileRepositoryBuilder().setGitDir(new File(".git")).readEnvironment().findGitDir().build();
+		index = new CommitIndex(repository);
+	}
+
+	@After
+	public void tearDown() {
+		index.close();
+		repository.close();
+	}
+
+	@Test
+	public void testEmpty() {
+		assertEquals(0, index.size());
+		assertEquals(0, index.size(COMMIT.getFirstByte()));
+		assertFalse(index.contains(COMMIT));
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		index.update(Collections.singleton(COMMIT)).get();
+		assertTrue(index.contains(COMMIT));
+		assertFalse(index.contains(TREE));
+
+		// the history of the commit is indexed as well
+		int size = index.size();
+		assertTrue("Had: " + size, size > 1);
+		int sum = 0;
+		for (int fanout = 0; fanout < CommitIndex.FANOUT; fanout++) {
+			sum += index.size(fanout);
+		}
+		assertEquals(size, sum);
+
+		// the same tip again and objects which are not commits do not change anything
+		index.update(Collections.singleton(COMMIT)).get();
+		index.update(Collections.singleton(TREE)).get();
+		assertEquals(size, index.size());
+	}
+
+	@Test
+	public void testAccept() throws Exception {
+		index.update(Collections.singleton(COMMIT)).get();
+
+		final int fanout = COMMIT.getFirstByte();
+		final List<ObjectId> ids = new ArrayList<ObjectId>();
+		assertEquals(index.size(fanout), index.accept(fanout, 0, Integer.MAX_VALUE, new CommitIndex.Visitor() {
+			@Override
+			public boolean visit(AnyObjectId id) {
+				assertEquals(fanout, id.getFirstByte());
+				ids.add(id.copy());
+				return true;
+			}
+		}));
+		assertTrue("Had: " + ids, ids.contains(COMMIT));
+
+		// sorted, like the listing of a directory
+		List<ObjectId> sorted = new ArrayList<ObjectId>(ids);
+		Collections.sort(sorted);
+		assertEquals(sorted, ids);
+	}
+
+	@Test
+	public void testFanoutName() {
+		assertEquals("00", CommitIndex.getFanoutName(0));
+		assertEquals("0a", CommitIndex.getFanoutName(10));
+		assertEquals("ff", CommitIndex.getFanoutName(255));
+	}
+}
@@ -0,0 +1,71 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommitTableTest {
+	private CommitTable table;
+
+	@Before
+	public void setUp() {
+		table = new CommitTable(new File(".git"));
+	}
+
+	@After
+	public void tearDown() {
+		table.close();
+	}
+
+	@Test
+	public void testAddAndFind() {
+		ObjectId id = ObjectId.fromString("0123456789012345678901234567890123456789");
+		assertEquals(0, table.size());
+		assertEquals(CommitTable.MISSING, table.find(id));
+
+		assertEquals(0, table.add(id));
+		assertEquals(0, table.add(id));
+		assertEquals(1, table.size());
+		assertEquals(0, table.find(id));
+		assertEquals(id, table.get(0));
+		assertNotNull(table.toString());
+	}
+
+	@Test
+	public void testGrow() {
+		// more than the initial capacity so the ids and the table are grown several times
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(i, table.add(id(i)));
+		}
+		assertEquals(10000, table.size());
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(i, table.find(id(i)));
+			assertEquals(id(i), table.get(i));
+		}
+		assertEquals(CommitTable.MISSING, table.find(id(10000)));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetInvalid() {
+		table.get(0);
+	}
+
+	@Test
+	public void testGrowArray() {
+		int[] array = new int[] { 1, 2 };
+		assertSame(array, CommitTable.grow(array, 2, -1));
+
+		int[] grown = CommitTable.grow(array, 3, -1);
+		assertEquals(4, grown.length);
+		assertArrayEquals(new int[] { 1, 2, -1, -1 }, grown);
+	}
+
+	private static ObjectId id(int i) {
+		return ObjectId.fromString(String.format("%08x%032x", i * 31, i));
+	}
+}
@@ -0,0 +1,176 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FirstParentIndexTest {
+	private Repository repository;
+	private ObjectReaderPool readers;
+	private CommitTable commits;
+	private File file;
+	private ObjectId head;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = new FileRepositoryBuilder().setGitDir(new File(".git")).readEnvironment().findGitDir().build();
+		readers = new ObjectReaderPool(repository);
+		commits = new CommitTable(repository.getDirectory());
+		file = File.createTempFile("FirstParentIndexTest", ".idx");
+		assertTrue(file.delete());
+		head = repository.resolve(Constants.HEAD);
+	}
+
+	@After
+	public void tearDown() {
+		commits.close();
+		readers.close();
+		repository.close();
+		assertTrue(!file.exists() || file.delete());
+	}
+
+	@Test
+	public void testGetSkipDepth() {
+		assertEquals(0, FirstParentIndex.getSkipDepth(0));
+		assertEquals(0, FirstParentIndex.getSkipDepth(1));
+		for (int depth = 2; depth < 100000; depth++) {
+			int skip = FirstParentIndex.getSkipDepth(depth);
+			assertTrue("Had: " + skip + " for " + depth, skip >= 0 && skip < depth);
+		}
+	}
+
+	@Test
+	public void testGetAncestor() throws Exception {
+		FirstParentIndex index = new FirstParentIndex(file, commits, readers);
+		try {
+			assertEquals(0, index.size());
+
+			// indexed on demand
+			int depth = index.getDepth(head);
+			assertTrue(depth >= 0);
+			assertEquals(depth + 1, index.size());
+
+			// the same as "git rev-parse HEAD~n"
+			for (int n = 0; n <= depth; n++) {
+				assertEquals("At " + n, repository.resolve(Constants.HEAD + "~" + n), index.getAncestor(head, n));
+			}
+			assertNull(index.getAncestor(head, depth + 1));
+			assertNull(index.getAncestor(head, -1));
+
+			ObjectId parent = repository.resolve(Constants.HEAD + "~1");
+			if (parent != null) {
+				assertEquals(depth - 1, index.getDepth(parent));
+			}
+
+			assertEquals(-1, index.getDepth(ObjectId.zeroId()));
+			assertNull(index.getAncestor(ObjectId.zeroId(), 0));
+			// not a commit
+			assertEquals(-1, index.getDepth(repository.resolve(Constants.HEAD + "^{tree}")));
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testGetLatestAt() throws Exception {
+		FirstParentIndex index = new FirstParentIndex(file, commits, readers);
+		RevWalk walk = new RevWalk(repository);
+		try {
+			RevCommit commit = walk.parseCommit(head);
+			assertEquals(head, index.getLatestAt(head, commit.getCommitTime()));
+			assertEquals(head, index.getLatestAt(head, Long.MAX_VALUE));
+			assertNull(index.getLatestAt(head, 0));
+			assertNull(index.getLatestAt(ObjectId.zeroId(), Long.MAX_VALUE));
+
+			// the same as walking the first parents until the commit and all its ancestors are old enough
+			int depth = index.getDepth(head);
+			int[] maxTimes = new int[depth + 1];
+			for (int n = depth; n >= 0; n--) {
+				int time = walk.parseCommit(repository.resolve(Constants.HEAD + "~" + n)).getCommitTime();
+				maxTimes[n] = n == depth ? time : Math.max(time, maxTimes[n + 1]);
+			}
+			for (int n = 0; n <= depth; n++) {
+				int time = maxTimes[n];
+				int expected = 0;
+				while (maxTimes[expected] > time) {
+					expected++;
+				}
+				assertEquals("At " + n, repository.resolve(Constants.HEAD + "~" + expected), index.getLatestAt(head, time));
+			}
+		} finally {
+			walk.release();
+			index.close();
+		}
+	}
+
+	@Test
+	public void testPersisted() throws Exception {
+		FirstParentIndex index = new FirstParentIndex(file, commits, readers);
+		int size;
+		try {
+			index.update(Collections.singleton(head)).get();
+			size = index.size();
+			assertTrue(size > 0);
+		} finally {
+			index.close();
+		}
+		assertTrue(file.length() > 4);
+
+		// a partial record at the end, e.g. after a crash, is ignored
+		long length = file.length();
+		FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(new byte[] { 1, 2, 3 });
+		} finally {
+			out.close();
+		}
+
+		index = new FirstParentIndex(file, commits, readers);
+		try {
+			assertEquals(size, index.size());
+			assertEquals(length, file.length());
+			assertEquals(size - 1, index.getDepth(head));
+			assertEquals(repository.resolve(Constants.HEAD + "~" + (size - 1)), index.getAncestor(head, size - 1));
+
+			// nothing is indexed again
+			index.update(Collections.singleton(head)).get();
+			assertEquals(size, index.size());
+			assertEquals(length, file.length());
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testLocked() throws Exception {
+		FirstParentIndex index = new FirstParentIndex(file, commits, readers);
+		try {
+			assertFalse(index.toString(), index.toString().contains("in memory only"));
+
+			// a second instance for the same file only keeps the commits in memory
+			FirstParentIndex second = new FirstParentIndex(file, commits, readers);
+			try {
+				assertTrue(second.toString(), second.toString().contains("in memory only"));
+				assertTrue(second.getDepth(head) >= 0);
+				assertTrue(second.size() > 0);
+			} finally {
+				second.close();
+			}
+		} finally {
+			index.close();
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class InodesTest {
+	private static final ObjectId ID1 = ObjectId.fromString("0123456789abcdef0123456789abcdef01234567");
+	private static final ObjectId ID2 = ObjectId.fromString("fedcba9876543210fedcba9876543210fedcba98");
+
+	@Test
+	public void testForObject() {
+		// the same object and mode always results in the same inode number
+		assertEquals(Inodes.forObject(ID1, FileMode.REGULAR_FILE, false), Inodes.forObject(ID1.copy(), FileMode.REGULAR_FILE, false));
+		assertTrue(Inodes.forObject(ID1, FileMode.REGULAR_FILE, false) != Inodes.forObject(ID2, FileMode.REGULAR_FILE, false));
+
+		// different modes of the same object result in different inode numbers
+		long file = Inodes.forObject(ID1, FileMode.REGULAR_FILE, false);
+		long executable = Inodes.forObject(ID1, FileMode.EXECUTABLE_FILE, false);
+		long symlink = Inodes.forObject(ID1, FileMode.SYMLINK, false);
+		long tree = Inodes.forObject(ID1, FileMode.TREE, false);
+		long gitTree = Inodes.forObject(ID1, FileMode.REGULAR_FILE, true);
+		long gitLink = Inodes.forObject(ID1, FileMode.GITLINK, false);
+		long[] inos = new long[] { file, executable, symlink, tree, gitTree, gitLink };
+		for (int i = 0; i < inos.length; i++) {
+			assertTrue(inos[i] > Inodes.ROOT);
+			for (int j = i + 1; j < inos.length; j++) {
+				assertTrue(inos[i] != inos[j]);
+			}
+		}
+
+		// the id is used, not the identity of the entry
+		assertEquals(new TreeEntry(FileMode.REGULAR_FILE, ID2).getIno(), new TreeEntry(FileMode.REGULAR_FILE, ID2).getIno());
+		assertEquals(gitTree, TreeEntry.gitTree(ID1).getIno());
+	}
+
+	@Test
+	public void testLinkCount() {
+		// files share their inode number with other paths, so they look like hardlinks
+		assertEquals(2, Inodes.linkCount(FileMode.REGULAR_FILE, false));
+		assertEquals(2, Inodes.linkCount(FileMode.EXECUTABLE_FILE, false));
+		assertEquals(2, Inodes.linkCount(FileMode.SYMLINK, false));
+		assertEquals(2, Inodes.linkCount(FileMode.TREE, true));
+		assertEquals(1, Inodes.linkCount(FileMode.TREE, false));
+
+		assertEquals(2, new TreeEntry(FileMode.REGULAR_FILE, ID1).getLinkCount());
+		assertEquals(2, TreeEntry.gitTree(ID1).getLinkCount());
+		assertEquals(1, new TreeEntry(FileMode.TREE, ID1).getLinkCount());
+	}
+
+	@Test
+	public void testForPath() {
+		assertEquals(Inodes.ROOT, Inodes.forPath("/"));
+		assertEquals(Inodes.forPath("/branch/master"), Inodes.forPath("/branch/master"));
+		assertTrue(Inodes.forPath("/branch/master") != Inodes.forPath("/branch/main"));
+
+		// path based inode numbers never collide with object based ones
+		assertTrue(Inodes.forPath("/branch/master") > Inodes.forObject(ID2, FileMode.GITLINK, false));
+		assertTrue(Inodes.forPath("/branch/master") > Inodes.ROOT);
+	}
+}
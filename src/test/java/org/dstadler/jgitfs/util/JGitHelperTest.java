@@ -5,8 +5,10 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.fusejna.StatWrapperFactory;
 import net.fusejna.StructStat.StatWrapper;
@@ -17,7 +19,10 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -165,6 +170,20 @@ public class JGitHelperTest {
 		assertNotNull(helper.getCommit(DEFAULT_COMMIT));
 	}
 
+	@Test
+	public void testGetCommitCached() throws Exception {
+		RevCommit commit = helper.getCommit(DEFAULT_COMMIT);
+		assertSame(commit, helper.getCommit(DEFAULT_COMMIT));
+		assertSame(helper.getTree(DEFAULT_TREE), helper.getTree(DEFAULT_TREE));
+		assertEquals(DEFAULT_TREE, commit.getTree().getName());
+		assertTrue(commit.getCommitTime() > 0);
+
+		// all calls from this thread share one reader, the background indexes use their own ones
+		ObjectReader reader = helper.getReaders().get();
+		helper.readElementsAt(commit.getTree(), "src");
+		assertSame(reader, helper.getReaders().get());
+	}
+
 	@Test
 	public void testGetTree() throws Exception {
 		assertNull(helper.getTree("1234567890123456789012345678901234567890"));
@@ -219,6 +238,38 @@ public class JGitHelperTest {
 		assertFalse(helper.readType(tree, "notexisting/.gittree", wrapper));
 	}
 
+	@Test
+	public void testReadTypeCached() throws Exception {
+		RevTree tree = helper.getTree(DEFAULT_TREE);
+		final StatWrapper wrapper = getStatsWrapper();
+
+		// repeated lookups, including negative ones, are answered from the path-cache
+		for (int i = 0; i < 3; i++) {
+			assertTrue(helper.readType(tree, "README.md", wrapper));
+			assertEquals(NodeType.FILE, wrapper.type());
+
+			assertFalse(helper.readType(tree, "notexisting", wrapper));
+			assertNull(helper.openFile(tree, "notexisting"));
+			assertNull(helper.readSymlink(tree, "notexisting"));
+			assertNull(helper.readElementsAt(tree, "notexisting"));
+		}
+	}
+
+	@Test
+	public void testTreeCacheSharesSubtrees() throws Exception {
+		RevTree tree = helper.getTree(DEFAULT_TREE);
+		final StatWrapper wrapper = getStatsWrapper();
+
+		assertTrue(helper.readType(tree, "src/main/java/org", wrapper));
+		long misses = helper.getTreeCache().getStats().missCount();
+
+		// the trees along the path are parsed already, only the last one is new
+		assertEquals("[dstadler]", helper.readElementsAt(tree, "src/main/java/org").toString());
+		assertTrue(helper.readType(tree, "src/main/java/org/dstadler", wrapper));
+		assertEquals(NodeType.DIRECTORY, wrapper.type());
+		assertEquals(misses + 1, helper.getTreeCache().getStats().missCount());
+	}
+
 	@Test
 	public void testReadTypeExecutable() throws Exception {
 		final StatWrapper wrapper = getStatsWrapper();
@@ -273,6 +324,53 @@ public class JGitHelperTest {
 		assertNull(helper.openFile(tree, "notexisting"));
 	}
 
+	@Test
+	public void testOpenBlob() throws Exception {
+		RevTree tree = helper.getTree(DEFAULT_TREE);
+		BlobHandle handle = helper.openBlob(tree, "README.md");
+		try {
+			assertNotNull(handle.getObjectId());
+			assertEquals(4816, handle.getSize());
+
+			ByteBuffer buffer = ByteBuffer.allocate(20);
+			assertEquals(10, handle.read(buffer, 10, 0));
+			assertEquals(10, handle.read(buffer, 10, 10));
+
+			ByteBuffer again = ByteBuffer.allocate(20);
+			assertEquals(20, handle.read(again, 20, 0));
+			assertArrayEquals(buffer.array(), again.array());
+		} finally {
+			handle.close();
+		}
+
+		handle = helper.openBlob(tree, ".gittree");
+		try {
+			assertNull(handle.getObjectId());
+			assertEquals(41, handle.getSize());
+		} finally {
+			handle.close();
+		}
+
+		assertNull(helper.openBlob(tree, "src"));
+		assertNull(helper.openBlob(tree, "notexisting"));
+	}
+
+	@Test
+	public void testOpenFileUsesBlobCache() throws Exception {
+		RevTree tree = helper.getTree(DEFAULT_TREE);
+		long hits = helper.getBlobCache().getHitCount();
+
+		String first = IOUtils.toString(helper.openFile(tree, "README.md"));
+		String second = IOUtils.toString(helper.openFile(tree, "README.md"));
+		assertEquals(first, second);
+		assertEquals(hits + 1, helper.getBlobCache().getHitCount());
+
+		// the same blob via a commit is also served from the cache
+		String third = IOUtils.toString(helper.openFile(helper.getCommit(DEFAULT_COMMIT).getTree(), "README.md"));
+		assertEquals(first, third);
+		assertEquals(hits + 2, helper.getBlobCache().getHitCount());
+	}
+
 	@Test
 	public void testReadElementsAt() throws Exception {
 		RevTree tree = helper.getTree(DEFAULT_TREE);
@@ -293,6 +391,199 @@ public class JGitHelperTest {
 		assertNull(helper.readElementsAt(tree, "notexisting"));
 	}
 
+	@Test
+	public void testResolveAbbreviation() throws Exception {
+		assertEquals(DEFAULT_COMMIT, helper.resolveAbbreviation(DEFAULT_COMMIT.substring(0, 7), Constants.OBJ_COMMIT).getName());
+		assertEquals(DEFAULT_TREE, helper.resolveAbbreviation(DEFAULT_TREE.substring(0, 7), Constants.OBJ_TREE).getName());
+		assertNull(helper.resolveAbbreviation(DEFAULT_TREE.substring(0, 7), Constants.OBJ_COMMIT));
+		assertNull(helper.resolveAbbreviation("0000000", Constants.OBJ_COMMIT));
+	}
+
+	@Test
+	public void testGetParsedTree() throws Exception {
+		TreeEntry root = new TreeEntry(FileMode.TREE, helper.getTree(DEFAULT_TREE));
+		TreeEntry src = helper.resolveChild(root, "src");
+		ParsedTree parsed = helper.getParsedTree(src);
+		assertEquals(2, parsed.size());
+		assertEquals("main", parsed.getName(0));
+		assertTrue(parsed.isTree(0));
+		assertEquals(helper.resolveChild(src, "main").getObjectId(), parsed.getObjectId(0));
+
+		assertNull(helper.getParsedTree(helper.resolveChild(root, "README.md")));
+		assertNull(helper.getParsedTree(helper.resolveChild(root, "notexisting")));
+	}
+
+	@Test
+	public void testGetHistory() throws Exception {
+		ObjectId commit = ObjectId.fromString(DEFAULT_COMMIT);
+		List<ObjectId> all = helper.getHistory(commit, "");
+		assertTrue("Had: " + all, all.size() > 1);
+		assertSame(all, helper.getHistory(commit, ""));
+
+		// each commit in the history of a file has a different version of it than its parents
+		List<ObjectId> readme = helper.getHistory(commit, "README.md");
+		assertFalse(readme.isEmpty());
+		assertTrue(all.containsAll(readme));
+		for (ObjectId id : readme) {
+			RevCommit revCommit = helper.getCommit(id);
+			TreeEntry entry = helper.resolve(revCommit.getTree(), "README.md");
+			assertTrue(entry.exists());
+			for (RevCommit parent : revCommit.getParents()) {
+				TreeEntry parentEntry = helper.resolve(helper.getCommit(parent).getTree(), "README.md");
+				assertFalse(id.getName(), entry.getObjectId().equals(parentEntry.getObjectId()));
+			}
+		}
+
+		assertTrue(helper.getHistory(commit, "notexisting").isEmpty());
+
+		// single commits are looked up in the cached history
+		for (ObjectId id : readme) {
+			assertTrue(id.getName(), helper.isInHistory(commit, "README.md", id));
+		}
+		assertTrue(helper.isInHistory(commit, "", commit));
+		assertFalse(helper.isInHistory(commit, "README.md", ObjectId.fromString(DEFAULT_TREE)));
+		assertFalse(helper.isInHistory(commit, "notexisting", commit));
+
+		// filters are only computed in the background
+		helper.getChangedPathIndex().update(Collections.singleton(commit)).get();
+		assertTrue(helper.getChangedPathIndex().size() > 0);
+		assertTrue(helper.getHistory(commit, "src/notexisting").isEmpty());
+	}
+
+	@Test
+	public void testGetLastModified() throws Exception {
+		ObjectId commit = ObjectId.fromString(DEFAULT_COMMIT);
+		RevCommit revCommit = helper.getCommit(commit);
+		int commitTime = revCommit.getCommitTime();
+
+		// the root directory and missing paths always have the time of the commit
+		assertEquals(commitTime, helper.getLastModified(revCommit, "", helper.resolve(revCommit.getTree(), "")));
+		assertEquals(commitTime, helper.getLastModified(revCommit, "notexisting", TreeEntry.MISSING));
+
+		helper.getChangedPathIndex().update(Collections.singleton(commit)).get();
+		assertTrue(helper.getLastModifiedIndex().size() > 0);
+
+		// the file has the time of the last commit which changed it
+		TreeEntry entry = helper.resolve(revCommit.getTree(), "README.md");
+		int time = helper.getLastModified(revCommit, "README.md", entry);
+		assertTrue(time <= commitTime);
+		assertEquals(helper.getCommit(helper.getHistory(commit, "README.md").get(0)).getCommitTime(), time);
+
+		TreeEntry gitTree = helper.resolve(revCommit.getTree(), ".gittree");
+		assertEquals(commitTime, helper.getLastModified(revCommit, ".gittree", gitTree));
+	}
+
+	@Test
+	public void testResolveRevision() throws IOException {
+		assertEquals(DEFAULT_COMMIT, helper.resolveRevision("__testbranch").getName());
+		assertEquals(DEFAULT_COMMIT, helper.resolveRevision("__test/tag").getName());
+		assertEquals(DEFAULT_COMMIT, helper.resolveRevision("__origin/test/branch").getName());
+		assertEquals(DEFAULT_COMMIT, helper.resolveRevision(DEFAULT_COMMIT).getName());
+		assertNull(helper.resolveRevision("__test"));
+		assertNull(helper.resolveRevision("notexisting"));
+		assertNull(helper.resolveRevision(DEFAULT_TREE));
+
+		assertTrue(helper.hasRevisions("__test"));
+		assertTrue(helper.hasRevisions("__origin"));
+		assertFalse(helper.hasRevisions("__testbranch"));
+		assertFalse(helper.hasRevisions("notexisting"));
+
+		List<String> children = helper.getRevisionChildren("");
+		assertTrue("Had: " + children, children.contains("__testbranch"));
+		assertTrue("Had: " + children, children.contains("__testtag"));
+		assertTrue("Had: " + children, children.contains("__origin"));
+		assertEquals("[branch, tag]", helper.getRevisionChildren("__test").toString());
+	}
+
+	@Test
+	public void testGetRefCommitAt() throws IOException {
+		// from the reflog written when the branches were created
+		assertEquals(DEFAULT_COMMIT, helper.getRefCommitAt("refs/heads/__testbranch", Long.MAX_VALUE).getName());
+		assertEquals(DEFAULT_COMMIT, helper.getRefCommitAt("refs/heads/__test/branch", Long.MAX_VALUE).getName());
+
+		// before the reflog, the first-parent chain of the branch is searched by commit time
+		RevCommit commit = helper.getCommit(DEFAULT_COMMIT);
+		assertEquals(DEFAULT_COMMIT, helper.getRefCommitAt("refs/heads/__testbranch", commit.getCommitTime()).getName());
+		assertNull(helper.getRefCommitAt("refs/heads/__testbranch", 0));
+
+		assertNull(helper.getRefCommitAt("refs/heads/__test", Long.MAX_VALUE));
+		assertNull(helper.getRefCommitAt("refs/heads/notexisting", Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testGetContainingRefs() throws IOException {
+		RefSnapshot containing = helper.getContainingRefs(ObjectId.fromString(DEFAULT_COMMIT));
+		assertNotNull(containing.getRef("refs/heads/__testbranch"));
+		assertNotNull(containing.getRef("refs/heads/__test/branch"));
+		assertNotNull(containing.getRef("refs/tags/__testtag"));
+		assertNotNull(containing.getRef("refs/tags/__test/tag"));
+		assertTrue("Had: " + containing, containing.getChildren("refs/heads").contains("__testbranch"));
+		assertEquals("[tag]", containing.getChildren("refs/tags/__test").toString());
+
+		// the parent of the commit is contained by the same refs
+		RevCommit parent = helper.getCommit(DEFAULT_COMMIT).getParent(0);
+		assertNotNull(helper.getContainingRefs(parent).getRef("refs/heads/__testbranch"));
+
+		// remotes are not included
+		assertNull(containing.getRef("refs/remotes/__origin/testbranch"));
+
+		assertEquals(0, helper.getContainingRefs(ObjectId.zeroId()).size());
+	}
+
+	@Test
+	public void testSearch() throws Exception {
+		RevTree tree = helper.getTree(DEFAULT_TREE);
+		String readme = IOUtils.toString(helper.openFile(tree, "README.md"));
+		String query = readme.substring(0, 20);
+		SearchResult result = helper.search(tree, query);
+		if (!result.isReady()) {
+			// not cached, updates run in order, so the tree is indexed when an empty one is done
+			helper.getTrigramIndex().update(Collections.<ObjectId>emptyList()).get();
+			result = helper.search(tree, query);
+		}
+		assertTrue(result.isReady());
+		assertTrue("Had: " + result.getChildren(""), result.isMatch("README.md"));
+		assertSame(result, helper.search(tree, query));
+		assertNotNull(helper.getTrigramIndex());
+
+		// the Java sources are in directories below src
+		result = helper.search(tree, "package ");
+		assertTrue("Had: " + result.getChildren(""), result.getChildren("").contains("src"));
+		assertFalse(result.isMatch("src"));
+		assertNotNull(result.getChildren("src/main/java"));
+
+		assertEquals(0, helper.search(tree, "qqq" + "xxxqqq").size());
+	}
+
+	@Test
+	public void testCompare() throws IOException {
+		RevCommit commit = helper.getCommit(DEFAULT_COMMIT);
+		RevCommit parent = helper.getCommit(commit.getParent(0));
+
+		TreeComparison same = helper.compare(commit.getTree(), commit.getTree());
+		assertEquals(0, same.size());
+		assertTrue(same.getChildren("").isEmpty());
+
+		TreeComparison comparison = helper.compare(parent.getTree(), commit.getTree());
+		assertTrue(comparison.size() > 0);
+		assertSame(comparison, helper.compare(parent.getTree(), commit.getTree()));
+
+		// the changed paths differ between the commits, each changed directory lists only its changes
+		for (String name : comparison.getChildren("")) {
+			TreeEntry oldEntry = helper.resolve(parent.getTree(), name);
+			TreeEntry newEntry = helper.resolve(commit.getTree(), name);
+			assertFalse(name, oldEntry.exists() && newEntry.exists() &&
+					oldEntry.getObjectId().equals(newEntry.getObjectId()));
+			if (comparison.get(name) == TreeComparison.Change.DIRECTORY) {
+				assertFalse(name, comparison.getChildren(name).isEmpty());
+			}
+		}
+
+		// the reverse direction swaps added and deleted paths
+		TreeComparison reverse = helper.compare(commit.getTree(), parent.getTree());
+		assertEquals(comparison.size(), reverse.size());
+	}
+
 	@Test
 	public void testGetBranchHeadCommit() throws IOException {
 		assertNull(helper.getBranchHeadCommit("somebranch"));
@@ -300,6 +591,37 @@ public class JGitHelperTest {
 		assertEquals(DEFAULT_COMMIT, helper.getBranchHeadCommit("__test/branch"));
 	}
 
+	@Test
+	public void testRefsChangesAreWatched() throws Exception {
+		assertNull(helper.getBranchHeadCommit("__testwatch"));
+
+		final AtomicInteger changes = new AtomicInteger();
+		helper.addRefListener(new Runnable() {
+			@Override
+			public void run() {
+				changes.incrementAndGet();
+			}
+		});
+
+		git.branchCreate().setName("__testwatch").setForce(true).setStartPoint(DEFAULT_COMMIT).call();
+		try {
+			// the listeners run after the new refs are visible
+			for (int i = 0; i < 100 && (helper.getBranchHeadCommit("__testwatch") == null || changes.get() == 0); i++) {
+				Thread.sleep(50);
+			}
+			assertEquals(DEFAULT_COMMIT, helper.getBranchHeadCommit("__testwatch"));
+			assertTrue(helper.getBranches().contains("__testwatch"));
+			assertTrue(changes.get() > 0);
+		} finally {
+			git.branchDelete().setBranchNames("__testwatch").setForce(true).call();
+		}
+
+		// an explicit refresh makes the change visible immediately
+		helper.refreshRefs();
+		assertNull(helper.getBranchHeadCommit("__testwatch"));
+		assertFalse(helper.refreshRefs());
+	}
+
 	@Test
 	public void testGetRemoteHeadCommit() throws IOException {
 		assertNull(helper.getRemoteHeadCommit("somebranch"));
@@ -326,8 +648,11 @@ public class JGitHelperTest {
 	@Test
 	public void testGetTagHead() throws IOException {
 		assertNull(helper.getTagHeadCommit("sometag"));
-		assertNotNull(helper.getTagHeadCommit("__testtag"));
-		assertNotNull(helper.getTagHeadCommit("__test/tag"));
+		// the test-tags are annotated tags, they are resolved to the commit
+		assertEquals(DEFAULT_COMMIT, helper.getTagHeadCommit("__testtag"));
+		assertEquals(DEFAULT_COMMIT, helper.getTagHeadCommit("__test/tag"));
+		assertTrue(helper.getRefSnapshot().getRef("refs/tags/__testtag").isPeeled());
+		assertFalse(DEFAULT_COMMIT.equals(helper.getRefSnapshot().getObjectId("refs/tags/__testtag").getName()));
 	}
 
 	@Test
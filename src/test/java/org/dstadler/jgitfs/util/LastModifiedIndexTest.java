@@ -0,0 +1,291 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class LastModifiedIndexTest {
+	private Repository repository;
+	private ObjectReaderPool readers;
+	private CommitTable commits;
+	private File file;
+	private ObjectId head;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = new FileRepositoryBuilder().setGitDir(new File(".git")).readEnvironment().findGitDir().build();
+		readers = new ObjectReaderPool(repository);
+		commits = new CommitTable(repository.getDirectory());
+		file = File.createTempFile("LastModifiedIndexTest", ".idx");
+		assertTrue(file.delete());
+		head = repository.resolve(Constants.HEAD);
+	}
+
+	@After
+	public void tearDown() {
+		commits.close();
+		readers.close();
+		repository.close();
+		assertTrue(!file.exists() || file.delete());
+	}
+
+	@Test
+	public void testPut() {
+		LastModifiedIndex index = new LastModifiedIndex();
+		assertEquals(0, index.size());
+		long key = LastModifiedIndex.key("README.md", head);
+		assertTrue(key != 0);
+		assertEquals(key, LastModifiedIndex.key("README.md", head.copy()));
+		assertTrue(key != LastModifiedIndex.key("README.mb", head));
+
+		// all times are kept, the newest one up to the given time is returned
+		assertTrue(index.put(key, 100));
+		assertEquals(100, index.get("README.md", head));
+		assertEquals(100, index.get("README.md", head, 100));
+		assertEquals(LastModifiedIndex.UNKNOWN, index.get("README.md", head, 99));
+		assertTrue(index.put(key, 50));
+		assertFalse(index.put(key, 100));
+		assertTrue(index.put(key, 200));
+		assertFalse(index.put(key, 50));
+		assertTrue(index.put(key, 150));
+		assertEquals(200, index.get("README.md", head));
+		assertEquals(150, index.get("README.md", head, 199));
+		assertEquals(100, index.get("README.md", head, 100));
+		assertEquals(50, index.get("README.md", head, 99));
+		assertEquals(LastModifiedIndex.UNKNOWN, index.get("README.md", head, 49));
+		assertEquals(1, index.size());
+		assertEquals(LastModifiedIndex.UNKNOWN, index.get("README.md", ObjectId.zeroId()));
+
+		// the table grows
+		for (int i = 0; i < 10000; i++) {
+			index.put(LastModifiedIndex.key("file" + i, head), i + 1);
+		}
+		assertEquals(10001, index.size());
+		assertEquals(5001, index.get("file5000", head));
+		assertEquals(200, index.get("README.md", head));
+		assertEquals(50, index.get("README.md", head, 60));
+	}
+
+	@Test
+	public void testMergeBack() throws Exception {
+		File dir = Files.createTempDir();
+		try {
+			Git git = Git.init().setDirectory(dir).call();
+			try {
+				commit(git, "a.txt", "a1", 1000);
+				commit(git, "b.txt", "b1", 1000);
+				git.branchCreate().setName("feature").call();
+				RevCommit changeA = commit(git, "a.txt", "a2", 2000);
+				RevCommit changeB = commit(git, "b.txt", "b2", 2500);
+
+				// merge master into the feature branch, the merge is compared with the feature
+				// branch as first parent, so it records the content of a.txt from master again
+				git.checkout().setName("feature").call();
+				commit(git, "f.txt", "f1", 3000);
+				git.merge().include(changeB).setCommit(false).call();
+				RevCommit merge = git.commit().setMessage("merge")
+						.setAuthor(ident(4000)).setCommitter(ident(4000)).call();
+				assertEquals(2, merge.getParentCount());
+
+				git.checkout().setName("master").call();
+				RevCommit after = commit(git, "b.txt", "b3", 5000);
+
+				ObjectReaderPool gitReaders = new ObjectReaderPool(git.getRepository());
+				CommitTable gitCommits = new CommitTable(git.getRepository().getDirectory());
+				try {
+					ChangedPathIndex changedPaths = new ChangedPathIndex(file, gitCommits, gitReaders);
+					try {
+						changedPaths.update(Arrays.<ObjectId>asList(after, merge)).get();
+						LastModifiedIndex index = changedPaths.getLastModifiedIndex();
+
+						ObjectId blob = getBlob(git.getRepository(), changeA, "a.txt");
+						assertEquals(blob, getBlob(git.getRepository(), merge, "a.txt"));
+
+						// commits of master before the merge keep the time of the change on master
+						assertEquals(2000, index.get("a.txt", blob, changeA.getCommitTime()));
+						assertEquals(2000, index.get("a.txt", blob, changeB.getCommitTime()));
+
+						// later the time of the merge is used, but it does not change with every commit
+						assertEquals(4000, index.get("a.txt", blob, merge.getCommitTime()));
+						assertEquals(4000, index.get("a.txt", blob, after.getCommitTime()));
+						assertEquals(2500, index.get("b.txt", getBlob(git.getRepository(), changeB, "b.txt"), changeB.getCommitTime()));
+					} finally {
+						changedPaths.close();
+					}
+				} finally {
+					gitCommits.close();
+					gitReaders.close();
+				}
+			} finally {
+				git.getRepository().close();
+			}
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	private static RevCommit commit(Git git, String name, String content, int time) throws IOException, GitAPIException {
+		Files.write(content, new File(git.getRepository().getWorkTree(), name), Charsets.UTF_8);
+		git.add().addFilepattern(name).call();
+		return git.commit().setMessage(name + " " + content).setAuthor(ident(time)).setCommitter(ident(time)).call();
+	}
+
+	private static PersonIdent ident(int time) {
+		return new PersonIdent("test", "test@example.com", new Date(time * 1000L), TimeZone.getTimeZone("UTC"));
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		ChangedPathIndex changedPaths = new ChangedPathIndex(file, commits, readers);
+		try {
+			LastModifiedIndex index = changedPaths.getLastModifiedIndex();
+			assertEquals(0, index.size());
+
+			// filled by the changed-path index
+			changedPaths.update(Collections.singleton(head)).get();
+			assertTrue(index.size() > 0);
+
+			// each file has the time of the newest commit which changed it
+			RevWalk walk = new RevWalk(repository);
+			try {
+				RevCommit commit = walk.parseCommit(head);
+				TreeWalk treeWalk = new TreeWalk(repository);
+				try {
+					treeWalk.addTree(commit.getTree());
+					treeWalk.setRecursive(true);
+					while (treeWalk.next()) {
+						String path = treeWalk.getPathString();
+						int time = index.get(path, treeWalk.getObjectId(0));
+						assertTrue(path, time > 0);
+						assertTrue(path, time <= commit.getCommitTime());
+						assertEquals(path, getLastChange(path).getCommitTime(), time);
+					}
+				} finally {
+					treeWalk.release();
+				}
+			} finally {
+				walk.release();
+			}
+
+			assertEquals(LastModifiedIndex.UNKNOWN, index.get("README.md", ObjectId.zeroId()));
+			assertEquals(LastModifiedIndex.UNKNOWN, index.get("notexisting", head));
+		} finally {
+			changedPaths.close();
+		}
+	}
+
+	private RevCommit getLastChange(String path) throws IOException {
+		RevWalk walk = new RevWalk(repository);
+		try {
+			walk.setTreeFilter(AndTreeFilter.create(PathFilter.create(path), TreeFilter.ANY_DIFF));
+			walk.markStart(walk.parseCommit(head));
+			return walk.next();
+		} finally {
+			walk.release();
+		}
+	}
+
+	@Test
+	public void testPersisted() throws Exception {
+		ChangedPathIndex changedPaths = new ChangedPathIndex(file, commits, readers);
+		int size;
+		int time;
+		try {
+			changedPaths.update(Collections.singleton(head)).get();
+			size = changedPaths.getLastModifiedIndex().size();
+			time = changedPaths.getLastModifiedIndex().get("README.md", getBlob("README.md"));
+			assertTrue(time > 0);
+		} finally {
+			changedPaths.close();
+		}
+		assertTrue(file.length() > 4);
+
+		// a partial record at the end, e.g. after a crash, is ignored
+		long length = file.length();
+		FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(new byte[] { 0, 1, 2 });
+		} finally {
+			out.close();
+		}
+
+		changedPaths = new ChangedPathIndex(file, commits, readers);
+		try {
+			LastModifiedIndex index = changedPaths.getLastModifiedIndex();
+			assertEquals(size, index.size());
+			assertEquals(time, index.get("README.md", getBlob("README.md")));
+			assertEquals(length, file.length());
+
+			// the entries are stored with the commits, so nothing is indexed again
+			changedPaths.update(Collections.singleton(head)).get();
+			assertEquals(size, index.size());
+			assertEquals(length, file.length());
+		} finally {
+			changedPaths.close();
+		}
+	}
+
+	private ObjectId getBlob(String path) throws IOException {
+		return getBlob(repository, head, path);
+	}
+
+	private static ObjectId getBlob(Repository repository, ObjectId commit, String path) throws IOException {
+		RevWalk walk = new RevWalk(repository);
+		try {
+			TreeWalk treeWalk = TreeWalk.forPath(repository, path, walk.parseCommit(commit).getTree());
+			try {
+				return treeWalk.getObjectId(0);
+			} finally {
+				treeWalk.release();
+			}
+		} finally {
+			walk.release();
+		}
+	}
+
+	@Test
+	public void testLocked() throws Exception {
+		ChangedPathIndex changedPaths = new ChangedPathIndex(file, commits, readers);
+		try {
+			// a second instance for the same file computes the entries in memory
+			ChangedPathIndex second = new ChangedPathIndex(file, commits, readers);
+			try {
+				assertTrue(second.toString(), second.toString().contains("in memory only"));
+				second.update(Collections.singleton(head)).get();
+				assertTrue(second.getLastModifiedIndex().size() > 0);
+				assertEquals(0, changedPaths.getLastModifiedIndex().size());
+			} finally {
+				second.close();
+			}
+		} finally {
+			changedPaths.close();
+		}
+	}
+}
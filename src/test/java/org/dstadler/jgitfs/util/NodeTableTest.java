@@ -0,0 +1,86 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class NodeTableTest {
+	@Test
+	public void testGet() {
+		NodeTable table = new NodeTable(100);
+		NodeTable.Node root = table.get("/");
+		assertEquals(Inodes.ROOT, root.getIno());
+		assertEquals(0, root.getDepth());
+		assertNull(root.getParent());
+
+		NodeTable.Node node = table.get("/commit/1234/src/main");
+		assertEquals("main", node.getName());
+		assertEquals(4, node.getDepth());
+		assertEquals("/commit/1234/src/main", node.toString());
+		assertEquals(4, table.size());
+
+		// the same path returns the same node, parents are shared
+		assertSame(node, table.get("/commit/1234/src/main"));
+		assertSame(node.getParent(), table.get("/commit/1234/src"));
+		assertSame(root, node.getParent().getParent().getParent().getParent());
+		assertEquals(4, table.size());
+
+		NodeTable.Node other = table.get("/commit/5678/src/main");
+		assertNotSame(node, other);
+		assertTrue(node.getIno() != other.getIno());
+		assertSame(node.getName(), other.getName());
+		assertEquals(7, table.size());
+	}
+
+	@Test
+	public void testGetChild() {
+		NodeTable table = new NodeTable(100);
+		NodeTable.Node dir = table.get("/tree/1234/src");
+		NodeTable.Node child = table.getChild(dir, "main");
+		assertSame(child, table.get("/tree/1234/src/main"));
+		assertSame(child, table.getChild(dir, "main"));
+		assertEquals(Inodes.forPath("/tree/1234/src/main"), child.getIno());
+		assertEquals(4, table.size());
+	}
+
+	@Test
+	public void testRoute() {
+		NodeTable table = new NodeTable(100);
+		NodeTable.Node node = table.get("/branch/master");
+		Route route = node.getRoute("/branch/master");
+		assertEquals(Route.Kind.BRANCH, route.getKind());
+		assertSame(route, table.get("/branch/master").getRoute("/branch/master"));
+	}
+
+	@Test
+	public void testEntry() {
+		NodeTable table = new NodeTable(100);
+		NodeTable.Node node = table.get("/tree/1234/README.md");
+		assertNull(node.getEntry());
+		assertEquals(Inodes.forPath("/tree/1234/README.md"), node.getIno());
+
+		node.setEntry(TreeEntry.MISSING);
+		assertSame(TreeEntry.MISSING, table.get("/tree/1234/README.md").getEntry());
+
+		// once resolved, the inode number is the one of the entry
+		TreeEntry entry = new TreeEntry(FileMode.REGULAR_FILE, ObjectId.fromString("0123456789abcdef0123456789abcdef01234567"));
+		node.setEntry(entry);
+		assertEquals(entry.getIno(), node.getIno());
+	}
+
+	@Test
+	public void testClear() {
+		NodeTable table = new NodeTable(3);
+		NodeTable.Node node = table.get("/a/b/c/d");
+		assertEquals(4, table.size());
+
+		// too many nodes, the next access starts over
+		NodeTable.Node again = table.get("/a/b/c/d");
+		assertNotSame(node, again);
+		assertEquals(4, table.size());
+		// inode numbers do not depend on the table
+		assertEquals(node.getIno(), again.getIno());
+	}
+}
@@ -0,0 +1,58 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ObjectReaderPoolTest {
+	private Repository repository;
+	private ObjectReaderPool pool;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = new FileRepositoryBuilder().setGitDir(new File(".git")).readEnvironment().findGitDir().build();
+		pool = new ObjectReaderPool(repository);
+	}
+
+	@After
+	public void tearDown() {
+		pool.close();
+		repository.close();
+	}
+
+	@Test
+	public void testPerThread() throws InterruptedException {
+		assertEquals(0, pool.size());
+
+		ObjectReader reader = pool.get();
+		assertNotNull(reader);
+		assertSame(reader, pool.get());
+		assertEquals(1, pool.size());
+
+		final AtomicReference<ObjectReader> other = new AtomicReference<ObjectReader>();
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				other.set(pool.get());
+			}
+		};
+		thread.start();
+		thread.join();
+
+		assertNotNull(other.get());
+		assertNotSame(reader, other.get());
+		assertEquals(2, pool.size());
+
+		pool.close();
+		assertEquals(0, pool.size());
+	}
+}
@@ -0,0 +1,102 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.junit.Test;
+
+public class ParsedTreeTest {
+	private static final ObjectId ID1 = ObjectId.fromString("1234567890123456789012345678901234567890");
+	private static final ObjectId ID2 = ObjectId.fromString("abcdefabcdefabcdefabcdefabcdefabcdefabcd");
+	private static final ObjectId ID3 = ObjectId.fromString("0000000000000000000000000000000000000001");
+
+	@Test
+	public void testParse() {
+		TreeFormatter formatter = new TreeFormatter();
+		// Git order, "a.txt" sorts before the tree "a" as that is compared as "a/"
+		formatter.append("a.txt", FileMode.REGULAR_FILE, ID1);
+		formatter.append("a", FileMode.TREE, ID2);
+		formatter.append("run.sh", FileMode.EXECUTABLE_FILE, ID3);
+
+		ParsedTree tree = ParsedTree.parse(formatter.toByteArray());
+		assertEquals(3, tree.size());
+		assertEquals("[a, a.txt, run.sh]", tree.getNames().toString());
+
+		int index = tree.find("a");
+		assertTrue(index >= 0);
+		assertTrue(tree.isTree(index));
+		assertEquals(FileMode.TREE, tree.getFileMode(index));
+		assertEquals(ID2, tree.getObjectId(index));
+
+		index = tree.find("a.txt");
+		assertTrue(index >= 0);
+		assertFalse(tree.isTree(index));
+		assertEquals(FileMode.REGULAR_FILE, tree.getFileMode(index));
+		assertEquals(ID1, tree.getObjectId(index));
+
+		index = tree.find("run.sh");
+		assertEquals(FileMode.EXECUTABLE_FILE, tree.getFileMode(index));
+		assertEquals(ID3, tree.getObjectId(index));
+
+		assertTrue(tree.find("b") < 0);
+		assertTrue(tree.find("") < 0);
+	}
+
+	@Test
+	public void testAccept() {
+		TreeFormatter formatter = new TreeFormatter();
+		formatter.append("a.txt", FileMode.REGULAR_FILE, ID1);
+		formatter.append("a", FileMode.TREE, ID2);
+		formatter.append("run.sh", FileMode.EXECUTABLE_FILE, ID3);
+		ParsedTree tree = ParsedTree.parse(formatter.toByteArray());
+
+		final List<String> names = new ArrayList<String>();
+		ParsedTree.Visitor visitor = new ParsedTree.Visitor() {
+			@Override
+			public boolean visit(ParsedTree parsed, int index) {
+				names.add(parsed.getName(index));
+				return true;
+			}
+		};
+
+		// pages of two entries
+		assertEquals(2, tree.accept(0, 2, visitor));
+		assertEquals("[a, a.txt]", names.toString());
+		assertEquals(3, tree.accept(2, 2, visitor));
+		assertEquals("[a, a.txt, run.sh]", names.toString());
+		assertEquals(3, tree.accept(3, 2, visitor));
+		assertEquals(3, names.size());
+
+		// everything at once
+		names.clear();
+		assertEquals(3, tree.accept(0, Integer.MAX_VALUE, visitor));
+		assertEquals("[a, a.txt, run.sh]", names.toString());
+
+		// the visitor stops after the first entry, the second one needs to be visited again
+		names.clear();
+		assertEquals(1, tree.accept(0, Integer.MAX_VALUE, new ParsedTree.Visitor() {
+			@Override
+			public boolean visit(ParsedTree parsed, int index) {
+				if (!names.isEmpty()) {
+					return false;
+				}
+				names.add(parsed.getName(index));
+				return true;
+			}
+		}));
+		assertEquals("[a]", names.toString());
+	}
+
+	@Test
+	public void testParseEmpty() {
+		ParsedTree tree = ParsedTree.parse(new byte[0]);
+		assertEquals(0, tree.size());
+		assertTrue(tree.getNames().isEmpty());
+		assertTrue(tree.find("a") < 0);
+	}
+}
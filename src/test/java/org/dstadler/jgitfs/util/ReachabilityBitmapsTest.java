@@ -0,0 +1,126 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class ReachabilityBitmapsTest {
+	private File dir;
+	private Git git;
+	private ObjectReaderPool readers;
+	private final List<RevCommit> commits = new ArrayList<RevCommit>();
+
+	@Before
+	public void setUp() throws GitAPIException, IOException {
+		dir = Files.createTempDir();
+		git = Git.init().setDirectory(dir).call();
+		readers = new ObjectReaderPool(git.getRepository());
+
+		// a branch with a merge, so some commits are only reachable via second parents
+		commit("first");
+		commit("second");
+		git.branchCreate().setName("side").call();
+		commit("third");
+		git.checkout().setName("side").call();
+		commit("side");
+		git.checkout().setName("master").call();
+		ObjectId merge = git.merge().include(commits.get(3)).call().getNewHead();
+		RevWalk walk = new RevWalk(git.getRepository());
+		try {
+			commits.add(walk.parseCommit(merge));
+		} finally {
+			walk.release();
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		readers.close();
+		git.getRepository().close();
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void testNoBitmapIndex() throws IOException {
+		ReachabilityBitmaps bitmaps = new ReachabilityBitmaps(packDir(), readers);
+		assertNull(bitmaps.getContaining(commits.get(0), Collections.<ObjectId>singleton(commits.get(1))));
+		assertTrue(bitmaps.toString(), bitmaps.toString().contains("no bitmap index"));
+	}
+
+	@Test
+	public void testGetContaining() throws Exception {
+		git.gc().call();
+		ReachabilityBitmaps bitmaps = new ReachabilityBitmaps(packDir(), readers);
+		// older versions of JGit do not write bitmaps during gc
+		Assume.assumeTrue(bitmaps.getContaining(commits.get(0), Collections.<ObjectId>emptySet()) != null);
+
+		// commits after the gc are not in the bitmaps
+		commit("after gc");
+		check(bitmaps);
+
+		// the cached bitmaps of the tips are reused
+		commit("next");
+		check(bitmaps);
+
+		assertTrue(bitmaps.getContaining(ObjectId.zeroId(), tips()).isEmpty());
+
+		// nothing changed
+		bitmaps.refresh();
+		assertTrue(bitmaps.toString(), bitmaps.toString().contains("tips"));
+	}
+
+	private void check(ReachabilityBitmaps bitmaps) throws IOException {
+		List<ObjectId> tips = tips();
+		RevWalk walk = new RevWalk(git.getRepository());
+		try {
+			for (RevCommit commit : commits) {
+				Set<ObjectId> expected = new HashSet<ObjectId>();
+				for (ObjectId tip : tips) {
+					if (walk.isMergedInto(walk.parseCommit(commit), walk.parseCommit(tip))) {
+						expected.add(tip);
+					}
+					walk.reset();
+				}
+				assertEquals(commit.getName(), expected, bitmaps.getContaining(commit, tips));
+			}
+		} finally {
+			walk.release();
+		}
+	}
+
+	private List<ObjectId> tips() {
+		List<ObjectId> tips = new ArrayList<ObjectId>();
+		for (RevCommit commit : commits) {
+			tips.add(commit.copy());
+		}
+		return tips;
+	}
+
+	private void commit(String message) throws GitAPIException {
+		commits.add(git.commit().setMessage(message).call());
+	}
+
+	private File packDir() {
+		return new File(((FileRepository) git.getRepository()).getObjectDatabase().getDirectory(), "pack");
+	}
+}
@@ -0,0 +1,98 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.junit.Test;
+
+public class RefSnapshotTest {
+	private static final ObjectId ID1 = ObjectId.fromString("1234567890123456789012345678901234567890");
+	private static final ObjectId ID2 = ObjectId.fromString("abcdefabcdefabcdefabcdefabcdefabcdefabcd");
+
+	@Test
+	public void testLookup() {
+		RefSnapshot snapshot = new RefSnapshot(createRefs(ID1));
+		assertEquals(5, snapshot.size());
+
+		assertEquals(ID1, snapshot.getObjectId("refs/heads/master"));
+		assertEquals("refs/heads/master", snapshot.getRef("refs/heads/master").getName());
+		assertNull(snapshot.getObjectId("refs/heads/notexisting"));
+		assertNull(snapshot.getObjectId("refs/heads"));
+		assertNull(snapshot.getRef("refs/heads/feature"));
+
+		assertEquals("[feature/a, feature/b/c, master]", snapshot.getRefs("refs/heads").toString());
+		assertEquals("[a, b/c]", snapshot.getRefs("refs/heads/feature").toString());
+		assertEquals("[v1.0]", snapshot.getRefs("refs/tags").toString());
+		assertTrue(snapshot.getRefs("refs/remotes").isEmpty());
+		assertTrue(snapshot.getRefs("refs/heads/feat").isEmpty());
+
+		assertTrue(snapshot.hasRefs("refs/heads"));
+		assertTrue(snapshot.hasRefs("refs/heads/feature"));
+		assertTrue(snapshot.hasRefs("refs/heads/feature/b"));
+		assertFalse(snapshot.hasRefs("refs/heads/feat"));
+		assertFalse(snapshot.hasRefs("refs/heads/master"));
+		assertFalse(snapshot.hasRefs("refs/remotes"));
+	}
+
+	@Test
+	public void testChildren() {
+		RefSnapshot snapshot = new RefSnapshot(createRefs(ID1));
+
+		assertEquals("[heads, headsup, tags]", snapshot.getChildren("refs").toString());
+		assertEquals("[feature, master]", snapshot.getChildren("refs/heads").toString());
+		assertEquals("[a, b]", snapshot.getChildren("refs/heads/feature").toString());
+		assertEquals("[c]", snapshot.getChildren("refs/heads/feature/b").toString());
+
+		// refs themselves and unknown names have no children
+		assertTrue(snapshot.getChildren("refs/heads/master").isEmpty());
+		assertTrue(snapshot.getChildren("refs/heads/notexisting").isEmpty());
+		assertTrue(snapshot.getChildren("refs/heads/notexisting/deeper").isEmpty());
+		assertTrue(snapshot.getChildren("refs/remotes").isEmpty());
+	}
+
+	@Test
+	public void testPeeled() {
+		Map<String, Ref> refs = createRefs(ID1);
+		refs.put("refs/tags/annotated", new ObjectIdRef.PeeledTag(Ref.Storage.PACKED, "refs/tags/annotated", ID2, ID1));
+		RefSnapshot snapshot = new RefSnapshot(refs);
+
+		assertEquals(ID2, snapshot.getObjectId("refs/tags/annotated"));
+		assertEquals(ID1, snapshot.getPeeledObjectId("refs/tags/annotated"));
+
+		// refs which do not point to tags are returned as-is
+		assertEquals(ID2, snapshot.getPeeledObjectId("refs/tags/v1.0"));
+		assertNull(snapshot.getPeeledObjectId("refs/tags/notexisting"));
+	}
+
+	@Test
+	public void testSameRefs() {
+		RefSnapshot snapshot = new RefSnapshot(createRefs(ID1));
+		assertTrue(snapshot.sameRefs(snapshot));
+		assertTrue(snapshot.sameRefs(new RefSnapshot(createRefs(ID1))));
+		assertFalse(snapshot.sameRefs(new RefSnapshot(createRefs(ID2))));
+
+		Map<String, Ref> refs = createRefs(ID1);
+		refs.remove("refs/tags/v1.0");
+		assertFalse(snapshot.sameRefs(new RefSnapshot(refs)));
+		assertFalse(new RefSnapshot(refs).sameRefs(snapshot));
+	}
+
+	private static Map<String, Ref> createRefs(ObjectId masterId) {
+		Map<String, Ref> refs = new HashMap<String, Ref>();
+		add(refs, "refs/heads/master", masterId);
+		add(refs, "refs/heads/feature/a", ID1);
+		add(refs, "refs/heads/feature/b/c", ID2);
+		add(refs, "refs/tags/v1.0", ID2);
+		add(refs, "refs/headsup", ID2);
+		return refs;
+	}
+
+	private static void add(Map<String, Ref> refs, String name, ObjectId id) {
+		refs.put(name, new ObjectIdRef.Unpeeled(Ref.Storage.LOOSE, name, id));
+	}
+}
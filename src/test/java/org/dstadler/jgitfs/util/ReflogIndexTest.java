@@ -0,0 +1,75 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReflogIndexTest {
+	private static final String REF_NAME = "refs/heads/__reflogtest";
+
+	private Repository repository;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = new FileRepositoryBuilder().setGitDir(new File(".git")).readEnvironment().findGitDir().build();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		RefUpdate update = repository.updateRef(REF_NAME);
+		update.setForceUpdate(true);
+		update.delete();
+		repository.close();
+	}
+
+	@Test
+	public void testNoReflog() throws IOException {
+		ReflogIndex reflog = ReflogIndex.read(repository, "refs/heads/notexisting");
+		assertTrue(reflog.isEmpty());
+		assertEquals(0, reflog.size());
+		assertNull(reflog.get(Long.MAX_VALUE));
+		assertNull(reflog.getFirstOldId());
+		assertNull(reflog.getFirstNewId());
+		assertNotNull(reflog.toString());
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		ObjectId head = repository.resolve(Constants.HEAD);
+		ObjectId parent = repository.resolve(Constants.HEAD + "~1");
+		assertNotNull(parent);
+
+		long before = System.currentTimeMillis() / 1000;
+		update(parent);
+		update(head);
+
+		ReflogIndex reflog = ReflogIndex.read(repository, REF_NAME);
+		assertFalse(reflog.isEmpty());
+		assertEquals(2, reflog.size());
+		assertEquals(ObjectId.zeroId(), reflog.getFirstOldId());
+		assertEquals(parent, reflog.getFirstNewId());
+
+		// entries with the same time are applied in order
+		assertEquals(head, reflog.get(Long.MAX_VALUE));
+		assertEquals(head, reflog.get(System.currentTimeMillis() / 1000));
+		assertNull(reflog.get(before - 1));
+		assertNull(reflog.get(0));
+	}
+
+	private void update(ObjectId id) throws IOException {
+		RefUpdate update = repository.updateRef(REF_NAME);
+		update.setNewObjectId(id);
+		update.setRefLogMessage("test", false);
+		update.forceUpdate();
+	}
+}
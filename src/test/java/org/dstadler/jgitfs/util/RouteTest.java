@@ -0,0 +1,311 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import org.dstadler.jgitfs.util.Route.Kind;
+import org.junit.Test;
+
+public class RouteTest {
+	private static final String ID = "1234567890abcdef1234567890abcdef12345678";
+
+	@Test
+	public void testTopLevel() {
+		assertEquals(Kind.ROOT, Route.parse("/").getKind());
+		assertEquals(Kind.README, Route.parse("/README.md").getKind());
+		assertEquals(Kind.BRANCHES, Route.parse("/branch").getKind());
+		assertEquals(Kind.TAGS, Route.parse("/tag").getKind());
+		assertEquals(Kind.REMOTES, Route.parse("/remote").getKind());
+		assertEquals(Kind.COMMITS, Route.parse("/commit").getKind());
+		assertEquals(Kind.TREES, Route.parse("/tree").getKind());
+	}
+
+	@Test
+	public void testUnknown() {
+		assertEquals(Kind.UNKNOWN, Route.parse("").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("something").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/something").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/branches").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/bran").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/README.md/x").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/branch/").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/tag/").getKind());
+	}
+
+	@Test
+	public void testRefs() {
+		Route route = Route.parse("/branch/master");
+		assertEquals(Kind.BRANCH, route.getKind());
+		assertTrue(route.getKind().isRef());
+		assertEquals("master", route.getSubPath());
+		assertEquals("refs/heads/master", route.getRefName());
+		assertNull(route.getObjectId());
+
+		route = Route.parse("/tag/__test/tag");
+		assertEquals(Kind.TAG, route.getKind());
+		assertEquals("__test/tag", route.getSubPath());
+		assertEquals(5, route.getSubPathOffset());
+		assertEquals("refs/tags/__test/tag", route.getRefName());
+
+		route = Route.parse("/remote/origin/master");
+		assertEquals(Kind.REMOTE, route.getKind());
+		assertEquals("refs/remotes/origin/master", route.getRefName());
+
+		assertEquals("refs/heads", Route.parse("/branch").getRefName());
+		assertEquals("refs/remotes", Route.parse("/remote").getRefName());
+		assertNull(Route.parse("/commit").getRefName());
+		assertNull(Route.parse("/commit/" + ID).getRefName());
+	}
+
+	@Test
+	public void testCommit() {
+		Route route = Route.parse("/commit/" + ID);
+		assertEquals(Kind.COMMIT, route.getKind());
+		assertEquals(ID, route.getObjectId().getName());
+		assertEquals("", route.getSubPath());
+
+		route = Route.parse("/commit/" + ID + "/src/main/java");
+		assertEquals(Kind.COMMIT, route.getKind());
+		assertEquals(ID, route.getObjectId().getName());
+		assertEquals("src/main/java", route.getSubPath());
+
+		route = Route.parse("/tree/" + ID + "/README.md");
+		assertEquals(Kind.TREE, route.getKind());
+		assertEquals(ID, route.getObjectId().getName());
+		assertEquals("README.md", route.getSubPath());
+
+		assertEquals("ffffffffffffffffffffffffffffffffffffffff",
+				Route.parse("/commit/ffffffffffffffffffffffffffffffffffffffff").getObjectId().getName());
+	}
+
+	@Test
+	public void testCommitFanout() {
+		Route route = Route.parse("/commit/00");
+		assertEquals(Kind.COMMIT_DIR, route.getKind());
+		assertEquals(0, route.getFanout());
+		assertNull(route.getObjectId());
+
+		route = Route.parse("/commit/a7");
+		assertEquals(Kind.COMMIT_DIR, route.getKind());
+		assertEquals(0xa7, route.getFanout());
+
+		route = Route.parse("/commit/12/" + ID.substring(2));
+		assertEquals(Kind.COMMIT_LINK, route.getKind());
+		assertEquals(0x12, route.getFanout());
+		assertEquals(ID, route.getObjectId().getName());
+
+		assertEquals(-1, Route.parse("/commit/" + ID).getFanout());
+		assertEquals(-1, Route.parse("/commit").getFanout());
+	}
+
+	@Test
+	public void testAbbreviation() {
+		Route route = Route.parse("/commit/1234567");
+		assertEquals(Kind.COMMIT_ABBREV, route.getKind());
+		assertEquals("1234567", route.getAbbreviation());
+		assertNull(route.getObjectId());
+
+		route = Route.parse("/tree/abcd");
+		assertEquals(Kind.TREE_ABBREV, route.getKind());
+		assertEquals("abcd", route.getAbbreviation());
+
+		route = Route.parse("/commit/" + ID.substring(0, 39));
+		assertEquals(Kind.COMMIT_ABBREV, route.getKind());
+
+		assertNull(Route.parse("/commit/" + ID).getAbbreviation());
+
+		// too short, not hex or with a path below
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/123").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/tree/12").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/1234567g").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/1234ABC").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/1234567/src").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/1234567/").getKind());
+	}
+
+	@Test
+	public void testPerFile() {
+		assertEquals(Kind.PERFILE_ROOT, Route.parse("/perfile").getKind());
+		assertEquals(Kind.PERFILE_BRANCHES, Route.parse("/perfile/branch").getKind());
+		assertEquals(Kind.PERFILE_TAGS, Route.parse("/perfile/tag").getKind());
+		assertEquals(Kind.PERFILE_REMOTES, Route.parse("/perfile/remote").getKind());
+		assertEquals(Kind.PERFILE_COMMITS, Route.parse("/perfile/commit").getKind());
+		assertEquals("refs/heads", Route.parse("/perfile/branch").getRefName());
+		assertFalse(Route.parse("/perfile/tag").getKind().isPerFileRef());
+
+		// the name of the ref and the path are only split when refs are looked up
+		Route route = Route.parse("/perfile/branch/feature/a/src/Main.java");
+		assertEquals(Kind.PERFILE_BRANCH, route.getKind());
+		assertEquals("feature/a/src/Main.java", route.getSubPath());
+		assertEquals("refs/heads/feature/a/src/Main.java", route.getRefName());
+		assertTrue(route.getKind().isPerFileRef());
+		assertFalse(route.getKind().isRef());
+
+		assertEquals(Kind.PERFILE_TAG, Route.parse("/perfile/tag/v1").getKind());
+		assertEquals("refs/remotes/origin/master", Route.parse("/perfile/remote/origin/master").getRefName());
+
+		route = Route.parse("/perfile/commit/" + ID + "/src/Main.java");
+		assertEquals(Kind.PERFILE_COMMIT, route.getKind());
+		assertEquals(ID, route.getObjectId().getName());
+		assertEquals("src/Main.java", route.getSubPath());
+		assertNull(route.getRefName());
+
+		route = Route.parse("/perfile/commit/" + ID);
+		assertEquals(Kind.PERFILE_COMMIT, route.getKind());
+		assertEquals("", route.getSubPath());
+
+		assertEquals(Kind.UNKNOWN, Route.parse("/perfile/").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/perfile/tree").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/perfile/branch/").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/perfile/commit/1234567").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/perfilex").getKind());
+	}
+
+	@Test
+	public void testDiff() {
+		assertEquals(Kind.DIFFS, Route.parse("/diff").getKind());
+		assertNull(Route.parse("/diff").getRefName());
+
+		// the names of the commits and the path are only split when refs are looked up
+		Route route = Route.parse("/diff/master/feature/a/src/Main.java");
+		assertEquals(Kind.DIFF, route.getKind());
+		assertEquals("master/feature/a/src/Main.java", route.getSubPath());
+		assertNull(route.getRefName());
+		assertNull(route.getObjectId());
+
+		assertEquals(Kind.DIFF, Route.parse("/diff/" + ID).getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/diff/").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/diffx").getKind());
+	}
+
+	@Test
+	public void testSearch() {
+		assertEquals(Kind.SEARCHES, Route.parse("/search").getKind());
+		assertNull(Route.parse("/search").getRefName());
+
+		// the name of the commit, the query and the path are only split when refs are looked up
+		Route route = Route.parse("/search/feature/a/new%20Foo%28%29/src/Main.java");
+		assertEquals(Kind.SEARCH, route.getKind());
+		assertEquals("feature/a/new%20Foo%28%29/src/Main.java", route.getSubPath());
+		assertNull(route.getRefName());
+		assertNull(route.getObjectId());
+
+		assertEquals(Kind.SEARCH, Route.parse("/search/" + ID).getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/search/").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/searchx").getKind());
+	}
+
+	@Test
+	public void testLog() {
+		assertEquals(Kind.LOGS, Route.parse("/log").getKind());
+		assertEquals("refs/heads", Route.parse("/log").getRefName());
+
+		// the name of the branch and the number are only split when refs are looked up
+		Route route = Route.parse("/log/feature/a/10");
+		assertEquals(Kind.LOG, route.getKind());
+		assertEquals("feature/a/10", route.getSubPath());
+		assertEquals("refs/heads/feature/a/10", route.getRefName());
+		assertFalse(route.getKind().isRef());
+
+		assertEquals(Kind.UNKNOWN, Route.parse("/log/").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/logs").getKind());
+	}
+
+	@Test
+	public void testAt() {
+		assertEquals(Kind.AT_ROOT, Route.parse("/at").getKind());
+		assertNull(Route.parse("/at").getTimestamp());
+		assertNull(Route.parse("/at").getRefName());
+
+		Route route = Route.parse("/at/2013-09-01T12:00");
+		assertEquals(Kind.AT_TIME, route.getKind());
+		assertEquals("2013-09-01T12:00", route.getTimestamp());
+		assertNull(route.getRefName());
+
+		route = Route.parse("/at/2013-09-01T12:00/branch");
+		assertEquals(Kind.AT_BRANCHES, route.getKind());
+		assertEquals("2013-09-01T12:00", route.getTimestamp());
+		assertEquals("refs/heads", route.getRefName());
+
+		route = Route.parse("/at/@1378036800/remote");
+		assertEquals(Kind.AT_REMOTES, route.getKind());
+		assertEquals("@1378036800", route.getTimestamp());
+		assertEquals("refs/remotes", route.getRefName());
+
+		route = Route.parse("/at/2013-09-01/branch/feature/a");
+		assertEquals(Kind.AT_BRANCH, route.getKind());
+		assertEquals("2013-09-01", route.getTimestamp());
+		assertEquals("refs/heads/feature/a", route.getRefName());
+		assertTrue(route.getKind().isAtRef());
+		assertFalse(route.getKind().isRef());
+
+		route = Route.parse("/at/2013-09-01/remote/origin/master");
+		assertEquals(Kind.AT_REMOTE, route.getKind());
+		assertEquals("refs/remotes/origin/master", route.getRefName());
+		assertTrue(route.getKind().isAtRef());
+
+		// the timestamp is only checked when it is looked up
+		assertEquals(Kind.AT_TIME, Route.parse("/at/yesterday").getKind());
+
+		assertEquals(Kind.UNKNOWN, Route.parse("/at/").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/at//branch").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/at/2013-09-01/").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/at/2013-09-01/tag").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/at/2013-09-01/branch/").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/ats").getKind());
+		assertNull(Route.parse("/branch/master").getTimestamp());
+	}
+
+	@Test
+	public void testContaining() {
+		Route route = Route.parse("/commit/" + ID + "/.containing");
+		assertEquals(Kind.CONTAINING, route.getKind());
+		assertEquals(ID, route.getObjectId().getName());
+		assertNull(route.getRefName());
+
+		route = Route.parse("/commit/" + ID + "/.containing/branch");
+		assertEquals(Kind.CONTAINING_BRANCH, route.getKind());
+		assertEquals(ID, route.getObjectId().getName());
+		assertEquals("refs/heads", route.getRefName());
+
+		route = Route.parse("/commit/" + ID + "/.containing/branch/feature/a");
+		assertEquals(Kind.CONTAINING_BRANCH, route.getKind());
+		assertEquals("feature/a", route.getSubPath());
+		assertEquals("refs/heads/feature/a", route.getRefName());
+		assertTrue(route.getKind().isContainingRef());
+		assertFalse(route.getKind().isRef());
+
+		route = Route.parse("/commit/" + ID + "/.containing/tag/v1.0");
+		assertEquals(Kind.CONTAINING_TAG, route.getKind());
+		assertEquals("refs/tags/v1.0", route.getRefName());
+
+		// only in the root of the commit
+		assertEquals(Kind.COMMIT, Route.parse("/commit/" + ID + "/src/.containing").getKind());
+		assertEquals(Kind.COMMIT, Route.parse("/commit/" + ID + "/.containingx").getKind());
+		assertEquals(Kind.COMMIT, Route.parse("/commit/" + ID + "/.gittree").getKind());
+		assertEquals(Kind.TREE, Route.parse("/tree/" + ID + "/.containing/branch").getKind());
+
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/" + ID + "/.containing/").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/" + ID + "/.containing/remote").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/" + ID + "/.containing/branch/").getKind());
+	}
+
+	@Test
+	public void testCommitInvalid() {
+		// neither a complete id nor a directory of the fan-out
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/00/").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/0g").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/0").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/00/12").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/00/" + ID).getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/12/" + ID.substring(2) + "/src").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/12/" + ID.substring(2).toUpperCase()).getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/12345678901234567890123456789012345678901").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/1234567890123456789012345678901234567890/").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/tree/1234567890123456789012345678901234567890/").getKind());
+
+		// only lowercase hex is accepted
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/1234567890ABCDEF1234567890abcdef12345678").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/1234567890abcdeg1234567890abcdef12345678").getKind());
+		assertEquals(Kind.UNKNOWN, Route.parse("/commit/1234567890abcdef1234567890abcdef1234567z").getKind());
+	}
+}
@@ -0,0 +1,120 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TreeComparisonTest {
+	private Repository repository;
+	private ObjectReaderPool readers;
+	private TreeCache treeCache;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = new FileRepositoryBuilder().setGitDir(new File(".git")).readEnvironment().findGitDir().build();
+		readers = new ObjectReaderPool(repository);
+		treeCache = new TreeCache(readers, 1024 * 1024);
+	}
+
+	@After
+	public void tearDown() {
+		readers.close();
+		repository.close();
+	}
+
+	@Test
+	public void testSameTree() throws IOException {
+		ObjectId tree = getTree(repository.resolve(Constants.HEAD));
+		TreeComparison comparison = TreeComparison.compare(readers, treeCache, tree, tree);
+		assertEquals(0, comparison.size());
+		assertEquals(TreeComparison.Change.DIRECTORY, comparison.get(""));
+		assertTrue(comparison.getChildren("").isEmpty());
+		assertNull(comparison.get("README.md"));
+		assertNull(comparison.getChildren("src"));
+	}
+
+	@Test
+	public void testCompare() throws IOException {
+		// each commit compared with its first parent, and the whole history at once
+		RevWalk walk = new RevWalk(repository);
+		try {
+			walk.markStart(walk.parseCommit(repository.resolve(Constants.HEAD)));
+			RevCommit first = null;
+			for (RevCommit commit : walk) {
+				if (commit.getParentCount() > 0) {
+					check(walk.parseCommit(commit.getParent(0)).getTree(), commit.getTree());
+				}
+				first = commit;
+			}
+			check(first.getTree(), repository.resolve(Constants.HEAD + "^{tree}"));
+		} finally {
+			walk.release();
+		}
+	}
+
+	/**
+	 * Every path which differs is either contained or inside a directory which was added, deleted or replaced.
+	 */
+	private void check(ObjectId oldTree, ObjectId newTree) throws IOException {
+		TreeComparison comparison = TreeComparison.compare(readers, treeCache, oldTree, newTree);
+
+		TreeWalk treeWalk = new TreeWalk(repository);
+		try {
+			treeWalk.addTree(oldTree);
+			treeWalk.addTree(newTree);
+			treeWalk.setFilter(TreeFilter.ANY_DIFF);
+			treeWalk.setRecursive(true);
+			while (treeWalk.next()) {
+				String path = treeWalk.getPathString();
+				String changed = path;
+				while (comparison.get(changed) == TreeComparison.Change.DIRECTORY || comparison.get(changed) == null) {
+					assertTrue(path, changed.contains("/"));
+					changed = changed.substring(0, changed.lastIndexOf('/'));
+				}
+				if (changed.equals(path)) {
+					boolean inOld = treeWalk.getRawMode(0) != 0;
+					boolean inNew = treeWalk.getRawMode(1) != 0;
+					TreeComparison.Change expected = !inOld ? TreeComparison.Change.ADDED :
+							!inNew ? TreeComparison.Change.DELETED : TreeComparison.Change.MODIFIED;
+					assertEquals(path, expected, comparison.get(path));
+				}
+			}
+		} finally {
+			treeWalk.release();
+		}
+
+		// the directories list their changed children in name order
+		List<String> names = new ArrayList<String>(comparison.getChildren(""));
+		for (String name : names) {
+			assertNotNull(name, comparison.get(name));
+		}
+		List<String> sorted = new ArrayList<String>(names);
+		Collections.sort(sorted);
+		assertEquals(sorted, names);
+	}
+
+	private ObjectId getTree(ObjectId commit) throws IOException {
+		RevWalk walk = new RevWalk(repository);
+		try {
+			return walk.parseCommit(commit).getTree();
+		} finally {
+			walk.release();
+		}
+	}
+}
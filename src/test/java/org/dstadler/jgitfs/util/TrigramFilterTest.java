@@ -0,0 +1,87 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class TrigramFilterTest {
+	@Test
+	public void testMightContain() {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			content.append("public void method").append(i).append("() {}\n");
+		}
+
+		TrigramFilter filter = TrigramFilter.create(bytes(content.toString()));
+		assertTrue(filter.mightContain(bytes("method42")));
+		assertTrue(filter.mightContain(bytes("void")));
+		assertTrue(filter.mightContain(bytes("() {}\npublic")));
+
+		// shorter than a trigram
+		assertTrue(filter.mightContain(bytes("xy")));
+		assertTrue(filter.mightContain(bytes("")));
+
+		// about 3% false positives per trigram are expected with 8 bits per trigram
+		int falsePositives = 0;
+		for (int i = 0; i < 1000; i++) {
+			if (filter.mightContain(bytes("zq" + i))) {
+				falsePositives++;
+			}
+		}
+		assertTrue("Had: " + falsePositives, falsePositives < 100);
+		assertFalse(filter.mightContain(bytes("private static final")));
+	}
+
+	@Test
+	public void testEmpty() {
+		TrigramFilter filter = TrigramFilter.create(new byte[0]);
+		assertFalse(filter.mightContain(bytes("abc")));
+		assertTrue(filter.mightContain(bytes("ab")));
+		assertNotNull(filter.getBits());
+	}
+
+	@Test
+	public void testBinary() {
+		assertSame(TrigramFilter.NONE, TrigramFilter.create(new byte[] { 'a', 'b', 0, 'c', 'd' }));
+		assertFalse(TrigramFilter.NONE.mightContain(bytes("ab")));
+		assertFalse(TrigramFilter.NONE.mightContain(bytes("")));
+		assertNull(TrigramFilter.NONE.getBits());
+
+		byte[] large = new byte[TrigramFilter.MAX_SIZE + 1];
+		Arrays.fill(large, (byte) 'a');
+		assertSame(TrigramFilter.NONE, TrigramFilter.create(large));
+	}
+
+	@Test
+	public void testTooManyTrigrams() {
+		// every combination of three letters from a set of 41
+		StringBuilder content = new StringBuilder();
+		for (char a = '0'; a <= 'X'; a++) {
+			for (char b = '0'; b <= 'X'; b++) {
+				for (char c = '0'; c <= 'X'; c++) {
+					content.append(a).append(b).append(c).append(' ');
+				}
+			}
+		}
+		assertSame(TrigramFilter.ALL, TrigramFilter.create(bytes(content.toString())));
+		assertTrue(TrigramFilter.ALL.mightContain(bytes("something")));
+		assertNull(TrigramFilter.ALL.getBits());
+	}
+
+	@Test
+	public void testFromBits() {
+		TrigramFilter filter = TrigramFilter.create(bytes("some content of a file"));
+		TrigramFilter copy = TrigramFilter.fromBits(filter.getBits());
+		assertTrue(copy.mightContain(bytes("content")));
+		assertFalse(copy.mightContain(bytes("something else")));
+		assertTrue(copy.toString(), copy.toString().contains("bytes"));
+	}
+
+	private static byte[] bytes(String str) {
+		return str.getBytes(Charsets.UTF_8);
+	}
+}
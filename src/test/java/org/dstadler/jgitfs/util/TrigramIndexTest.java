@@ -0,0 +1,249 @@
+package org.dstadler.jgitfs.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.primitives.Bytes;
+
+public class TrigramIndexTest {
+	private Repository repository;
+	private ObjectReaderPool readers;
+	private TreeCache treeCache;
+	private File file;
+	private ObjectId head;
+	private RevTree tree;
+
+	@Before
+	public void setUp() throws IOException {
+		repository = new FileRepositoryBuilder().setGitDir(new File(".git")).readEnvironment().findGitDir().build();
+		readers = new ObjectReaderPool(repository);
+		treeCache = new TreeCache(readers, 1024 * 1024);
+		file = File.createTempFile("TrigramIndexTest", ".idx");
+		assertTrue(file.delete());
+		head = repository.resolve(Constants.HEAD);
+		RevWalk walk = new RevWalk(repository);
+		try {
+			tree = walk.parseCommit(head).getTree();
+		} finally {
+			walk.release();
+		}
+	}
+
+	@After
+	public void tearDown() {
+		readers.close();
+		repository.close();
+		assertTrue(!file.exists() || file.delete());
+	}
+
+	@Test
+	public void testUpdate() throws Exception {
+		TrigramIndex index = new TrigramIndex(file, readers, treeCache);
+		try {
+			assertEquals(0, index.size());
+			index.update(Collections.singleton(head)).get();
+			assertTrue(index.size() > 0);
+
+			// every file has a filter which contains its first line
+			TreeWalk treeWalk = new TreeWalk(repository);
+			try {
+				treeWalk.addTree(tree);
+				treeWalk.setRecursive(true);
+				while (treeWalk.next()) {
+					if (treeWalk.getFileMode(0) != FileMode.REGULAR_FILE && treeWalk.getFileMode(0) != FileMode.EXECUTABLE_FILE) {
+						continue;
+					}
+					TrigramFilter filter = index.get(treeWalk.getObjectId(0));
+					assertNotNull(treeWalk.getPathString(), filter);
+
+					byte[] content = read(treeWalk.getObjectId(0));
+					if (content != null) {
+						int end = Bytes.indexOf(content, (byte) '\n');
+						byte[] line = new byte[end == -1 ? content.length : end];
+						System.arraycopy(content, 0, line, 0, line.length);
+						assertTrue(treeWalk.getPathString(), filter.mightContain(line));
+					} else {
+						assertSame(TrigramFilter.NONE, filter);
+					}
+				}
+			} finally {
+				treeWalk.release();
+			}
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testSearch() throws Exception {
+		TrigramIndex index = new TrigramIndex(file, readers, treeCache);
+		try {
+			// searches compute no filters, the tree is indexed in the background
+			SearchResult result = index.search(tree, "JGitHelper");
+			assertSame(SearchResult.NOT_READY, result);
+			assertFalse(result.isReady());
+			assertNull(result.getChildren(""));
+
+			// updates run in order, so the tree is indexed when an empty one is done
+			index.update(Collections.<ObjectId>emptyList()).get();
+			assertTrue(index.size() > 0);
+
+			check(index, "JGitHelper");
+
+			check(index, "import org.eclipse.jgit.lib.ObjectId;");
+			check(index, "@author");
+			check(index, "ab");
+			check(index, "\u00e4");
+
+			result = index.search(tree, "qqq" + "xxxqqq");
+			assertTrue(result.isReady());
+			assertEquals(0, result.size());
+			assertEquals(Collections.<String>emptyList(), result.getChildren(""));
+		} finally {
+			index.close();
+		}
+	}
+
+	/**
+	 * Compare the result of the index with reading every file.
+	 */
+	private void check(TrigramIndex index, String query) throws IOException {
+		List<String> expected = new ArrayList<String>();
+		byte[] bytes = query.getBytes(Charsets.UTF_8);
+		TreeWalk treeWalk = new TreeWalk(repository);
+		try {
+			treeWalk.addTree(tree);
+			treeWalk.setRecursive(true);
+			while (treeWalk.next()) {
+				if (treeWalk.getFileMode(0) != FileMode.REGULAR_FILE && treeWalk.getFileMode(0) != FileMode.EXECUTABLE_FILE) {
+					continue;
+				}
+				byte[] content = read(treeWalk.getObjectId(0));
+				if (content != null && Bytes.indexOf(content, bytes) >= 0) {
+					expected.add(treeWalk.getPathString());
+				}
+			}
+		} finally {
+			treeWalk.release();
+		}
+
+		SearchResult result = index.search(tree, query);
+		assertTrue(result.isReady());
+		List<String> actual = new ArrayList<String>();
+		collect(result, "", actual);
+		Collections.sort(expected);
+		Collections.sort(actual);
+		assertEquals(query, expected, actual);
+		assertEquals(query, expected.size(), result.size());
+	}
+
+	private static void collect(SearchResult result, String dir, List<String> paths) {
+		for (String name : result.getChildren(dir)) {
+			String path = dir.isEmpty() ? name : dir + '/' + name;
+			if (result.isMatch(path)) {
+				assertNull(path, result.getChildren(path));
+				paths.add(path);
+			} else {
+				collect(result, path, paths);
+			}
+		}
+	}
+
+	private ObjectId getReadme() throws IOException {
+		TreeWalk treeWalk = TreeWalk.forPath(repository, "README.md", tree);
+		try {
+			return treeWalk.getObjectId(0);
+		} finally {
+			treeWalk.release();
+		}
+	}
+
+	/**
+	 * @return The content of a text file which is searched, null for binary and large files
+	 */
+	private byte[] read(ObjectId blob) throws IOException {
+		ObjectLoader loader = repository.open(blob, Constants.OBJ_BLOB);
+		if (loader.getSize() > TrigramFilter.MAX_SIZE) {
+			return null;
+		}
+		byte[] content = loader.getCachedBytes();
+		return RawText.isBinary(content) ? null : content;
+	}
+
+	@Test
+	public void testPersisted() throws Exception {
+		ObjectId readme = getReadme();
+		TrigramIndex index = new TrigramIndex(file, readers, treeCache);
+		int size;
+		byte[] bits;
+		try {
+			index.update(Collections.singleton(head)).get();
+			size = index.size();
+			bits = index.get(readme).getBits();
+		} finally {
+			index.close();
+		}
+		assertTrue(file.length() > 4);
+		long length = file.length();
+
+		index = new TrigramIndex(file, readers, treeCache);
+		try {
+			assertEquals(size, index.size());
+
+			// the bits are read from the file
+			assertNotNull(bits);
+			assertArrayEquals(bits, index.get(readme).getBits());
+
+			// nothing is computed again
+			assertTrue(index.search(tree, "JGitHelper").isReady());
+			index.update(Collections.singleton(head)).get();
+			assertEquals(size, index.size());
+			assertEquals(length, file.length());
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void testLocked() throws Exception {
+		TrigramIndex index = new TrigramIndex(file, readers, treeCache);
+		try {
+			assertFalse(index.toString(), index.toString().contains("in memory only"));
+
+			// a second instance for the same file only keeps the filters in memory
+			TrigramIndex second = new TrigramIndex(file, readers, treeCache);
+			try {
+				assertTrue(second.toString(), second.toString().contains("in memory only"));
+				assertFalse(second.search(tree, "JGitHelper").isReady());
+				second.update(Collections.<ObjectId>emptyList()).get();
+				assertTrue(second.search(tree, "JGitHelper").size() > 0);
+				assertTrue(second.size() > 0);
+				assertNotNull(second.get(getReadme()).getBits());
+			} finally {
+				second.close();
+			}
+		} finally {
+			index.close();
+		}
+	}
+}